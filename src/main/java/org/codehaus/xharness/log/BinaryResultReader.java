@@ -0,0 +1,462 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Reads a binary results file, as written by the <code>binary</code> output mode of the
+ * XHarness task. The results are read one after the other, without holding more than
+ * the current result in memory. The output of a result is read line by line:
+ * <pre>
+ *   BinaryResultReader reader = new BinaryResultReader(file);
+ *   try {
+ *       while (reader.next()) {
+ *           ... reader.getFullName() ...
+ *           for (String line = reader.nextLine(); line != null; line = reader.nextLine()) {
+ *               ... reader.getLinePriority() ...
+ *           }
+ *       }
+ *   } finally {
+ *       reader.close();
+ *   }
+ * </pre>
+ * A record that has only partially been written ends the file.
+ * <p>
+ * {@link #export(File, File)} converts a binary results file into the individual
+ * XML result files, that the report task aggregates.
+ */
+public final class BinaryResultReader {
+    /**
+     * The file name suffix of binary results files.
+     */
+    public static final String SUFFIX = ".xhb";
+
+    /**
+     * The magic number at the start of binary results files.
+     */
+    static final int MAGIC = 0x58484231;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File file;
+    private final DataInputStream in;
+    private final List strings = new ArrayList();
+    private final Inflater inflater = new Inflater();
+    private byte[] data = new byte[BUFFER_SIZE];
+    private byte[] stored = new byte[BUFFER_SIZE];
+    private ByteArrayInputStream payload;
+    private long position;
+    private long offset = -1;
+    private int taskType;
+    private int result;
+    private int orderId;
+    private long time;
+    private String parentName;
+    private String name;
+    private String fullName;
+    private String owner;
+    private String reference;
+    private String description;
+    private int retVal;
+    private String command;
+    private int blockLines;
+    private int linePriority;
+    private boolean outputDone;
+
+    /**
+     * Opens a binary results file.
+     *
+     * @param binaryFile The file.
+     * @throws IOException If the file can't be read or isn't a binary results file.
+     */
+    public BinaryResultReader(File binaryFile) throws IOException {
+        file = binaryFile;
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 
+                                                         BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a binary results file: " + file);
+            }
+        } catch (IOException e) {
+            in.close();
+            if (e instanceof EOFException) {
+                throw new IOException("Not a binary results file: " + file);
+            }
+            throw e;
+        }
+        position = 4;
+    }
+
+    /**
+     * Returns true if the name of a file has the suffix of binary results files.
+     *
+     * @param file The file.
+     * @return true for a binary results file.
+     */
+    public static boolean isBinary(File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Reads the next result.
+     *
+     * @return false, if there are no more results.
+     * @throws IOException If the file can't be read or a result is corrupt.
+     */
+    public boolean next() throws IOException {
+        payload = null;
+        offset = -1;
+        long start = position;
+        int length;
+        int flags;
+        int inflatedLength;
+        try {
+            length = readVarInt(in);
+            flags = in.readUnsignedByte();
+            inflatedLength = (flags & BinaryResultWriter.FLAG_DEFLATED) != 0 
+                ? readVarInt(in) : length;
+            if (length < 0 || inflatedLength < 0) {
+                throw new IOException("Corrupt record at " + start + " in " + file);
+            }
+            if (stored.length < length) {
+                stored = new byte[length];
+            }
+            in.readFully(stored, 0, length);
+        } catch (EOFException e) {
+            // end of file, or a record that has only partially been written
+            return false;
+        }
+        position = start + varIntSize(length) + 1 + length;
+        byte[] bytes = stored;
+        if ((flags & BinaryResultWriter.FLAG_DEFLATED) != 0) {
+            position += varIntSize(inflatedLength);
+            if (data.length < inflatedLength) {
+                data = new byte[inflatedLength];
+            }
+            inflater.reset();
+            inflater.setInput(stored, 0, length);
+            try {
+                if (inflater.inflate(data, 0, inflatedLength) != inflatedLength) {
+                    throw new IOException("Corrupt record at " + start + " in " + file);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt record at " + start + " in " + file 
+                                      + ": " + e.getMessage());
+            }
+            bytes = data;
+        }
+        payload = new ByteArrayInputStream(bytes, 0, inflatedLength);
+        offset = start;
+        decode();
+        return true;
+    }
+
+    /**
+     * Returns the offset of the current result in the file.
+     *
+     * @return The offset, or -1 if there is no current result.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the type of the current result's Task, one of the task types
+     * in {@link Result}.
+     *
+     * @return The task type.
+     */
+    public int getTaskType() {
+        return taskType;
+    }
+
+    /**
+     * Returns the result of the current Task, one of the results in {@link Result}.
+     *
+     * @return The result.
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the order id of the current Task.
+     *
+     * @return The order id.
+     */
+    public int getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * Returns the duration of the current Task.
+     *
+     * @return The duration in milliseconds.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the full name of the parent of the current Task.
+     *
+     * @return The parent name, or <code>null</code> for the XHarness suite.
+     */
+    public String getParentName() {
+        return parentName;
+    }
+
+    /**
+     * Returns the name of the current Task.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the full name of the current Task.
+     *
+     * @return The full name.
+     */
+    public String getFullName() {
+        return fullName;
+    }
+
+    /**
+     * Returns the owner of the current testcase.
+     *
+     * @return The owner, or <code>null</code>.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Returns the reference of the current Task.
+     *
+     * @return The reference, or <code>null</code>.
+     */
+    public String getReference() {
+        return reference;
+    }
+
+    /**
+     * Returns the description of the current result.
+     *
+     * @return The description, or <code>null</code>.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the return value of the current process Task.
+     *
+     * @return The return value, 0 for other Tasks.
+     */
+    public int getRetVal() {
+        return retVal;
+    }
+
+    /**
+     * Returns the command of the current process Task.
+     *
+     * @return The command, or <code>null</code>.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Reads the next line of the current Task's output.
+     *
+     * @return The line, or <code>null</code> if all lines have been read.
+     * @throws IOException If the result is corrupt.
+     */
+    public String nextLine() throws IOException {
+        if (payload == null || outputDone) {
+            return null;
+        }
+        if (blockLines == 0) {
+            blockLines = readVarInt(payload);
+            if (blockLines == 0) {
+                outputDone = true;
+                return null;
+            }
+            linePriority = unzigzag(readVarInt(payload));
+        }
+        blockLines--;
+        String line = readString(payload);
+        return line == null ? "" : line;
+    }
+
+    /**
+     * Returns the priority of the line last returned by {@link #nextLine()}.
+     *
+     * @return The priority.
+     */
+    public int getLinePriority() {
+        return linePriority;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    /**
+     * Writes the results of a binary results file to individual XML result files, as
+     * the ResultFormatter would have written them. A counter is appended to the name
+     * of a file that already exists.
+     *
+     * @param binaryFile The binary results file.
+     * @param todir The directory to write the result files to.
+     * @return The number of results written.
+     * @throws IOException If the binary results file can't be read.
+     * @throws BuildException If a result file can't be written.
+     */
+    public static int export(File binaryFile, File todir) throws IOException, BuildException {
+        ResultFormatter formatter = new ResultFormatter(todir);
+        BinaryResultReader reader = new BinaryResultReader(binaryFile);
+        int count = 0;
+        try {
+            while (reader.next()) {
+                formatter.write(new ResultRecord(reader));
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private void decode() throws IOException {
+        taskType = readVarInt(payload);
+        result = readVarInt(payload);
+        orderId = readVarInt(payload);
+        time = readVarLong(payload);
+        parentName = readInterned();
+        name = readInterned();
+        fullName = readInterned();
+        owner = readInterned();
+        reference = readInterned();
+        description = readString(payload);
+        if (taskType == Result.PROCESS_TASK) {
+            retVal = unzigzag(readVarInt(payload));
+            command = readString(payload);
+        } else {
+            retVal = 0;
+            command = null;
+        }
+        blockLines = 0;
+        linePriority = 0;
+        outputDone = false;
+    }
+
+    private String readInterned() throws IOException {
+        int ref = readVarInt(payload);
+        if (ref == 0) {
+            return null;
+        }
+        if (ref <= strings.size()) {
+            return (String)strings.get(ref - 1);
+        }
+        if (ref == strings.size() + 1) {
+            String str = readString(payload);
+            strings.add(str);
+            return str;
+        }
+        throw new IOException("Corrupt record at " + offset + " in " + file);
+    }
+
+    private static String readString(InputStream stream) throws IOException {
+        int length = readVarInt(stream) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        if (stream.read(bytes, 0, length) != length && length > 0) {
+            throw new EOFException();
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int readVarInt(InputStream stream) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = stream.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static long readVarLong(InputStream stream) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = stream.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Writes the results of the {@link ResultFormatter} to a compact binary file,
+ * instead of individual XML files. The file is read with a {@link BinaryResultReader}.
+ * <p>
+ * The file starts with a magic number, followed by one record per result:
+ * <pre>
+ *   varint  length of the stored payload
+ *   byte    flags (FLAG_DEFLATED)
+ *   varint  length of the inflated payload, only if deflated
+ *   byte[]  payload
+ * </pre>
+ * The payload contains the task type and result, the order id and duration as
+ * varints, the names of the task and its parent, the owner and the reference as
+ * interned strings, the description, the return value and command of process
+ * tasks, and the output as blocks of consecutive lines with the same priority:
+ * <pre>
+ *   varint  number of lines in the block, 0 ends the output
+ *   varint  priority (zigzag encoded)
+ *   string  the lines
+ * </pre>
+ * Interned strings are written once per file. A reference to an interned string
+ * is its index + 1 in the order of first use, 0 is <code>null</code>. A reference
+ * that is one higher than the number of strings interned so far is followed by the
+ * new string. Strings are written as varint length + 1 (0 is <code>null</code>),
+ * followed by their UTF-8 bytes.
+ * <p>
+ * Payloads of at least {@link #DEFLATE_THRESHOLD} bytes are deflated, if that makes
+ * them smaller. Every record is flushed to the file when it has been appended, so
+ * a record that has only partially been written when the build is aborted is the
+ * last one, and is ignored by the reader.
+ * <p>
+ * Files are named <code>results-NNNN.xhb</code>, numbered from 1. Numbers of files
+ * that already exist in the results directory are skipped.
+ */
+final class BinaryResultWriter {
+    /**
+     * The flag of a deflated record.
+     */
+    static final int FLAG_DEFLATED = 1;
+    
+    /**
+     * The minimum size of a payload that is deflated.
+     */
+    static final int DEFLATE_THRESHOLD = 512;
+
+    private static final String FILE_PREFIX = "results-";
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Object mutex = new Object();
+    private final File basedir;
+    private final Map strings = new HashMap();
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+    private final Deflater deflater = new Deflater();
+    private byte[] deflated = new byte[BUFFER_SIZE];
+    private File file;
+    private FileOutputStream fileStream;
+    private OutputStream out;
+    private boolean closed;
+
+    /**
+     * Creates a writer. The file is created with the first record.
+     *
+     * @param dir The results directory.
+     */
+    BinaryResultWriter(File dir) {
+        basedir = dir;
+    }
+
+    /**
+     * Appends a result to the file.
+     *
+     * @param record The result.
+     * @throws BuildException If the file can't be written or has been closed.
+     */
+    void append(ResultRecord record) throws BuildException {
+        synchronized (mutex) {
+            if (closed) {
+                throw new BuildException("Binary results file has been closed");
+            }
+            try {
+                if (file == null) {
+                    open();
+                }
+                payload.reset();
+                encode(record);
+                writeRecord();
+                out.flush();
+            } catch (IOException e) {
+                throw new BuildException("Unable to write binary results file " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Syncs the file to disk.
+     *
+     * @throws BuildException If an I/O error occurs.
+     */
+    void sync() throws BuildException {
+        synchronized (mutex) {
+            if (file != null && !closed) {
+                try {
+                    fileStream.getFD().sync();
+                } catch (IOException e) {
+                    throw new BuildException("Unable to sync binary results file " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the file. Further results can't be appended.
+     *
+     * @throws BuildException If an I/O error occurs.
+     */
+    void close() throws BuildException {
+        synchronized (mutex) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            deflater.end();
+            if (file != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    throw new BuildException("Unable to close binary results file " + file, e);
+                }
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        DecimalFormat format = new DecimalFormat("0000");
+        int number = 0;
+        File newFile;
+        do {
+            newFile = new File(basedir, FILE_PREFIX + format.format(++number)
+                                        + BinaryResultReader.SUFFIX);
+        } while (!newFile.createNewFile());
+        file = newFile;
+        fileStream = new FileOutputStream(file);
+        out = new BufferedOutputStream(fileStream, BUFFER_SIZE);
+        int magic = BinaryResultReader.MAGIC;
+        out.write(magic >>> 24);
+        out.write(magic >>> 16);
+        out.write(magic >>> 8);
+        out.write(magic);
+        out.flush();
+    }
+
+    private void encode(ResultRecord record) throws IOException {
+        int taskType = record.getTaskType();
+        writeVarInt(payload, taskType);
+        writeVarInt(payload, record.getResult());
+        writeVarInt(payload, record.getOrderId());
+        writeVarLong(payload, record.getTime());
+        writeInterned(record.getParentName());
+        writeInterned(record.getName());
+        writeInterned(record.getFullName());
+        writeInterned(record.getOwner());
+        writeInterned(record.getReference());
+        writeString(payload, record.getDescription());
+        if (taskType == Result.PROCESS_TASK) {
+            writeVarInt(payload, zigzag(record.getRetVal()));
+            writeString(payload, record.getCommand());
+        }
+        encodeOutput(record.getOutput(), record.getOutput().getLineCount());
+    }
+
+    /**
+     * Writes the first lines of a snapshot as blocks of consecutive lines with
+     * the same priority.
+     */
+    private void encodeOutput(LineBuffer.Snapshot lines, int count) throws IOException {
+        if (count > 0) {
+            Iterator iter = lines.iterator();
+            int priority = 0;
+            int blockLines = 0;
+            for (int i = 0; i < count && iter.hasNext(); i++) {
+                LogLine line = (LogLine)iter.next();
+                if (blockLines > 0 && line.getPriority() != priority) {
+                    writeBlock(priority, blockLines);
+                    blockLines = 0;
+                }
+                priority = line.getPriority();
+                writeString(block, line.getText());
+                blockLines++;
+            }
+            if (blockLines > 0) {
+                writeBlock(priority, blockLines);
+            }
+        }
+        writeVarInt(payload, 0);
+    }
+
+    private void writeBlock(int priority, int lineCount) throws IOException {
+        writeVarInt(payload, lineCount);
+        writeVarInt(payload, zigzag(priority));
+        block.writeTo(payload);
+        block.reset();
+    }
+
+    private void writeRecord() throws IOException {
+        int length = payload.size();
+        byte[] data = payload.toByteArray();
+        int flags = 0;
+        int storedLength = length;
+        if (length >= DEFLATE_THRESHOLD) {
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            if (deflated.length < length) {
+                deflated = new byte[length];
+            }
+            int deflatedLength = 0;
+            while (!deflater.finished() && deflatedLength < length) {
+                deflatedLength += deflater.deflate(deflated, deflatedLength, 
+                                                   length - deflatedLength);
+            }
+            if (deflater.finished() && deflatedLength < length) {
+                flags = FLAG_DEFLATED;
+                storedLength = deflatedLength;
+                data = deflated;
+            }
+        }
+        header.reset();
+        writeVarInt(header, storedLength);
+        header.write(flags);
+        if (flags == FLAG_DEFLATED) {
+            writeVarInt(header, length);
+        }
+        header.writeTo(out);
+        out.write(data, 0, storedLength);
+    }
+
+    private void writeInterned(String str) throws IOException {
+        if (str == null) {
+            writeVarInt(payload, 0);
+            return;
+        }
+        Integer ref = (Integer)strings.get(str);
+        if (ref != null) {
+            writeVarInt(payload, ref.intValue());
+        } else {
+            ref = new Integer(strings.size() + 1);
+            strings.put(str, ref);
+            writeVarInt(payload, ref.intValue());
+            writeString(payload, str);
+        }
+    }
+
+    private static void writeString(OutputStream stream, String str) throws IOException {
+        if (str == null) {
+            writeVarInt(stream, 0);
+        } else {
+            byte[] bytes = str.getBytes("UTF-8");
+            writeVarInt(stream, bytes.length + 1);
+            stream.write(bytes);
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Writes an int as unsigned varint: 7 bits per byte, least significant first,
+     * with the high bit set on all bytes but the last.
+     */
+    static void writeVarInt(OutputStream stream, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            stream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.write(value);
+    }
+
+    /**
+     * Writes a long as unsigned varint.
+     */
+    static void writeVarLong(OutputStream stream, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            stream.write((int)(value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.write((int)value);
+    }
+}
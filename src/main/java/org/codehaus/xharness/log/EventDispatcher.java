@@ -0,0 +1,270 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskAdapter;
+
+/**
+ * The single BuildListener of an XHarness suite, that routes the ant build events
+ * to the {@link TaskLogger}s. Instead of every logger receiving every event and
+ * testing if it belongs to its Task, the dispatcher looks up the loggers of the
+ * event's Task in an identity map, keyed by the Task's
+ * {@link org.apache.tools.ant.RuntimeConfigurable} wrapper, which is shared between
+ * an {@link org.apache.tools.ant.UnknownElement} and the actual Task.
+ * <p>
+ * Task started events are passed to all {@link TestLogger}s, as these create the
+ * loggers for new Tasks. Messages that are not associated with a Task are passed
+ * to the loggers of {@link TaskAdapter} Tasks. In both cases, and for loggers
+ * registered for the same Task, the loggers are notified in the order in which
+ * they have been registered. Loggers that are registered while an event is
+ * dispatched don't receive that event.
+ * <p>
+ * The wrapper of a registered Task is only looked up when the next event is
+ * dispatched, as Tasks may not be fully configured when their logger is created.
+ */
+final class EventDispatcher implements BuildListener {
+    private static final TaskLogger[] NO_LOGGERS = new TaskLogger[0];
+
+    private final Object mutex = new Object();
+    private final Map loggersByTask = new IdentityHashMap();
+    private final Map keysByLogger = new IdentityHashMap();
+    private final List pending = new ArrayList();
+    private TaskLogger[] testLoggers = NO_LOGGERS;
+    private TaskLogger[] adapterLoggers = NO_LOGGERS;
+
+    /**
+     * Registers a logger for the events of a Task. A logger may be registered
+     * for several Tasks.
+     *
+     * @param logger The TaskLogger.
+     * @param task The Task, or <code>null</code> to only register the logger
+     *             for task started events.
+     */
+    void register(TaskLogger logger, Task task) {
+        synchronized (mutex) {
+            List keys = (List)keysByLogger.get(logger);
+            if (keys == null) {
+                keys = new ArrayList();
+                keysByLogger.put(logger, keys);
+                if (logger instanceof TestLogger) {
+                    testLoggers = add(testLoggers, logger);
+                }
+                if (task instanceof TaskAdapter) {
+                    adapterLoggers = add(adapterLoggers, logger);
+                }
+            }
+            if (task != null) {
+                pending.add(new Object[] {logger, task});
+            }
+        }
+    }
+
+    /**
+     * Removes a logger, so that it doesn't receive any further events.
+     *
+     * @param logger The TaskLogger.
+     */
+    void unregister(TaskLogger logger) {
+        synchronized (mutex) {
+            List keys = (List)keysByLogger.remove(logger);
+            if (keys == null) {
+                return;
+            }
+            for (Iterator iter = pending.iterator(); iter.hasNext();) {
+                if (((Object[])iter.next())[0] == logger) {
+                    iter.remove();
+                }
+            }
+            for (Iterator iter = keys.iterator(); iter.hasNext();) {
+                Object key = iter.next();
+                TaskLogger[] loggers = remove((TaskLogger[])loggersByTask.get(key), logger);
+                if (loggers.length == 0) {
+                    loggersByTask.remove(key);
+                } else {
+                    loggersByTask.put(key, loggers);
+                }
+            }
+            testLoggers = remove(testLoggers, logger);
+            adapterLoggers = remove(adapterLoggers, logger);
+        }
+    }
+
+    /**
+     * Returns the number of registered loggers.
+     *
+     * @return The number of loggers.
+     */
+    int size() {
+        synchronized (mutex) {
+            return keysByLogger.size();
+        }
+    }
+
+    // -- BuildListener Implementation
+
+    /**
+     * BuildListener Implementation. Empty.
+     *
+     * @param event The BuildEvent.
+     */
+    public void buildStarted(BuildEvent event) {
+    }
+
+    /**
+     * BuildListener Implementation. Empty.
+     *
+     * @param event The BuildEvent.
+     */
+    public void buildFinished(BuildEvent event) {
+    }
+
+    /**
+     * BuildListener Implementation. Empty.
+     *
+     * @param event The BuildEvent.
+     */
+    public void targetStarted(BuildEvent event) {
+    }
+
+    /**
+     * BuildListener Implementation. Empty.
+     *
+     * @param event The BuildEvent.
+     */
+    public void targetFinished(BuildEvent event) {
+    }
+
+    /**
+     * BuildListener Implementation. Passes the event to all TestLoggers.
+     *
+     * @param event The BuildEvent.
+     */
+    public void taskStarted(BuildEvent event) {
+        TaskLogger[] loggers;
+        synchronized (mutex) {
+            loggers = testLoggers;
+        }
+        for (int i = 0; i < loggers.length; i++) {
+            loggers[i].taskStarted(event);
+        }
+    }
+
+    /**
+     * BuildListener Implementation. Passes the event to the loggers of the
+     * finished Task.
+     *
+     * @param event The BuildEvent.
+     */
+    public void taskFinished(BuildEvent event) {
+        TaskLogger[] loggers = getLoggers(event.getTask());
+        for (int i = 0; i < loggers.length; i++) {
+            loggers[i].taskFinished(event);
+        }
+    }
+
+    /**
+     * BuildListener Implementation. Passes the event to the loggers of the
+     * Task that has logged the message.
+     *
+     * @param event The BuildEvent.
+     */
+    public void messageLogged(BuildEvent event) {
+        if (event.getMessage() != null) {
+            TaskLogger[] loggers = getLoggers(event.getTask());
+            for (int i = 0; i < loggers.length; i++) {
+                loggers[i].messageLogged(event);
+            }
+        }
+    }
+
+    private TaskLogger[] getLoggers(Task task) {
+        Object key = task == null ? null : keyFor(task);
+        synchronized (mutex) {
+            if (!pending.isEmpty()) {
+                addPendingTasks();
+            }
+            if (key == null) {
+                return adapterLoggers;
+            }
+            TaskLogger[] loggers = (TaskLogger[])loggersByTask.get(key);
+            return loggers == null ? NO_LOGGERS : loggers;
+        }
+    }
+
+    /**
+     * Adds the loggers of the Tasks registered since the last event to the map.
+     * Must be called while holding the mutex.
+     */
+    private void addPendingTasks() {
+        for (Iterator iter = pending.iterator(); iter.hasNext();) {
+            Object[] entry = (Object[])iter.next();
+            TaskLogger logger = (TaskLogger)entry[0];
+            Object key = keyFor((Task)entry[1]);
+            TaskLogger[] loggers = (TaskLogger[])loggersByTask.get(key);
+            if (loggers == null) {
+                loggersByTask.put(key, new TaskLogger[] {logger});
+                ((List)keysByLogger.get(logger)).add(key);
+            } else if (indexOf(loggers, logger) < 0) {
+                loggersByTask.put(key, add(loggers, logger));
+                ((List)keysByLogger.get(logger)).add(key);
+            }
+        }
+        pending.clear();
+    }
+
+    private static Object keyFor(Task task) {
+        Object wrapper = task.getRuntimeConfigurableWrapper();
+        return wrapper == null ? task : wrapper;
+    }
+
+    private static int indexOf(TaskLogger[] loggers, TaskLogger logger) {
+        for (int i = 0; i < loggers.length; i++) {
+            if (loggers[i] == logger) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static TaskLogger[] add(TaskLogger[] loggers, TaskLogger logger) {
+        TaskLogger[] ret = new TaskLogger[loggers.length + 1];
+        System.arraycopy(loggers, 0, ret, 0, loggers.length);
+        ret[loggers.length] = logger;
+        return ret;
+    }
+
+    private static TaskLogger[] remove(TaskLogger[] loggers, TaskLogger logger) {
+        int index = indexOf(loggers, logger);
+        if (index < 0) {
+            return loggers;
+        }
+        TaskLogger[] ret = new TaskLogger[loggers.length - 1];
+        System.arraycopy(loggers, 0, ret, 0, index);
+        System.arraycopy(loggers, index + 1, ret, index, ret.length - index);
+        return ret;
+    }
+}
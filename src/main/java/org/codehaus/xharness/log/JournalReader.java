@@ -0,0 +1,298 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads the result records of a results journal segment, as written by the
+ * {@link ResultFormatter} in journal mode.
+ * <p>
+ * A segment starts with a magic number, followed by the records. Each record
+ * consists of its length as int, the name of the result file that the record
+ * replaces, as written by {@link java.io.DataOutput#writeUTF(String)}, and the
+ * UTF-8 encoded XML document of the result. The length covers the name and the
+ * document. A record whose length has not been written yet, or that is truncated,
+ * marks the end of the segment, so the records of a journal that has not been
+ * closed properly can still be read.
+ * <p>
+ * When a segment is closed, an index file with the offset, length and name of
+ * every record is written next to it, which allows to look up single records
+ * without reading the whole segment.
+ */
+public final class JournalReader {
+    /**
+     * The file name suffix of journal segments.
+     */
+    public static final String SEGMENT_SUFFIX = ".xhj";
+
+    /**
+     * The file name suffix of journal indexes.
+     */
+    public static final String INDEX_SUFFIX = ".xhi";
+
+    static final int SEGMENT_MAGIC = 0x58484a31;
+    static final int INDEX_MAGIC = 0x58484931;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File file;
+    private final DataInputStream in;
+    private String name;
+    private byte[] record;
+    private int contentOffset;
+    private long offset;
+    private long nextOffset = 4;
+
+    /**
+     * Opens a journal segment.
+     *
+     * @param segment The segment file.
+     * @throws IOException If the file can't be read or isn't a journal segment.
+     */
+    public JournalReader(File segment) throws IOException {
+        file = segment;
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment),
+                                                         BUFFER_SIZE));
+        try {
+            if (in.readInt() != SEGMENT_MAGIC) {
+                throw new IOException("Not a results journal: " + segment);
+            }
+        } catch (IOException e) {
+            in.close();
+            if (e instanceof EOFException) {
+                throw new IOException("Not a results journal: " + segment);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks if a file is a journal segment, judging by its name.
+     *
+     * @param file The file.
+     * @return true if the file is a journal segment.
+     */
+    public static boolean isSegment(File file) {
+        return file.getName().endsWith(SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns the index file of a journal segment.
+     *
+     * @param segment The segment file.
+     * @return The index file, which may not exist.
+     */
+    public static File getIndexFile(File segment) {
+        String segName = segment.getName();
+        if (segName.endsWith(SEGMENT_SUFFIX)) {
+            segName = segName.substring(0, segName.length() - SEGMENT_SUFFIX.length());
+        }
+        return new File(segment.getParentFile(), segName + INDEX_SUFFIX);
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false, if there are no more complete records in the segment.
+     * @throws IOException If an I/O error occurs.
+     */
+    public boolean next() throws IOException {
+        name = null;
+        record = null;
+        offset = nextOffset;
+        try {
+            int length = in.readInt();
+            if (length <= 0) {
+                return false;
+            }
+            byte[] buf = new byte[length];
+            in.readFully(buf);
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(buf));
+            name = data.readUTF();
+            record = buf;
+            contentOffset = length - data.available();
+            nextOffset = offset + 4 + length;
+            return true;
+        } catch (EOFException e) {
+            name = null;
+            return false;
+        }
+    }
+
+    /**
+     * Returns the name of the result file that the current record replaces,
+     * without the .xml extension.
+     *
+     * @return The name of the current record.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the offset of the current record in the segment, which can be
+     * passed to {@link #read(File, long)}.
+     *
+     * @return The offset of the current record.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the XML document of the current record.
+     *
+     * @return A stream of the UTF-8 encoded document.
+     */
+    public InputStream getContent() {
+        if (record == null) {
+            throw new IllegalStateException("No current record in " + file);
+        }
+        return new ByteArrayInputStream(record, contentOffset, record.length - contentOffset);
+    }
+
+    /**
+     * Closes the segment.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Looks up a single record of a segment, using the segment's index. If the
+     * segment has no index, the segment is searched.
+     *
+     * @param segment The segment file.
+     * @param recordName The name of the record.
+     * @return A stream of the UTF-8 encoded document, or null if the segment
+     *         doesn't contain the record.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static InputStream find(File segment, String recordName) throws IOException {
+        File index = getIndexFile(segment);
+        if (!index.exists()) {
+            JournalReader reader = new JournalReader(segment);
+            try {
+                while (reader.next()) {
+                    if (recordName.equals(reader.getName())) {
+                        return reader.getContent();
+                    }
+                }
+                return null;
+            } finally {
+                reader.close();
+            }
+        }
+        DataInputStream idx = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(index), BUFFER_SIZE));
+        long found = -1;
+        try {
+            if (idx.readInt() != INDEX_MAGIC) {
+                throw new IOException("Not a results journal index: " + index);
+            }
+            int count = idx.readInt();
+            for (int i = 0; i < count && found < 0; i++) {
+                long entryOffset = idx.readLong();
+                idx.readInt();
+                if (recordName.equals(idx.readUTF())) {
+                    found = entryOffset;
+                }
+            }
+        } finally {
+            idx.close();
+        }
+        return found < 0 ? null : read(segment, found);
+    }
+
+    /**
+     * Reads a single record of a segment.
+     *
+     * @param segment The segment file.
+     * @param recordOffset The offset of the record, as returned by
+     *                     {@link #getOffset()} or stored in the index.
+     * @return A stream of the UTF-8 encoded document.
+     * @throws IOException If an I/O error occurs or the offset doesn't point
+     *                     to a complete record.
+     */
+    public static InputStream read(File segment, long recordOffset) throws IOException {
+        RandomAccessFile seg = new RandomAccessFile(segment, "r");
+        try {
+            seg.seek(recordOffset);
+            int length = seg.readInt();
+            if (length <= 0) {
+                throw new IOException("No record at offset " + recordOffset + " of " + segment);
+            }
+            byte[] buf = new byte[length];
+            seg.readFully(buf);
+            int nameLength = 2 + ((buf[0] & 0xff) << 8 | buf[1] & 0xff);
+            return new ByteArrayInputStream(buf, nameLength, length - nameLength);
+        } finally {
+            seg.close();
+        }
+    }
+
+    /**
+     * Writes the records of a journal segment as individual result files, the
+     * layout written by the {@link ResultFormatter} without journal. If a file
+     * with the name of a record already exists, a counter is appended to the name.
+     *
+     * @param segment The segment file.
+     * @param todir The directory to write the files to.
+     * @return The number of files written.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static int convert(File segment, File todir) throws IOException {
+        JournalReader reader = new JournalReader(segment);
+        int count = 0;
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (reader.next()) {
+                File outfile = new File(todir, reader.getName() + ".xml");
+                for (int i = 1; !outfile.createNewFile(); i++) {
+                    outfile = new File(todir, reader.getName() + "_" + i + ".xml");
+                }
+                InputStream content = reader.getContent();
+                OutputStream out = new FileOutputStream(outfile);
+                try {
+                    for (int len = content.read(buf); len > 0; len = content.read(buf)) {
+                        out.write(buf, 0, len);
+                    }
+                } finally {
+                    out.close();
+                }
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+}
@@ -18,25 +18,62 @@
 package org.codehaus.xharness.log;
 
 
-import java.util.Arrays;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
 
 /**
  * A LineBuffer is used to store lines of text, associated with an integer priority level.
+ * The lines are kept in a columnar {@link LineStore}, so no LogLine objects are held
+ * for the buffered lines. LogLine instances are created on demand by the Iterators
+ * and {@link #toArray()}. Access filtered by priority only visits the matching lines,
+ * using the store's per-priority position index.
+ * <p>
+ * To limit the heap used by tasks with very large output, a LineBuffer can spill
+ * its text to segment files on disk once it exceeds a threshold (see 
+ * {@link #enableSpilling(File, long)}). All methods read spilled lines transparently.
+ * <p>
+ * Appending lines is synchronized, but reading is lock-free: readers work on the 
+ * lines that were published when they started and never copy the buffer, so 
+ * polling a buffer that is still being written to only costs as much as the
+ * lines that are actually visited. Iterators keep the segment files of the 
+ * lines they read until they are exhausted or closed with {@link #close(Iterator)}.
+ * <p>
+ * For processes that run for a long time, a retention policy can limit the number 
+ * of lines kept (see {@link #setRetention(int, int)}). Only the first and the last 
+ * lines are retained and the lines in between are replaced by a single gap marker.
+ * The line and character counts of the dropped lines are kept, and all lines are
+ * passed to the registered {@link LineListener}s before they can be dropped.
  *
  * @author Gregor Heine
  */
 public class LineBuffer implements Cloneable {
+    /**
+     * The priority of the marker line that replaces the dropped lines.
+     */
+    public static final int GAP_PRIORITY = LogPriority.INFO;
+    private static final int MIN_RETENTION_SLACK = 1024;
     
-    private List log = new LinkedList();
+    private final Object mutex = new Object();
+    private volatile LineStore store = new LineStore();
+    private LineHashIndex mergeIndex;
     private int defaultPriority;
-    private int minPriority = Integer.MAX_VALUE;
-    private int maxPriority = Integer.MIN_VALUE;
+    private volatile int minPriority = Integer.MAX_VALUE;
+    private volatile int maxPriority = Integer.MIN_VALUE;
+    private File spillDirectory;
+    private long spillThreshold;
+    private final List spillFiles = new ArrayList();
+    private volatile LineListener[] listeners = new LineListener[0];
+    private volatile boolean stripAnsi;
+    private int keepHead;
+    private int keepTail;
+    private volatile List openSpillFiles;
     
     
     /**
@@ -59,9 +96,25 @@ public class LineBuffer implements Cloneable {
         defaultPriority = lineBuffer.getDefaultPriority();
         minPriority = lineBuffer.getMinPriority();
         maxPriority = lineBuffer.getMaxPriority();
-        for (Iterator iter = lineBuffer.iterator(); iter.hasNext();) {
-            LogLine line = (LogLine)iter.next();
-            log.add(line);
+        stripAnsi = lineBuffer.stripAnsi;
+        keepHead = lineBuffer.keepHead;
+        keepTail = lineBuffer.keepTail;
+        LineStore source = lineBuffer.acquire();
+        try {
+            int count = source.size();
+            int gap = source.getGapIndex();
+            if (gap >= 0) {
+                copyLines(source, 0, gap, store);
+                store.addGap(source.getPriority(gap), 
+                             source.getText(gap), 
+                             source.getSequence(gap + 1), 
+                             source.getDroppedCounts());
+                copyLines(source, gap + 1, count, store);
+            } else {
+                copyLines(source, 0, count, store);
+            }
+        } finally {
+            lineBuffer.release(source);
         }
     }
 
@@ -69,11 +122,166 @@ public class LineBuffer implements Cloneable {
      * Clears the internal text buffer.
      */
     public void clear() {
-        synchronized (log) {
-            log.clear();
+        synchronized (mutex) {
+            LineStore lines = store;
+            store = newStore(null);
+            mergeIndex = null;
+            retire(lines);
+        }
+    }
+    
+    /**
+     * Enables spilling of this buffer's text to disk. Once the text held in memory
+     * exceeds the threshold, the oldest lines are moved to append-only segment files 
+     * in the given directory and read back through memory-mapped views when accessed.
+     * 
+     * @param directory The directory for the segment files.
+     * @param threshold The maximum number of characters to keep in memory.
+     */
+    public void enableSpilling(File directory, long threshold) {
+        synchronized (mutex) {
+            spillDirectory = directory;
+            spillThreshold = threshold;
+            store.enableSpilling(newSpillFile(), threshold);
+        }
+    }
+    
+    /**
+     * Enables spilling of this buffer's text to disk and keeps the list of open
+     * SpillFiles up to date: the SpillFiles of this buffer are added to the list 
+     * when they are created and removed when they are deleted. Whoever owns the
+     * list is responsible for deleting the SpillFiles left in it, so that the 
+     * buffer itself doesn't need to be kept for that purpose.
+     * 
+     * @param directory The directory for the segment files.
+     * @param threshold The maximum number of characters to keep in memory.
+     * @param openFiles The list of open SpillFiles, shared by several buffers.
+     */
+    void enableSpilling(File directory, long threshold, List openFiles) {
+        synchronized (mutex) {
+            openSpillFiles = openFiles;
+            enableSpilling(directory, threshold);
         }
     }
     
+    /**
+     * Deletes the segment files of this buffer. Lines that have been spilled to
+     * disk can no longer be read afterwards, so this should only be called once
+     * the buffer's contents are no longer needed.
+     */
+    public void deleteSpillFiles() {
+        synchronized (spillFiles) {
+            for (Iterator iter = spillFiles.iterator(); iter.hasNext();) {
+                SpillFile spillFile = (SpillFile)iter.next();
+                spillFile.delete();
+                unregister(spillFile);
+            }
+            spillFiles.clear();
+        }
+    }
+    
+    /**
+     * Sets the retention policy of this buffer. Once the buffer holds more than the 
+     * given number of head and tail lines, the lines in between are dropped and 
+     * replaced by a marker line with the priority {@link #GAP_PRIORITY}, which states
+     * the number of omitted lines. To avoid copying the retained lines for every 
+     * new line, lines are dropped in batches, so the buffer temporarily holds up 
+     * to half the tail size (but at least 1024) additional lines.
+     * <p>
+     * The counts returned by {@link #getLineCount(int)} and {@link #getCharCount(int)}
+     * include the dropped lines. Listeners registered with 
+     * {@link #addLineListener(LineListener)} receive every line before it is dropped.
+     * 
+     * @param head The number of lines to keep from the start of the output.
+     * @param tail The number of lines to keep from the end of the output.
+     *        If both values are 0, all lines are retained.
+     */
+    public void setRetention(int head, int tail) {
+        synchronized (mutex) {
+            keepHead = Math.max(head, 0);
+            keepTail = Math.max(tail, 0);
+        }
+    }
+    
+    /**
+     * Sets whether ANSI escape codes are removed from lines when they are logged.
+     * If set, only the filtered text is stored. Otherwise the buffer stores the 
+     * text as logged, but still filters it once when it is logged, so that the
+     * filtered text is available without repeatedly scanning the line.
+     * 
+     * @param strip true to store lines without ANSI escape codes.
+     */
+    public void setStripAnsi(boolean strip) {
+        stripAnsi = strip;
+    }
+    
+    /**
+     * Registers a listener that is notified about every line appended to this buffer.
+     * 
+     * @param listener The LineListener.
+     */
+    public void addLineListener(LineListener listener) {
+        synchronized (mutex) {
+            LineListener[] newListeners = new LineListener[listeners.length + 1];
+            System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+            newListeners[listeners.length] = listener;
+            listeners = newListeners;
+        }
+    }
+    
+    /**
+     * Removes a listener that has been registered with {@link #addLineListener(LineListener)}.
+     * 
+     * @param listener The LineListener.
+     */
+    public void removeLineListener(LineListener listener) {
+        synchronized (mutex) {
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i] == listener) {
+                    LineListener[] newListeners = new LineListener[listeners.length - 1];
+                    System.arraycopy(listeners, 0, newListeners, 0, i);
+                    System.arraycopy(listeners, i + 1, newListeners, i, newListeners.length - i);
+                    listeners = newListeners;
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of lines in this buffer. If lines have been dropped
+     * by the retention policy, only the retained lines and the gap marker are
+     * counted.
+     * 
+     * @return The number of lines.
+     */
+    public int getLineCount() {
+        return store.size();
+    }
+    
+    /**
+     * Returns the number of lines that have been logged with the given priority,
+     * including lines that have been dropped by the retention policy.
+     * 
+     * @param priority The priority of the lines.
+     * @return The number of lines.
+     */
+    public long getLineCount(int priority) {
+        return store.getLineCount(priority);
+    }
+    
+    /**
+     * Returns the number of characters in the lines that have been logged with 
+     * the given priority, including lines that have been dropped by the retention 
+     * policy.
+     * 
+     * @param priority The priority of the lines.
+     * @return The number of characters, excluding line breaks.
+     */
+    public long getCharCount(int priority) {
+        return store.getCharCount(priority);
+    }
+    
     /**
      * Returns the default priority of the LineBuffer.
      * 
@@ -105,8 +313,10 @@ public class LineBuffer implements Cloneable {
     public void logLine(int priority, String text) {
         if (text != null) {
             StringTokenizer tok = tokenize(text);
-            while (tok.hasMoreTokens()) {
-                addLine(new LogLine(priority, tok.nextToken()));
+            synchronized (mutex) {
+                while (tok.hasMoreTokens()) {
+                    appendLine(priority, ingest(tok.nextToken()));
+                }
             }
         }
     }
@@ -116,6 +326,9 @@ public class LineBuffer implements Cloneable {
      * only if it isn't already contained in the Buffer with priority prio1.
      * If the String contains line breaks ('\n', '\r' or '\f'), 
      * it is broken down into multiple lines.
+     * The first call creates a hash index over the text and priority of all lines,
+     * which is maintained from then on, so the check whether a line already exists
+     * takes constant time.
      *
      * @param prio1 The priority under which the text may already exist in the buffer.
      * @param prio2 The priority of the logged text if hasn't already been logged.
@@ -124,21 +337,14 @@ public class LineBuffer implements Cloneable {
     public void mergeLine(int prio1, int prio2, String text) {
         if (text != null) {
             StringTokenizer tok = tokenize(text);
-            synchronized (log) {
+            synchronized (mutex) {
+                if (mergeIndex == null) {
+                    mergeIndex = new LineHashIndex(store);
+                }
                 while (tok.hasMoreTokens()) {
-                    String newLine = tok.nextToken();
-                    ListIterator iter = log.listIterator(log.size());
-                    boolean found = false;
-                    while (iter.hasPrevious()) {
-                        LogLine scanLine = (LogLine)iter.previous();
-                        if (scanLine.getPriority() == prio1
-                            && scanLine.getText().equals(newLine)) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (!found) {
-                        addLine(new LogLine(prio2, newLine));
+                    String newLine = ingest(tok.nextToken());
+                    if (!mergeIndex.contains(prio1, newLine)) {
+                        appendLine(prio2, newLine);
                     }
                 }
             }
@@ -151,15 +357,8 @@ public class LineBuffer implements Cloneable {
      * @param logLine The log line.
      */
     public void addLine(LogLine logLine) {
-        synchronized (log) {
-            log.add(logLine);
-            int priority = logLine.getPriority();
-            if (priority < minPriority) {
-                minPriority = priority;
-            }
-            if (priority > maxPriority) {
-                maxPriority = priority;
-            }
+        synchronized (mutex) {
+            appendLine(logLine.getPriority(), ingest(logLine.getText()));
         }
     }
     
@@ -296,24 +495,28 @@ public class LineBuffer implements Cloneable {
         StringBuffer ret = new StringBuffer();
         boolean first = true;
 
-        synchronized (log) {
-            Iterator iter = log.iterator();
-            while (iter.hasNext()) {
-                LogLine line = (LogLine)iter.next();
-                if (line.getPriority() >= minPrio && line.getPriority() <= maxPrio) {
-                    if (!first && lineSeparator != 0) {
-                        ret.append(lineSeparator);
-                    }
-                    first = false;
-                    if (linePrefix == null) {
-                        ret.append(line.getPriority());
-                        ret.append(": ");
-                    } else {
-                        ret.append(linePrefix);
-                    }
-                    ret.append(line.getText(ignoreAnsi));
+        LineStore lines = acquire();
+        try {
+            PositionCursor cursor = newCursor(lines, minPrio, maxPrio);
+            for (int i = cursor.next(); i >= 0; i = cursor.next()) {
+                if (!first && lineSeparator != 0) {
+                    ret.append(lineSeparator);
+                }
+                first = false;
+                if (linePrefix == null) {
+                    ret.append(lines.getPriority(i));
+                    ret.append(": ");
+                } else {
+                    ret.append(linePrefix);
+                }
+                if (ignoreAnsi) {
+                    ret.append(lines.getStrippedText(i));
+                } else {
+                    lines.appendText(i, ret);
                 }
             }
+        } finally {
+            release(lines);
         }
         return ret.toString();
     }
@@ -324,10 +527,15 @@ public class LineBuffer implements Cloneable {
      * @return The contents of this buffer as a LogLine array.
      */
     public LogLine[] toArray() {
-        synchronized (log) {
-            LogLine[] lines = new LogLine[log.size()];
-            log.toArray(lines);
-            return lines;
+        LineStore lines = acquire();
+        try {
+            LogLine[] ret = new LogLine[lines.size()];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = lines.getLine(i);
+            }
+            return ret;
+        } finally {
+            release(lines);
         }
     }
 
@@ -359,18 +567,18 @@ public class LineBuffer implements Cloneable {
      * @return The contents of this buffer as a String array.
      */
     public String[] toStringArray(int minPrio, int maxPrio) {
-        LogLine[] lines = toArray();
-        String[] strings = new String[lines.length];
-        int count = 0;
-        for (int i = 0; i < lines.length; i++) {
-            LogLine line = (LogLine)lines[i];
-            if (line.getPriority() >= minPrio && line.getPriority() <= maxPrio) {
-                strings[count++] = line.getText();
+        LineStore lines = acquire();
+        try {
+            PositionCursor cursor = newCursor(lines, minPrio, maxPrio);
+            String[] strings = new String[cursor.count()];
+            int count = 0;
+            for (int i = cursor.next(); i >= 0; i = cursor.next()) {
+                strings[count++] = lines.getText(i);
             }
+            return strings;
+        } finally {
+            release(lines);
         }
-        String[] ret = new String[count];
-        System.arraycopy(strings, 0, ret, 0, count);
-        return ret;
     }
 
     /**
@@ -393,36 +601,39 @@ public class LineBuffer implements Cloneable {
     
     /**
      * Get an Iterator over {@link org.codehaus.xharness.log.LogLine} instances that 
-     * represent all lines in this buffer. This Iterator operates on a snapshot of data
-     * to avoid ConcurrentModificationException, using a copy-on-write technique. Thus it
-     * does not support remove() operation
+     * represent all lines in this buffer. This Iterator operates on a snapshot of the
+     * lines logged before it was created, to avoid ConcurrentModificationException. 
+     * It does not support remove() operation. An Iterator that isn't exhausted must 
+     * be closed with {@link #close(Iterator)}.
      * 
      * @see org.codehaus.xharness.log.LogLine
      * @return An Iterator over {@link org.codehaus.xharness.log.LogLine} instances. 
      */
     public Iterator iterator() {
-        return new LineIterator(minPriority, maxPriority);
+        return new LineIterator(minPriority, maxPriority, false);
     }
     
     /**
      * Get an Iterator over {@link org.codehaus.xharness.log.LogLine} instances that 
      * represent all lines of the given priority in this buffer. This Iterator operates on
-     * a snapshot of data to avoid ConcurrentModificationException, using a copy-on-write 
-     * technique. Thus it does not support remove() operation
+     * a snapshot of the lines logged before it was created, to avoid 
+     * ConcurrentModificationException. It does not support remove() operation.
+     * An Iterator that isn't exhausted must be closed with {@link #close(Iterator)}.
      * 
      * @see org.codehaus.xharness.log.LogLine
      * @param priority The priority of the lines in the returned Iterator.
      * @return An Iterator over {@link org.codehaus.xharness.log.LogLine} instances. 
      */
     public Iterator iterator(int priority) {
-        return new LineIterator(priority, priority);
+        return new LineIterator(priority, priority, false);
     }
     
     /**
      * Get an Iterator over {@link org.codehaus.xharness.log.LogLine} instances that 
      * represent all lines of the given priority in this buffer. This Iterator operates on
-     * a snapshot of data to avoid ConcurrentModificationException, using a copy-on-write
-     * technique. Thus it does not support remove() operation 
+     * a snapshot of the lines logged before it was created, to avoid 
+     * ConcurrentModificationException. It does not support remove() operation.
+     * An Iterator that isn't exhausted must be closed with {@link #close(Iterator)}.
      * 
      * @see org.codehaus.xharness.log.LogLine
      * @param minPrio The minimum priority of the lines in the returned Iterator.
@@ -430,13 +641,255 @@ public class LineBuffer implements Cloneable {
      * @return An Iterator over {@link org.codehaus.xharness.log.LogLine} instances. 
      */
     public Iterator iterator(int minPrio, int maxPrio) {
-        return new LineIterator(minPrio, maxPrio);
+        return new LineIterator(minPrio, maxPrio, false);
+    }
+    
+    /**
+     * Get an Iterator over {@link org.codehaus.xharness.log.LogLine} instances that
+     * represent all lines of the given priority in this buffer, including the lines
+     * that are logged after the Iterator has been created. Once the Iterator has
+     * returned all available lines, hasNext() returns false until new lines are
+     * logged, so the Iterator can be used to resume reading where it left off.
+     * It does not support remove() operation. The Iterator must be closed with 
+     * {@link #close(Iterator)} once it is no longer used.
+     * 
+     * @see org.codehaus.xharness.log.LogLine
+     * @param minPrio The minimum priority of the lines in the returned Iterator.
+     * @param maxPrio The maximum priority of the lines in the returned Iterator.
+     * @return An Iterator over {@link org.codehaus.xharness.log.LogLine} instances. 
+     */
+    public Iterator followIterator(int minPrio, int maxPrio) {
+        return new LineIterator(minPrio, maxPrio, true);
+    }
+    
+    /**
+     * Closes an Iterator returned by one of the iterator methods of a LineBuffer, 
+     * so that the segment files of the lines it has read can be deleted. The 
+     * Iterator returns no further lines. Closing an Iterator more than once, or 
+     * an Iterator that isn't returned by a LineBuffer, has no effect.
+     * 
+     * @param iter The Iterator, may be <code>null</code>.
+     */
+    public static void close(Iterator iter) {
+        if (iter instanceof LineIterator) {
+            ((LineIterator)iter).close();
+        }
     }
     
     public Object clone() {
         return new LineBuffer(this);
     }
     
+    /**
+     * Takes a snapshot of the lines currently in this buffer, without copying them.
+     * The snapshot must be released once it has been read.
+     * 
+     * @return The Snapshot.
+     */
+    Snapshot snapshot() {
+        return new Snapshot(acquire());
+    }
+    
+    /**
+     * Registers a reader of the current store, so that its spill file isn't 
+     * deleted while it is read, even if the store is replaced in the meantime.
+     * Doesn't take the mutex, so readers never wait for lines being appended.
+     * 
+     * @return The current store.
+     */
+    private LineStore acquire() {
+        while (true) {
+            LineStore lines = store;
+            // a store that has been retired without readers has already been
+            // replaced, so the next attempt gets its successor
+            if (lines.addReader()) {
+                return lines;
+            }
+        }
+    }
+    
+    /**
+     * Removes a reader registered with {@link #acquire()}. The spill file of the 
+     * store is deleted if the store has been replaced and this was the last reader.
+     * 
+     * @param lines The store.
+     */
+    private void release(LineStore lines) {
+        if (lines.removeReader()) {
+            deleteSpillFile(lines);
+        }
+    }
+    
+    /**
+     * Deletes the spill file of a store that has been replaced, unless the store
+     * is still read. Must be called while holding the mutex.
+     * 
+     * @param lines The store.
+     */
+    private void retire(LineStore lines) {
+        if (lines.retire()) {
+            deleteSpillFile(lines);
+        }
+    }
+    
+    /**
+     * Appends a single line to the store and updates the min/max priority. 
+     * The priority range is updated first, so that a reader never sees a line
+     * outside of the range. Must be called while holding the mutex.
+     */
+    private void appendLine(int priority, String text) {
+        if (priority < minPriority) {
+            minPriority = priority;
+        }
+        if (priority > maxPriority) {
+            maxPriority = priority;
+        }
+        store.add(priority, text);
+        if (mergeIndex != null) {
+            mergeIndex.lineAdded();
+        }
+        LineListener[] current = listeners;
+        if (current.length > 0) {
+            LogLine line = new LogLine(priority, text);
+            for (int i = 0; i < current.length; i++) {
+                current[i].lineLogged(this, line);
+            }
+        }
+        if (keepHead > 0 || keepTail > 0) {
+            int slack = Math.max(keepTail / 2, MIN_RETENTION_SLACK);
+            if (store.size() > keepHead + keepTail + 1 + slack) {
+                dropLines();
+            }
+        }
+    }
+    
+    /**
+     * Replaces the store with a copy that only contains the head and tail lines 
+     * and the gap marker. Readers keep working on the previous store, the 
+     * spill file of which is deleted once the last reader has finished.
+     * Must be called while holding the mutex.
+     */
+    private void dropLines() {
+        LineStore lines = store;
+        int gap = lines.getGapIndex();
+        int headEnd = gap < 0 ? keepHead : gap;
+        int dropStart = gap < 0 ? headEnd : headEnd + 1;
+        int tailStart = lines.size() - keepTail;
+        
+        Map dropped = new HashMap();
+        long droppedLines = 0;
+        if (lines.getDroppedCounts() != null) {
+            for (Iterator iter = lines.getDroppedCounts().entrySet().iterator(); 
+                 iter.hasNext();) {
+                Map.Entry entry = (Map.Entry)iter.next();
+                long[] counts = (long[])entry.getValue();
+                dropped.put(entry.getKey(), new long[] {counts[0], counts[1]});
+                droppedLines += counts[0];
+            }
+        }
+        for (int i = dropStart; i < tailStart; i++) {
+            Integer prio = new Integer(lines.getPriority(i));
+            long[] counts = (long[])dropped.get(prio);
+            if (counts == null) {
+                counts = new long[2];
+                dropped.put(prio, counts);
+            }
+            counts[0]++;
+            counts[1] += lines.getLength(i);
+            droppedLines++;
+        }
+        
+        LineStore newLines = newStore(lines);
+        copyLines(lines, 0, headEnd, newLines);
+        newLines.addGap(GAP_PRIORITY, 
+                        "... " + droppedLines + " lines omitted ...", 
+                        lines.getSequence(tailStart),
+                        dropped);
+        copyLines(lines, tailStart, lines.size(), newLines);
+        
+        if (GAP_PRIORITY < minPriority) {
+            minPriority = GAP_PRIORITY;
+        }
+        if (GAP_PRIORITY > maxPriority) {
+            maxPriority = GAP_PRIORITY;
+        }
+        store = newLines;
+        mergeIndex = null;
+        retire(lines);
+    }
+    
+    /**
+     * Deletes the spill file of a store that is no longer read.
+     */
+    private void deleteSpillFile(LineStore lines) {
+        SpillFile spillFile = lines.getSpillFile();
+        if (spillFile != null) {
+            spillFile.delete();
+            synchronized (spillFiles) {
+                spillFiles.remove(spillFile);
+            }
+            unregister(spillFile);
+        }
+    }
+    
+    private void unregister(SpillFile spillFile) {
+        if (openSpillFiles != null) {
+            synchronized (openSpillFiles) {
+                openSpillFiles.remove(spillFile);
+            }
+        }
+    }
+    
+    private String ingest(String text) {
+        return stripAnsi ? LogLine.stripAnsi(text) : text;
+    }
+    
+    private static void copyLines(LineStore from, int start, int end, LineStore to) {
+        for (int i = start; i < end; i++) {
+            to.add(from.getPriority(i), from.getText(i));
+        }
+    }
+    
+    /**
+     * Creates an empty store with this buffer's spill settings. 
+     * Must be called while holding the mutex.
+     */
+    private LineStore newStore(LineStore predecessor) {
+        LineStore newStore = predecessor == null ? new LineStore() : new LineStore(predecessor);
+        if (spillDirectory != null) {
+            newStore.enableSpilling(newSpillFile(), spillThreshold);
+        }
+        return newStore;
+    }
+    
+    private SpillFile newSpillFile() {
+        SpillFile spillFile = new SpillFile(spillDirectory);
+        synchronized (spillFiles) {
+            spillFiles.add(spillFile);
+        }
+        if (openSpillFiles != null) {
+            synchronized (openSpillFiles) {
+                openSpillFiles.add(spillFile);
+            }
+        }
+        return spillFile;
+    }
+    
+    /**
+     * Creates a cursor over the lines of a store in the given priority range. 
+     * The line count is read before the priority range, so that the range 
+     * includes all lines visited by the cursor.
+     */
+    private PositionCursor newCursor(LineStore lines, int minPrio, int maxPrio) {
+        return newCursor(lines, minPrio, maxPrio, 0);
+    }
+    
+    private PositionCursor newCursor(LineStore lines, int minPrio, int maxPrio, int start) {
+        int end = lines.size();
+        boolean fullScan = minPrio <= minPriority && maxPrio >= maxPriority;
+        return new PositionCursor(lines, start, end, minPrio, maxPrio, fullScan);
+    }
+    
     private StringTokenizer tokenize(String text) {
         while (text.startsWith("\n") || text.startsWith("\r") || text.startsWith("\f")) {
             text = text.substring(1);
@@ -447,26 +900,106 @@ public class LineBuffer implements Cloneable {
         return new StringTokenizer(text, "\n\r\f");
     }
     
+    /**
+     * The lines of a LineBuffer at the time the snapshot was taken. The snapshot
+     * refers to the store that held the lines, so lines that are dropped by the
+     * retention policy or cleared afterwards can still be read, and lines logged
+     * afterwards aren't included. The spill file of the store is kept until the
+     * snapshot has been released.
+     */
+    final class Snapshot {
+        private final LineStore lines;
+        private final int count;
+        private boolean released;
+        
+        private Snapshot(LineStore store) {
+            lines = store;
+            count = store.size();
+        }
+        
+        /**
+         * Returns the number of lines in this snapshot.
+         * 
+         * @return The number of lines.
+         */
+        int getLineCount() {
+            return count;
+        }
+        
+        /**
+         * Get an Iterator over {@link LogLine} instances that represent the lines
+         * of this snapshot.
+         * 
+         * @return An Iterator over LogLine instances.
+         */
+        Iterator iterator() {
+            return new Iterator() {
+                private int index;
+                
+                public boolean hasNext() {
+                    return index < count;
+                }
+                
+                public Object next() {
+                    if (index >= count) {
+                        throw new NoSuchElementException();
+                    }
+                    return lines.getLine(index++);
+                }
+                
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        
+        /**
+         * Releases this snapshot. The lines can't be read afterwards. Releasing
+         * a snapshot more than once has no effect.
+         */
+        void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            LineBuffer.this.release(lines);
+        }
+    }
+    
     private class LineIterator implements Iterator {
-        private Iterator iter;
+        private LineStore lines;
+        private PositionCursor cursor;
         private LogLine nextLine;
-        private int minPriority;
-        private int maxPriority;
+        private int minPrio;
+        private int maxPrio;
+        private boolean follow;
         
-        public LineIterator(int minPrio, int maxPrio) {
-            minPriority = minPrio;
-            maxPriority = maxPrio;
-            synchronized (log) {
-                iter = Arrays.asList(log.toArray()).iterator();
-            }
+        public LineIterator(int min, int max, boolean followLines) {
+            // the store is append-only, so the lines up to the current size
+            // are a stable snapshot; clear() replaces the store instead of
+            // modifying it. The store stays registered as read until the
+            // iterator has been exhausted or closed.
+            lines = acquire();
+            minPrio = min;
+            maxPrio = max;
+            follow = followLines;
+            cursor = newCursor(lines, minPrio, maxPrio);
             nextLine = getNext();
         }
         
         public boolean hasNext() {
+            if (nextLine == null && follow) {
+                nextLine = getNext();
+            }
             return nextLine != null;
         }
         
         public Object next() {
+            if (nextLine == null && follow) {
+                nextLine = getNext();
+            }
             LogLine ret = nextLine;
             if (nextLine != null) {
                 nextLine = getNext();
@@ -478,15 +1011,142 @@ public class LineBuffer implements Cloneable {
             throw new UnsupportedOperationException();
         }
         
+        private void close() {
+            follow = false;
+            nextLine = null;
+            if (lines != null) {
+                release(lines);
+                lines = null;
+            }
+        }
+        
         private LogLine getNext() {
-            while (iter.hasNext()) {
-                LogLine line = (LogLine)iter.next();
-                if (line.getPriority() >= minPriority
-                    && line.getPriority() <= maxPriority) {
-                    return line;
+            if (lines == null) {
+                return null;
+            }
+            int index = cursor.next();
+            if (index < 0 && !follow) {
+                if (lines != null) {
+                    release(lines);
+                    lines = null;
+                }
+                return null;
+            }
+            if (index < 0) {
+                if (store != lines) {
+                    // the store has been cleared or lines have been dropped; continue 
+                    // with the first retained line that hasn't been visited yet
+                    LineStore current = acquire();
+                    int start = 0;
+                    if (current.continues(lines)) {
+                        start = current.getIndex(lines.getSequence(cursor.getEnd()));
+                    }
+                    release(lines);
+                    lines = current;
+                    cursor = newCursor(lines, minPrio, maxPrio, start);
+                    index = cursor.next();
+                } else if (lines.size() > cursor.getEnd()) {
+                    cursor = newCursor(lines, minPrio, maxPrio, cursor.getEnd());
+                    index = cursor.next();
                 }
             }
-            return null;
+            return index < 0 ? null : lines.getLine(index);
+        }
+    }
+    
+    /**
+     * Walks the indexes of the lines in a priority range in ascending order. 
+     * Unless all lines of the store are in the range, the cursor merges the 
+     * per-priority position lists of the store instead of scanning every line.
+     * The cursor is limited to the lines between the given start and end index, 
+     * even if the position lists already contain lines that have been added since.
+     */
+    private static final class PositionCursor {
+        private LineStore.PositionList[] lists;
+        private int[] ends;
+        private int[] cursors;
+        private int end;
+        private int index;
+        
+        PositionCursor(LineStore store, int startIndex, int endIndex, 
+                       int minPrio, int maxPrio, boolean fullScan) {
+            index = startIndex;
+            end = endIndex;
+            if (!fullScan) {
+                lists = store.getPositionLists(minPrio, maxPrio);
+                ends = new int[lists.length];
+                cursors = new int[lists.length];
+                int count = 0;
+                for (int i = 0; i < lists.length; i++) {
+                    int listEnd = lists[i].size();
+                    while (listEnd > 0 && lists[i].get(listEnd - 1) >= end) {
+                        listEnd--;
+                    }
+                    ends[i] = listEnd;
+                    if (startIndex > 0) {
+                        cursors[i] = firstPosition(lists[i], listEnd, startIndex);
+                    }
+                    count += listEnd - cursors[i];
+                }
+                if (count == end - startIndex) {
+                    lists = null;
+                }
+            }
+        }
+        
+        int getEnd() {
+            return end;
+        }
+        
+        int count() {
+            if (lists == null) {
+                return end - index;
+            }
+            int count = 0;
+            for (int i = 0; i < ends.length; i++) {
+                count += ends[i] - cursors[i];
+            }
+            return count;
+        }
+        
+        /**
+         * Binary search for the first entry of a position list that is not 
+         * less than the given line index.
+         */
+        private static int firstPosition(LineStore.PositionList list, int listEnd, int pos) {
+            int low = 0;
+            int high = listEnd;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (list.get(mid) < pos) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        int next() {
+            if (lists == null) {
+                return index < end ? index++ : -1;
+            }
+            int best = -1;
+            int bestPos = Integer.MAX_VALUE;
+            for (int i = 0; i < lists.length; i++) {
+                if (cursors[i] < ends[i]) {
+                    int pos = lists[i].get(cursors[i]);
+                    if (pos < bestPos) {
+                        bestPos = pos;
+                        best = i;
+                    }
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+            cursors[best]++;
+            return bestPos;
         }
     }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+/**
+ * Hash index over the text and priority of the lines in a {@link LineStore}.
+ * Used by {@link LineBuffer#mergeLine(int, int, String)} to test in constant time
+ * whether a line has already been logged with a given priority.
+ * <p>
+ * The index is a chained hash table that stores no per-line objects: each bucket
+ * holds the index of the most recent line with that hash code and a per-line
+ * <code>int</code> array links to the previous line in the same bucket. The number
+ * of lines with the same text and priority is the length of the matching chain
+ * entries, so duplicates don't need a separate counter.
+ * <p>
+ * A LineHashIndex is not thread-safe; synchronization is the responsibility of
+ * the owning LineBuffer.
+ */
+final class LineHashIndex {
+    private static final int MIN_BUCKETS = 64;
+
+    private final LineStore store;
+    private int[] buckets;
+    private int[] chain;
+    private int size;
+    private long comparisons;
+
+    /**
+     * Creates a hash index for the given store and indexes all its current lines.
+     *
+     * @param lineStore The store to index.
+     */
+    LineHashIndex(LineStore lineStore) {
+        store = lineStore;
+        int capacity = MIN_BUCKETS;
+        while (capacity < store.size() * 2) {
+            capacity *= 2;
+        }
+        buckets = newBuckets(capacity);
+        chain = new int[Math.max(store.size(), MIN_BUCKETS)];
+        while (size < store.size()) {
+            lineAdded();
+        }
+    }
+
+    /**
+     * Adds the next line of the store to the index. Must be called after each
+     * line that is appended to the store.
+     */
+    void lineAdded() {
+        int index = size;
+        if (index == chain.length) {
+            int[] newChain = new int[chain.length * 2];
+            System.arraycopy(chain, 0, newChain, 0, chain.length);
+            chain = newChain;
+        }
+        if (index >= buckets.length * 3 / 4) {
+            rehash(buckets.length * 2);
+        }
+        int bucket = bucketFor(store.textHash(index), store.getPriority(index));
+        chain[index] = buckets[bucket];
+        buckets[bucket] = index;
+        size++;
+    }
+
+    /**
+     * Tests if the store contains a line with the given priority and text.
+     *
+     * @param priority The priority of the line.
+     * @param text The text of the line.
+     * @return true, if there is a matching line in the store, otherwise false.
+     */
+    boolean contains(int priority, String text) {
+        return find(priority, text) >= 0;
+    }
+
+    /**
+     * Counts the lines in the store with the given priority and text.
+     *
+     * @param priority The priority of the lines.
+     * @param text The text of the lines.
+     * @return The number of matching lines.
+     */
+    int count(int priority, String text) {
+        int count = 0;
+        for (int i = find(priority, text); i >= 0; i = next(i, priority, text)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of lines that have been compared with the text of a
+     * lookup so far.
+     *
+     * @return The number of compared lines.
+     */
+    long getComparisons() {
+        return comparisons;
+    }
+
+    private int find(int priority, String text) {
+        int index = buckets[bucketFor(text.hashCode(), priority)];
+        return matches(index, priority, text) ? index : next(index, priority, text);
+    }
+
+    private int next(int index, int priority, String text) {
+        while (index >= 0) {
+            index = chain[index];
+            if (matches(index, priority, text)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int index, int priority, String text) {
+        if (index < 0) {
+            return false;
+        }
+        comparisons++;
+        return store.getPriority(index) == priority && store.textEquals(index, text);
+    }
+
+    private void rehash(int capacity) {
+        buckets = newBuckets(capacity);
+        for (int i = 0; i < size; i++) {
+            int bucket = bucketFor(store.textHash(i), store.getPriority(i));
+            chain[i] = buckets[bucket];
+            buckets[bucket] = i;
+        }
+    }
+
+    private int bucketFor(int textHash, int priority) {
+        int hash = textHash * 31 + priority;
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return hash & (buckets.length - 1);
+    }
+
+    private static int[] newBuckets(int capacity) {
+        int[] ret = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ret[i] = -1;
+        }
+        return ret;
+    }
+}
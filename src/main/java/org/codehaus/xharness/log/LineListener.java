@@ -0,0 +1,34 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+/**
+ * Listener interface for objects that want to be notified about lines being 
+ * appended to a {@link LineBuffer}.
+ */
+public interface LineListener {
+    /**
+     * Called after a line has been appended to a LineBuffer. The method is called 
+     * in the thread that logged the line, while the buffer's lock is held, so 
+     * implementations must return quickly and must not log to the same buffer.
+     * 
+     * @param buffer The LineBuffer.
+     * @param line The line that has been appended.
+     */
+    void lineLogged(LineBuffer buffer, LogLine line);
+}
@@ -0,0 +1,772 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chunked, array-backed storage for the lines of a {@link LineBuffer}.
+ * Instead of keeping a {@link LogLine} object per line, the line attributes
+ * are stored in columns: a <code>byte</code> priority, the index of the text
+ * block, the offset into that block and the text length. The text itself is
+ * copied into pooled <code>char</code> blocks that are shared by many lines.
+ * Columns are allocated in fixed-size chunks so that appending never copies
+ * more than a single chunk.
+ * <p>
+ * ANSI escape codes are filtered when a line is added. If the filtered text 
+ * differs from the text, it is stored in the text block right after the text 
+ * and its length is kept in a lazily created column, so lines without escape
+ * codes don't use any additional memory.
+ * <p>
+ * For every priority the store also maintains a {@link PositionList} of the
+ * indexes of the lines logged with that priority, so that filtered access
+ * only has to visit the matching lines.
+ * <p>
+ * If spilling is enabled and the text held in memory exceeds the spill threshold,
+ * the oldest full text blocks are moved to a {@link SpillFile} and read back
+ * from memory-mapped segments. The line columns always stay in memory.
+ * <p>
+ * A LineStore is append-only and supports a single writer with any number of 
+ * concurrent readers without locking: all data of a line is written before the
+ * volatile line count is incremented, arrays are only replaced by larger copies 
+ * and existing entries are never modified. A reader that obtains the count from
+ * {@link #size()} can therefore safely read all lines below that count. Writers 
+ * must be synchronized by the owning LineBuffer.
+ * <p>
+ * A store that was created by a LineBuffer with a retention policy may contain a 
+ * single gap marker line, which stands for the lines that have been dropped between
+ * the head and the tail of the output. The store keeps the line and character counts
+ * of the dropped lines per priority, and maps its line indexes to the sequence 
+ * numbers of the lines in the complete output.
+ */
+final class LineStore {
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MIN_CHUNK_SIZE = 8;
+    private static final int MIN_BLOCK_SIZE = 256;
+    private static final int MAX_BLOCK_SIZE = 16384;
+    private static final byte WIDE_PRIORITY = Byte.MIN_VALUE;
+
+    private volatile Chunk[] chunks = new Chunk[4];
+    // elements are either a char[] or a SpilledBlock
+    private volatile Object[] blocks = new Object[4];
+    private volatile int size;
+    private volatile PositionList[] narrowIndex = new PositionList[256];
+    private volatile Map wideIndex;
+    private int[] blockFills = new int[4];
+    private int blockCount;
+    private int currentBlock = -1;
+    private int blockFill;
+    private SpillFile spill;
+    private long spillThreshold;
+    private long memoryChars;
+    private int spillCursor;
+    private int gapIndex = -1;
+    private long tailSequence;
+    private Map droppedCounts;
+    private final Object lineage;
+    private final Object readerLock = new Object();
+    private int readers;
+    private boolean retired;
+
+    /**
+     * Creates an empty store.
+     */
+    LineStore() {
+        lineage = new Object();
+    }
+
+    /**
+     * Creates an empty store that continues the output of another store, 
+     * i.e. that will receive the retained lines of that store.
+     *
+     * @param predecessor The store whose output is continued.
+     */
+    LineStore(LineStore predecessor) {
+        lineage = predecessor.lineage;
+    }
+
+    /**
+     * Enables moving text blocks to disk once the text held in memory exceeds 
+     * the given threshold.
+     *
+     * @param spillFile The SpillFile for the text blocks.
+     * @param threshold The maximum number of characters to keep in memory.
+     */
+    void enableSpilling(SpillFile spillFile, long threshold) {
+        spill = spillFile;
+        spillThreshold = threshold;
+        spillBlocks();
+    }
+
+    /**
+     * Returns the number of characters currently held in memory.
+     *
+     * @return The number of characters in the in-memory text blocks.
+     */
+    long getMemoryChars() {
+        return memoryChars;
+    }
+
+    /**
+     * Returns the number of lines in this store. All lines below the returned
+     * count can be read without synchronization.
+     *
+     * @return The number of lines.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a line to the store.
+     *
+     * @param priority The priority of the line.
+     * @param text The text of the line. Must not contain line breaks.
+     */
+    void add(int priority, String text) {
+        int index = size;
+        int chunkIdx = index >>> CHUNK_BITS;
+        int pos = index & CHUNK_MASK;
+        Chunk[] chunkArray = chunks;
+        if (chunkIdx == chunkArray.length) {
+            Chunk[] newChunks = new Chunk[chunkArray.length * 2];
+            System.arraycopy(chunkArray, 0, newChunks, 0, chunkArray.length);
+            chunkArray = newChunks;
+            chunks = newChunks;
+        }
+        Chunk chunk = chunkArray[chunkIdx];
+        if (chunk == null) {
+            chunk = new Chunk(chunkIdx == 0 ? MIN_CHUNK_SIZE : CHUNK_SIZE);
+            chunkArray[chunkIdx] = chunk;
+        } else if (pos == chunk.priorities.length) {
+            chunk.grow();
+        }
+
+        if (priority > WIDE_PRIORITY && priority <= Byte.MAX_VALUE) {
+            chunk.priorities[pos] = (byte)priority;
+        } else {
+            chunk.priorities[pos] = WIDE_PRIORITY;
+            chunk.setWidePriority(pos, priority);
+        }
+
+        String stripped = LogLine.stripAnsi(text);
+        int len = text.length();
+        int total = len;
+        if (stripped != text) {
+            total += stripped.length();
+            chunk.setStrippedLength(pos, stripped.length());
+        }
+        int block;
+        int offset;
+        if (total > MAX_BLOCK_SIZE) {
+            block = addBlock(total);
+            offset = 0;
+        } else {
+            if (currentBlock < 0 || blockFill + total > ((char[])blocks[currentBlock]).length) {
+                int blockSize = currentBlock < 0
+                                ? MIN_BLOCK_SIZE
+                                : Math.min(((char[])blocks[currentBlock]).length * 2, 
+                                           MAX_BLOCK_SIZE);
+                while (blockSize < total) {
+                    blockSize *= 2;
+                }
+                currentBlock = addBlock(blockSize);
+                blockFill = 0;
+            }
+            block = currentBlock;
+            offset = blockFill;
+            blockFill += total;
+        }
+        text.getChars(0, len, (char[])blocks[block], offset);
+        if (stripped != text) {
+            stripped.getChars(0, stripped.length(), (char[])blocks[block], offset + len);
+        }
+        blockFills[block] = offset + total;
+        chunk.blocks[pos] = block;
+        chunk.offsets[pos] = offset;
+        chunk.lengths[pos] = len;
+        getPositionList(priority).add(index, len);
+        // publishes the line to readers
+        size = index + 1;
+        if (spill != null && memoryChars > spillThreshold) {
+            spillBlocks();
+        }
+    }
+
+    /**
+     * Appends the gap marker line for the lines that have been dropped from the
+     * output. Must be called at most once and before the store is published to 
+     * readers.
+     *
+     * @param priority The priority of the marker line.
+     * @param text The text of the marker line.
+     * @param nextSequence The sequence number of the line that follows the gap.
+     * @param dropped The counts of the dropped lines, mapping Integer priorities
+     *        to <code>long[] {lines, characters}</code>.
+     */
+    void addGap(int priority, String text, long nextSequence, Map dropped) {
+        gapIndex = size;
+        tailSequence = nextSequence;
+        droppedCounts = dropped;
+        add(priority, text);
+    }
+
+    /**
+     * Tests if this store continues the output of another store, so that
+     * the sequence numbers of both stores refer to the same lines.
+     *
+     * @param other The other store.
+     * @return true, if both stores hold lines of the same output, otherwise false.
+     */
+    boolean continues(LineStore other) {
+        return lineage == other.lineage;
+    }
+
+    /**
+     * Returns the index of the gap marker line.
+     *
+     * @return The index of the gap marker, or -1 if no lines have been dropped.
+     */
+    int getGapIndex() {
+        return gapIndex;
+    }
+
+    /**
+     * Returns the counts of the dropped lines.
+     *
+     * @return A Map of Integer priorities to <code>long[] {lines, characters}</code>,
+     *         or null if no lines have been dropped.
+     */
+    Map getDroppedCounts() {
+        return droppedCounts;
+    }
+
+    /**
+     * Returns the sequence number of a line in the complete output, including 
+     * the dropped lines. The gap marker has the sequence number of the first 
+     * dropped line.
+     *
+     * @param index The line index. May be equal to the size of the store.
+     * @return The sequence number of the line.
+     */
+    long getSequence(int index) {
+        if (gapIndex < 0 || index <= gapIndex) {
+            return index;
+        }
+        return tailSequence + index - gapIndex - 1;
+    }
+
+    /**
+     * Returns the index of the first line in this store whose sequence number 
+     * is at least the given sequence number.
+     *
+     * @param sequence The sequence number.
+     * @return The line index.
+     */
+    int getIndex(long sequence) {
+        if (gapIndex < 0 || sequence < gapIndex) {
+            return (int)Math.min(sequence, size);
+        } else if (sequence < tailSequence) {
+            return gapIndex + 1;
+        }
+        return (int)Math.min(gapIndex + 1 + sequence - tailSequence, size);
+    }
+
+    /**
+     * Returns the number of lines with the given priority, including the dropped 
+     * lines but not the gap marker.
+     *
+     * @param priority The priority.
+     * @return The number of lines.
+     */
+    long getLineCount(int priority) {
+        return getCount(priority, 0);
+    }
+
+    /**
+     * Returns the number of characters in the lines with the given priority,
+     * including the dropped lines but not the gap marker.
+     *
+     * @param priority The priority.
+     * @return The number of characters.
+     */
+    long getCharCount(int priority) {
+        return getCount(priority, 1);
+    }
+
+    /**
+     * Registers a reader that needs the lines of this store, including the spilled
+     * ones, until it is removed. The reader count has its own lock, so readers
+     * never wait for the writer.
+     *
+     * @return true, if the reader has been registered, false if the store has 
+     *         been retired and its last reader has already been removed.
+     */
+    boolean addReader() {
+        synchronized (readerLock) {
+            if (retired && readers == 0) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+    }
+
+    /**
+     * Removes a reader registered with {@link #addReader()}.
+     *
+     * @return true, if the store has been retired and has no readers left.
+     */
+    boolean removeReader() {
+        synchronized (readerLock) {
+            return --readers == 0 && retired;
+        }
+    }
+
+    /**
+     * Marks this store as no longer used by the owning LineBuffer.
+     *
+     * @return true, if the store has no readers left.
+     */
+    boolean retire() {
+        synchronized (readerLock) {
+            retired = true;
+            return readers == 0;
+        }
+    }
+
+    /**
+     * Returns the SpillFile of this store.
+     *
+     * @return The SpillFile, or null if spilling isn't enabled.
+     */
+    SpillFile getSpillFile() {
+        return spill;
+    }
+
+    /**
+     * Returns the priority of a line.
+     *
+     * @param index The line index.
+     * @return The priority of the line.
+     */
+    int getPriority(int index) {
+        Chunk chunk = chunks[index >>> CHUNK_BITS];
+        byte prio = chunk.priorities[index & CHUNK_MASK];
+        if (prio == WIDE_PRIORITY) {
+            return chunk.wide[index & CHUNK_MASK];
+        }
+        return prio;
+    }
+
+    /**
+     * Returns the text of a line.
+     *
+     * @param index The line index.
+     * @return The text of the line.
+     */
+    String getText(int index) {
+        Chunk chunk = chunks[index >>> CHUNK_BITS];
+        int pos = index & CHUNK_MASK;
+        int blockIdx = chunk.blocks[pos];
+        Object block = blocks[blockIdx];
+        if (block instanceof SpilledBlock) {
+            return spilledText((SpilledBlock)block, chunk, pos).toString();
+        }
+        return new String((char[])block, chunk.offsets[pos], chunk.lengths[pos]);
+    }
+
+    /**
+     * Returns the text of a line without ANSI escape codes.
+     *
+     * @param index The line index.
+     * @return The filtered text of the line.
+     */
+    String getStrippedText(int index) {
+        Chunk chunk = chunks[index >>> CHUNK_BITS];
+        int pos = index & CHUNK_MASK;
+        int[] strippedLengths = chunk.stripped;
+        if (strippedLengths == null || strippedLengths[pos] == 0) {
+            return getText(index);
+        }
+        int start = chunk.offsets[pos] + chunk.lengths[pos];
+        int len = strippedLengths[pos] - 1;
+        Object block = blocks[chunk.blocks[pos]];
+        if (block instanceof SpilledBlock) {
+            SpilledBlock spilled = (SpilledBlock)block;
+            return spilled.file.view(spilled.position + start, len).toString();
+        }
+        return new String((char[])block, start, len);
+    }
+
+    /**
+     * Returns the length of the text of a line.
+     *
+     * @param index The line index.
+     * @return The number of characters in the line.
+     */
+    int getLength(int index) {
+        return chunks[index >>> CHUNK_BITS].lengths[index & CHUNK_MASK];
+    }
+
+    /**
+     * Appends the text of a line to a StringBuffer without creating an
+     * intermediate String.
+     *
+     * @param index The line index.
+     * @param buf The StringBuffer.
+     */
+    void appendText(int index, StringBuffer buf) {
+        Chunk chunk = chunks[index >>> CHUNK_BITS];
+        int pos = index & CHUNK_MASK;
+        Object block = blocks[chunk.blocks[pos]];
+        if (block instanceof SpilledBlock) {
+            buf.append(spilledText((SpilledBlock)block, chunk, pos).toString());
+        } else {
+            buf.append((char[])block, chunk.offsets[pos], chunk.lengths[pos]);
+        }
+    }
+
+    /**
+     * Tests if the text of a line is equal to the specified String.
+     *
+     * @param index The line index.
+     * @param text The String to compare to.
+     * @return true if the line's text equals the String, otherwise false.
+     */
+    boolean textEquals(int index, String text) {
+        Chunk chunk = chunks[index >>> CHUNK_BITS];
+        int pos = index & CHUNK_MASK;
+        int len = chunk.lengths[pos];
+        if (len != text.length()) {
+            return false;
+        }
+        Object block = blocks[chunk.blocks[pos]];
+        if (block instanceof SpilledBlock) {
+            CharBuffer spilled = spilledText((SpilledBlock)block, chunk, pos);
+            for (int i = 0; i < len; i++) {
+                if (spilled.get(i) != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        char[] chars = (char[])block;
+        int offset = chunk.offsets[pos];
+        for (int i = 0; i < len; i++) {
+            if (chars[offset + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the hash code of the text of a line. The value is the same as
+     * the hash code of the String returned by {@link #getText(int)}.
+     *
+     * @param index The line index.
+     * @return The hash code of the line's text.
+     */
+    int textHash(int index) {
+        Chunk chunk = chunks[index >>> CHUNK_BITS];
+        int pos = index & CHUNK_MASK;
+        Object block = blocks[chunk.blocks[pos]];
+        int hash = 0;
+        if (block instanceof SpilledBlock) {
+            CharBuffer spilled = spilledText((SpilledBlock)block, chunk, pos);
+            int len = spilled.remaining();
+            for (int i = 0; i < len; i++) {
+                hash = 31 * hash + spilled.get(i);
+            }
+            return hash;
+        }
+        char[] chars = (char[])block;
+        int offset = chunk.offsets[pos];
+        int end = offset + chunk.lengths[pos];
+        for (int i = offset; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Creates a LogLine for a line in this store.
+     *
+     * @param index The line index.
+     * @return A new LogLine instance.
+     */
+    LogLine getLine(int index) {
+        String text = getText(index);
+        Chunk chunk = chunks[index >>> CHUNK_BITS];
+        int[] strippedLengths = chunk.stripped;
+        if (strippedLengths == null || strippedLengths[index & CHUNK_MASK] == 0) {
+            return new LogLine(getPriority(index), text, text);
+        }
+        return new LogLine(getPriority(index), text, getStrippedText(index));
+    }
+
+    /**
+     * Returns the position lists of all priorities in the range between the 
+     * given minimum and maximum priority that have at least one line. 
+     * The lists may contain positions of lines that have been added after
+     * the caller obtained the line count.
+     *
+     * @param minPrio The minimum priority.
+     * @param maxPrio The maximum priority.
+     * @return The position lists in no particular order.
+     */
+    PositionList[] getPositionLists(int minPrio, int maxPrio) {
+        List lists = new ArrayList();
+        PositionList[] narrow = narrowIndex;
+        int from = Math.max(minPrio, Byte.MIN_VALUE + 1);
+        int to = Math.min(maxPrio, Byte.MAX_VALUE);
+        for (int prio = from; prio <= to; prio++) {
+            PositionList list = narrow[prio - Byte.MIN_VALUE];
+            if (list != null) {
+                lists.add(list);
+            }
+        }
+        Map wide = wideIndex;
+        if (wide != null) {
+            for (Iterator iter = wide.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry entry = (Map.Entry)iter.next();
+                int prio = ((Integer)entry.getKey()).intValue();
+                if (prio >= minPrio && prio <= maxPrio) {
+                    lists.add(entry.getValue());
+                }
+            }
+        }
+        return (PositionList[])lists.toArray(new PositionList[lists.size()]);
+    }
+
+    private long getCount(int priority, int column) {
+        long count = 0;
+        PositionList[] lists = getPositionLists(priority, priority);
+        if (lists.length > 0) {
+            count = column == 0 ? lists[0].size() : lists[0].chars;
+        }
+        Map dropped = droppedCounts;
+        if (dropped != null) {
+            long[] counts = (long[])dropped.get(new Integer(priority));
+            if (counts != null) {
+                count += counts[column];
+            }
+            if (getPriority(gapIndex) == priority) {
+                count -= column == 0 ? 1 : getLength(gapIndex);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the position list for a priority, creating it if necessary.
+     * The index arrays are replaced by updated copies, so that readers never 
+     * see a partially updated index.
+     */
+    private PositionList getPositionList(int priority) {
+        PositionList list;
+        if (priority > WIDE_PRIORITY && priority <= Byte.MAX_VALUE) {
+            list = narrowIndex[priority - Byte.MIN_VALUE];
+            if (list == null) {
+                list = new PositionList();
+                PositionList[] newIndex = new PositionList[narrowIndex.length];
+                System.arraycopy(narrowIndex, 0, newIndex, 0, newIndex.length);
+                newIndex[priority - Byte.MIN_VALUE] = list;
+                narrowIndex = newIndex;
+            }
+        } else {
+            Integer key = new Integer(priority);
+            list = wideIndex == null ? null : (PositionList)wideIndex.get(key);
+            if (list == null) {
+                list = new PositionList();
+                Map newIndex = wideIndex == null ? new HashMap() : new HashMap(wideIndex);
+                newIndex.put(key, list);
+                wideIndex = newIndex;
+            }
+        }
+        return list;
+    }
+
+    private int addBlock(int blockSize) {
+        if (blockCount == blocks.length) {
+            Object[] newBlocks = new Object[blocks.length * 2];
+            System.arraycopy(blocks, 0, newBlocks, 0, blocks.length);
+            int[] newFills = new int[newBlocks.length];
+            System.arraycopy(blockFills, 0, newFills, 0, blockCount);
+            blockFills = newFills;
+            blocks = newBlocks;
+        }
+        blocks[blockCount] = new char[blockSize];
+        memoryChars += blockSize;
+        return blockCount++;
+    }
+
+    /**
+     * Moves the oldest text blocks, except the one that is currently being filled,
+     * to the SpillFile until the text in memory is below the spill threshold.
+     * If a block can't be written, spilling is disabled and the text stays in memory.
+     * Readers see either the in-memory block or its replacement, which both
+     * contain the same text.
+     */
+    private void spillBlocks() {
+        Object[] blockArray = blocks;
+        for (int i = spillCursor; i < blockCount && memoryChars > spillThreshold; i++) {
+            if (i != currentBlock && blockArray[i] instanceof char[]) {
+                char[] chars = (char[])blockArray[i];
+                try {
+                    blockArray[i] = new SpilledBlock(spill, spill.append(chars, blockFills[i]));
+                } catch (IOException ioe) {
+                    spillThreshold = Long.MAX_VALUE;
+                    return;
+                }
+                memoryChars -= chars.length;
+            }
+            if (blockArray[i] instanceof SpilledBlock && i == spillCursor) {
+                spillCursor++;
+            }
+        }
+    }
+
+    /**
+     * Returns a view of the text of a line from a spilled block.
+     */
+    private static CharBuffer spilledText(SpilledBlock block, Chunk chunk, int pos) {
+        return block.file.view(block.position + chunk.offsets[pos], chunk.lengths[pos]);
+    }
+
+    /**
+     * Ascending list of the indexes of all lines with the same priority.
+     */
+    static final class PositionList {
+        private volatile int[] positions = new int[MIN_CHUNK_SIZE];
+        private volatile int count;
+        private volatile long chars;
+
+        /**
+         * Returns the number of positions in this list.
+         *
+         * @return The number of positions.
+         */
+        int size() {
+            return count;
+        }
+
+        /**
+         * Returns a line index from this list.
+         *
+         * @param i The index into this list. Must be less than the size read before.
+         * @return The line index.
+         */
+        int get(int i) {
+            return positions[i];
+        }
+
+        private void add(int position, int length) {
+            int[] array = positions;
+            if (count == array.length) {
+                int[] newPositions = new int[array.length * 2];
+                System.arraycopy(array, 0, newPositions, 0, count);
+                array = newPositions;
+                positions = newPositions;
+            }
+            array[count] = position;
+            chars += length;
+            count++;
+        }
+    }
+
+    /**
+     * The column arrays for up to CHUNK_SIZE lines. Priorities that don't fit 
+     * into a byte are kept in the lazily created wide array. The lazily created 
+     * stripped array holds the length of the filtered text plus one for lines 
+     * that contain ANSI escape codes, and 0 for all other lines.
+     */
+    private static final class Chunk {
+        private volatile byte[] priorities;
+        private volatile int[] blocks;
+        private volatile int[] offsets;
+        private volatile int[] lengths;
+        private volatile int[] wide;
+        private volatile int[] stripped;
+
+        Chunk(int capacity) {
+            priorities = new byte[capacity];
+            blocks = new int[capacity];
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+        }
+
+        void setWidePriority(int pos, int priority) {
+            if (wide == null) {
+                wide = new int[priorities.length];
+            }
+            wide[pos] = priority;
+        }
+
+        void setStrippedLength(int pos, int length) {
+            if (stripped == null) {
+                stripped = new int[priorities.length];
+            }
+            stripped[pos] = length + 1;
+        }
+
+        void grow() {
+            int capacity = Math.min(priorities.length * 2, CHUNK_SIZE);
+            byte[] newPriorities = new byte[capacity];
+            System.arraycopy(priorities, 0, newPriorities, 0, priorities.length);
+            priorities = newPriorities;
+            blocks = copyOf(blocks, capacity);
+            offsets = copyOf(offsets, capacity);
+            lengths = copyOf(lengths, capacity);
+            if (wide != null) {
+                wide = copyOf(wide, capacity);
+            }
+            if (stripped != null) {
+                stripped = copyOf(stripped, capacity);
+            }
+        }
+
+        private static int[] copyOf(int[] array, int capacity) {
+            int[] ret = new int[capacity];
+            System.arraycopy(array, 0, ret, 0, array.length);
+            return ret;
+        }
+    }
+
+    /**
+     * Replaces a text block that has been moved to a SpillFile.
+     */
+    private static final class SpilledBlock {
+        private final SpillFile file;
+        private final long position;
+
+        SpilledBlock(SpillFile spillFile, long pos) {
+            file = spillFile;
+            position = pos;
+        }
+    }
+}
@@ -17,21 +17,22 @@
 
 package org.codehaus.xharness.log;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * A LogLine is an entry in a LineBuffer. It consists of a line of text (String)
  * and an associated log level/priority. An ANSI code filter is provided to 
  * allow for reading of text without ANSI control characters.
+ * The filtered text is computed only once per line: lines created from a 
+ * {@link LineBuffer} carry the filtered text that was computed when the line
+ * was logged, for other lines it is computed on first access.
  * 
  * @author Gregor Heine
  */
 public class LogLine {
-    private static final Pattern NOANSI_PATTERN = Pattern.compile("\\e\\[\\d+;?\\d*m");
+    private static final char ESCAPE = '\u001b';
     
     private final String textLine;
     private final int priority;
+    private String strippedLine;
     
     /**
      * Constructs a LogLine with the given priority and text.
@@ -44,6 +45,20 @@ public class LogLine {
         this.textLine = text;
     }
     
+    /**
+     * Constructs a LogLine with the given priority and text, and the text
+     * without ANSI escape codes.
+     * 
+     * @param prio The priority of the log line.
+     * @param text The text string of the log line.
+     * @param stripped The text string without ANSI escape codes.
+     */
+    protected LogLine(int prio, String text, String stripped) {
+        this.priority = prio;
+        this.textLine = text;
+        this.strippedLine = stripped;
+    }
+    
     /**
      * Returns the text of the log line.
      * 
@@ -62,14 +77,89 @@ public class LogLine {
      * @return The text String with or without ANSI codes.
      */
     public String getText(boolean ignoreANSI) {
-        String txt = getText();
-        if (ignoreANSI) {
-            Matcher matcher = NOANSI_PATTERN.matcher(txt);
-            txt = matcher.replaceAll(""); //Stripped line.
+        if (!ignoreANSI) {
+            return textLine;
+        }
+        String txt = strippedLine;
+        if (txt == null) {
+            txt = stripAnsi(textLine);
+            strippedLine = txt;
         }
         return txt; 
     }
     
+    /**
+     * Removes the ANSI color and text attribute escape codes (ESC [ n ; n m) 
+     * from a String. Strings that don't contain an escape character are 
+     * returned without being scanned any further.
+     * 
+     * @param text The text to filter.
+     * @return The text without escape codes, or the same String instance 
+     *         if it doesn't contain any escape codes.
+     */
+    public static String stripAnsi(String text) {
+        int esc = text.indexOf(ESCAPE);
+        if (esc < 0) {
+            return text;
+        }
+        int len = text.length();
+        StringBuffer buf = null;
+        int copied = 0;
+        while (esc >= 0) {
+            int end = escapeEnd(text, esc, len);
+            if (end > 0) {
+                if (buf == null) {
+                    buf = new StringBuffer(len);
+                }
+                buf.append(text.substring(copied, esc));
+                copied = end;
+                esc = text.indexOf(ESCAPE, end);
+            } else {
+                esc = text.indexOf(ESCAPE, esc + 1);
+            }
+        }
+        if (buf == null) {
+            return text;
+        }
+        buf.append(text.substring(copied));
+        return buf.toString();
+    }
+    
+    /**
+     * Matches an escape code of the form ESC [ digits [;] [digits] m at the 
+     * given position.
+     * 
+     * @return The index after the escape code, or -1 if there is no match.
+     */
+    private static int escapeEnd(String text, int start, int len) {
+        int i = start + 1;
+        if (i >= len || text.charAt(i) != '[') {
+            return -1;
+        }
+        i++;
+        int digits = i;
+        while (i < len && isDigit(text.charAt(i))) {
+            i++;
+        }
+        if (i == digits) {
+            return -1;
+        }
+        if (i < len && text.charAt(i) == ';') {
+            i++;
+        }
+        while (i < len && isDigit(text.charAt(i))) {
+            i++;
+        }
+        if (i < len && text.charAt(i) == 'm') {
+            return i + 1;
+        }
+        return -1;
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
     /**
      * Returns the priority (log level) of the log line.
      * 
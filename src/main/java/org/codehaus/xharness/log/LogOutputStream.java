@@ -18,17 +18,35 @@
 package org.codehaus.xharness.log;
 
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 
 /**
  * OutputStream that stores its data in a LineBuffer.
+ * The data is decoded with a configurable charset into reusable buffers and
+ * split into lines at '\n' and '\r' characters. Bytes of a multi-byte character 
+ * that has been split across writes are kept until the character is complete.
  */
 public class LogOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_IDLE_LINE_SIZE = 65536;
+    
     private LineBuffer buffer;
     private int priority;
-    private ByteArrayOutputStream cache = new ByteArrayOutputStream();
+    private CharsetDecoder decoder;
+    private ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private char[] line = new char[256];
+    private int lineLength;
+    private byte[] single = new byte[1];
     private boolean skip = false;
 
     /**
@@ -38,6 +56,7 @@ public class LogOutputStream extends OutputStream {
     public LogOutputStream() {
         buffer = new LineBuffer();
         priority = buffer.getDefaultPriority();
+        decoder = newDecoder(null);
     }
 
     /**
@@ -47,8 +66,23 @@ public class LogOutputStream extends OutputStream {
      * @param prio The priority to use when logging data in the buffer.
      */
     public LogOutputStream(LineBuffer buf, int prio) {
+        this(buf, prio, null);
+    }
+
+    /**
+     * Constructor that uses the supplied LineLogger for storage and decodes
+     * the data with the given encoding.
+     * 
+     * @param buf The buffer to store data written to the LogOutputStream.
+     * @param prio The priority to use when logging data in the buffer.
+     * @param encoding The name of the charset of the data, or <code>null</code>
+     *                 for the platform's default charset.
+     * @throws IllegalArgumentException If the encoding is not supported.
+     */
+    public LogOutputStream(LineBuffer buf, int prio, String encoding) {
         buffer = buf;
         priority = prio;
+        decoder = newDecoder(encoding);
     }
 
     /**
@@ -57,31 +91,45 @@ public class LogOutputStream extends OutputStream {
      * @param val The byte.
      */
     public synchronized void write(int val) {
-        final byte b = (byte)val;
+        single[0] = (byte)val;
+        write(single, 0, 1);
+    }
 
-        if (b == '\n' || b == '\r') {
-            if (!skip) {
-                copyBuffer();
-            }
-        } else {
-            cache.write(val);
+    /**
+     * Writes len bytes from the specified byte array starting at offset off 
+     * to this OutputStream.
+     * 
+     * @param b The data.
+     * @param off The start offset in the data.
+     * @param len The number of bytes to write.
+     */
+    public synchronized void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            int count = Math.min(len, bytes.remaining());
+            bytes.put(b, off, count);
+            off += count;
+            len -= count;
+            decode(false);
         }
-        skip = b == '\r';
     }
 
     /**
      * Flushes this output stream and forces any buffered output bytes to be
-     * written out.
+     * written out. An incomplete multi-byte character remains buffered.
      */
     public synchronized void flush() {
-        copyBuffer();
+        copyLine();
     }
 
     /**
      * Closes this output stream and releases any system resources associated
      * with this stream.
      */
-    public void close() {
+    public synchronized void close() {
+        decode(true);
+        decoder.flush(chars);
+        scanChars();
+        decoder.reset();
         flush();
     }
 
@@ -95,15 +143,82 @@ public class LogOutputStream extends OutputStream {
     }
 
     /**
-     * Copies all outstanding data from the temporary cache to the LineLogger.
+     * Decodes the pending bytes and splits the characters into lines. 
+     * Bytes of an incomplete character are left in the byte buffer, 
+     * unless this is the end of the input.
      */
-    private void copyBuffer() {
-        String line = cache.toString();
+    private void decode(boolean endOfInput) {
+        bytes.flip();
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, endOfInput);
+            scanChars();
+        } while (result.isOverflow());
+        bytes.compact();
+    }
 
-        if (line != null && !"".equals(line)) {
-            buffer.logLine(priority, line);
+    /**
+     * Appends the decoded characters to the current line and logs every 
+     * completed line. A '\n' following a '\r' doesn't start another line.
+     */
+    private void scanChars() {
+        char[] data = chars.array();
+        int end = chars.position();
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            char c = data[i];
+            if (c == '\n' || c == '\r') {
+                appendChars(data, start, i - start);
+                start = i + 1;
+                if (!skip) {
+                    copyLine();
+                }
+                skip = c == '\r';
+            } else {
+                skip = false;
+            }
         }
-        cache.reset();
+        appendChars(data, start, end - start);
+        chars.clear();
     }
-}
 
+    private void appendChars(char[] data, int off, int len) {
+        if (len > 0) {
+            if (lineLength + len > line.length) {
+                char[] newLine = new char[Math.max(line.length * 2, lineLength + len)];
+                System.arraycopy(line, 0, newLine, 0, lineLength);
+                line = newLine;
+            }
+            System.arraycopy(data, off, line, lineLength, len);
+            lineLength += len;
+        }
+    }
+
+    /**
+     * Copies the current line to the LineBuffer.
+     */
+    private void copyLine() {
+        if (lineLength > 0) {
+            buffer.logLine(priority, new String(line, 0, lineLength));
+            lineLength = 0;
+            if (line.length > MAX_IDLE_LINE_SIZE) {
+                line = new char[256];
+            }
+        }
+    }
+
+    private static CharsetDecoder newDecoder(String encoding) {
+        Charset charset = Charset.forName(encoding == null ? defaultEncoding() : encoding);
+        return charset.newDecoder()
+                      .onMalformedInput(CodingErrorAction.REPLACE)
+                      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Returns the name of the platform's default charset, as used by readers
+     * that are created without an explicit encoding.
+     */
+    private static String defaultEncoding() {
+        return new InputStreamReader(new ByteArrayInputStream(new byte[0])).getEncoding();
+    }
+}
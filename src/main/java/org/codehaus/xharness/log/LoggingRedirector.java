@@ -34,6 +34,7 @@ public class LoggingRedirector extends Redirector {
     private LineBuffer buffer = null;
     private int stdOutPriority;
     private int stdErrPriority;
+    private String encoding = null;
     
     /**
      * Create a LoggingRedirector instance for the given task.
@@ -58,6 +59,16 @@ public class LoggingRedirector extends Redirector {
         stdErrPriority = errPrio;
     }
     
+    /**
+     * Sets the character encoding of the process output that is recorded in the 
+     * LineBuffer. If not set, the platform's default encoding is used.
+     * 
+     * @param enc The name of the encoding.
+     */
+    public void setEncoding(String enc) {
+        encoding = enc;
+    }
+    
     /**
      * Pass output sent to System.out to specified output.
      *
@@ -117,8 +128,14 @@ public class LoggingRedirector extends Redirector {
     public synchronized ExecuteStreamHandler createHandler() throws BuildException {
         ExecuteStreamHandler esh = super.createHandler();
         if (buffer != null) {
-            OutputStream out = new LogOutputStream(buffer, stdOutPriority);
-            OutputStream err = new LogOutputStream(buffer, stdErrPriority);
+            OutputStream out;
+            OutputStream err;
+            try {
+                out = new LogOutputStream(buffer, stdOutPriority, encoding);
+                err = new LogOutputStream(buffer, stdErrPriority, encoding);
+            } catch (IllegalArgumentException iae) {
+                throw new BuildException("Unsupported encoding: " + encoding);
+            }
             esh = new LoggingStreamHandler(esh, out, err);
         }
         return esh;
@@ -18,48 +18,90 @@
 package org.codehaus.xharness.log;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.tools.ant.BuildException;
-import org.apache.tools.ant.util.DOMElementWriter;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Text;
 
 /**
  * Writes output and result of a Task to an XML file. 
  * Derived from and inspired by junit's
  * {@link org.apache.tools.ant.taskdefs.optional.junit.XMLJUnitResultFormatter}
+ * <p>
+ * The XML is streamed to the file, the output of the Task is written line by line
+ * from the Task's {@link LineBuffer}. The results of several Tasks may be written
+ * concurrently. If a queue is enabled, the results are taken as {@link ResultRecord}
+ * snapshots and written by the queue's background thread, so that the Tasks don't
+ * wait for the file system.
+ * <p>
+ * If the journal is enabled, the results are appended to a {@link ResultJournal}
+ * instead of being written to individual files. If the binary format is enabled,
+ * the results are appended to a compact binary file by a {@link BinaryResultWriter},
+ * which takes precedence over the journal.
+ * <p>
+ * If an output threshold is set, output that exceeds the threshold is written to a
+ * separate gzip compressed file next to the XML, one line per output line, prefixed
+ * with the line's priority and a tab. The XML refers to that file with an
+ * &lt;outputfile&gt; element instead of containing &lt;output&gt; elements.
  *
  * @author Gregor Heine
  */
 
 public class ResultFormatter implements XMLConstants {
+    private static final String RESULTS_SUFFIX = ".xml";
+    private static final String OUTPUT_SUFFIX = ".out.gz";
+    private static final int BUFFER_SIZE = 16384;
 
     /**
-     * The XML document.
+     *  The directory into which Result XML files are written.
      */
-    private Document doc;
+    private File basedir;
     
     /**
-     *  The directory into which Result XML files are written.
+     * The queue of results to be written in the background, or null.
      */
-    private File basedir;
+    private volatile ResultQueue queue;
+    
+    /**
+     * The journal that the results are appended to, or null.
+     */
+    private volatile ResultJournal journal;
+    
+    /**
+     * The writer of the binary results file, or null.
+     */
+    private volatile BinaryResultWriter binary;
+    
+    /**
+     * Whether result files are synced to disk at testcase boundaries.
+     */
+    private boolean syncTestcases;
+    
+    /**
+     * The number of characters of output above which the output is written
+     * to a separate file, or 0.
+     */
+    private long outputThreshold;
+    
+    /**
+     * The result files that have been written since the last sync.
+     */
+    private final List unsyncedFiles = new ArrayList();
     
     /**
-     * The wrapper for the whole testsuite.
+     * The history in which the durations of tests are recorded, or null.
      */
-    private Element rootElement;
+    private TestHistory history;
 
     /**
      * Constructs a new ResultFormatter.
@@ -71,171 +113,437 @@ public class ResultFormatter implements XMLConstants {
     }
 
     /**
-     * Write the result of a Task to a file in the output directory.
+     * Enables writing the results in a background thread. Tasks that finish while
+     * the given number of results is waiting to be written block until the
+     * background thread has caught up.
+     * 
+     * @param capacity The maximum number of results waiting to be written.
+     */
+    public void enableQueue(int capacity) {
+        queue = new ResultQueue(this, capacity);
+    }
+
+    /**
+     * Enables writing the results to a journal of a few large segment files,
+     * instead of one file per result.
+     */
+    public void enableJournal() {
+        enableJournal(ResultJournal.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Enables writing the results to a journal.
+     * 
+     * @param segmentSize The size after which a new journal segment is started.
+     */
+    void enableJournal(long segmentSize) {
+        journal = new ResultJournal(this, basedir, segmentSize);
+    }
+
+    /**
+     * Enables writing the results to a compact binary file, instead of XML. The
+     * file is read with a {@link BinaryResultReader}.
+     */
+    public void enableBinary() {
+        binary = new BinaryResultWriter(basedir);
+    }
+
+    /**
+     * Sets whether result files are synced to disk whenever the result of a
+     * testcase, testgroup or the suite has been written. The sync includes all
+     * result files written since the previous sync.
+     * 
+     * @param sync true to sync at testcase boundaries.
+     */
+    public void setSyncTestcases(boolean sync) {
+        syncTestcases = sync;
+    }
+
+    /**
+     * Sets the number of characters of output above which the output of a result
+     * is written to a separate, compressed file. Output written to the binary
+     * file is never separated.
+     * 
+     * @param threshold The output threshold in characters, or 0 to keep all
+     *                  output in the result XML.
+     */
+    public void setOutputThreshold(long threshold) {
+        outputThreshold = threshold;
+    }
+
+    /**
+     * Sets the history in which the durations of testcases and testgroups are
+     * recorded, when their results are written. Skipped tests aren't recorded.
+     * 
+     * @param testHistory The TestHistory, or <code>null</code>.
+     */
+    public void setHistory(TestHistory testHistory) {
+        history = testHistory;
+    }
+
+    /**
+     * Writes all queued results, stops the background thread and closes the
+     * journal or binary file. Results that are passed to the formatter afterwards
+     * are written immediately, to individual files.
+     * 
+     * @throws BuildException If writing a queued result or closing the journal
+     *                        or binary file has failed.
+     */
+    public void close() throws BuildException {
+        ResultQueue q = queue;
+        queue = null;
+        try {
+            if (q != null) {
+                q.close();
+            }
+        } finally {
+            try {
+                ResultJournal j = journal;
+                journal = null;
+                if (j != null) {
+                    j.close();
+                }
+            } finally {
+                BinaryResultWriter b = binary;
+                binary = null;
+                if (b != null) {
+                    b.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the result of a Task to a file in the output directory. If the queue is
+     * enabled, the file is written in the background.
      * 
      * @param logger The Task's logger.
      * @param result The result of the Task.
      * @param description A description of the Result.
      * @param time The duration of the Task.
-     * @throws BuildException If an error occurs while writing the file.
+     * @throws BuildException If an error occurs while writing the file, or while
+     *                        writing a previously queued result.
      */
-    public synchronized void writeResults(TaskLogger logger, 
-                                          int result, 
-                                          String description, 
-                                          long time) throws BuildException {
-        doc = getDocumentBuilder().newDocument();
+    public void writeResults(TaskLogger logger, 
+                             int result, 
+                             String description, 
+                             long time) throws BuildException {
         int taskType = logger.getTaskType();
-        switch (taskType) {
-            case Result.PROCESS_TASK:
-            case Result.OTHER_TASK: 
-                rootElement = doc.createElement(TASK);
-                break;
-                
-            case Result.SERVICE:
-                rootElement = doc.createElement(SERVICE);
-                break;
-                
-            case Result.START:
-                rootElement = doc.createElement(START);
-                break;
-                
-            case Result.VERIFY:
-                rootElement = doc.createElement(VERIFY);
-                break;
-                
-            case Result.STOP:
-                rootElement = doc.createElement(STOP);
-                break;
-                
-            case Result.TESTGROUP:
-                rootElement = doc.createElement(GROUP);
-                break;
-                
-            case Result.TESTCASE:
-                rootElement = doc.createElement(TEST);
-                break;
-                
-            case Result.XHARNESS:
-                rootElement = doc.createElement(XHARNESS);
-                break;
-                
-            case Result.LINK:
-                rootElement = doc.createElement(LINK);
-                break;
-                
-            default:
-                throw new BuildException("Invalid Task Type: " + taskType);
+        getElementName(taskType);
+        ResultRecord record = new ResultRecord(logger, taskType, result, description, time);
+        TestHistory h = history;
+        if (h != null && result != Result.SKIPPED
+            && (taskType == Result.TESTCASE || taskType == Result.TESTGROUP)) {
+            h.record(record.getFullName(), time);
         }
-
-        addAttribute(ATTR_ORDERID, Integer.toString(logger.getId()));
-        addAttribute(ATTR_RESULT, printResult(result));
-        
-        if (taskType != Result.XHARNESS) {
-            addAttribute(ATTR_PARENT, logger.getParentName());
+        ResultQueue q = queue;
+        boolean queued;
+        try {
+            queued = q != null && q.put(record);
+        } catch (BuildException be) {
+            // a previous result has failed, this one isn't written
+            record.release();
+            throw be;
         }
-        
-        addAttribute(ATTR_TASK_NAME, logger.getName());
-        addAttribute(ATTR_FULL_NAME, logger.getFullName());
-        addAttribute(ATTR_TIME, Float.toString((float)time / (float)1000.0));
-
-        if (taskType == Result.TESTCASE) {
-            addAttribute(ATTR_OWNER, logger.getOwner());
+        if (!queued) {
+            write(record);
         }
-        
-        addAttribute(ATTR_REFERENCE, logger.getReference());
-        
-        Element descrElement = doc.createElement(DESCRIPTION);
-        addText(descrElement, description);
-        rootElement.appendChild(descrElement);
+    }
 
-        if (taskType == Result.PROCESS_TASK) {
-            addAttribute(ATTR_RETVAL, Integer.toString(logger.getRetVal()));
-            Element execElement = doc.createElement(COMMAND);
-            String command = logger.getCommand();
-            addText(execElement, command);
-            rootElement.appendChild(execElement);
+    /**
+     * Writes a result to a file in the output directory, to the binary file or
+     * to the journal, and releases the record's output.
+     * 
+     * @param record The result.
+     * @throws BuildException If an error occurs while writing the file.
+     */
+    void write(ResultRecord record) throws BuildException {
+        try {
+            writeRecord(record);
+        } finally {
+            record.release();
         }
+    }
 
-        LineBuffer lines = logger.getLineBuffer();
-
-        Iterator iter = lines.iterator();
-        if (iter.hasNext()) {
-            LogLine previous = (LogLine)iter.next();
-            StringBuffer text = new StringBuffer(previous.getText());
-            while (iter.hasNext()) {
-                LogLine line = (LogLine)iter.next();
-                if (line.getPriority() != previous.getPriority()) {
-                    Element outElement = doc.createElement(OUTPUT);
-                    outElement.setAttribute(ATTR_LOGLEVEL, 
-                                            Integer.toString(previous.getPriority()));
-                    addText(outElement, text.toString());
-                    rootElement.appendChild(outElement);
-                    text = new StringBuffer(line.getText());
-                } else {
-                    text.append("\n");
-                    text.append(line.getText());
-                }
-                previous = line;
+    private void writeRecord(ResultRecord record) throws BuildException {
+        int taskType = record.getTaskType();
+        getElementName(taskType);
+        String filename = genFileName(taskType, record.getFullName());
+        boolean boundary = taskType == Result.TESTCASE 
+            || taskType == Result.TESTGROUP 
+            || taskType == Result.XHARNESS;
+        BinaryResultWriter b = binary;
+        if (b != null) {
+            b.append(record);
+            if (syncTestcases && boundary) {
+                b.sync();
             }
-            Element outElement = doc.createElement(OUTPUT);
-            outElement.setAttribute(ATTR_LOGLEVEL, Integer.toString(previous.getPriority()));
-            addText(outElement, text.toString());
-            rootElement.appendChild(outElement);
+            return;
         }
-
-        String filename = genFileName(taskType, logger.getFullName());
-        File outfile = new File(basedir, filename + ".xml");
-        int count = 1;
-        while (outfile.exists()) {
-            outfile = new File(basedir, filename + "_" + (count++) + ".xml");
+        ResultJournal j = journal;
+        if (j != null) {
+            j.append(filename, record);
+            if (syncTestcases && boundary) {
+                j.sync();
+            }
+            return;
         }
-        OutputStream out = null;
-
+        File outfile = createFile(filename, RESULTS_SUFFIX);
+        FileOutputStream out;
         try {
             out = new FileOutputStream(outfile);
         } catch (IOException e) {
             throw new BuildException("Unable to write results file "
                                    + outfile.getName() + ": " + outfile);
         }
-
-        Writer wri = null;
-
+        XMLResultWriter writer = null;
         try {
-            wri = new OutputStreamWriter(out, "UTF8");
-            wri.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
-            (new DOMElementWriter()).write(rootElement, wri, 0, "  ");
-            wri.flush();
+            writer = new XMLResultWriter(out);
+            writeXML(writer, record);
+            if (syncTestcases && boundary) {
+                writer.flush();
+                out.getFD().sync();
+            }
         } catch (Exception exc) {
             throw new BuildException("Unable to write log file", exc);
         } finally {
-            if (wri != null) {
-                try {
-                    wri.close();
-                } catch (IOException e) {
-                    //ignore
+            try {
+                if (writer != null) {
+                    writer.close();
+                } else {
+                    out.close();
+                }
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+        if (syncTestcases) {
+            if (boundary) {
+                syncFiles();
+            } else {
+                synchronized (unsyncedFiles) {
+                    unsyncedFiles.add(outfile);
                 }
             }
+        }
+    }
+
+    /**
+     * Writes the XML element of a result.
+     * 
+     * @param writer The writer.
+     * @param record The result.
+     * @throws IOException If an I/O error occurs.
+     */
+    void writeXML(XMLResultWriter writer, ResultRecord record) throws IOException {
+        int taskType = record.getTaskType();
+        String elementName = getElementName(taskType);
+        writer.startElement(elementName);
+        writer.attribute(ATTR_ORDERID, Integer.toString(record.getOrderId()));
+        writer.attribute(ATTR_RESULT, printResult(record.getResult()));
+        if (taskType != Result.XHARNESS) {
+            writer.attribute(ATTR_PARENT, record.getParentName());
+        }
+        writer.attribute(ATTR_TASK_NAME, record.getName());
+        writer.attribute(ATTR_FULL_NAME, record.getFullName());
+        writer.attribute(ATTR_TIME, 
+                         Float.toString((float)record.getTime() / (float)1000.0));
+        if (taskType == Result.TESTCASE) {
+            writer.attribute(ATTR_OWNER, record.getOwner());
+        }
+        writer.attribute(ATTR_REFERENCE, record.getReference());
+        if (taskType == Result.PROCESS_TASK) {
+            writer.attribute(ATTR_RETVAL, Integer.toString(record.getRetVal()));
+        }
+
+        writer.startElement(DESCRIPTION);
+        writer.text(record.getDescription());
+        writer.endElement();
+
+        if (taskType == Result.PROCESS_TASK) {
+            writer.startElement(COMMAND);
+            writer.text(record.getCommand());
+            writer.endElement();
+        }
+
+        LineBuffer.Snapshot lines = record.getOutput();
+        int count = lines.getLineCount();
+        if (outputThreshold > 0 && exceedsThreshold(lines, count)) {
+            String filename = genFileName(taskType, record.getFullName());
+            writeOutputFile(writer, createFile(filename, OUTPUT_SUFFIX), lines, count);
+        } else {
+            writeOutput(writer, lines, count);
+        }
+        writer.endElement();
+    }
+
+    /**
+     * Syncs the result files that have been written since the last sync.
+     */
+    private void syncFiles() throws BuildException {
+        File[] files;
+        synchronized (unsyncedFiles) {
+            files = (File[])unsyncedFiles.toArray(new File[unsyncedFiles.size()]);
+            unsyncedFiles.clear();
+        }
+        for (int i = 0; i < files.length; i++) {
             try {
-                out.close();
+                RandomAccessFile file = new RandomAccessFile(files[i], "rw");
+                try {
+                    file.getFD().sync();
+                } finally {
+                    file.close();
+                }
             } catch (IOException e) {
-                //ignore
+                throw new BuildException("Unable to sync results file " + files[i], e);
             }
         }
     }
 
-    private static DocumentBuilder getDocumentBuilder() {
+    /**
+     * Writes the first lines of a snapshot as output elements, one element for
+     * each run of consecutive lines with the same priority.
+     */
+    private static void writeOutput(XMLResultWriter writer, LineBuffer.Snapshot lines, 
+                                    int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        Iterator iter = lines.iterator();
+        LogLine line = (LogLine)iter.next();
+        int priority = line.getPriority();
+        writer.startElement(OUTPUT);
+        writer.attribute(ATTR_LOGLEVEL, Integer.toString(priority));
+        writer.text(line.getText());
+        for (int i = 1; i < count && iter.hasNext(); i++) {
+            line = (LogLine)iter.next();
+            if (line.getPriority() != priority) {
+                priority = line.getPriority();
+                writer.endElement();
+                writer.startElement(OUTPUT);
+                writer.attribute(ATTR_LOGLEVEL, Integer.toString(priority));
+            } else {
+                writer.text("\n");
+            }
+            writer.text(line.getText());
+        }
+        writer.endElement();
+    }
+
+    /**
+     * Writes the first lines of a snapshot to a compressed output file and
+     * refers to it with an outputfile element.
+     */
+    private static void writeOutputFile(XMLResultWriter writer, File file, 
+                                        LineBuffer.Snapshot lines, int count) 
+        throws IOException {
+        BitSet levels = new BitSet();
+        long size = 0;
+        Writer out = new BufferedWriter(
+            new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), "UTF-8"),
+            BUFFER_SIZE);
         try {
-            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        } catch (Exception exc) {
-            throw new ExceptionInInitializerError(exc);
+            Iterator iter = lines.iterator();
+            for (int i = 0; i < count && iter.hasNext(); i++) {
+                LogLine line = (LogLine)iter.next();
+                int priority = line.getPriority();
+                if (priority >= 0) {
+                    levels.set(priority);
+                }
+                size += i > 0 ? line.getText().length() + 1 : line.getText().length();
+                out.write(Integer.toString(priority));
+                out.write('\t');
+                out.write(line.getText());
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        StringBuffer levelList = new StringBuffer();
+        for (int i = levels.nextSetBit(0); i >= 0; i = levels.nextSetBit(i + 1)) {
+            if (levelList.length() > 0) {
+                levelList.append(' ');
+            }
+            levelList.append(i);
         }
+        writer.startElement(OUTPUT_BLOB);
+        writer.attribute(ATTR_FILE, file.getName());
+        writer.attribute(ATTR_LINES, Integer.toString(count));
+        writer.attribute(ATTR_SIZE, Long.toString(size));
+        writer.attribute(ATTR_LEVELS, levelList.toString());
+        writer.endElement();
     }
 
-    private void addText(Element elem, String text) {
-        Text textNode = doc.createTextNode(text);
+    /**
+     * Checks if the first lines of a snapshot, including the line separators
+     * between them, have more characters than the output threshold.
+     */
+    private boolean exceedsThreshold(LineBuffer.Snapshot lines, int count) {
+        if (count == 0) {
+            return false;
+        }
+        long size = -1;
+        Iterator iter = lines.iterator();
+        for (int i = 0; i < count && iter.hasNext(); i++) {
+            size += ((LogLine)iter.next()).getText().length() + 1;
+            if (size > outputThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a new file in the output directory, appending a counter to the file
+     * name if a file with the same name already exists.
+     */
+    private File createFile(String filename, String suffix) throws BuildException {
+        File outfile = new File(basedir, filename + suffix);
+        int count = 1;
+        try {
+            while (!outfile.createNewFile()) {
+                outfile = new File(basedir, filename + "_" + (count++) + suffix);
+            }
+            return outfile;
+        } catch (IOException e) {
+            throw new BuildException("Unable to write results file "
+                                   + outfile.getName() + ": " + outfile);
+        }
+    }
 
-        elem.appendChild(textNode);
-        // elem.appendChild(m_doc.createCDATASection(text));
+    private static String getElementName(int taskType) throws BuildException {
+        switch (taskType) {
+            case Result.PROCESS_TASK:
+            case Result.OTHER_TASK: 
+                return TASK;
+                
+            case Result.SERVICE:
+                return SERVICE;
+                
+            case Result.START:
+                return START;
+                
+            case Result.VERIFY:
+                return VERIFY;
+                
+            case Result.STOP:
+                return STOP;
+                
+            case Result.TESTGROUP:
+                return GROUP;
+                
+            case Result.TESTCASE:
+                return TEST;
+                
+            case Result.XHARNESS:
+                return XHARNESS;
+                
+            case Result.LINK:
+                return LINK;
+                
+            default:
+                throw new BuildException("Invalid Task Type: " + taskType);
+        }
     }
 
     private String printResult(int res) {
@@ -298,8 +606,4 @@ public class ResultFormatter implements XMLConstants {
 
         return ret.toString();
     }
-    
-    private void addAttribute(String name, String value) {
-        rootElement.setAttribute(name, value == null ? "" : value);
-    }
 }
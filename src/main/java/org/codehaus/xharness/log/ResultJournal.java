@@ -0,0 +1,257 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Append-only journal of results, that replaces the individual result files of the
+ * {@link ResultFormatter}. The results are appended as length-prefixed records to
+ * one segment file, until the segment exceeds its maximum size and the next
+ * segment is started. Every record keeps the name that its result file would have
+ * had, so that {@link JournalReader#convert(File, File)} can restore the file layout.
+ * <p>
+ * The length of a record is written after its content, so a record that has only
+ * partially been written when the build is aborted is ignored by the
+ * {@link JournalReader}. If appending a record fails, the segment is truncated to
+ * the end of the previous record, so that later records can still be read. 
+ * The index of a segment is written when the segment is closed.
+ * <p>
+ * Segments are named <code>results-NNNN.xhj</code>, numbered from 1. Numbers of
+ * segments that already exist in the results directory are skipped.
+ */
+final class ResultJournal {
+    /**
+     * The default maximum size of a segment.
+     */
+    static final long DEFAULT_SEGMENT_SIZE = 64L * 1024L * 1024L;
+
+    private static final String SEGMENT_PREFIX = "results-";
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Object mutex = new Object();
+    private final ResultFormatter formatter;
+    private final File basedir;
+    private final long maxSegmentSize;
+    private final Set names = new HashSet();
+    private final Map nameCounters = new HashMap();
+    private final List index = new ArrayList();
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+    private int segmentNumber;
+    private File segment;
+    private FileOutputStream segmentStream;
+    private DataOutputStream out;
+    private long position;
+    private boolean closed;
+
+    /**
+     * Creates a journal. The first segment is created with the first record.
+     *
+     * @param resultFormatter The formatter that writes the XML of the records.
+     * @param dir The results directory.
+     * @param segmentSize The size after which a new segment is started.
+     */
+    ResultJournal(ResultFormatter resultFormatter, File dir, long segmentSize) {
+        formatter = resultFormatter;
+        basedir = dir;
+        maxSegmentSize = segmentSize;
+    }
+
+    /**
+     * Appends a result to the journal.
+     *
+     * @param fileName The name of the result file that the record replaces,
+     *                 without extension. A counter is appended if the journal
+     *                 already contains a record with this name.
+     * @param record The result.
+     * @throws BuildException If the journal can't be written or has been closed.
+     */
+    void append(String fileName, ResultRecord record) throws BuildException {
+        synchronized (mutex) {
+            if (closed) {
+                throw new BuildException("Results journal has been closed");
+            }
+            String name = null;
+            long offset = -1;
+            boolean appended = false;
+            try {
+                if (segment == null || position >= maxSegmentSize) {
+                    nextSegment();
+                }
+                name = uniqueName(fileName);
+                offset = position;
+                out.writeInt(0);
+                out.writeUTF(name);
+                XMLResultWriter writer = new XMLResultWriter(out);
+                formatter.writeXML(writer, record);
+                writer.flush();
+                out.flush();
+                FileChannel channel = segmentStream.getChannel();
+                position = channel.position();
+                long length = position - offset - 4;
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Result too large: " + name);
+                }
+                lengthBuffer.clear();
+                lengthBuffer.putInt((int)length);
+                lengthBuffer.flip();
+                while (lengthBuffer.hasRemaining()) {
+                    channel.write(lengthBuffer, offset + lengthBuffer.position());
+                }
+                index.add(new Object[] {new Long(offset), new Integer((int)length), name});
+                appended = true;
+            } catch (IOException e) {
+                throw new BuildException("Unable to write results journal " + segment, e);
+            } finally {
+                if (!appended && offset >= 0) {
+                    names.remove(name);
+                    truncate(offset);
+                }
+            }
+        }
+    }
+
+    /**
+     * Syncs the current segment to disk.
+     *
+     * @throws BuildException If an I/O error occurs.
+     */
+    void sync() throws BuildException {
+        synchronized (mutex) {
+            if (segment != null && !closed) {
+                try {
+                    segmentStream.getChannel().force(false);
+                } catch (IOException e) {
+                    throw new BuildException("Unable to sync results journal " + segment, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the current segment and writes its index. Further results can't be
+     * appended.
+     *
+     * @throws BuildException If an I/O error occurs.
+     */
+    void close() throws BuildException {
+        synchronized (mutex) {
+            closed = true;
+            closeSegment();
+        }
+    }
+
+    /**
+     * Discards a partially written record, so that the zero length written at its
+     * start doesn't hide the records appended afterwards. If the segment can't be
+     * truncated, no further records are appended.
+     *
+     * @param offset The offset of the record in the current segment.
+     */
+    private void truncate(long offset) {
+        // drop the buffered part of the record
+        out = new DataOutputStream(new BufferedOutputStream(segmentStream, BUFFER_SIZE));
+        try {
+            FileChannel channel = segmentStream.getChannel();
+            channel.truncate(offset);
+            channel.position(offset);
+            position = offset;
+        } catch (IOException e) {
+            closed = true;
+        }
+    }
+
+    private String uniqueName(String fileName) {
+        if (names.add(fileName)) {
+            return fileName;
+        }
+        int[] counter = (int[])nameCounters.get(fileName);
+        if (counter == null) {
+            counter = new int[] {1};
+            nameCounters.put(fileName, counter);
+        }
+        String name;
+        do {
+            name = fileName + "_" + (counter[0]++);
+        } while (!names.add(name));
+        return name;
+    }
+
+    private void nextSegment() throws IOException {
+        closeSegment();
+        DecimalFormat format = new DecimalFormat("0000");
+        File file;
+        do {
+            file = new File(basedir, SEGMENT_PREFIX + format.format(++segmentNumber)
+                                     + JournalReader.SEGMENT_SUFFIX);
+        } while (!file.createNewFile());
+        segment = file;
+        segmentStream = new FileOutputStream(file);
+        out = new DataOutputStream(new BufferedOutputStream(segmentStream, BUFFER_SIZE));
+        out.writeInt(JournalReader.SEGMENT_MAGIC);
+        out.flush();
+        position = 4;
+    }
+
+    private void closeSegment() throws BuildException {
+        if (segment == null) {
+            return;
+        }
+        File indexFile = JournalReader.getIndexFile(segment);
+        try {
+            segmentStream.getChannel().force(false);
+            out.close();
+            DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile), BUFFER_SIZE));
+            try {
+                idx.writeInt(JournalReader.INDEX_MAGIC);
+                idx.writeInt(index.size());
+                for (int i = 0; i < index.size(); i++) {
+                    Object[] entry = (Object[])index.get(i);
+                    idx.writeLong(((Long)entry[0]).longValue());
+                    idx.writeInt(((Integer)entry[1]).intValue());
+                    idx.writeUTF((String)entry[2]);
+                }
+            } finally {
+                idx.close();
+            }
+        } catch (IOException e) {
+            throw new BuildException("Unable to write results journal index " + indexFile, e);
+        } finally {
+            segment = null;
+            segmentStream = null;
+            out = null;
+            index.clear();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Bounded queue of {@link ResultRecord}s, that are written to the results directory
+ * by a background thread. Threads that add a record to a full queue block until the
+ * writer thread has made room (backpressure), so the memory held by pending results
+ * is bounded. The writer thread takes all pending records at once and writes them
+ * as one batch.
+ * <p>
+ * If writing a result fails, the failure is thrown on the next call to
+ * {@link #put(ResultRecord)} or {@link #close()}.
+ */
+final class ResultQueue implements Runnable {
+    private final Object mutex = new Object();
+    private final LinkedList records = new LinkedList();
+    private final ResultFormatter formatter;
+    private final int capacity;
+    private final Thread writer;
+    private boolean closed;
+    private BuildException failure;
+
+    /**
+     * Creates a queue and starts its writer thread.
+     *
+     * @param resultFormatter The formatter that writes the records.
+     * @param maxRecords The maximum number of pending records.
+     */
+    ResultQueue(ResultFormatter resultFormatter, int maxRecords) {
+        formatter = resultFormatter;
+        capacity = Math.max(maxRecords, 1);
+        writer = new Thread(this, "XHarness result writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Adds a record to the queue. Blocks while the queue is full.
+     *
+     * @param record The record.
+     * @return false, if the queue has already been closed, otherwise true.
+     * @throws BuildException If writing a previous record has failed.
+     */
+    boolean put(ResultRecord record) throws BuildException {
+        synchronized (mutex) {
+            checkFailure();
+            if (closed) {
+                return false;
+            }
+            boolean interrupted = false;
+            while (records.size() >= capacity) {
+                try {
+                    mutex.wait();
+                } catch (InterruptedException e) {
+                    // don't lose the result, the queue may exceed its capacity
+                    interrupted = true;
+                    break;
+                }
+            }
+            records.add(record);
+            mutex.notifyAll();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes all pending records and stops the writer thread.
+     *
+     * @throws BuildException If writing a record has failed.
+     */
+    void close() throws BuildException {
+        synchronized (mutex) {
+            closed = true;
+            mutex.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mutex) {
+            checkFailure();
+        }
+    }
+
+    /**
+     * Writer thread. Writes the pending records in batches, until the queue
+     * is closed and empty.
+     */
+    public void run() {
+        while (true) {
+            List batch;
+            synchronized (mutex) {
+                while (records.isEmpty() && !closed) {
+                    try {
+                        mutex.wait();
+                    } catch (InterruptedException e) {
+                        // continue until closed
+                    }
+                }
+                if (records.isEmpty()) {
+                    mutex.notifyAll();
+                    return;
+                }
+                batch = new ArrayList(records);
+                records.clear();
+                mutex.notifyAll();
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    formatter.write((ResultRecord)batch.get(i));
+                } catch (BuildException be) {
+                    synchronized (mutex) {
+                        if (failure == null) {
+                            failure = be;
+                        }
+                    }
+                } catch (RuntimeException re) {
+                    synchronized (mutex) {
+                        if (failure == null) {
+                            failure = new BuildException("Unable to write log file", re);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkFailure() throws BuildException {
+        if (failure != null) {
+            BuildException ret = failure;
+            failure = null;
+            throw ret;
+        }
+    }
+}
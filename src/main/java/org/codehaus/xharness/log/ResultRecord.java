@@ -0,0 +1,165 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.IOException;
+
+/**
+ * Immutable snapshot of the result of a Task, as written by the {@link ResultFormatter}.
+ * All values are taken from the Task's logger when the Task finishes, so that the
+ * result can be written later, on another thread. The output is not copied: the
+ * record holds a {@link LineBuffer.Snapshot} of the logger's buffer, which refers
+ * to the lines the buffer contained when the Task finished, even if the buffer is
+ * cleared or lines are dropped by its retention policy before the record is
+ * written. The snapshot is released once the record has been written.
+ * <p>
+ * Results read from a binary results file are converted to records as well, so
+ * that they can be written as XML.
+ */
+final class ResultRecord {
+    private final int taskType;
+    private final int result;
+    private final String description;
+    private final long time;
+    private final int orderId;
+    private final String parentName;
+    private final String name;
+    private final String fullName;
+    private final String owner;
+    private final String reference;
+    private final int retVal;
+    private final String command;
+    private final LineBuffer.Snapshot output;
+
+    /**
+     * Takes a snapshot of the result of a Task.
+     *
+     * @param logger The Task's logger.
+     * @param type The Task type, as returned by the logger.
+     * @param res The result of the Task.
+     * @param descr A description of the Result.
+     * @param duration The duration of the Task.
+     */
+    ResultRecord(TaskLogger logger, int type, int res, String descr, long duration) {
+        taskType = type;
+        result = res;
+        description = descr;
+        time = duration;
+        orderId = logger.getId();
+        parentName = taskType != Result.XHARNESS ? logger.getParentName() : null;
+        name = logger.getName();
+        fullName = logger.getFullName();
+        owner = taskType == Result.TESTCASE ? logger.getOwner() : null;
+        reference = logger.getReference();
+        if (taskType == Result.PROCESS_TASK) {
+            retVal = logger.getRetVal();
+            command = logger.getCommand();
+        } else {
+            retVal = 0;
+            command = null;
+        }
+        LineBuffer lines = logger.getLineBuffer();
+        output = (lines == null ? new LineBuffer() : lines).snapshot();
+    }
+
+    /**
+     * Takes the current result of a binary results file. The output is copied
+     * to a new LineBuffer.
+     *
+     * @param reader The reader of the binary results file.
+     * @throws IOException If the output of the result can't be read.
+     */
+    ResultRecord(BinaryResultReader reader) throws IOException {
+        taskType = reader.getTaskType();
+        result = reader.getResult();
+        description = reader.getDescription();
+        time = reader.getTime();
+        orderId = reader.getOrderId();
+        parentName = reader.getParentName();
+        name = reader.getName();
+        fullName = reader.getFullName();
+        owner = reader.getOwner();
+        reference = reader.getReference();
+        retVal = reader.getRetVal();
+        command = reader.getCommand();
+        LineBuffer lines = new LineBuffer();
+        for (String line = reader.nextLine(); line != null; line = reader.nextLine()) {
+            lines.addLine(new LogLine(reader.getLinePriority(), line));
+        }
+        output = lines.snapshot();
+    }
+
+    int getTaskType() {
+        return taskType;
+    }
+
+    int getResult() {
+        return result;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    int getOrderId() {
+        return orderId;
+    }
+
+    String getParentName() {
+        return parentName;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getFullName() {
+        return fullName;
+    }
+
+    String getOwner() {
+        return owner;
+    }
+
+    String getReference() {
+        return reference;
+    }
+
+    int getRetVal() {
+        return retVal;
+    }
+
+    String getCommand() {
+        return command;
+    }
+
+    LineBuffer.Snapshot getOutput() {
+        return output;
+    }
+
+    /**
+     * Releases the output of this record, once the record has been written.
+     */
+    void release() {
+        output.release();
+    }
+}
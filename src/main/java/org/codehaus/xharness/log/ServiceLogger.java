@@ -28,16 +28,22 @@ import org.codehaus.xharness.procutil.BgProcess;
 import org.codehaus.xharness.tasks.ServiceDef;
 import org.codehaus.xharness.tasks.ServiceGroupTask;
 import org.codehaus.xharness.tasks.ServiceVerifyTask;
+import org.codehaus.xharness.util.StopWatch;
 
 
 /**
  * BuildListener, that logs the output of XHarness ServiceDef Tasks and their instances.
+ * The instance that is currently executed, the test that executes it and the time
+ * spent in it are kept per thread, so that instances of the same ServiceDef can
+ * be executed by concurrent tests.
  *
  * @author Gregor Heine
  */
 public class ServiceLogger extends TestLogger implements IDeferredLogger {
-    private TestLogger currentTest;
-    private Task currentInstance;
+    private final ThreadLocal currentTest = new ThreadLocal();
+    private final ThreadLocal currentInstance = new ThreadLocal();
+    private final ThreadLocal instanceWatch = new ThreadLocal();
+    private long instanceTime;
     
     /**
      * Constructs a ServiceLogger.
@@ -58,16 +64,18 @@ public class ServiceLogger extends TestLogger implements IDeferredLogger {
      * Since a ServiceLogger logs both ServiceDef Tasks as well as their instances,
      * the context logger creates a connection between a Service and the
      * point where the start, verify and stop elements of the ServiceDef
-     * are actually executed. 
+     * are actually executed. The context is kept per thread, so that instances
+     * of the same ServiceDef can be executed by concurrent tests.
      * 
      * @param context The context logger.
      * @param instanceTask The ServiceInstance Task.
      */
     public void setContext(TestLogger context, Task instanceTask) {
-        stopWatch.start();
-        currentTest = context;
-        currentTest.deactivate(false);
-        currentInstance = instanceTask;
+        instanceWatch.set(new StopWatch(true));
+        currentTest.set(context);
+        context.deactivate(false);
+        currentInstance.set(instanceTask);
+        getRegistry().register(this, instanceTask);
         activate();
     }
     
@@ -89,12 +97,12 @@ public class ServiceLogger extends TestLogger implements IDeferredLogger {
             
             TaskLogger newLogger = null;
             if (task instanceof ServiceGroupTask) {
-                if ("start".equals(task.getTaskName()) && currentTest != null) {
+                if ("start".equals(task.getTaskName()) && getContext() != null) {
                     newLogger = handleStart(task);
-                } else if ("verify".equals(task.getTaskName()) && currentTest != null) {
+                } else if ("verify".equals(task.getTaskName()) && getContext() != null) {
                     newLogger = handleVerify(task);
                 } else if (ServiceVerifyTask.DUMMY.equals(task.getTaskName()) 
-                        && currentTest != null) {
+                        && getContext() != null) {
                     newLogger = handleVerifyDummy(task);
                 } else if ("stop".equals(task.getTaskName())) {
                     newLogger = handleStop(task);
@@ -123,14 +131,25 @@ public class ServiceLogger extends TestLogger implements IDeferredLogger {
         if (((ServiceDef)getTask()).wasStopped()) {
             stopDeferredElements();
         }
-        if (currentTest != null) {
+        TestLogger context = getContext();
+        if (context != null) {
             deactivate(false);
-            currentTest.activate();
-            currentTest = null;
+            context.activate();
+            currentTest.set(null);
+            currentInstance.set(null);
         } else {
             deactivate(true);
         }
-        stopWatch.stop();
+        StopWatch watch = (StopWatch)instanceWatch.get();
+        if (watch != null) {
+            watch.stop();
+            instanceWatch.set(null);
+            synchronized (instanceWatch) {
+                instanceTime += watch.getTime();
+            }
+        } else {
+            stopWatch.stop();
+        }
     }
     
     /**
@@ -180,7 +199,23 @@ public class ServiceLogger extends TestLogger implements IDeferredLogger {
      */
     protected boolean isMyTask(Task task) {
         return super.isMyTask(task)
-            || sameTask(currentInstance, task);
+            || sameTask((Task)currentInstance.get(), task);
+    }
+    
+    /**
+     * Returns the time spent executing the ServiceDef Task, all of its instances 
+     * and the stop element.
+     * 
+     * @return The execution time in milliseconds.
+     */
+    protected long getExecutionTime() {
+        synchronized (instanceWatch) {
+            return super.getExecutionTime() + instanceTime;
+        }
+    }
+    
+    private TestLogger getContext() {
+        return (TestLogger)currentTest.get();
     }
     
     private TaskLogger handleStart(Task task) {
@@ -189,12 +224,12 @@ public class ServiceLogger extends TestLogger implements IDeferredLogger {
                     task, 
                     genTaskName("start"),
                     this,
-                    currentTest.getFullName());
+                    getContext().getFullName());
         addDeferredLogger(logger);            
         new LinkLogger(getRegistry(), 
                 task, 
                 "Start_" + getName(), 
-                currentTest.getFullName(), 
+                getContext().getFullName(), 
                 logger.getFullName());
         return logger;
     }
@@ -205,7 +240,7 @@ public class ServiceLogger extends TestLogger implements IDeferredLogger {
                 task, 
                 "verify_" + getName(),
                 this, 
-                currentTest.getFullName(),
+                getContext().getFullName(),
                 getFullName());
     }
     
@@ -238,7 +273,7 @@ public class ServiceLogger extends TestLogger implements IDeferredLogger {
     }
     
     private TaskLogger handleStop(Task task) {
-        String parentName = currentTest == null ? getParentName() : currentTest.getFullName();
+        String parentName = getContext() == null ? getParentName() : getContext().getFullName();
         TaskLogger logger = new TestLogger(
                 getRegistry(), 
                 task, 
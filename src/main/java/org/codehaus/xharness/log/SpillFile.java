@@ -0,0 +1,186 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Append-only disk storage for the text blocks that a {@link LineStore} moves
+ * out of the heap. The blocks are written to a sequence of segment files and
+ * read back through read-only memory-mapped views of these files, so spilled
+ * text doesn't occupy heap memory even while it is being read. Each segment is
+ * mapped in fixed-size chunks, so that only the last, growing chunk of the 
+ * current segment is mapped again when text is appended.
+ * <p>
+ * A position returned by {@link #append(char[], int)} encodes the segment 
+ * index in the upper and the character offset within the segment in the lower
+ * 32 bits.
+ * <p>
+ * A SpillFile is thread-safe, so that readers of a LineBuffer can access
+ * spilled text while the writer appends to it.
+ */
+final class SpillFile {
+    private static final String PREFIX = "xh-spill";
+    private static final String SUFFIX = ".seg";
+    private static final int SEGMENT_SIZE = 1 << 24;
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final File directory;
+    private final List segments = new ArrayList();
+    private Segment current;
+    private ByteBuffer writeBuffer;
+
+    /**
+     * Creates a SpillFile. Segment files are created on demand.
+     *
+     * @param dir The directory for the segment files.
+     */
+    SpillFile(File dir) {
+        directory = dir;
+    }
+
+    /**
+     * Appends characters to the current segment, starting a new segment if the
+     * current one is full.
+     *
+     * @param data The characters.
+     * @param len The number of characters to write, starting at index 0.
+     * @return The position of the characters in this SpillFile.
+     * @throws IOException If the characters can't be written.
+     */
+    synchronized long append(char[] data, int len) throws IOException {
+        if (current == null || (current.size > 0 && current.size + len > SEGMENT_SIZE)) {
+            current = new Segment(File.createTempFile(PREFIX, SUFFIX, directory));
+            segments.add(current);
+        }
+        if (writeBuffer == null || writeBuffer.capacity() < len * 2) {
+            writeBuffer = ByteBuffer.allocate(len * 2);
+        }
+        writeBuffer.clear();
+        writeBuffer.asCharBuffer().put(data, 0, len);
+        writeBuffer.limit(len * 2);
+        long filePos = current.size * 2L;
+        while (writeBuffer.hasRemaining()) {
+            filePos += current.channel.write(writeBuffer, filePos);
+        }
+        long pos = ((long)(segments.size() - 1) << 32) | current.size;
+        current.size += len;
+        return pos;
+    }
+
+    /**
+     * Returns a read-only view of characters previously written to this SpillFile.
+     *
+     * @param pos The position returned by {@link #append(char[], int)}.
+     * @param len The number of characters.
+     * @return A CharBuffer containing the characters.
+     */
+    synchronized CharBuffer view(long pos, int len) {
+        Segment segment = (Segment)segments.get((int)(pos >>> 32));
+        return segment.view((int)pos, len);
+    }
+
+    /**
+     * Returns the number of segment files.
+     *
+     * @return The number of segment files.
+     */
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Closes and deletes all segment files. Views that have been mapped 
+     * before remain valid, but no further text can be read.
+     */
+    synchronized void delete() {
+        for (Iterator iter = segments.iterator(); iter.hasNext();) {
+            ((Segment)iter.next()).delete();
+        }
+        segments.clear();
+        current = null;
+    }
+
+    /**
+     * A single segment file and the memory-mapped views of its chunks.
+     */
+    private static final class Segment {
+        private final File file;
+        private final FileChannel channel;
+        private int size;
+        private CharBuffer[] chunks = new CharBuffer[SEGMENT_SIZE / CHUNK_SIZE];
+
+        Segment(File f) throws IOException {
+            file = f;
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        }
+
+        CharBuffer view(int offset, int len) {
+            int index = offset / CHUNK_SIZE;
+            int start = index * CHUNK_SIZE;
+            if (offset + len > start + CHUNK_SIZE) {
+                // text that crosses a chunk boundary is mapped on its own
+                return map(offset, len);
+            }
+            if (index >= chunks.length) {
+                CharBuffer[] newChunks = new CharBuffer[index + 1];
+                System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+                chunks = newChunks;
+            }
+            CharBuffer chunk = chunks[index];
+            if (chunk == null || chunk.capacity() < offset + len - start) {
+                chunk = map(start, Math.min(CHUNK_SIZE, size - start));
+                chunks[index] = chunk;
+            }
+            CharBuffer ret = chunk.duplicate();
+            ret.limit(offset + len - start);
+            ret.position(offset - start);
+            return ret.slice();
+        }
+
+        private CharBuffer map(int offset, int len) {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset * 2L, len * 2L)
+                              .asCharBuffer();
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Unable to map output segment "
+                                                + file + ": " + ioe.getMessage());
+            }
+        }
+
+        void delete() {
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // ignore
+            }
+            if (!file.delete()) {
+                // still mapped on some platforms
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -42,7 +42,9 @@ import org.codehaus.xharness.util.StopWatch;
 
 /**
  * BuildListener, that logs the output of one single Task and upon completion of the
- * Task passes the result to the {@link ResultFormatter}.
+ * Task passes the result to the {@link ResultFormatter}. The build events are
+ * passed to the logger by the {@link TaskRegistry}, with which it registers itself
+ * on creation.
  * 
  * @author Gregor Heine
  */
@@ -97,6 +99,26 @@ public class TaskLogger implements BuildListener {
      */
     public TaskLogger(TaskRegistry reg, Task task, String name, 
                       String parent, String reference, int defaultPrio) {
+        this(reg, task, name, parent, reference, defaultPrio, reg.getNextId());
+    }
+
+    /**
+     * Constructs a TaskLogger instance with a logger id that has been reserved
+     * with {@link TaskRegistry#getNextId()}.
+     * 
+     * @param reg The XHarness TaskRegistry
+     * @param task The Task that is to be logged by this Logger or a placeholder Task 
+     *             retrieved from an {@link org.apache.tools.ant.UnknownElement} if 
+     *             the actual Task is not available yet.
+     * @param name The name of the TaskLogger (usually some form of the Task name).
+     * @param parent The fully wualified name of the Logger's parent logger (or <code>null</code>).
+     * @param reference An optional reference String denoting a fully quailified name of 
+     *                  another logger or <code>null</code>.
+     * @param defaultPrio The default log priority for this Task.
+     * @param id The logger id.
+     */
+    protected TaskLogger(TaskRegistry reg, Task task, String name, 
+                         String parent, String reference, int defaultPrio, int id) {
         registry = reg;
         myTask = task;
         actualTaskDetermined = false;
@@ -104,9 +126,10 @@ public class TaskLogger implements BuildListener {
         parentName = parent;
         taskReference = reference;
         lineBuffer = new LineBuffer(defaultPrio);
+        TaskRegistry.initLineBuffer(lineBuffer);
         
-        logId = registry.getNextId();
-        registry.getProject().addBuildListener(this);
+        logId = id;
+        registry.register(this, task);
     }
 
     // -- Accessors
@@ -199,6 +222,25 @@ public class TaskLogger implements BuildListener {
         return lineBuffer;
     }
     
+    /**
+     * Subscribe to the output of the logger's Task. The listener is notified 
+     * about every line that is logged from then on.
+     * 
+     * @param listener The LineListener.
+     */
+    public void addLineListener(LineListener listener) {
+        lineBuffer.addLineListener(listener);
+    }
+    
+    /**
+     * Cancel a subscription to the output of the logger's Task.
+     * 
+     * @param listener The LineListener.
+     */
+    public void removeLineListener(LineListener listener) {
+        lineBuffer.removeLineListener(listener);
+    }
+    
     /**
      * Get the unique identifier of this logger.
      * 
@@ -336,9 +378,13 @@ public class TaskLogger implements BuildListener {
      * the ResultFormatter.
      */
     protected void taskFinishedInternal() {
-        getRegistry().getProject().removeBuildListener(this);
+        getRegistry().unregister(this);
         stopWatch.stop();
         taskRunning = false;
+        if (getTaskType() == Result.XHARNESS && getRegistry().isShard()) {
+            // the result of a sharded suite is written by the JVM that started the shards
+            return;
+        }
         
         int result;
         String resultDescription;
@@ -364,7 +410,16 @@ public class TaskLogger implements BuildListener {
         getRegistry().getFormatter().writeResults(this, 
                                                   result, 
                                                   resultDescription, 
-                                                  stopWatch.getTime());
+                                                  getExecutionTime());
+    }
+    
+    /**
+     * Returns the time spent executing the logger's Task.
+     * 
+     * @return The execution time in milliseconds.
+     */
+    protected long getExecutionTime() {
+        return stopWatch.getTime();
     }
     
     /**
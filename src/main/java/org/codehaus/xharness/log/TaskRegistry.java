@@ -25,11 +25,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
+import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.ProjectComponent;
+import org.apache.tools.ant.PropertyHelper;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.TaskAdapter;
 import org.apache.tools.ant.UnknownElement;
@@ -43,6 +48,12 @@ import org.codehaus.xharness.tasks.XharnessTask;
  * singleton pattern and serves the purpose of conecting tasks and loggers awith 
  * other loggers, is responsible to set the "current.test.directory" property
  * and perform test pattern matching.
+ * <p>
+ * The current test and the current test directory are kept per thread, and
+ * threads inherit them from the thread that has started them. The loggers,
+ * the "current.test.directory" property and the test pattern matching resolve
+ * against the current test of the calling thread, so that tests can be executed
+ * concurrently within one XHarness suite.
  * 
  * @author Gregor Heine
  */
@@ -52,11 +63,19 @@ public class TaskRegistry {
     private static TaskRegistry singleton;
 
     private int currentTaskId;
+    private int taskIdStride = 1;
+    private boolean shard;
     private ResultFormatter formatter;
-    private TestLogger currentTestLogger;
+    private TestHistory history;
+    private final ThreadLocal currentTestLogger = new InheritableThreadLocal();
+    private final ThreadLocal currentTestDir = new InheritableThreadLocal();
     private Pattern pattern;
     private Project project;
     private XharnessTask xhTask;
+    private long spillThreshold;
+    private boolean stripAnsi;
+    private List spillFiles = new ArrayList();
+    private final EventDispatcher dispatcher = new EventDispatcher();
     
     protected TaskRegistry() {
         // for testing only!
@@ -65,13 +84,30 @@ public class TaskRegistry {
     private TaskRegistry(XharnessTask task) {
         xhTask = task;
         project = task.getProject();
-        currentTaskId = loadTaskId(task.getResultsdir());
+        File resultsDir = task.getResultsdir();
+        currentTaskId = loadTaskId(resultsDir);
+        history = new TestHistory();
+        history.load(resultsDir);
         String patStr = task.getPattern();
         if (patStr != null && !"".equals(patStr)) {
             pattern = Pattern.compile(patStr);
         }
+        spillThreshold = task.getSpillthreshold();
+        stripAnsi = task.isStripansi();
+        project.addBuildListener(dispatcher);
         new TestLogger(this, task, task.getName(), null, "", null);
         formatter = new ResultFormatter(task.getResultsdir());
+        formatter.setHistory(history);
+        formatter.setSyncTestcases(task.isSyncresults());
+        formatter.setOutputThreshold(task.getOutputthreshold());
+        if (task.isBinary()) {
+            formatter.enableBinary();
+        } else if (task.isJournal()) {
+            formatter.enableJournal();
+        }
+        if (task.getResultqueue() > 0) {
+            formatter.enableQueue(task.getResultqueue());
+        }
     }
 
     /**
@@ -104,8 +140,9 @@ public class TaskRegistry {
      *         such logger.
      */
     public static TaskLogger getLogger(String id) {
-        if (singleton != null && singleton.currentTestLogger != null) {
-            return singleton.currentTestLogger.getTask(id);
+        TestLogger current = singleton == null ? null : singleton.getCurrentTest();
+        if (current != null) {
+            return current.getTask(id);
         }
         return null;
     }
@@ -136,7 +173,7 @@ public class TaskRegistry {
             return true;
         } else {
             Pattern pattern = singleton.pattern;
-            TestLogger logger = singleton.currentTestLogger;
+            TestLogger logger = singleton.getCurrentTest();
             if (logger != null && logger.isMyTask(task)) {
                 if (task instanceof TestCaseTask) {
                     return pattern.matcher(logger.getFullName()).find();
@@ -148,6 +185,29 @@ public class TaskRegistry {
         return false;
     }
     
+    /**
+     * Applies the output settings of the top-level XHarness task to the 
+     * LineBuffer of a new TaskLogger. If a spill threshold is set, the buffer moves 
+     * output exceeding the threshold to segment files in the results directory. 
+     * The registry keeps track of the segment files that haven't been deleted by
+     * the buffer yet, rather than of the buffer itself, and deletes them when it
+     * is shut down. If ANSI stripping is enabled, the buffer only stores the 
+     * output without ANSI escape codes.
+     * 
+     * @param buffer The LineBuffer.
+     */
+    public static void initLineBuffer(LineBuffer buffer) {
+        TaskRegistry registry = singleton;
+        if (registry != null && registry.stripAnsi) {
+            buffer.setStripAnsi(true);
+        }
+        if (registry != null && registry.spillThreshold > 0) {
+            buffer.enableSpilling(registry.xhTask.getResultsdir(), 
+                                  registry.spillThreshold, 
+                                  registry.spillFiles);
+        }
+    }
+    
     /**
      * Sets the error property sepecified in the top level XHarness task, when
      * an error has occurred in a Task.
@@ -166,15 +226,37 @@ public class TaskRegistry {
      * Shuts down and resets the current TaskRegistry singleton. 
      * 
      * @param failure The failure that has occurred in the top-level XHarness task, or null.
+     * @throws BuildException If a queued result could not be written.
      */
-    public void shutdown(Throwable failure) {
-        if (currentTestLogger != null) {
-            currentTestLogger.setFailure(failure);
-            currentTestLogger.taskFinishedInternal();
-        }
-        singleton = null;
-        if (xhTask != null) {
-            saveTaskId(xhTask.getResultsdir(), currentTaskId);
+    public void shutdown(Throwable failure) throws BuildException {
+        try {
+            TestLogger current = getCurrentTest();
+            if (current != null) {
+                current.setFailure(failure);
+                current.taskFinishedInternal();
+            }
+        } finally {
+            try {
+                if (formatter != null) {
+                    formatter.close();
+                }
+            } finally {
+                if (project != null) {
+                    project.removeBuildListener(dispatcher);
+                }
+                singleton = null;
+                synchronized (spillFiles) {
+                    for (Iterator iter = spillFiles.iterator(); iter.hasNext();) {
+                        ((SpillFile)iter.next()).delete();
+                    }
+                    spillFiles.clear();
+                }
+                if (xhTask != null) {
+                    File resultsDir = xhTask.getResultsdir();
+                    saveTaskId(resultsDir, currentTaskId);
+                    history.save(resultsDir, shard);
+                }
+            }
         }
     }
     
@@ -185,21 +267,94 @@ public class TaskRegistry {
      */
     public int getNextId() {
         synchronized (this) {
-            return currentTaskId++;
+            int ret = currentTaskId;
+            currentTaskId += taskIdStride;
+            return ret;
         }
     }
     
     /**
-     * Sets the specified TestLogger to be the current test's logger.
+     * Sets the logger ids that are assigned from now on. The shards of a sharded
+     * suite each assign every n-th id, starting with a different id, so that the
+     * ids stay unique across all shards.
+     * 
+     * @param nextId The next logger id.
+     * @param stride The difference between two consecutive logger ids.
+     */
+    public void setTaskIds(int nextId, int stride) {
+        synchronized (this) {
+            currentTaskId = nextId;
+            taskIdStride = Math.max(stride, 1);
+        }
+    }
+    
+    /**
+     * Get the durations of the tests in previous runs of the suite. The durations
+     * of the current run are recorded when their results are written, and saved
+     * when the registry is shut down.
+     * 
+     * @return The TestHistory.
+     */
+    public TestHistory getHistory() {
+        return history;
+    }
+    
+    /**
+     * Sets whether this registry belongs to a shard of a sharded suite. A shard
+     * doesn't write the result of the suite itself, as this is written by the JVM
+     * that has started the shards. It only saves the test durations it has recorded,
+     * which are merged into the history by that JVM as well.
+     * 
+     * @param isShard true, if the suite is a shard.
+     */
+    public void setShard(boolean isShard) {
+        shard = isShard;
+    }
+    
+    /**
+     * Test if this registry belongs to a shard of a sharded suite.
+     * 
+     * @return true, if the suite is a shard, otherwise false.
+     */
+    public boolean isShard() {
+        return shard;
+    }
+    
+    /**
+     * Registers a TaskLogger for the build events of a Task. All build events of
+     * the suite are received by one BuildListener, that passes them to the
+     * loggers of the Task that has caused the event.
+     * 
+     * @param logger The TaskLogger.
+     * @param task The Task, or <code>null</code> if the logger only receives task
+     *             started events.
+     */
+    public void register(TaskLogger logger, Task task) {
+        dispatcher.register(logger, task);
+    }
+    
+    /**
+     * Unregisters a TaskLogger, so that it won't receive any further build events.
+     * 
+     * @param logger The TaskLogger.
+     */
+    public void unregister(TaskLogger logger) {
+        dispatcher.unregister(logger);
+    }
+    
+    /**
+     * Sets the specified TestLogger to be the current test's logger on the calling
+     * thread. Threads started afterwards inherit the current test of the thread
+     * that starts them.
      * 
      * @param testLogger The current test logger.
      */
     public void setCurrentTest(TestLogger testLogger) {
-        if (testLogger != null && currentTestLogger != testLogger) {
-            currentTestLogger = testLogger;
+        if (testLogger != null && currentTestLogger.get() != testLogger) {
+            currentTestLogger.set(testLogger);
             
             if (xhTask != null && xhTask.getBasedir() != null) {
-                String testName = currentTestLogger.getFullName();
+                String testName = testLogger.getFullName();
                 if (testName == null) {
                     testName = "";
                 }
@@ -213,18 +368,31 @@ public class TaskRegistry {
                 }
                 getProject().log("Setting property " + CURRENT_TEST_DIR_PROPERY + " to " + absPath, 
                             Project.MSG_DEBUG);
+                currentTestDir.set(absPath);
+                CurrentTestDirHook.install(getProject());
                 getProject().setUserProperty(CURRENT_TEST_DIR_PROPERY, absPath);
             }
         }
     }
     
     /**
-     * Returns the current test logger.
+     * Returns the current test logger of the calling thread.
      * 
      * @return the current test logger.
      */
     public TestLogger getCurrentTest() {
-        return currentTestLogger;
+        return (TestLogger)currentTestLogger.get();
+    }
+    
+    /**
+     * Returns the directory of the current test of the calling thread. This is
+     * the value of the "current.test.directory" property for the calling thread.
+     * 
+     * @return The absolute path of the current test directory, or <code>null</code>
+     *         if the current test of the calling thread hasn't set a directory.
+     */
+    public String getCurrentTestDirectory() {
+        return (String)currentTestDir.get();
     }
      
     /**
@@ -265,7 +433,14 @@ public class TaskRegistry {
         singleton = null;
     }
 
-    private static int loadTaskId(File resultsDir) {
+    /**
+     * Returns the next logger id of the suites that write their results to
+     * the given directory.
+     * 
+     * @param resultsDir The results directory.
+     * @return The next logger id, or 0 if no suite has been executed yet.
+     */
+    public static int loadTaskId(File resultsDir) {
         Properties props = loadProperties(new File(resultsDir, "xharness.properties"));
         return getIntValue(props.getProperty("TASK_ID"), 0);
     }
@@ -279,7 +454,7 @@ public class TaskRegistry {
         saveProperties(props, propsFile);
     }
     
-    private static Properties loadProperties(File propsFile) {
+    static Properties loadProperties(File propsFile) {
         Properties props = new Properties();
         InputStream is = null;
         try {
@@ -299,7 +474,7 @@ public class TaskRegistry {
         return props;
     }
     
-    private static boolean saveProperties(Properties props, File propsFile) {
+    static boolean saveProperties(Properties props, File propsFile) {
         OutputStream os = null;
         try {
             os = new BufferedOutputStream(new FileOutputStream(propsFile));
@@ -328,4 +503,43 @@ public class TaskRegistry {
             return def;
         }
     }
+
+    /**
+     * PropertyHelper, that resolves the "current.test.directory" property to the
+     * directory of the current test of the calling thread. The project property is
+     * still set, for Tasks that copy the project's properties, but with concurrent
+     * tests it only holds the directory of the test that has set it last.
+     */
+    private static final class CurrentTestDirHook extends PropertyHelper {
+        /**
+         * Adds a hook to the PropertyHelper chain of a project, unless it has one.
+         * 
+         * @param proj The project.
+         */
+        private static void install(Project proj) {
+            PropertyHelper helper = PropertyHelper.getPropertyHelper(proj);
+            synchronized (helper) {
+                for (PropertyHelper next = helper; next != null; next = next.getNext()) {
+                    if (next instanceof CurrentTestDirHook) {
+                        return;
+                    }
+                }
+                CurrentTestDirHook hook = new CurrentTestDirHook();
+                hook.setProject(proj);
+                hook.setNext(helper.getNext());
+                helper.setNext(hook);
+            }
+        }
+
+        public Object getPropertyHook(String ns, String name, boolean user) {
+            TaskRegistry registry = singleton;
+            if (registry != null && CURRENT_TEST_DIR_PROPERY.equals(name)) {
+                String dir = registry.getCurrentTestDirectory();
+                if (dir != null) {
+                    return dir;
+                }
+            }
+            return super.getPropertyHook(ns, name, user);
+        }
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The durations of testcases and testgroups in previous runs of a suite, used to
+ * estimate how long a test will take when scheduling it. The history is kept in
+ * the file "xharness.history" in the results directory, as the duration of the
+ * last run of each test in milliseconds, keyed by the test's full name. Durations
+ * recorded in the current run replace those of previous runs when the history is
+ * saved. Tests without history are estimated with a default estimate, which is
+ * the average duration of all tests in the history, unless it is set explicitly.
+ */
+public class TestHistory {
+    public static final String HISTORY_FILE = "xharness.history";
+
+    private final Map previous = new HashMap();
+    private final Map recorded = new HashMap();
+    private long previousTotal;
+    private long defaultEstimate = -1;
+
+    /**
+     * Loads the durations of previous runs from a results directory, replacing
+     * the durations loaded before. Entries that can't be parsed are ignored.
+     * 
+     * @param resultsDir The results directory. May be <code>null</code>.
+     */
+    public synchronized void load(File resultsDir) {
+        previous.clear();
+        previousTotal = 0;
+        if (resultsDir == null) {
+            return;
+        }
+        Properties props = TaskRegistry.loadProperties(new File(resultsDir, HISTORY_FILE));
+        for (Iterator iter = props.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry)iter.next();
+            try {
+                long time = Long.parseLong((String)entry.getValue());
+                if (time >= 0) {
+                    previous.put(entry.getKey(), new Long(time));
+                    previousTotal += time;
+                }
+            } catch (NumberFormatException nfe) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Adds the durations recorded by a shard of a sharded suite, as if they
+     * had been recorded by this history.
+     * 
+     * @param shardDir The results directory of the shard.
+     */
+    public void merge(File shardDir) {
+        TestHistory shard = new TestHistory();
+        shard.load(shardDir);
+        synchronized (this) {
+            recorded.putAll(shard.previous);
+        }
+    }
+
+    /**
+     * Records the duration of a test in the current run.
+     * 
+     * @param name The full name of the test.
+     * @param time The duration in milliseconds.
+     */
+    public synchronized void record(String name, long time) {
+        if (name != null && time >= 0) {
+            recorded.put(name, new Long(time));
+        }
+    }
+
+    /**
+     * Sets the estimate for tests that aren't in the history.
+     * 
+     * @param estimate The estimated duration in milliseconds, or a negative value
+     *                 to use the average duration of the tests in the history.
+     */
+    public synchronized void setDefaultEstimate(long estimate) {
+        defaultEstimate = estimate;
+    }
+
+    /**
+     * Test if there are durations of previous runs.
+     * 
+     * @return true, if no durations have been loaded, otherwise false.
+     */
+    public synchronized boolean isEmpty() {
+        return previous.isEmpty();
+    }
+
+    /**
+     * Get the estimated duration of a test, which is its duration in the last
+     * previous run.
+     * 
+     * @param name The full name of the test.
+     * @return The estimated duration in milliseconds.
+     */
+    public synchronized long getEstimate(String name) {
+        Long time = name == null ? null : (Long)previous.get(name);
+        if (time != null) {
+            return time.longValue();
+        }
+        if (defaultEstimate >= 0 || previous.isEmpty()) {
+            return Math.max(defaultEstimate, 0);
+        }
+        return previousTotal / previous.size();
+    }
+
+    /**
+     * Saves the history to a results directory.
+     * 
+     * @param resultsDir The results directory. May be <code>null</code>.
+     * @param recordedOnly If true, only the durations recorded in the current run
+     *                     are saved, as done by the shards of a sharded suite.
+     */
+    public void save(File resultsDir, boolean recordedOnly) {
+        if (resultsDir == null) {
+            return;
+        }
+        Properties props = new Properties();
+        synchronized (this) {
+            if (!recordedOnly) {
+                putAll(props, previous);
+            }
+            putAll(props, recorded);
+        }
+        TaskRegistry.saveProperties(props, new File(resultsDir, HISTORY_FILE));
+    }
+
+    private static void putAll(Properties props, Map durations) {
+        for (Iterator iter = durations.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry)iter.next();
+            props.put(entry.getKey(), entry.getValue().toString());
+        }
+    }
+}
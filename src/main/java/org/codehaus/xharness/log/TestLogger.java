@@ -17,9 +17,13 @@
 
 package org.codehaus.xharness.log;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 import org.apache.tools.ant.BuildException;
@@ -48,14 +52,24 @@ import org.codehaus.xharness.tasks.TestGroupTask;
  * child TestLogger re-activates it's parent. When a TestLogger is active, it creates
  * new child loggers whenever a child Task is executed. Upon completion of the
  * TestCase/TestGroup, the it is deactivated and it's parent is re-activated.
+ * <p>
+ * The active state is kept per thread, and threads inherit the state of the thread
+ * that has created them. So, when the children of a testgroup are executed on
+ * several threads, the testgroup's logger creates the loggers of the children
+ * on each thread, and these are only active on the thread executing their Task.
+ * The list of child loggers and their names are guarded by the list's lock.
  *
  * @author Gregor Heine
  */
 public class TestLogger extends TaskLogger {
     private Stack deferredTasks = new Stack();
-    private LinkedList childLoggers = new LinkedList();
+    private ArrayList childLoggers = new ArrayList();
+    private Map childrenByName = new HashMap();
+    private Map nameSuffixes = new HashMap();
+    private Set reservedNames = new HashSet();
+    private Map reservedChildren = new HashMap();
     private TestLogger parentLogger;
-    private boolean active;
+    private final ThreadLocal active = new InheritableThreadLocal();
     private IDeferredLogger taskInDeferredShutdown;
 
     /**
@@ -94,10 +108,23 @@ public class TestLogger extends TaskLogger {
     }
 
     /**
-     * Activates this TestLogger.
+     * Constructs a TestLogger with a reserved name and id.
+     * @param registry The XHarness TaskRegistry
+     * @param task The Task for this TestLogger.
+     * @param child The reserved name and id of this TestLogger.
+     * @param parent The parent of this TestLogger. Must no be <code>null</code>.
+     */
+    private TestLogger(TaskRegistry registry, Task task, ReservedChild child, TestLogger parent) {
+        super(registry, task, child.name, parent.getFullName(), null, LogPriority.INFO, child.id);
+        this.parentLogger = parent;
+        activate();
+    }
+
+    /**
+     * Activates this TestLogger on the calling thread.
      */
     protected void activate() {
-        this.active = true;
+        active.set(Boolean.TRUE);
         if (getParent() != null) {
             getParent().deactivate(false);
         }
@@ -105,12 +132,12 @@ public class TestLogger extends TaskLogger {
     }
 
     /**
-     * Deactivates this TestLogger.
+     * Deactivates this TestLogger on the calling thread.
      *
      * @param activateParent If true, activates the logger's parent.
      */
     protected void deactivate(boolean activateParent) {
-        this.active = false;
+        active.set(Boolean.FALSE);
         if (activateParent && getParent() != null) {
             getParent().activate();
         }
@@ -126,12 +153,12 @@ public class TestLogger extends TaskLogger {
     }
 
     /**
-     * Test if this TestLogger is currently active.
+     * Test if this TestLogger is currently active on the calling thread.
      *
      * @return true, if the logger is active, otherwise false.
      */
     protected final boolean isActive() {
-        return active;
+        return Boolean.TRUE.equals(active.get());
     }
 
     /**
@@ -162,6 +189,7 @@ public class TestLogger extends TaskLogger {
             getLineBuffer().logLine(LogPriority.VERBOSE, "Logging new Task " + task.getTaskName());
 
             TaskLogger newLogger = null;
+            ReservedChild child = null;
             if (task instanceof IncludeTask) {
                 // Don't log <include>
             } else if (task instanceof TaskAdapter
@@ -172,12 +200,17 @@ public class TestLogger extends TaskLogger {
             } else if (task instanceof MacroDef || task instanceof MacroInstance) {
                 // Don't log <macrodef> and macro instances
             } else if (task instanceof TestGroupTask) {
-                String groupName = ((TestGroupTask)task).getName();
-                if (groupName == null) {
-                    groupName = task.getTaskName();
+                child = removeReservedChild(originalTask != null ? originalTask : task);
+                if (child != null) {
+                    newLogger = new TestLogger(getRegistry(), task, child, this);
+                } else {
+                    String groupName = ((TestGroupTask)task).getName();
+                    if (groupName == null) {
+                        groupName = task.getTaskName();
+                    }
+                    String taskName = genTaskName(groupName);
+                    newLogger = new TestLogger(getRegistry(), task, taskName, this);
                 }
-                String taskName = genTaskName(groupName);
-                newLogger = new TestLogger(getRegistry(), task, taskName, this);
             } else if (task instanceof LoggableProcess) {
                 String taskName = genTaskName(task.getTaskName());
                 newLogger = new ProcessLogger(getRegistry(), task, taskName, getFullName());
@@ -206,7 +239,7 @@ public class TestLogger extends TaskLogger {
                 if (newLogger instanceof IDeferredLogger) {
                     addDeferredLogger((IDeferredLogger)newLogger);
                 }
-                addChildLogger(newLogger);
+                addChildLogger(newLogger, child != null);
             }
         }
     }
@@ -220,7 +253,13 @@ public class TestLogger extends TaskLogger {
         stopWatch.start();
         stopDeferredElements();
         super.taskFinishedInternal();
-        childLoggers.clear();
+        synchronized (childLoggers) {
+            childLoggers.clear();
+            childrenByName.clear();
+            nameSuffixes.clear();
+            reservedNames.clear();
+            reservedChildren.clear();
+        }
         deactivate(true);
     }
 
@@ -230,8 +269,49 @@ public class TestLogger extends TaskLogger {
      * @param child The child logger.
      */
     protected void addChildLogger(TaskLogger child) {
+        addChildLogger(child, false);
+    }
+
+    /**
+     * Adds a new child logger to this TestLogger. The loggers of reserved children
+     * are added in the order of their ids, i.e. in the order of their reservations.
+     *
+     * @param child The child logger.
+     * @param reserved true, if the name and id of the child have been reserved.
+     */
+    private void addChildLogger(TaskLogger child, boolean reserved) {
         if (child != null) {
-            childLoggers.add(child);
+            synchronized (childLoggers) {
+                int index = childLoggers.size();
+                while (reserved && index > 0 
+                       && ((TaskLogger)childLoggers.get(index - 1)).getId() > child.getId()) {
+                    index--;
+                }
+                childLoggers.add(index, child);
+                if (child.getName() != null) {
+                    Object key = nameKey(child.getName());
+                    reservedNames.remove(key);
+                    if (!childrenByName.containsKey(key)) {
+                        childrenByName.put(key, child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves the log name and the logger id of a testcase or testgroup that is
+     * started later in the context of this logger. Children that are executed in
+     * parallel are reserved in document order, so that their names and ids don't
+     * depend on the order in which they are started.
+     *
+     * @param task The child Task, as passed to the logger when it is started.
+     * @param name The actual name of the child.
+     */
+    public void reserveChild(Task task, String name) {
+        synchronized (childLoggers) {
+            reservedChildren.put(task, new ReservedChild(genTaskName(name), 
+                                                         getRegistry().getNextId()));
         }
     }
 
@@ -293,23 +373,25 @@ public class TestLogger extends TaskLogger {
         }
 
         TaskLogger ret = null;
-        try {
-            int numId = Integer.parseInt(name);
-            if (numId < 0) {
-                numId = childLoggers.size() + numId;
-            }
-            if (!unNamed) {
-                numId--;
-            }
-            if (numId >= 0 && numId <= childLoggers.size()) {
-                ret = (TaskLogger)childLoggers.get(numId);
-                ProjectComponent pc = TaskRegistry.unwrapComponent(ret.getTask());
-                if (unNamed && pc instanceof AssertTask) {
-                    ret = numId > 0 ? (TaskLogger)childLoggers.get(numId - 1) : null;
+        synchronized (childLoggers) {
+            try {
+                int numId = Integer.parseInt(name);
+                if (numId < 0) {
+                    numId = childLoggers.size() + numId;
+                }
+                if (!unNamed) {
+                    numId--;
+                }
+                if (numId >= 0 && numId < childLoggers.size()) {
+                    ret = (TaskLogger)childLoggers.get(numId);
+                    ProjectComponent pc = TaskRegistry.unwrapComponent(ret.getTask());
+                    if (unNamed && pc instanceof AssertTask) {
+                        ret = numId > 0 ? (TaskLogger)childLoggers.get(numId - 1) : null;
+                    }
                 }
+            } catch (NumberFormatException nfe) {
+                ret = getLogger(name);
             }
-        } catch (NumberFormatException nfe) {
-            ret = getLogger(name);
         }
         return ret;
     }
@@ -334,30 +416,69 @@ public class TestLogger extends TaskLogger {
      * Generates a unique log-name for a given Task name.
      * If multiple Tasks with the same name are started in the context of this logger,
      * the task name is appended with a unique integer value, e.g. "_3".
+     * The search for a free suffix continues at the last suffix generated for the
+     * same name, so that generating the names for many Tasks with the same name
+     * doesn't take quadratic time. The generated name is reserved until the
+     * logger is added with {@link #addChildLogger(TaskLogger)}, so that Tasks
+     * started concurrently never get the same name.
      *
      * @param actualName The actual name of a Task.
      * @return The unique log name.
      */
     protected String genTaskName(String actualName) {
-        if (getLogger(actualName) == null) {
-            return actualName;
+        if (actualName == null) {
+            return null;
         }
-        int iter = 1;
-        String newName = null;
-        do {
-            newName = actualName + "_" + (iter++);
-        } while (getLogger(newName) != null);
-        return newName;
+        synchronized (childLoggers) {
+            String newName = actualName;
+            if (isNameTaken(actualName)) {
+                Object key = nameKey(actualName);
+                int[] suffix = (int[])nameSuffixes.get(key);
+                if (suffix == null) {
+                    suffix = new int[] {1};
+                    nameSuffixes.put(key, suffix);
+                }
+                newName = actualName + "_" + suffix[0];
+                while (isNameTaken(newName)) {
+                    newName = actualName + "_" + (++suffix[0]);
+                }
+            }
+            reservedNames.add(nameKey(newName));
+            return newName;
+        }
+    }
+
+    private boolean isNameTaken(String name) {
+        Object key = nameKey(name);
+        return childrenByName.containsKey(key) || reservedNames.contains(key);
     }
 
     private TaskLogger getLogger(String name) {
-        Iterator iter = childLoggers.iterator();
-        while (iter.hasNext()) {
-            TaskLogger logger = (TaskLogger)iter.next();
-            if (name.equalsIgnoreCase(logger.getName())) {
-                return logger;
-            }
+        synchronized (childLoggers) {
+            return (TaskLogger)childrenByName.get(nameKey(name));
+        }
+    }
+
+    private ReservedChild removeReservedChild(Task task) {
+        synchronized (childLoggers) {
+            return (ReservedChild)reservedChildren.remove(task);
+        }
+    }
+
+    private static Object nameKey(String name) {
+        return name == null ? null : name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * The reserved log name and logger id of a child testcase or testgroup.
+     */
+    private static final class ReservedChild {
+        private final String name;
+        private final int id;
+
+        private ReservedChild(String childName, int childId) {
+            name = childName;
+            id = childId;
         }
-        return null;
     }
 }
@@ -65,6 +65,9 @@ public interface XMLConstants {
     /** the system-out element. */
     String OUTPUT = "output";
 
+    /** the element referring to output stored in a separate file. */
+    String OUTPUT_BLOB = "outputfile";
+
     /** name attribute. */
     String ATTR_ORDERID = "orderid";
 
@@ -97,4 +100,16 @@ public interface XMLConstants {
 
     /** raw output attribute. */
     String ATTR_LOGLEVEL = "level";
+
+    /** output file attribute. */
+    String ATTR_FILE = "file";
+
+    /** output line count attribute. */
+    String ATTR_LINES = "lines";
+
+    /** output size attribute. */
+    String ATTR_SIZE = "size";
+
+    /** output log levels attribute. */
+    String ATTR_LEVELS = "levels";
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Stack;
+
+/**
+ * Minimal streaming XML writer for the result files of the {@link ResultFormatter}.
+ * Elements, attributes and text are written straight to a buffered UTF-8 stream,
+ * so that the output of a Task never has to be held in memory as a whole.
+ * Child elements are indented like {@link org.apache.tools.ant.util.DOMElementWriter}
+ * does, text content is written as is.
+ * <p>
+ * Characters that aren't legal in XML 1.0 are dropped.
+ */
+final class XMLResultWriter {
+    private static final int BUFFER_SIZE = 16384;
+    private static final String INDENT = "  ";
+
+    private final Writer out;
+    private final Stack elements = new Stack();
+    private boolean startTagOpen;
+    private boolean lastWasEndTag;
+
+    /**
+     * Creates a writer and writes the XML declaration.
+     *
+     * @param stream The stream to write to.
+     * @throws IOException If the declaration can't be written.
+     */
+    XMLResultWriter(OutputStream stream) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"), BUFFER_SIZE);
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+    }
+
+    /**
+     * Starts a new element, as child of the current element.
+     *
+     * @param name The element name.
+     * @throws IOException If an I/O error occurs.
+     */
+    void startElement(String name) throws IOException {
+        closeStartTag();
+        if (!elements.isEmpty()) {
+            out.write('\n');
+            indent(elements.size());
+        }
+        out.write('<');
+        out.write(name);
+        elements.push(name);
+        startTagOpen = true;
+        lastWasEndTag = false;
+    }
+
+    /**
+     * Adds an attribute to the element that has just been started.
+     *
+     * @param name The attribute name.
+     * @param value The attribute value. <code>null</code> is written as empty value.
+     * @throws IOException If an I/O error occurs.
+     */
+    void attribute(String name, String value) throws IOException {
+        if (!startTagOpen) {
+            throw new IllegalStateException("No start tag for attribute " + name);
+        }
+        out.write(' ');
+        out.write(name);
+        out.write("=\"");
+        if (value != null) {
+            escape(value, true);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Appends text to the content of the current element.
+     *
+     * @param text The text. <code>null</code> is ignored.
+     * @throws IOException If an I/O error occurs.
+     */
+    void text(String text) throws IOException {
+        if (elements.isEmpty()) {
+            throw new IllegalStateException("No element for text");
+        }
+        closeStartTag();
+        if (text != null) {
+            escape(text, false);
+        }
+        lastWasEndTag = false;
+    }
+
+    /**
+     * Ends the current element.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    void endElement() throws IOException {
+        String name = (String)elements.pop();
+        if (startTagOpen) {
+            out.write(" />");
+            startTagOpen = false;
+        } else {
+            if (lastWasEndTag) {
+                out.write('\n');
+                indent(elements.size());
+            }
+            out.write("</");
+            out.write(name);
+            out.write('>');
+        }
+        if (elements.isEmpty()) {
+            out.write('\n');
+        }
+        lastWasEndTag = true;
+    }
+
+    /**
+     * Flushes the written XML to the underlying stream.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying stream.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    void close() throws IOException {
+        out.close();
+    }
+
+    private void closeStartTag() throws IOException {
+        if (startTagOpen) {
+            out.write('>');
+            startTagOpen = false;
+        }
+    }
+
+    private void indent(int depth) throws IOException {
+        for (int i = 0; i < depth; i++) {
+            out.write(INDENT);
+        }
+    }
+
+    private void escape(String value, boolean attribute) throws IOException {
+        int start = 0;
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            String entity = null;
+            switch (c) {
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '"':
+                    entity = attribute ? "&quot;" : null;
+                    break;
+                case '\n':
+                    entity = attribute ? "&#10;" : null;
+                    break;
+                case '\r':
+                    entity = attribute ? "&#13;" : null;
+                    break;
+                case '\t':
+                    entity = attribute ? "&#9;" : null;
+                    break;
+                default:
+                    if (!isLegalCharacter(c)) {
+                        entity = "";
+                    }
+            }
+            if (entity != null) {
+                out.write(value, start, i - start);
+                out.write(entity);
+                start = i + 1;
+            }
+        }
+        out.write(value, start, len - start);
+    }
+
+    private static boolean isLegalCharacter(char c) {
+        return c >= 0x20 && c <= 0xD7FF || c == 0x9 || c == 0xA || c == 0xD
+            || c >= 0xD800 && c <= 0xFFFD;
+    }
+}
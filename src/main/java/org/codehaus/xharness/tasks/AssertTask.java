@@ -26,9 +26,16 @@ import org.apache.tools.ant.taskdefs.condition.ConditionBase;
 
 import org.codehaus.xharness.exceptions.AssertionWarningException;
 import org.codehaus.xharness.exceptions.FatalException;
+import org.codehaus.xharness.log.LineBuffer;
+import org.codehaus.xharness.log.LineListener;
+import org.codehaus.xharness.log.LogLine;
+import org.codehaus.xharness.types.WatchableCondition;
 
 /**
  * Performs a repeated check on an ant condition.
+ * If the condition is an output condition and there is no nested task, the 
+ * condition is re-evaluated as soon as the checked task logs new output, 
+ * instead of once per second.
  */
 public class AssertTask extends ConditionBase {
     private boolean erroronfail = false;
@@ -88,35 +95,89 @@ public class AssertTask extends ConditionBase {
         }
 
         int to = timeout;
+        long deadline = System.currentTimeMillis() + timeout * 1000L;
+        Condition condition = (Condition)getConditions().nextElement();
+        OutputWaiter waiter = new OutputWaiter();
+        WatchableCondition watched = null;
+        if (timeout > 0 && nestedTask == null && condition instanceof WatchableCondition) {
+            try {
+                if (((WatchableCondition)condition).startWatching(waiter)) {
+                    watched = (WatchableCondition)condition;
+                }
+            } catch (BuildException be) {
+                // the evaluation will report the error
+            }
+        }
 
-        do {
-            if (nestedTask != null) {
-                log("Executing nested task " + nestedTask.getTaskName(), Project.MSG_VERBOSE);
-                nestedTask.perform();
+        try {
+            do {
+                if (nestedTask != null) {
+                    log("Executing nested task " + nestedTask.getTaskName(), Project.MSG_VERBOSE);
+                    nestedTask.perform();
+                }
+                waiter.reset();
+                boolean eval = condition.eval();
+                long remaining = deadline - System.currentTimeMillis();
+                if (eval) {
+                    log("Condition true; Assertion passed.", Project.MSG_VERBOSE);
+                    break;
+                } else if (watched != null && remaining > 0) {
+                    log(message + "\nWaiting up to " + ((remaining + 999) / 1000) 
+                        + " seconds for new output", Project.MSG_VERBOSE);
+                    waiter.await(remaining);
+                } else if (watched == null && (to--) > 0) {
+                    log(message + "\nRetrying for another " + to + " seconds",
+                            Project.MSG_VERBOSE);
+                    waiter.await(1000);
+                } else {
+                    fail();
+                }
+            } while (true);
+        } finally {
+            if (watched != null) {
+                watched.stopWatching(waiter);
             }
-            boolean eval = ((Condition)getConditions().nextElement()).eval();
-            if (eval) {
-                log("Condition true; Assertion passed.", Project.MSG_VERBOSE);
-                break;
-            } else if ((to--) > 0) {
-                log(message + "\nRetrying for another " + to + " seconds",
-                        Project.MSG_VERBOSE);
+        }
+    }
+    
+    private void fail() throws BuildException {
+        String msg = message;
+        if (timeout > 0) {
+            msg += ", after " + timeout + " seconds";
+        }
+        log(msg, Project.MSG_ERR);
+        if (erroronfail) {
+            throw new BuildException(message);
+        }
+        throw new AssertionWarningException(message);
+    }
+    
+    /**
+     * Blocks the assertion until the watched output changes.
+     */
+    private static class OutputWaiter implements LineListener {
+        private boolean newOutput;
+        
+        public synchronized void lineLogged(LineBuffer buffer, LogLine line) {
+            newOutput = true;
+            notifyAll();
+        }
+        
+        synchronized void reset() {
+            newOutput = false;
+        }
+        
+        synchronized void await(long millis) {
+            long end = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (!newOutput && remaining > 0) {
                 try {
-                    Thread.sleep(1000);
+                    wait(remaining);
                 } catch (InterruptedException e) {
                     // ignore
                 }
-            } else {
-                String msg = message;
-                if (timeout > 0) {
-                    msg += ", after " + timeout + " seconds";
-                }
-                log(msg, Project.MSG_ERR);
-                if (erroronfail) {
-                    throw new BuildException(message);
-                }
-                throw new AssertionWarningException(message);
+                remaining = end - System.currentTimeMillis();
             }
-        } while (true);
+        }
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+/**
+ * Processes a number of work items on several threads and hands the results
+ * out in the order of the items. Workers only run ahead of the consumer by a
+ * limited number of items, so that the memory held by unconsumed results is
+ * bounded.
+ * <p>
+ * The results must be taken in order, from a single thread, using
+ * {@link #take(int)}. An exception thrown while processing an item is thrown
+ * when the item's result is taken.
+ */
+abstract class OrderedWork implements Runnable {
+    private final Object mutex = new Object();
+    private final Object[] results;
+    private final boolean[] done;
+    private final int window;
+    private final Thread[] workers;
+    private int next;
+    private int consumed;
+    private boolean closed;
+
+    /**
+     * Creates the workers. Processing starts with {@link #start()}.
+     *
+     * @param count The number of work items.
+     * @param threads The number of worker threads.
+     * @param ahead The maximum number of items processed ahead of the consumer.
+     */
+    OrderedWork(int count, int threads, int ahead) {
+        results = new Object[count];
+        done = new boolean[count];
+        window = Math.max(ahead, 1);
+        workers = new Thread[Math.max(Math.min(threads, count), 1)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this, "XHarness report worker " + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    /**
+     * Processes a work item. Called on a worker thread.
+     *
+     * @param index The index of the item.
+     * @return The result.
+     * @throws Exception If the item can't be processed.
+     */
+    protected abstract Object process(int index) throws Exception;
+
+    /**
+     * Starts the worker threads.
+     */
+    void start() {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Waits for the result of a work item and returns it.
+     *
+     * @param index The index of the item. Must be the index following the one
+     *              of the previous call, starting with 0.
+     * @return The result.
+     * @throws Exception If processing the item has failed.
+     */
+    Object take(int index) throws Exception {
+        Object ret;
+        synchronized (mutex) {
+            if (index != consumed) {
+                throw new IllegalStateException("Expected item " + consumed + ", not " + index);
+            }
+            while (!done[index]) {
+                mutex.wait();
+            }
+            ret = results[index];
+            results[index] = null;
+            consumed++;
+            mutex.notifyAll();
+        }
+        if (ret instanceof Failure) {
+            throw ((Failure)ret).exception;
+        }
+        return ret;
+    }
+
+    /**
+     * Stops the worker threads, after they have finished their current item.
+     */
+    void close() {
+        synchronized (mutex) {
+            closed = true;
+            mutex.notifyAll();
+        }
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Worker thread. Processes the next item, until all items have been
+     * processed or the work is closed.
+     */
+    public void run() {
+        while (true) {
+            int index;
+            synchronized (mutex) {
+                while (!closed && next < results.length && next >= consumed + window) {
+                    try {
+                        mutex.wait();
+                    } catch (InterruptedException e) {
+                        // continue until closed
+                    }
+                }
+                if (closed || next >= results.length) {
+                    return;
+                }
+                index = next++;
+            }
+            Object result = null;
+            boolean processed = false;
+            try {
+                result = process(index);
+                processed = true;
+            } catch (Exception e) {
+                result = new Failure(e);
+                processed = true;
+            } finally {
+                if (!processed) {
+                    result = new Failure(new IllegalStateException("Unable to process item "
+                                                                   + index));
+                }
+                synchronized (mutex) {
+                    results[index] = result;
+                    done[index] = true;
+                    mutex.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static final class Failure {
+        private final Exception exception;
+
+        private Failure(Exception e) {
+            exception = e;
+        }
+    }
+}
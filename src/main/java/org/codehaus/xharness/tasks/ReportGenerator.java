@@ -0,0 +1,384 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.util.FileUtils;
+
+import org.codehaus.xharness.log.XMLConstants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Generates the frames report of the aggregated results page by page, on a pool of
+ * worker threads. The aggregated results are read once, with SAX. Every result
+ * is kept as a summary without its output, which is all that the overview pages
+ * and the pages of the test groups, tests and services show. The overview pages
+ * are rendered from the summaries of all results, the pages of a result from its
+ * own summary and those of the results that refer to it. Task pages, which show
+ * the output, are rendered as soon as the task has been read, so that the output
+ * of only a limited number of tasks is held in memory.
+ * <p>
+ * The pages are rendered with the <code>frames.xsl</code> stylesheet, whose
+ * <code>page</code> parameter selects the pages to create, so the report is the
+ * same as the one rendered by applying the stylesheet to all results at once.
+ * <p>
+ * Output files that tasks' output has been written to are copied next to the
+ * pages of the tasks, which load them when they are viewed.
+ */
+final class ReportGenerator implements XMLConstants {
+    private static final String STYLESHEET = "/org/codehaus/xharness/xsl/frames.xsl";
+    private static final String PAGE_OVERVIEW = "overview";
+    private static final String PAGE_RESULT = "result";
+    private static final String OUTPUT_SUFFIX = ".out.gz";
+    private static final FileUtils FILE_UTILS = FileUtils.getFileUtils();
+
+    private final File toDir;
+    private final int threads;
+    private final List results = new ArrayList();
+    private final Map resultsByParent = new HashMap();
+    private final Map resultsByReference = new HashMap();
+    private SAXTransformerFactory factory;
+    private Templates templates;
+    private Attributes rootAttributes = new AttributesImpl();
+
+    /**
+     * Creates a report generator.
+     *
+     * @param dir The directory to write the report to.
+     * @param threadCount The number of threads that render the pages.
+     */
+    ReportGenerator(File dir, int threadCount) {
+        toDir = dir;
+        threads = Math.max(threadCount, 1);
+    }
+
+    /**
+     * Generates the report.
+     *
+     * @param xmlFile The file containing the aggregated results.
+     * @throws BuildException If the report can't be generated.
+     */
+    void generate(File xmlFile) throws BuildException {
+        try {
+            factory = (SAXTransformerFactory)TransformerFactory.newInstance();
+            templates = factory.newTemplates(
+                new StreamSource(getStylesheetURL().toExternalForm()));
+        } catch (TransformerException e) {
+            throw new BuildException("Unable to load the report stylesheet: " 
+                                     + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new BuildException("Unable to load the report stylesheet: " 
+                                     + e.getMessage(), e);
+        }
+        WorkQueue queue = new WorkQueue(threads, threads * 4);
+        try {
+            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+            parserFactory.setNamespaceAware(true);
+            XMLReader reader = parserFactory.newSAXParser().getXMLReader();
+            reader.setContentHandler(new Splitter(queue));
+            reader.parse(new InputSource(xmlFile.toURI().toString()));
+
+            SAXBuffer[] summaries = new SAXBuffer[results.size()];
+            for (int i = 0; i < summaries.length; i++) {
+                summaries[i] = ((Entry)results.get(i)).summary;
+            }
+            queue.submit(new Page(PAGE_OVERVIEW, summaries));
+            for (int i = 0; i < results.size(); i++) {
+                Entry entry = (Entry)results.get(i);
+                if (hasPages(entry.name)) {
+                    queue.submit(new Page(PAGE_RESULT, getPageResults(i)));
+                }
+            }
+        } catch (ParserConfigurationException e) {
+            throw new BuildException("Errors while applying transformations: " 
+                                     + e.getMessage(), e);
+        } catch (SAXException e) {
+            throw new BuildException("Errors while applying transformations: " 
+                                     + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new BuildException("Errors while applying transformations: " 
+                                     + e.getMessage(), e);
+        } finally {
+            queue.close();
+        }
+    }
+
+    /**
+     * Returns the summaries of a result and of the results that its pages refer to,
+     * in document order: the children of the result and, for a service, the results
+     * referencing the service.
+     */
+    private SAXBuffer[] getPageResults(int index) {
+        Entry entry = (Entry)results.get(index);
+        TreeSet related = new TreeSet();
+        if (entry.fullName != null) {
+            addAll(related, (List)resultsByParent.get(entry.fullName));
+            if (SERVICE.equals(entry.name)) {
+                addAll(related, (List)resultsByReference.get(entry.fullName));
+            }
+        }
+        related.remove(new Integer(index));
+        SAXBuffer[] ret = new SAXBuffer[related.size() + 1];
+        ret[0] = entry.summary;
+        int i = 1;
+        for (Iterator iter = related.iterator(); iter.hasNext();) {
+            ret[i++] = ((Entry)results.get(((Integer)iter.next()).intValue())).summary;
+        }
+        return ret;
+    }
+
+    private void add(Entry entry) {
+        Integer index = new Integer(results.size());
+        results.add(entry);
+        if (entry.parent != null) {
+            getList(resultsByParent, entry.parent).add(index);
+        }
+        if (entry.reference != null) {
+            getList(resultsByReference, entry.reference).add(index);
+        }
+    }
+
+    /**
+     * Renders pages, by passing the recorded results to the stylesheet.
+     */
+    private void render(String page, SAXBuffer[] buffers) 
+        throws TransformerException, SAXException {
+        TransformerHandler handler;
+        synchronized (factory) {
+            handler = factory.newTransformerHandler(templates);
+        }
+        Transformer transformer = handler.getTransformer();
+        transformer.setParameter("output.dir", toDir.getAbsolutePath());
+        transformer.setParameter("page", page);
+        // the stylesheet writes all files itself
+        handler.setResult(new StreamResult(new ByteArrayOutputStream()));
+        handler.startDocument();
+        handler.startElement("", RESULTS, RESULTS, rootAttributes);
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i].replay(handler);
+        }
+        handler.endElement("", RESULTS, RESULTS);
+        handler.endDocument();
+    }
+
+    private static boolean hasPages(String name) {
+        return XHARNESS.equals(name) || GROUP.equals(name) || TEST.equals(name)
+            || SERVICE.equals(name) || START.equals(name) || STOP.equals(name)
+            || VERIFY.equals(name);
+    }
+
+    private static void addAll(TreeSet set, List list) {
+        if (list != null) {
+            set.addAll(list);
+        }
+    }
+
+    private static List getList(Map map, String key) {
+        List ret = (List)map.get(key);
+        if (ret == null) {
+            ret = new ArrayList();
+            map.put(key, ret);
+        }
+        return ret;
+    }
+
+    private URL getStylesheetURL() throws IOException {
+        URL url = getClass().getResource(STYLESHEET);
+        if (url == null) {
+            throw new FileNotFoundException("Could not find jar resource " + STYLESHEET);
+        }
+        return url;
+    }
+
+    /**
+     * A result of the aggregated results.
+     */
+    private static final class Entry {
+        private final String name;
+        private final String taskName;
+        private final String fullName;
+        private final String parent;
+        private final String reference;
+        private final SAXBuffer summary = new SAXBuffer();
+
+        private Entry(String qName, Attributes attrs) {
+            name = qName;
+            taskName = attrs.getValue(ATTR_TASK_NAME);
+            fullName = attrs.getValue(ATTR_FULL_NAME);
+            parent = attrs.getValue(ATTR_PARENT);
+            reference = attrs.getValue(ATTR_REFERENCE);
+        }
+    }
+
+    /**
+     * Renders pages on a worker thread.
+     */
+    private final class Page implements Runnable {
+        private final String page;
+        private final SAXBuffer[] buffers;
+        private final File outputFile;
+        private final File outputCopy;
+
+        private Page(String type, SAXBuffer[] results) {
+            this(type, results, null, null);
+        }
+
+        private Page(String type, SAXBuffer[] results, File output, File copy) {
+            page = type;
+            buffers = results;
+            outputFile = output;
+            outputCopy = copy;
+        }
+
+        public void run() {
+            try {
+                if (outputFile != null && outputFile.isFile()) {
+                    FILE_UTILS.copyFile(outputFile, outputCopy);
+                }
+                render(page, buffers);
+            } catch (IOException e) {
+                throw new BuildException("Unable to copy output file " + outputFile + ": " 
+                                         + e.getMessage(), e);
+            } catch (TransformerException e) {
+                throw new BuildException("Errors while applying transformations: " 
+                                         + e.getMessage(), e);
+            } catch (SAXException e) {
+                throw new BuildException("Errors while applying transformations: " 
+                                         + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Splits the aggregated results into their summaries and submits the pages of
+     * the tasks.
+     */
+    private final class Splitter extends DefaultHandler {
+        private final WorkQueue queue;
+        private int depth;
+        private int outputDepth;
+        private Entry entry;
+        private SAXBuffer task;
+        private String taskOutput;
+
+        private Splitter(WorkQueue workQueue) {
+            queue = workQueue;
+        }
+
+        public void startElement(String uri, String localName, String qName, 
+                                 Attributes attrs) {
+            depth++;
+            if (depth == 1) {
+                rootAttributes = new AttributesImpl(attrs);
+                return;
+            }
+            if (depth == 2) {
+                entry = new Entry(qName, attrs);
+                task = TASK.equals(qName) ? new SAXBuffer() : null;
+            } else if (depth == 3 && OUTPUT.equals(qName)) {
+                outputDepth = depth;
+            } else if (depth == 3 && task != null && OUTPUT_BLOB.equals(qName)) {
+                taskOutput = attrs.getValue(ATTR_FILE);
+            }
+            if (task != null) {
+                task.startElement(uri, localName, qName, attrs);
+            }
+            if (outputDepth == 0) {
+                entry.summary.startElement(uri, localName, qName, attrs);
+            }
+        }
+
+        public void endElement(String uri, String localName, String qName) {
+            if (depth >= 2) {
+                if (task != null) {
+                    task.endElement(uri, localName, qName);
+                }
+                if (outputDepth == 0) {
+                    entry.summary.endElement(uri, localName, qName);
+                } else if (outputDepth == depth) {
+                    outputDepth = 0;
+                }
+                if (depth == 2) {
+                    add(entry);
+                    if (task != null) {
+                        submitTask();
+                    }
+                    entry = null;
+                    task = null;
+                    taskOutput = null;
+                }
+            }
+            depth--;
+        }
+
+        public void characters(char[] ch, int start, int length) {
+            if (depth >= 2) {
+                if (task != null) {
+                    task.characters(ch, start, length);
+                }
+                if (outputDepth == 0) {
+                    entry.summary.characters(ch, start, length);
+                }
+            }
+        }
+
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            characters(ch, start, length);
+        }
+
+        private void submitTask() {
+            SAXBuffer[] buffers = new SAXBuffer[] {task};
+            if (taskOutput == null) {
+                queue.submit(new Page(PAGE_RESULT, buffers));
+            } else {
+                File copy = new File(toDir, entry.parent + File.separator 
+                                     + entry.taskName + OUTPUT_SUFFIX);
+                queue.submit(new Page(PAGE_RESULT, buffers, new File(taskOutput), copy));
+            }
+        }
+    }
+}
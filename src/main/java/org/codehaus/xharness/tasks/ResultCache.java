@@ -0,0 +1,315 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of parsed result documents for the {@link XhReportTask}, so that a report
+ * can be regenerated without parsing the result files that haven't changed.
+ * <p>
+ * The cache file contains the recorded SAX events ({@link SAXBuffer}) of every
+ * result, followed by an index. The index maps the path of each result file or
+ * journal segment to its size and modification time and to the order id and data
+ * location of each of its results. A file is only taken from the cache if its size
+ * and modification time are unchanged, and only files whose results could all be
+ * parsed are cached.
+ * <p>
+ * Cached data is read when it is merged, only the index is held in memory. The
+ * updated cache is written to a temporary file while the report is merged and
+ * replaces the cache file when it is committed.
+ */
+final class ResultCache {
+    private static final int MAGIC = 0x58484331;
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File cacheFile;
+    private final File tempFile;
+    private final Map entries = new HashMap();
+    private final Map stats = new HashMap();
+    private final Map newEntries = new LinkedHashMap();
+    private final Set incomplete = new HashSet();
+    private FileChannel oldData;
+    private DataOutputStream newData;
+    private long newSize;
+
+    /**
+     * Creates a cache.
+     *
+     * @param file The cache file.
+     */
+    ResultCache(File file) {
+        cacheFile = file;
+        tempFile = new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Loads the index of the cache file, if it exists.
+     *
+     * @return false, if the cache file exists but is invalid.
+     */
+    boolean load() {
+        if (!cacheFile.exists()) {
+            return true;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+            try {
+                if (file.length() < 16 || file.readInt() != MAGIC) {
+                    return false;
+                }
+                file.seek(file.length() - 8);
+                long indexOffset = file.readLong();
+                file.seek(indexOffset);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(file.getChannel()), BUFFER_SIZE));
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Entry entry = new Entry(in.readLong(), in.readLong());
+                    String path = in.readUTF();
+                    int results = in.readInt();
+                    for (int j = 0; j < results; j++) {
+                        int orderId = in.readInt();
+                        String name = in.readBoolean() ? in.readUTF() : null;
+                        long offset = in.readLong();
+                        int length = in.readInt();
+                        entry.add(new Object[] {
+                            name, new Integer(orderId), new Long(offset), new Integer(length), 
+                        });
+                    }
+                    entries.put(path, entry);
+                }
+            } finally {
+                file.close();
+            }
+            oldData = new FileInputStream(cacheFile).getChannel();
+            return true;
+        } catch (IOException e) {
+            entries.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the cached results of a file, if the file hasn't changed since
+     * it has been cached. The size and modification time of the file are
+     * remembered for {@link #add(ResultSource, SAXBuffer)}.
+     *
+     * @param file The result file or journal segment.
+     * @return The sources of the cached results, or null if the file isn't cached.
+     */
+    ResultSource[] lookup(File file) {
+        String path = file.getAbsolutePath();
+        Entry stat = new Entry(file.length(), file.lastModified());
+        synchronized (stats) {
+            stats.put(path, stat);
+        }
+        Entry entry = (Entry)entries.get(path);
+        if (entry == null || entry.size != stat.size || entry.modified != stat.modified) {
+            return null;
+        }
+        ResultSource[] ret = new ResultSource[entry.results.size()];
+        for (int i = 0; i < ret.length; i++) {
+            Object[] result = (Object[])entry.results.get(i);
+            ret[i] = new ResultSource(file, 
+                                      (String)result[0], 
+                                      ((Integer)result[1]).intValue(), 
+                                      ((Long)result[2]).longValue(), 
+                                      ((Integer)result[3]).intValue());
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the document of a cached result. May be called on several threads
+     * at once.
+     *
+     * @param source The source of the cached result.
+     * @return The recorded document.
+     * @throws IOException If the cache file can't be read.
+     */
+    SAXBuffer read(ResultSource source) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(source.getCacheLength());
+        long position = source.getCacheOffset();
+        while (buf.hasRemaining()) {
+            int len = oldData.read(buf, position + buf.position());
+            if (len < 0) {
+                throw new IOException("Unexpected end of result cache " + cacheFile);
+            }
+        }
+        return SAXBuffer.read(new DataInputStream(new ByteArrayInputStream(buf.array())));
+    }
+
+    /**
+     * Adds a result to the updated cache.
+     *
+     * @param source The source of the result.
+     * @param buffer The recorded document.
+     * @throws IOException If the cache can't be written.
+     */
+    void add(ResultSource source, SAXBuffer buffer) throws IOException {
+        String path = source.getFile().getAbsolutePath();
+        Entry entry = (Entry)newEntries.get(path);
+        if (entry == null) {
+            Entry stat;
+            synchronized (stats) {
+                stat = (Entry)stats.get(path);
+            }
+            if (stat == null) {
+                return;
+            }
+            entry = new Entry(stat.size, stat.modified);
+            newEntries.put(path, entry);
+        }
+        if (newData == null) {
+            newData = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile), BUFFER_SIZE));
+            newData.writeInt(MAGIC);
+            newSize = 4;
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        buffer.write(new DataOutputStream(data));
+        data.writeTo(newData);
+        entry.add(new Object[] {
+            source.getRecordName(), 
+            new Integer(source.getOrderId()), 
+            new Long(newSize), 
+            new Integer(data.size()), 
+        });
+        newSize += data.size();
+    }
+
+    /**
+     * Excludes a file from the updated cache, because one of its results
+     * couldn't be parsed.
+     *
+     * @param file The result file or journal segment.
+     */
+    void invalidate(File file) {
+        incomplete.add(file.getAbsolutePath());
+    }
+
+    /**
+     * Writes the index of the updated cache and replaces the cache file.
+     *
+     * @throws IOException If the cache can't be written.
+     */
+    void commit() throws IOException {
+        if (newData == null) {
+            close();
+            if (cacheFile.exists() && !cacheFile.delete()) {
+                throw new IOException("Unable to delete result cache " + cacheFile);
+            }
+            return;
+        }
+        long indexOffset = newSize;
+        for (Iterator iter = incomplete.iterator(); iter.hasNext();) {
+            newEntries.remove(iter.next());
+        }
+        newData.writeInt(newEntries.size());
+        for (Iterator iter = newEntries.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry mapEntry = (Map.Entry)iter.next();
+            Entry entry = (Entry)mapEntry.getValue();
+            newData.writeLong(entry.size);
+            newData.writeLong(entry.modified);
+            newData.writeUTF((String)mapEntry.getKey());
+            newData.writeInt(entry.results.size());
+            for (int i = 0; i < entry.results.size(); i++) {
+                Object[] result = (Object[])entry.results.get(i);
+                newData.writeInt(((Integer)result[1]).intValue());
+                newData.writeBoolean(result[0] != null);
+                if (result[0] != null) {
+                    newData.writeUTF((String)result[0]);
+                }
+                newData.writeLong(((Long)result[2]).longValue());
+                newData.writeInt(((Integer)result[3]).intValue());
+            }
+        }
+        newData.writeLong(indexOffset);
+        newData.close();
+        newData = null;
+        close();
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            throw new IOException("Unable to replace result cache " + cacheFile);
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            throw new IOException("Unable to replace result cache " + cacheFile);
+        }
+    }
+
+    /**
+     * Closes the cache file. An updated cache that hasn't been committed is
+     * discarded.
+     */
+    void close() {
+        try {
+            if (oldData != null) {
+                oldData.close();
+            }
+            if (newData != null) {
+                newData.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+        oldData = null;
+        if (newData != null) {
+            newData = null;
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * The size and modification time of a file, and its cached results.
+     */
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final List results = new ArrayList();
+
+        private Entry(long fileSize, long lastModified) {
+            size = fileSize;
+            modified = lastModified;
+        }
+
+        private void add(Object[] result) {
+            results.add(result);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Stack;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.codehaus.xharness.log.XMLConstants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Merges result documents into a single &lt;results&gt; document, without holding
+ * more than the SAX events of one result document in memory. Each result document
+ * is parsed with SAX into a {@link SAXBuffer}, and its elements are passed on to a
+ * {@link TransformerHandler}, that writes the merged document to a
+ * {@link Result}, like a file or a DOM tree. Result documents that have already been
+ * parsed into a {@link SAXBuffer} can be merged as well.
+ * <p>
+ * A result document is only passed on once it has been parsed completely, so a
+ * malformed document doesn't add anything to the merged document, regardless of
+ * whether it is parsed by the merger or has been parsed before.
+ * <p>
+ * References to output files, which are relative to the directory of the result
+ * document, are made absolute, as the merged document is written elsewhere.
+ */
+final class ResultMerger extends DefaultHandler implements XMLConstants {
+    private final TransformerHandler out;
+    private final XMLReader reader;
+    private final List failedTests;
+    private final Stack elements = new Stack();
+    private File sourceDir;
+
+    /**
+     * Creates a merger and starts the merged document.
+     *
+     * @param result The Result to write the merged document to.
+     * @param failed The List to add the names of failed tests to, as
+     *               <code>parent/name</code>.
+     * @throws SAXException If the document can't be started.
+     */
+    ResultMerger(Result result, List failed) throws SAXException {
+        failedTests = failed;
+        try {
+            SAXTransformerFactory factory = 
+                (SAXTransformerFactory)TransformerFactory.newInstance();
+            out = factory.newTransformerHandler();
+            reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        } catch (TransformerConfigurationException e) {
+            throw new SAXException(e);
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+        out.setResult(result);
+        out.startDocument();
+        out.startElement("", RESULTS, RESULTS, new AttributesImpl());
+    }
+
+    /**
+     * Sets the directory of the result documents that are merged next. Output
+     * file references are resolved against this directory.
+     *
+     * @param dir The directory, or null to keep the references as they are.
+     */
+    void setSourceDir(File dir) {
+        sourceDir = dir;
+    }
+
+    /**
+     * Parses a result document and adds its root element to the merged document.
+     * Nothing is added if the document is malformed.
+     *
+     * @param source The result document.
+     * @throws SAXException If the result document is malformed.
+     * @throws IOException If the result document can't be read.
+     */
+    void merge(InputSource source) throws SAXException, IOException {
+        SAXBuffer buffer = new SAXBuffer();
+        reader.setContentHandler(buffer);
+        reader.parse(source);
+        merge(buffer);
+    }
+
+    /**
+     * Adds the root element of a parsed result document to the merged document.
+     *
+     * @param buffer The recorded events of the result document.
+     * @throws SAXException If the merged document can't be written.
+     */
+    void merge(SAXBuffer buffer) throws SAXException {
+        try {
+            buffer.replay(this);
+        } finally {
+            while (!elements.isEmpty()) {
+                out.endElement("", "", (String)elements.pop());
+            }
+        }
+    }
+
+    /**
+     * Ends the merged document.
+     *
+     * @throws SAXException If the document can't be written.
+     */
+    void close() throws SAXException {
+        out.endElement("", RESULTS, RESULTS);
+        out.endDocument();
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes attrs) 
+        throws SAXException {
+        if (elements.isEmpty()) {
+            String result = attrs.getValue(ATTR_RESULT);
+            result = result == null ? "" : result.toLowerCase();
+            if ("warning".equals(result)
+                    || "failed".equals(result)
+                    || "invalid".equals(result)) {
+                failedTests.add(getValue(attrs, ATTR_PARENT) 
+                                + "/" + getValue(attrs, ATTR_TASK_NAME));
+            }
+        } else if (sourceDir != null && OUTPUT_BLOB.equals(qName)) {
+            attrs = resolveFile(attrs);
+        }
+        out.startElement(uri, localName, qName, attrs);
+        elements.push(qName);
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        elements.pop();
+        out.endElement(uri, localName, qName);
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        out.characters(ch, start, length);
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        out.ignorableWhitespace(ch, start, length);
+    }
+
+    private Attributes resolveFile(Attributes attrs) {
+        int index = attrs.getIndex(ATTR_FILE);
+        if (index < 0) {
+            return attrs;
+        }
+        File file = new File(attrs.getValue(index));
+        if (!file.isAbsolute()) {
+            file = new File(sourceDir, file.getPath());
+        }
+        AttributesImpl ret = new AttributesImpl(attrs);
+        ret.setValue(index, file.getAbsolutePath());
+        return ret;
+    }
+
+    private static String getValue(Attributes attrs, String name) {
+        String value = attrs.getValue(name);
+        return value == null ? "" : value;
+    }
+}
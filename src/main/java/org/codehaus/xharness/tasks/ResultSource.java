@@ -0,0 +1,261 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.codehaus.xharness.log.JournalReader;
+import org.codehaus.xharness.log.XMLConstants;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A result document to be aggregated by the {@link XhReportTask}: either an
+ * individual result file or a record of a results journal segment. Sources are
+ * ordered by the order id of their result, sources without order id come last.
+ * <p>
+ * The parsers used by the sources are kept per thread, so sources can be scanned
+ * and parsed on several threads at once.
+ */
+final class ResultSource implements Comparable, XMLConstants {
+    private static final ThreadLocal SCANNERS = new ThreadLocal() {
+        protected Object initialValue() {
+            XMLReader reader = createReader();
+            reader.setContentHandler(new OrderIdHandler());
+            return reader;
+        }
+    };
+
+    private static final DefaultHandler NO_HANDLER = new DefaultHandler();
+
+    private static final ThreadLocal PARSERS = new ThreadLocal() {
+        protected Object initialValue() {
+            return createReader();
+        }
+    };
+
+    private final File file;
+    private final long offset;
+    private final String name;
+    private final int orderId;
+    private final long cacheOffset;
+    private final int cacheLength;
+    private int sequence;
+
+    private ResultSource(File source, long recordOffset, String recordName, int id) {
+        file = source;
+        offset = recordOffset;
+        name = recordName;
+        orderId = id;
+        cacheOffset = -1;
+        cacheLength = 0;
+    }
+
+    /**
+     * Creates a source for a result whose document is stored in a {@link ResultCache}.
+     *
+     * @param source The result file or journal segment.
+     * @param recordName The name of the journal record, or null.
+     * @param id The order id.
+     * @param dataOffset The offset of the recorded document in the cache file.
+     * @param dataLength The length of the recorded document.
+     */
+    ResultSource(File source, String recordName, int id, long dataOffset, int dataLength) {
+        file = source;
+        offset = -1;
+        name = recordName;
+        orderId = id;
+        cacheOffset = dataOffset;
+        cacheLength = dataLength;
+    }
+
+    /**
+     * Reads the order ids of the results in a file. Only the start of each
+     * result is parsed.
+     *
+     * @param file A result file or a journal segment.
+     * @return The source of the result file, or the sources of all records of
+     *         the journal segment.
+     * @throws IOException If the file is a journal segment that can't be read.
+     */
+    static ResultSource[] scan(File file) throws IOException {
+        if (!JournalReader.isSegment(file)) {
+            int id = readOrderId(new InputSource(getSystemId(file)));
+            return new ResultSource[] {new ResultSource(file, -1, null, id)};
+        }
+        List ret = new ArrayList();
+        JournalReader reader = new JournalReader(file);
+        try {
+            while (reader.next()) {
+                int id = readOrderId(new InputSource(reader.getContent()));
+                ret.add(new ResultSource(file, reader.getOffset(), reader.getName(), id));
+            }
+        } finally {
+            reader.close();
+        }
+        return (ResultSource[])ret.toArray(new ResultSource[ret.size()]);
+    }
+
+    /**
+     * Returns the result file or journal segment of this source.
+     *
+     * @return The file.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the name of the journal record of this source.
+     *
+     * @return The record name, or null if the source is a result file.
+     */
+    String getRecordName() {
+        return name;
+    }
+
+    int getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * Checks if the document of this source is stored in a {@link ResultCache}.
+     *
+     * @return true if the document is cached.
+     */
+    boolean isCached() {
+        return cacheOffset >= 0;
+    }
+
+    long getCacheOffset() {
+        return cacheOffset;
+    }
+
+    int getCacheLength() {
+        return cacheLength;
+    }
+
+    /**
+     * Sets the position of this source among sources with the same order id.
+     *
+     * @param seq The position.
+     */
+    void setSequence(int seq) {
+        sequence = seq;
+    }
+
+    /**
+     * Opens the result document.
+     *
+     * @return The document.
+     * @throws IOException If the journal record can't be read.
+     */
+    InputSource open() throws IOException {
+        if (name == null) {
+            return new InputSource(getSystemId(file));
+        }
+        return new InputSource(JournalReader.read(file, offset));
+    }
+
+    /**
+     * Parses the result document into a {@link SAXBuffer}.
+     *
+     * @return The recorded document.
+     * @throws SAXException If the document is malformed.
+     * @throws IOException If the document can't be read.
+     */
+    SAXBuffer parse() throws SAXException, IOException {
+        SAXBuffer ret = new SAXBuffer();
+        XMLReader reader = (XMLReader)PARSERS.get();
+        reader.setContentHandler(ret);
+        try {
+            reader.parse(open());
+        } finally {
+            reader.setContentHandler(NO_HANDLER);
+        }
+        return ret;
+    }
+
+    public int compareTo(Object obj) {
+        ResultSource other = (ResultSource)obj;
+        if (orderId != other.orderId) {
+            return orderId < other.orderId ? -1 : 1;
+        }
+        return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+
+    private static XMLReader createReader() {
+        try {
+            return SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to create SAX parser: " + e);
+        }
+    }
+
+    private static String getSystemId(File file) {
+        //REVISIT there seems to be a bug in xerces 1.3.0 that doesn't like file object
+        // will investigate later. It does not use the given directory but
+        // the vm dir instead ? Works fine with crimson.
+        return "file:///" + file.getAbsolutePath();
+    }
+
+    private static int readOrderId(InputSource source) {
+        XMLReader reader = (XMLReader)SCANNERS.get();
+        OrderIdHandler handler = (OrderIdHandler)reader.getContentHandler();
+        handler.orderId = Integer.MAX_VALUE;
+        try {
+            reader.parse(source);
+        } catch (SAXException e) {
+            // stopped at the root element, or malformed
+        } catch (IOException e) {
+            // reported when the document is aggregated
+        }
+        return handler.orderId;
+    }
+
+    /**
+     * Reads the order id from the root element and stops parsing.
+     */
+    private static final class OrderIdHandler extends DefaultHandler {
+        private static final SAXException STOP = new SAXException("Root element read");
+
+        private int orderId;
+
+        public void startElement(String uri, String localName, String qName, 
+                                 Attributes attrs) throws SAXException {
+            String id = attrs.getValue(ATTR_ORDERID);
+            if (id != null) {
+                try {
+                    orderId = Integer.parseInt(id.trim());
+                } catch (NumberFormatException e) {
+                    // no valid order id
+                }
+            }
+            throw STOP;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Records the element and character events of a parsed document, so that they
+ * can be replayed to a {@link ContentHandler} later, on another thread. Unlike a
+ * DOM tree, the recorded events keep the order of the attributes.
+ * <p>
+ * The events can be written to and read from a binary stream, which is used by
+ * the {@link ResultCache}.
+ */
+final class SAXBuffer extends DefaultHandler {
+    private static final Object END = new Object();
+    private static final int TAG_START = 1;
+    private static final int TAG_END = 2;
+    private static final int TAG_TEXT = 3;
+
+    private final List events = new ArrayList();
+
+    public void startElement(String uri, String localName, String qName, Attributes attrs) {
+        events.add(new String[] {uri, localName, qName});
+        events.add(new AttributesImpl(attrs));
+    }
+
+    public void endElement(String uri, String localName, String qName) {
+        events.add(END);
+    }
+
+    public void characters(char[] ch, int start, int length) {
+        events.add(new String(ch, start, length));
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        events.add(new String(ch, start, length));
+    }
+
+    /**
+     * Passes the recorded events to a ContentHandler.
+     *
+     * @param handler The ContentHandler.
+     * @throws SAXException If the handler throws a SAXException.
+     */
+    void replay(ContentHandler handler) throws SAXException {
+        List names = new ArrayList();
+        for (int i = 0; i < events.size(); i++) {
+            Object event = events.get(i);
+            if (event == END) {
+                String[] name = (String[])names.remove(names.size() - 1);
+                handler.endElement(name[0], name[1], name[2]);
+            } else if (event instanceof String) {
+                char[] chars = ((String)event).toCharArray();
+                handler.characters(chars, 0, chars.length);
+            } else {
+                String[] name = (String[])event;
+                names.add(name);
+                handler.startElement(name[0], name[1], name[2], (Attributes)events.get(++i));
+            }
+        }
+    }
+
+    /**
+     * Writes the recorded events to a stream.
+     *
+     * @param out The stream.
+     * @throws IOException If an I/O error occurs.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            Object event = events.get(i);
+            if (event == END) {
+                out.writeByte(TAG_END);
+            } else if (event instanceof String) {
+                out.writeByte(TAG_TEXT);
+                writeString(out, (String)event);
+            } else {
+                String[] name = (String[])event;
+                out.writeByte(TAG_START);
+                writeString(out, name[0]);
+                writeString(out, name[1]);
+                writeString(out, name[2]);
+                Attributes attrs = (Attributes)events.get(++i);
+                out.writeInt(attrs.getLength());
+                for (int j = 0; j < attrs.getLength(); j++) {
+                    writeString(out, attrs.getURI(j));
+                    writeString(out, attrs.getLocalName(j));
+                    writeString(out, attrs.getQName(j));
+                    writeString(out, attrs.getType(j));
+                    writeString(out, attrs.getValue(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads events written by {@link #write(DataOutput)}.
+     *
+     * @param in The stream.
+     * @return A buffer containing the events.
+     * @throws IOException If an I/O error occurs or the data is corrupt.
+     */
+    static SAXBuffer read(DataInput in) throws IOException {
+        SAXBuffer ret = new SAXBuffer();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int tag = in.readByte();
+            if (tag == TAG_END) {
+                ret.events.add(END);
+            } else if (tag == TAG_TEXT) {
+                ret.events.add(readString(in));
+            } else if (tag == TAG_START) {
+                ret.events.add(new String[] {readString(in), readString(in), readString(in)});
+                AttributesImpl attrs = new AttributesImpl();
+                int length = in.readInt();
+                for (int j = 0; j < length; j++) {
+                    attrs.addAttribute(readString(in), readString(in), readString(in), 
+                                       readString(in), readString(in));
+                }
+                ret.events.add(attrs);
+                i++;
+            } else {
+                throw new IOException("Invalid event type " + tag);
+            }
+        }
+        return ret;
+    }
+
+    private static void writeString(DataOutput out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
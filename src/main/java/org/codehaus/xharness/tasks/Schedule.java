@@ -0,0 +1,173 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.UnknownElement;
+
+import org.codehaus.xharness.log.TestHistory;
+
+/**
+ * Orders and distributes testcases and testgroups by their estimated durations,
+ * taken from the {@link TestHistory} of previous runs. The longest tests are
+ * started first, each one on the thread or shard that has the least work so far,
+ * so that a long test started at the end doesn't dominate the duration of a run.
+ */
+final class Schedule {
+    private Schedule() {
+    }
+
+    /**
+     * Orders tests by their estimated durations, longest first. Tests with the
+     * same estimate keep their order.
+     *
+     * @param tests The testcases and testgroups.
+     * @param parentName The full name of the tests' parent.
+     * @param history The TestHistory.
+     * @return A new List with the ordered tests.
+     */
+    static List longestFirst(List tests, String parentName, TestHistory history) {
+        return longestFirst(tests, parentName, history, new HashMap());
+    }
+
+    /**
+     * Orders tests by their estimated durations, longest first, if they are 
+     * preceded by other tests of the same parent. Tests with the same estimate 
+     * keep their order.
+     *
+     * @param tests The testcases and testgroups.
+     * @param parentName The full name of the tests' parent.
+     * @param history The TestHistory.
+     * @param counts The number of preceding tests per name, as returned by a 
+     *               previous call for the same parent. Updated by this method.
+     * @return A new List with the ordered tests.
+     */
+    static List longestFirst(List tests, String parentName, TestHistory history, Map counts) {
+        Integer[] order = sort(getEstimates(tests, parentName, history, counts));
+        List ret = new ArrayList(tests.size());
+        for (int i = 0; i < order.length; i++) {
+            ret.add(tests.get(order[i].intValue()));
+        }
+        return ret;
+    }
+
+    /**
+     * Distributes tests across a number of bins, e.g. shards. The tests are
+     * assigned longest first, each to the bin with the smallest sum of estimated
+     * durations, and the fewest tests if several bins have the same sum.
+     *
+     * @param tests The testcases and testgroups.
+     * @param parentName The full name of the tests' parent.
+     * @param history The TestHistory.
+     * @param bins The number of bins.
+     * @return The index of the bin of every test.
+     */
+    static int[] assign(List tests, String parentName, TestHistory history, int bins) {
+        long[] estimates = getEstimates(tests, parentName, history, new HashMap());
+        Integer[] order = sort(estimates);
+        long[] load = new long[bins];
+        int[] count = new int[bins];
+        int[] ret = new int[tests.size()];
+        for (int i = 0; i < order.length; i++) {
+            int bin = 0;
+            for (int j = 1; j < bins; j++) {
+                if (load[j] < load[bin] || load[j] == load[bin] && count[j] < count[bin]) {
+                    bin = j;
+                }
+            }
+            int test = order[i].intValue();
+            ret[test] = bin;
+            load[bin] += estimates[test];
+            count[bin]++;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the name of a testcase or testgroup, without configuring it. This
+     * is the name attribute as written in the build file, with the properties 
+     * in it replaced.
+     *
+     * @param task The Task.
+     * @return The name, or <code>null</code> if the Task has no name.
+     */
+    static String getTestName(Task task) {
+        Object name = null;
+        if (task instanceof UnknownElement) {
+            Hashtable attributes = task.getRuntimeConfigurableWrapper().getAttributeMap();
+            name = attributes.get("name");
+            if (name != null && task.getProject() != null) {
+                name = task.getProject().replaceProperties(name.toString());
+            }
+        } else if (task instanceof TestGroupTask) {
+            name = ((TestGroupTask)task).getName();
+        }
+        return name == null ? null : name.toString();
+    }
+
+    /**
+     * Returns the estimated durations of tests. Tests with the same name are 
+     * looked up by the names their loggers get, e.g. "foo", "foo_1", "foo_2".
+     */
+    private static long[] getEstimates(List tests, String parentName, 
+                                       TestHistory history, Map counts) {
+        long[] ret = new long[tests.size()];
+        for (int i = 0; i < ret.length; i++) {
+            String name = getTestName((Task)tests.get(i));
+            if (name != null) {
+                String key = name.toLowerCase(Locale.ENGLISH);
+                int[] count = (int[])counts.get(key);
+                if (count == null) {
+                    counts.put(key, new int[] {1});
+                } else {
+                    name = name + "_" + (count[0]++);
+                }
+                if (parentName != null && !"".equals(parentName)) {
+                    name = parentName + "/" + name;
+                }
+            }
+            ret[i] = history.getEstimate(name);
+        }
+        return ret;
+    }
+
+    private static Integer[] sort(final long[] estimates) {
+        Integer[] ret = new Integer[estimates.length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = new Integer(i);
+        }
+        // the sort is stable, tests with the same estimate keep their order
+        Arrays.sort(ret, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long e1 = estimates[((Integer)o1).intValue()];
+                long e2 = estimates[((Integer)o2).intValue()];
+                return e1 > e2 ? -1 : (e1 < e2 ? 1 : 0);
+            }
+        });
+        return ret;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.Execute;
+import org.apache.tools.ant.taskdefs.LogStreamHandler;
+import org.apache.tools.ant.types.Commandline;
+import org.apache.tools.ant.types.CommandlineJava;
+import org.apache.tools.ant.types.Environment;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.util.FileUtils;
+import org.apache.tools.ant.util.JavaEnvUtils;
+import org.apache.tools.ant.util.LoaderUtils;
+
+import org.codehaus.xharness.log.TaskRegistry;
+
+/**
+ * A shard of a sharded XHarness suite, that is executed by a forked JVM. The JVM
+ * runs ant with the build file of the suite and the shard target of the suite, or
+ * the target that contains the &lt;xharness&gt; task. The properties 
+ * {@link #INDEX_PROPERTY} and {@link #TASK_ID_PROPERTY} tell the suite in the 
+ * forked JVM which shard it executes and which task ids it assigns. The user
+ * properties of the suite's project and the class path of ant, including the
+ * libraries added with -lib, are passed on to the forked JVM as well. Other
+ * command line options of ant, like -logger, are not.
+ * <p>
+ * The top-level testcases and testgroups of a suite are assigned to the shards by
+ * the hash code of their name, so that every JVM selects the same tests for a shard.
+ */
+final class Shard implements Runnable {
+    /**
+     * The property that holds the index of the shard executed by a forked JVM.
+     */
+    static final String INDEX_PROPERTY = "xharness.shard.index";
+
+    /**
+     * The property that holds the first task id of the shards of a suite.
+     */
+    static final String TASK_ID_PROPERTY = "xharness.shard.taskid";
+
+    private static final String ANT_MAIN = "org.apache.tools.ant.Main";
+    private static final String ANT_LAUNCHER = "org/apache/tools/ant/launch/AntMain.class";
+
+    private final XharnessTask suite;
+    private final int index;
+    private final int firstTaskId;
+    private int exitCode = -1;
+
+    /**
+     * Creates a shard of a suite.
+     *
+     * @param task The top-level XHarness task of the suite.
+     * @param idx The index of the shard.
+     * @param firstId The first task id of the shards.
+     */
+    Shard(XharnessTask task, int idx, int firstId) {
+        suite = task;
+        index = idx;
+        firstTaskId = firstId;
+    }
+
+    /**
+     * Returns the directory to which a shard writes its results.
+     *
+     * @param resultsDir The results directory of the suite.
+     * @param idx The index of the shard.
+     * @return The results directory of the shard.
+     */
+    static File getResultsdir(File resultsDir, int idx) {
+        return new File(resultsDir, "shard-" + idx);
+    }
+
+    /**
+     * Returns the shard that executes a top-level testcase or testgroup.
+     *
+     * @param name The name of the testcase or testgroup.
+     * @param shards The number of shards.
+     * @return The index of the shard.
+     */
+    static int indexOf(String name, int shards) {
+        return (name.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    /**
+     * Returns the name by which a top-level Task is assigned to a shard. This is
+     * the name attribute of the Task, as written in the build file, or the
+     * position of the Task, if it has no name.
+     *
+     * @param task The Task.
+     * @param position The position of the Task within the suite.
+     * @return The name.
+     */
+    static String getName(Task task, int position) {
+        String name = Schedule.getTestName(task);
+        return name == null ? "#" + position : name;
+    }
+
+    /**
+     * Returns the target that the forked JVMs execute: the shard target of the 
+     * suite, or the target that contains the suite. Every JVM executes the target
+     * and all of its dependencies, concurrently and in the same base directory, 
+     * so a target with dependencies is rejected.
+     *
+     * @param task The top-level XHarness task of the suite.
+     * @return The name of the target, or null if the suite isn't contained in a
+     *         named target.
+     * @throws BuildException If the target doesn't exist or has dependencies.
+     */
+    static String getTargetName(XharnessTask task) throws BuildException {
+        String name = task.getShardtarget();
+        Target target;
+        if (name != null) {
+            target = (Target)task.getProject().getTargets().get(name);
+            if (target == null) {
+                throw new BuildException("Unable to shard " + task + ": target " 
+                                         + name + " does not exist");
+            }
+        } else {
+            target = task.getOwningTarget();
+            if (target == null || target.getName() == null || "".equals(target.getName())) {
+                return null;
+            }
+            name = target.getName();
+        }
+        if (target.getDependencies().hasMoreElements()) {
+            throw new BuildException("Unable to shard " + task + ": target " + name 
+                                     + " has dependencies, which every shard would execute"
+                                     + " again. Set shardtarget to a target without"
+                                     + " dependencies that only contains the suite.");
+        }
+        return name;
+    }
+
+    /**
+     * Returns the index of this shard.
+     *
+     * @return The index.
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the exit code of the forked JVM.
+     *
+     * @return The exit code, or -1 if the JVM hasn't been executed yet.
+     */
+    int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Returns the command line of the forked JVM.
+     *
+     * @return The command line.
+     * @throws BuildException If the build file of the suite is unknown, or the 
+     *                        target can't be executed by the shards.
+     */
+    String[] getCommandline() throws BuildException {
+        Project project = suite.getProject();
+        String buildFile = project.getProperty("ant.file");
+        if (buildFile == null) {
+            throw new BuildException("Unable to shard " + suite + ": build file unknown");
+        }
+        CommandlineJava cmd = new CommandlineJava();
+        cmd.setVm(JavaEnvUtils.getJreExecutable("java"));
+        cmd.setClassname(ANT_MAIN);
+
+        Path classpath = cmd.createClasspath(project);
+        classpath.append(Path.systemClasspath);
+        addSource(classpath, LoaderUtils.getResourceSource(Project.class.getClassLoader(), 
+                                                           ANT_LAUNCHER));
+        addSource(classpath, LoaderUtils.getClassSource(Project.class));
+        addSource(classpath, LoaderUtils.getClassSource(XharnessTask.class));
+        ClassLoader loader = Project.class.getClassLoader();
+        if (loader instanceof URLClassLoader) {
+            // the libraries of the ant installation and those added with -lib
+            URL[] urls = ((URLClassLoader)loader).getURLs();
+            for (int i = 0; i < urls.length; i++) {
+                if ("file".equals(urls[i].getProtocol())) {
+                    addSource(classpath, 
+                              new File(FileUtils.getFileUtils().fromURI(urls[i].toString())));
+                }
+            }
+        }
+        String antHome = project.getProperty("ant.home");
+        if (antHome != null) {
+            FileSet antLib = new FileSet();
+            antLib.setProject(project);
+            antLib.setDir(new File(antHome, "lib"));
+            antLib.setIncludes("*.jar");
+            classpath.addFileset(antLib);
+            Environment.Variable var = new Environment.Variable();
+            var.setKey("ant.home");
+            var.setValue(antHome);
+            cmd.addSysproperty(var);
+        }
+
+        cmd.createArgument().setValue("-buildfile");
+        cmd.createArgument().setValue(buildFile);
+        Hashtable properties = project.getUserProperties();
+        for (Enumeration e = properties.keys(); e.hasMoreElements();) {
+            String key = (String)e.nextElement();
+            if (!INDEX_PROPERTY.equals(key) && !TASK_ID_PROPERTY.equals(key)
+                && !TaskRegistry.CURRENT_TEST_DIR_PROPERY.equals(key)) {
+                cmd.createArgument().setValue("-D" + key + "=" + properties.get(key));
+            }
+        }
+        cmd.createArgument().setValue("-D" + INDEX_PROPERTY + "=" + index);
+        cmd.createArgument().setValue("-D" + TASK_ID_PROPERTY + "=" + firstTaskId);
+        String target = getTargetName(suite);
+        if (target != null) {
+            cmd.createArgument().setValue(target);
+        }
+        return cmd.getCommandline();
+    }
+
+    /**
+     * Executes the shard in a forked JVM and waits until it has finished. The
+     * output of the JVM is logged by the suite.
+     *
+     * @throws BuildException If the JVM can't be started.
+     */
+    public void run() throws BuildException {
+        Project project = suite.getProject();
+        String[] cmd = getCommandline();
+        suite.log("Executing shard " + index + ": " + Commandline.describeCommand(cmd), 
+                  Project.MSG_VERBOSE);
+        Execute exe = new Execute(new LogStreamHandler(suite, 
+                                                       Project.MSG_INFO, 
+                                                       Project.MSG_WARN));
+        exe.setAntRun(project);
+        exe.setWorkingDirectory(project.getBaseDir());
+        exe.setCommandline(cmd);
+        try {
+            exitCode = exe.execute();
+        } catch (IOException e) {
+            throw new BuildException("Unable to execute shard " + index + " of " + suite, e);
+        }
+    }
+
+    private static void addSource(Path classpath, File source) {
+        if (source != null) {
+            classpath.createPathElement().setLocation(source);
+        }
+    }
+}
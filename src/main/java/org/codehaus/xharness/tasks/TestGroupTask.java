@@ -21,13 +21,18 @@ package org.codehaus.xharness.tasks;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.ComponentHelper;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.ProjectComponent;
+import org.apache.tools.ant.ProjectHelper;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.TaskContainer;
 import org.apache.tools.ant.UnknownElement;
@@ -38,6 +43,8 @@ import org.codehaus.xharness.exceptions.AssertionWarningException;
 import org.codehaus.xharness.exceptions.FatalException;
 import org.codehaus.xharness.exceptions.TestSkippedException;
 import org.codehaus.xharness.log.TaskRegistry;
+import org.codehaus.xharness.log.TestHistory;
+import org.codehaus.xharness.log.TestLogger;
 
 /**
  * {@link org.apache.tools.ant.TaskContainer} implementation for Tasks within
@@ -49,6 +56,7 @@ import org.codehaus.xharness.log.TaskRegistry;
 public class TestGroupTask extends Task implements TaskContainer {
     private List children = new LinkedList();
     private String groupName;
+    private int parallel = 1;
 
     //
     // ---- TaskContainer implementation
@@ -95,6 +103,22 @@ public class TestGroupTask extends Task implements TaskContainer {
     // ---- Task overrides
     //
 
+    /**
+     * Set the number of threads on which nested testcases and testgroups are
+     * executed. Other nested Tasks are executed once the testcases and
+     * testgroups before them have finished. Called by the ant runtime.
+     *
+     * @param threads The number of threads. 1 (the default) executes all
+     *                nested Tasks in order, on the calling thread.
+     */
+    public void setParallel(int threads) {
+        parallel = threads;
+    }
+
+    public int getParallel() {
+        return parallel;
+    }
+
     /**
      * Do the execution of this Task.
      * 
@@ -102,35 +126,251 @@ public class TestGroupTask extends Task implements TaskContainer {
      * throws  TestSkippedException If the test doesn't match the test pattern.
      */
     public void execute() throws BuildException {
+        ChildRun.started();
         if (!TaskRegistry.matchesPattern(this)) {
             String msg = toString() + " doesn't match pattern. Skipped.";
             log(msg, Project.MSG_INFO);
             throw new TestSkippedException(msg, true);
         }
         log("Performing " + toString(), Project.MSG_INFO);
-        BuildException error = null;
-        AssertionWarningException warning = null;
+        Failures failures = new Failures();
+        if (parallel > 1) {
+            executeParallel(failures);
+        } else {
+            Iterator iter = children.iterator();
+            while (iter.hasNext()) {
+                Task currentTask = (Task)iter.next();
+                try {
+                    currentTask.perform();
+                } catch (Exception ex) {
+                    failures.add(currentTask, ex);
+                }
+            }
+        }
+        failures.rethrow();
+    }
+
+    /**
+     * Executes the nested testcases and testgroups on a pool of threads. The
+     * children are started one at a time, each one once the previous one has
+     * started. The failures of the children are handled in order, when the 
+     * children before other nested Tasks or all children have finished. No 
+     * further children are started once a child has failed with an error that 
+     * stops the execution of this group. Consecutive children are started 
+     * longest first, see {@link #executeTests(List, Map, List)}.
+     */
+    private void executeParallel(Failures failures) throws BuildException {
+        List runs = new ArrayList();
+        List tests = new ArrayList();
+        Map counts = new HashMap();
         Iterator iter = children.iterator();
         while (iter.hasNext()) {
             Task currentTask = (Task)iter.next();
+            if (isTest(currentTask)) {
+                tests.add(currentTask);
+            } else {
+                boolean aborted = executeTests(tests, counts, runs);
+                tests.clear();
+                addFailures(runs, failures);
+                if (aborted) {
+                    return;
+                }
+                try {
+                    currentTask.perform();
+                } catch (Exception ex) {
+                    failures.add(currentTask, ex);
+                }
+            }
+        }
+        executeTests(tests, counts, runs);
+        addFailures(runs, failures);
+    }
 
-            try {
-                currentTask.perform();
-            } catch (FatalException ex) {
-                log("Fatal: " + ex.getMessage(), Project.MSG_ERR);
-                throw ex;
-            } catch (UnsupportedElementException ex) {
-                log("Fatal: " + ex.getMessage(), Project.MSG_ERR);
-                throw ex;
-            } catch (UnsupportedAttributeException ex) {
+    /**
+     * Executes consecutive nested testcases and testgroups on a pool of threads
+     * and waits until they have finished. The log names and ids of the tests are
+     * reserved in document order, then the tests are started by their durations
+     * in previous runs, longest first, so that the threads finish at about the 
+     * same time.
+     * 
+     * @param tests The testcases and testgroups.
+     * @param counts The number of preceding tests per name, see 
+     *               {@link Schedule#longestFirst(List, String, TestHistory, Map)}.
+     * @param runs The list to which the runs of the tests are added.
+     * @return true, if a test has failed with an error that stops the execution
+     *         of this group, otherwise false.
+     */
+    private boolean executeTests(List tests, Map counts, List runs) {
+        if (tests.isEmpty()) {
+            return false;
+        }
+        List order = tests;
+        TaskRegistry registry = TaskRegistry.getRegistry();
+        TestLogger current = registry == null ? null : registry.getCurrentTest();
+        if (current != null) {
+            for (Iterator iter = tests.iterator(); iter.hasNext();) {
+                Task test = (Task)iter.next();
+                String name = Schedule.getTestName(test);
+                current.reserveChild(test, name == null ? test.getTaskName() : name);
+            }
+            TestHistory history = registry.getHistory();
+            if (history != null && !history.isEmpty()) {
+                order = Schedule.longestFirst(tests, current.getFullName(), history, counts);
+            }
+        }
+        WorkQueue queue = new WorkQueue("XHarness " + toString(), parallel, 1);
+        try {
+            for (Iterator iter = order.iterator(); iter.hasNext();) {
+                ChildRun run = new ChildRun((Task)iter.next());
+                runs.add(run);
+                queue.submit(run);
+                run.waitForStart();
+                if (isAborted(runs)) {
+                    return true;
+                }
+            }
+        } finally {
+            queue.close();
+        }
+        return false;
+    }
+
+    private boolean isAborted(List runs) {
+        for (Iterator iter = runs.iterator(); iter.hasNext();) {
+            Throwable failure = ((ChildRun)iter.next()).getFailure();
+            if (failure != null && !(failure instanceof AssertionWarningException)
+                && !(failure instanceof TestSkippedException)
+                && (failOnError() || !(failure instanceof Exception) 
+                    || failure instanceof FatalException
+                    || failure instanceof UnsupportedElementException
+                    || failure instanceof UnsupportedAttributeException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles the failures of finished children in order and removes the children.
+     */
+    private static void addFailures(List runs, Failures failures) throws BuildException {
+        for (Iterator iter = runs.iterator(); iter.hasNext();) {
+            ChildRun run = (ChildRun)iter.next();
+            iter.remove();
+            Throwable failure = run.getFailure();
+            if (failure instanceof Error) {
+                throw (Error)failure;
+            } else if (failure != null) {
+                failures.add(run.getTask(), (Exception)failure);
+            }
+        }
+    }
+
+    /**
+     * Checks if a nested Task is a testcase or testgroup, without configuring it.
+     * 
+     * @param task The nested Task.
+     * @return true, if the Task is a testcase or testgroup, otherwise false.
+     */
+    boolean isTest(Task task) {
+        Class type = task.getClass();
+        if (task instanceof UnknownElement) {
+            UnknownElement element = (UnknownElement)task;
+            if (element.getRealThing() != null) {
+                type = element.getRealThing().getClass();
+            } else {
+                String name = ProjectHelper.genComponentName(element.getNamespace(), 
+                                                             element.getTag());
+                type = ComponentHelper.getComponentHelper(getProject()).getComponentClass(name);
+            }
+        }
+        return type != null 
+            && TestGroupTask.class.isAssignableFrom(type) 
+            && !ServiceGroupTask.class.isAssignableFrom(type);
+    }
+
+    public String toString() {
+        return "testgroup " + getName();
+    }
+
+    /**
+     * Determines if the execution of this Task's children is interrupted, if
+     * one of the children fails.
+     *
+     * @return  false. TestGroup's continue to execute children even if they fail.
+     */
+    protected boolean failOnError() {
+        return false;
+    }
+
+    /**
+     * A compare function to compare this with another
+     * NestedSequential.
+     * It calls similar on the nested unknown elements.
+     *
+     * @param other the nested sequential to compare with.
+     * @return true if they are similar, false otherwise
+     */
+    public boolean similar(TestGroupTask other) {
+        if (groupName == null && other.getName() != null || !groupName.equals(other.getName())) {
+            return false;
+        }
+        if (children.size() != other.children.size()) {
+            return false;
+        }
+        Iterator iter1 = children.iterator();
+        Iterator iter2 = other.children.iterator();
+        while (iter1.hasNext() && iter2.hasNext()) {
+            Task t1 = (Task)iter1.next();
+            Task t2 = (Task)iter2.next();
+            if (t1 instanceof UnknownElement && t2 instanceof UnknownElement) {
+                if (!((UnknownElement)t1).similar((UnknownElement)t2)) {
+                    return false;
+                }
+            } else {
+                if (t1.getRuntimeConfigurableWrapper() != t2.getRuntimeConfigurableWrapper()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    private Task unwrapTask(Task task) {
+        ProjectComponent comp = TaskRegistry.unwrapComponent(task);
+        if (comp != task && comp instanceof Task) {
+            return (Task)comp;
+        }
+        return task;
+    }
+
+    /**
+     * The failures of the children of a group. The first error and the first
+     * warning are kept and thrown once all children have been executed.
+     */
+    private final class Failures {
+        private BuildException error = null;
+        private AssertionWarningException warning = null;
+
+        /**
+         * Handles the failure of a child Task.
+         *
+         * @param currentTask The child Task.
+         * @param ex The failure.
+         * @throws BuildException If the failure stops the execution of the group.
+         */
+        private void add(Task currentTask, Exception ex) throws BuildException {
+            if (ex instanceof FatalException 
+                || ex instanceof UnsupportedElementException
+                || ex instanceof UnsupportedAttributeException) {
                 log("Fatal: " + ex.getMessage(), Project.MSG_ERR);
-                throw ex;
-            } catch (TestSkippedException ex) {
+                throw (BuildException)ex;
+            } else if (ex instanceof TestSkippedException) {
                 currentTask = unwrapTask(currentTask);
                 if (!(currentTask instanceof TestGroupTask)) {
-                    throw ex;
+                    throw (TestSkippedException)ex;
                 }
-            } catch (AssertionWarningException ex) {
+            } else if (ex instanceof AssertionWarningException) {
                 if (ex.getMessage() != null) {
                     log(ex.getMessage(), Project.MSG_ERR);
                 } else {
@@ -162,7 +402,7 @@ public class TestGroupTask extends Task implements TaskContainer {
                         warning = new AssertionWarningException("Warning in Task " + name, ex);
                     }
                 }
-            } catch (Exception ex) {
+            } else {
                 if (ex instanceof BuildException && ex.getMessage() != null) {
                     log(ex.getMessage(), Project.MSG_ERR);
                 } else {
@@ -200,66 +440,92 @@ public class TestGroupTask extends Task implements TaskContainer {
                 }
             }
         }
-        if (error != null) {
-            throw error;
-        }
-        if (warning != null) {
-            throw warning;
+
+        /**
+         * Throws the first error or, if there was none, the first warning.
+         *
+         * @throws BuildException The first error or warning.
+         */
+        private void rethrow() throws BuildException {
+            if (error != null) {
+                throw error;
+            }
+            if (warning != null) {
+                throw warning;
+            }
         }
     }
-    
-    public String toString() {
-        return "testgroup " + getName();
-    }
 
     /**
-     * Determines if the execution of this Task's children is interrupted, if
-     * one of the children fails.
-     *
-     * @return  false. TestGroup's continue to execute children even if they fail.
+     * The execution of a child Task on a worker thread. The child counts as
+     * started once its own execute method has been called, which happens after
+     * its logger has been created, or once the child has finished.
      */
-    protected boolean failOnError() {
-        return false;
-    }
+    private static final class ChildRun implements Runnable {
+        private static final ThreadLocal STARTING = new ThreadLocal();
 
-    /**
-     * A compare function to compare this with another
-     * NestedSequential.
-     * It calls similar on the nested unknown elements.
-     *
-     * @param other the nested sequential to compare with.
-     * @return true if they are similar, false otherwise
-     */
-    public boolean similar(TestGroupTask other) {
-        if (groupName == null && other.getName() != null || !groupName.equals(other.getName())) {
-            return false;
+        private final Object mutex = new Object();
+        private final Task task;
+        private boolean running;
+        private Throwable failure;
+
+        private ChildRun(Task child) {
+            task = child;
         }
-        if (children.size() != other.children.size()) {
-            return false;
+
+        /**
+         * Marks the child that is executed on the calling thread as started.
+         */
+        private static void started() {
+            ChildRun run = (ChildRun)STARTING.get();
+            if (run != null) {
+                STARTING.set(null);
+                run.setRunning();
+            }
         }
-        Iterator iter1 = children.iterator();
-        Iterator iter2 = other.children.iterator();
-        while (iter1.hasNext() && iter2.hasNext()) {
-            Task t1 = (Task)iter1.next();
-            Task t2 = (Task)iter2.next();
-            if (t1 instanceof UnknownElement && t2 instanceof UnknownElement) {
-                if (!((UnknownElement)t1).similar((UnknownElement)t2)) {
-                    return false;
-                }
-            } else {
-                if (t1.getRuntimeConfigurableWrapper() != t2.getRuntimeConfigurableWrapper()) {
-                    return false;
+
+        public void run() {
+            STARTING.set(this);
+            try {
+                task.perform();
+            } catch (Throwable t) {
+                synchronized (mutex) {
+                    failure = t;
                 }
+            } finally {
+                STARTING.set(null);
+                setRunning();
             }
         }
-        return true;
-    }
-    
-    private Task unwrapTask(Task task) {
-        ProjectComponent comp = TaskRegistry.unwrapComponent(task);
-        if (comp != task && comp instanceof Task) {
-            return (Task)comp;
+
+        private Task getTask() {
+            return task;
+        }
+
+        private Throwable getFailure() {
+            synchronized (mutex) {
+                return failure;
+            }
+        }
+
+        private void setRunning() {
+            synchronized (mutex) {
+                running = true;
+                mutex.notifyAll();
+            }
+        }
+
+        private void waitForStart() {
+            synchronized (mutex) {
+                while (!running) {
+                    try {
+                        mutex.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
         }
-        return task;
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.util.LinkedList;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Bounded queue of jobs, that are run by a fixed number of worker threads.
+ * Threads that add a job to a full queue block until a worker has taken a job
+ * from the queue, so the memory held by pending jobs is bounded.
+ * <p>
+ * If a job fails, the first failure is thrown on the next call to
+ * {@link #submit(Runnable)} or {@link #close()}. Jobs that are still pending
+ * after a failure are run nonetheless.
+ */
+final class WorkQueue implements Runnable {
+    private final Object mutex = new Object();
+    private final LinkedList jobs = new LinkedList();
+    private final int capacity;
+    private final Thread[] workers;
+    private boolean closed;
+    private RuntimeException failure;
+
+    /**
+     * Creates a queue and starts its worker threads.
+     *
+     * @param threads The number of worker threads.
+     * @param maxJobs The maximum number of pending jobs.
+     */
+    WorkQueue(int threads, int maxJobs) {
+        this("XHarness report renderer", threads, maxJobs);
+    }
+
+    /**
+     * Creates a queue and starts its worker threads. The threads are created by
+     * the calling thread, so they inherit its inheritable thread locals.
+     *
+     * @param name The name of the worker threads, to which their number is appended.
+     * @param threads The number of worker threads.
+     * @param maxJobs The maximum number of pending jobs.
+     */
+    WorkQueue(String name, int threads, int maxJobs) {
+        capacity = Math.max(maxJobs, 1);
+        workers = new Thread[Math.max(threads, 1)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this, name + " " + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Adds a job to the queue. Blocks while the queue is full.
+     *
+     * @param job The job.
+     * @throws BuildException If the queue has been closed.
+     * @throws RuntimeException If a previous job has failed.
+     */
+    void submit(Runnable job) {
+        synchronized (mutex) {
+            checkFailure();
+            if (closed) {
+                throw new BuildException("The work queue has been closed");
+            }
+            boolean interrupted = false;
+            while (jobs.size() >= capacity) {
+                try {
+                    mutex.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+            jobs.add(job);
+            mutex.notifyAll();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs all pending jobs and stops the worker threads.
+     *
+     * @throws RuntimeException If a job has failed.
+     */
+    void close() {
+        synchronized (mutex) {
+            closed = true;
+            mutex.notifyAll();
+        }
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (mutex) {
+            checkFailure();
+        }
+    }
+
+    /**
+     * Worker thread. Runs the pending jobs, until the queue is closed and empty.
+     */
+    public void run() {
+        while (true) {
+            Runnable job;
+            synchronized (mutex) {
+                while (jobs.isEmpty() && !closed) {
+                    try {
+                        mutex.wait();
+                    } catch (InterruptedException e) {
+                        // continue until closed
+                    }
+                }
+                if (jobs.isEmpty()) {
+                    return;
+                }
+                job = (Runnable)jobs.removeFirst();
+                mutex.notifyAll();
+            }
+            try {
+                job.run();
+            } catch (RuntimeException re) {
+                synchronized (mutex) {
+                    if (failure == null) {
+                        failure = re;
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            RuntimeException ret = failure;
+            failure = null;
+            throw ret;
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package org.codehaus.xharness.tasks;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.optional.junit.AggregateTransformer;
@@ -18,14 +27,78 @@ import org.codehaus.xharness.util.URLResource;
  * This AggregateTransformer is compatible with both the Ant 1.6 and 1.7 base classes.
  * For each of the two Ant versions a method is overridded that returns the xharness styesheet 
  * instead of the junit one.
+ * <p>
+ * If the aggregated results have been written to a file, the stylesheet is applied to
+ * a {@link StreamSource} of that file, instead of a DOM tree of the results. The frames
+ * report is then generated page by page by a {@link ReportGenerator}.
  *
  * @author  Gregor Heine
  */
 class XhAggregateTransformer extends AggregateTransformer {
+    private File xmlFile;
+    private int threads = 1;
+
     public XhAggregateTransformer(Task task) {
         super(task);
     }
 
+    /**
+     * Sets the file containing the aggregated results, which is transformed 
+     * instead of the XML document.
+     * 
+     * @param file The file.
+     */
+    public void setXmlFile(File file) {
+        xmlFile = file;
+    }
+
+    /**
+     * Sets the number of threads that render the pages of the frames report.
+     * 
+     * @param count The number of threads.
+     */
+    public void setThreads(int count) {
+        threads = count;
+    }
+
+    /**
+     * Applies the XHarness stylesheet to the aggregated results. The results
+     * are streamed from the file set by {@link #setXmlFile(File)}. If no file has
+     * been set, the XML document is transformed by the base class. The frames report
+     * is rendered by a {@link ReportGenerator}, on the number of threads set by
+     * {@link #setThreads(int)}.
+     * 
+     * @throws BuildException If the transformation fails.
+     */
+    public void transform() throws BuildException {
+        if (xmlFile == null) {
+            super.transform();
+            return;
+        }
+        checkOptions();
+        try {
+            if (FRAMES.equals(format)) {
+                new ReportGenerator(toDir, threads).generate(xmlFile);
+                return;
+            }
+            Transformer transformer = TransformerFactory.newInstance().newTransformer(
+                new StreamSource(getStylesheetURL().toExternalForm()));
+            transformer.setParameter("output.dir", toDir.getAbsolutePath());
+            OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(new File(toDir, "junit-noframes.html")));
+            try {
+                transformer.transform(new StreamSource(xmlFile), new StreamResult(out));
+            } finally {
+                out.close();
+            }
+        } catch (BuildException be) {
+            throw be;
+        } catch (Exception e) {
+            throw new BuildException("Errors while applying transformations: " 
+                                     + e.getMessage(), e);
+        }
+    }
+
     public void setStyledir(File styledir) {
         task.log("This task doesn't support the styledir attribute. It is ignored.", 
                  Project.MSG_WARN);
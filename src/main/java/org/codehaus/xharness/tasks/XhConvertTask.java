@@ -0,0 +1,124 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.tasks;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.util.FileUtils;
+
+import org.codehaus.xharness.exceptions.FatalException;
+import org.codehaus.xharness.log.BinaryResultReader;
+import org.codehaus.xharness.log.JournalReader;
+
+/**
+ * Converts the results journal segments and binary results files in a results
+ * directory into individual XML result files, as written by the &lt;xharness&gt;
+ * task without journal or binary format. Output files that the results refer to
+ * are copied to the output directory as well.
+ */
+public class XhConvertTask extends Task {
+    private static final String OUTPUT_SUFFIX = ".out.gz";
+    private static final FileUtils FILE_UTILS = FileUtils.getFileUtils();
+
+    private File dir;
+    private File todir;
+
+    /**
+     * Sets the results directory containing the journal segments and binary
+     * results files.
+     * Called by the ant runtime.
+     *
+     * @param resultsdir The results directory.
+     */
+    public void setDir(File resultsdir) {
+        dir = resultsdir;
+    }
+
+    /**
+     * Sets the directory to write the result files to. Defaults to the
+     * results directory. Called by the ant runtime.
+     *
+     * @param outdir The output directory.
+     */
+    public void setTodir(File outdir) {
+        todir = outdir;
+    }
+
+    /**
+     * Do the execution of the task.
+     *
+     * @throws BuildException If the dir attribute isn't set or a journal segment
+     *                        or binary results file can't be converted.
+     */
+    public void execute() throws BuildException {
+        if (dir == null) {
+            throw new FatalException("The dir attribute is required.");
+        }
+        File outdir = todir == null ? dir : todir;
+        if (!outdir.isDirectory() && !outdir.mkdirs()) {
+            throw new BuildException("Unable to create directory " + outdir);
+        }
+        File[] segments = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() 
+                    && (JournalReader.isSegment(file) || BinaryResultReader.isBinary(file));
+            }
+        });
+        if (segments == null) {
+            throw new BuildException("Results directory " + dir + " doesn't exist");
+        }
+        Arrays.sort(segments);
+        for (int i = 0; i < segments.length; i++) {
+            boolean binary = BinaryResultReader.isBinary(segments[i]);
+            try {
+                int count = binary 
+                    ? BinaryResultReader.export(segments[i], outdir)
+                    : JournalReader.convert(segments[i], outdir);
+                log("Converted " + count + " results from " + segments[i], Project.MSG_VERBOSE);
+            } catch (IOException e) {
+                throw new BuildException("Unable to convert " 
+                                         + (binary ? "binary results " : "results journal ") 
+                                         + segments[i], e);
+            }
+        }
+        if (segments.length > 0 && !FILE_UTILS.fileNameEquals(dir, outdir)) {
+            copyOutputFiles(outdir);
+        }
+    }
+
+    private void copyOutputFiles(File outdir) throws BuildException {
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(OUTPUT_SUFFIX);
+            }
+        });
+        for (int i = 0; files != null && i < files.length; i++) {
+            try {
+                FILE_UTILS.copyFile(files[i], new File(outdir, files[i].getName()));
+            } catch (IOException e) {
+                throw new BuildException("Unable to copy output file " + files[i], e);
+            }
+        }
+    }
+}
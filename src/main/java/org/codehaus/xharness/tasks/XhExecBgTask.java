@@ -31,6 +31,7 @@ import org.apache.tools.ant.taskdefs.Sequential;
 import org.apache.tools.ant.types.Commandline;
 
 import org.codehaus.xharness.exceptions.FatalException;
+import org.codehaus.xharness.log.LineBuffer;
 import org.codehaus.xharness.procutil.BgProcess;
 import org.codehaus.xharness.procutil.ProcessRegistry;
 import org.codehaus.xharness.procutil.ScriptLauncher;
@@ -54,6 +55,8 @@ public class XhExecBgTask extends XhExecTask implements Runnable, BgProcess {
     private File launcherArgsFile = null;
     private String launchedCommandLine = null;
     private ScriptLauncher launcher = null;
+    private int keepHead = 0;
+    private int keepTail = 0;
 
     /**
      * Constructor.
@@ -92,6 +95,43 @@ public class XhExecBgTask extends XhExecTask implements Runnable, BgProcess {
         }
     }
 
+    /**
+     * Set the number of lines to keep from the start of the process output.
+     * If a head or tail size is set, the output in between is dropped 
+     * once it exceeds these sizes.
+     * 
+     * @param lines The number of head lines.
+     */
+    public void setKeephead(int lines) {
+        keepHead = lines;
+    }
+
+    /**
+     * Set the number of lines to keep from the end of the process output.
+     * If a head or tail size is set, the output in between is dropped 
+     * once it exceeds these sizes.
+     * 
+     * @param lines The number of tail lines.
+     */
+    public void setKeeptail(int lines) {
+        keepTail = lines;
+    }
+
+    /**
+     * Enables logging of the process output to the LineBuffer and applies
+     * the retention policy of this task to the buffer.
+     * 
+     * @param buffer The LineBuffer that records the output.
+     * @param outPrio Logging priority for standard out messages
+     * @param errPrio Logging priority for standard err messages
+     */
+    public void enableLogging(LineBuffer buffer, int outPrio, int errPrio) {
+        if (keepHead > 0 || keepTail > 0) {
+            buffer.setRetention(keepHead, keepTail);
+        }
+        super.enableLogging(buffer, outPrio, errPrio);
+    }
+
     public String getProcessName() {
         return processName;
     }
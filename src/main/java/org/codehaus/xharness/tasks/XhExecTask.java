@@ -132,6 +132,18 @@ public class XhExecTask extends ExecTask implements LoggableProcess {
         return cmdl.toString();
     }
 
+    /**
+     * Sets the character encoding of the process output. Used to decode the output
+     * that is recorded in the process log. Defaults to the platform's encoding.
+     *
+     * @param encoding The name of the encoding, e.g. "UTF-8".
+     */
+    public void setEncoding(String encoding) {
+        if (redirector instanceof LoggingRedirector) {
+            ((LoggingRedirector)redirector).setEncoding(encoding);
+        }
+    }
+
     public void enableLogging(LineBuffer buffer, int outPrio, int errPrio) {
         if (redirector instanceof LoggingRedirector) {
             ((LoggingRedirector)redirector).enableLogging(buffer, outPrio, errPrio);
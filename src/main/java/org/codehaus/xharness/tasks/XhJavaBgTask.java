@@ -21,6 +21,7 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Sequential;
 
+import org.codehaus.xharness.log.LineBuffer;
 import org.codehaus.xharness.procutil.BgProcess;
 import org.codehaus.xharness.procutil.ProcessRegistry;
 
@@ -35,6 +36,8 @@ public class XhJavaBgTask extends XhJavaTask implements Runnable, BgProcess {
     private long preKillTimeout = 0;
     private boolean isRunning = false;
     private Sequential afterwards;
+    private int keepHead = 0;
+    private int keepTail = 0;
 
     /**
      * Constructor.
@@ -70,6 +73,43 @@ public class XhJavaBgTask extends XhJavaTask implements Runnable, BgProcess {
         }
     }
 
+    /**
+     * Set the number of lines to keep from the start of the process output.
+     * If a head or tail size is set, the output in between is dropped 
+     * once it exceeds these sizes.
+     * 
+     * @param lines The number of head lines.
+     */
+    public void setKeephead(int lines) {
+        keepHead = lines;
+    }
+
+    /**
+     * Set the number of lines to keep from the end of the process output.
+     * If a head or tail size is set, the output in between is dropped 
+     * once it exceeds these sizes.
+     * 
+     * @param lines The number of tail lines.
+     */
+    public void setKeeptail(int lines) {
+        keepTail = lines;
+    }
+
+    /**
+     * Enables logging of the process output to the LineBuffer and applies
+     * the retention policy of this task to the buffer.
+     * 
+     * @param buffer The LineBuffer that records the output.
+     * @param outPrio Logging priority for standard out messages
+     * @param errPrio Logging priority for standard err messages
+     */
+    public void enableLogging(LineBuffer buffer, int outPrio, int errPrio) {
+        if (keepHead > 0 || keepTail > 0) {
+            buffer.setRetention(keepHead, keepTail);
+        }
+        super.enableLogging(buffer, outPrio, errPrio);
+    }
+
     public String getProcessName() {
         return processName;
     }
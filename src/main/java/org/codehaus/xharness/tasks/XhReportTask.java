@@ -17,21 +17,30 @@
 
 package org.codehaus.xharness.tasks;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stream.StreamResult;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.optional.junit.AggregateTransformer;
-import org.apache.tools.ant.taskdefs.optional.junit.DOMUtil;
 import org.apache.tools.ant.taskdefs.optional.junit.XMLResultAggregator;
 import org.apache.tools.ant.util.StringUtils;
 
+import org.codehaus.xharness.log.BinaryResultReader;
+import org.codehaus.xharness.log.JournalReader;
 import org.codehaus.xharness.log.XMLConstants;
 
 import org.w3c.dom.Document;
@@ -52,6 +61,24 @@ import org.xml.sax.SAXException;
  * is IMHO the simplest way to do it to avoid this file hacking thing.
  * 
  * Modified version of {@link org.apache.tools.ant.taskdefs.optional.junit.XMLResultAggregator}.
+ * <p>
+ * Results journal segments (*.xhj files) are read record by record, every record is
+ * aggregated like an individual result file. Binary results files (*.xhb files) are
+ * exported to individual result files in a temporary directory first, which is
+ * deleted when the results have been merged.
+ * <p>
+ * The result files are merged with SAX and the merged document is streamed to the
+ * destination file, which is passed on to the report transformers. Neither the
+ * individual results nor the merged document are held in memory as DOM trees.
+ * The results are merged in the order of their order ids, so the merged document
+ * doesn't depend on the order in which the files are found.
+ * <p>
+ * With more than one thread, the result files are parsed in parallel, each into
+ * a {@link SAXBuffer}, and merged in order as soon as they are parsed. The number
+ * of parsed results waiting to be merged is limited.
+ * <p>
+ * If a cache file is set, the parsed results are stored in a {@link ResultCache},
+ * and result files that haven't changed since are read from the cache.
  *
  * @author <a href="mailto:sbailliez@imediation.com">Stephane Bailliez</a>
  * @author Gregor Heine
@@ -59,6 +86,8 @@ import org.xml.sax.SAXException;
 public class XhReportTask extends XMLResultAggregator implements XMLConstants {
     private boolean failOnError = false;
     private Vector failedTests = new Vector();
+    private int threads = 1;
+    private File cacheFile;
 
 
     /**
@@ -80,6 +109,25 @@ public class XhReportTask extends XMLResultAggregator implements XMLConstants {
         this.failOnError = failonerror;
     }
 
+    /**
+     * Sets the number of threads that parse the result files and render the pages
+     * of the frames report. Default is 1.
+     * @param count the number of threads
+     */
+    public void setThreads(int count) {
+        this.threads = count;
+    }
+
+    /**
+     * Sets the file in which the parsed results are cached. Only the result
+     * files that are new or have changed since the cache has been written are
+     * parsed.
+     * @param file the cache file
+     */
+    public void setCachefile(File file) {
+        this.cacheFile = file;
+    }
+
     /**
      * Aggregate all testsuites into a single document and write it to the
      * specified directory and file.
@@ -87,7 +135,27 @@ public class XhReportTask extends XMLResultAggregator implements XMLConstants {
      *          the document.
      */
     public void execute() throws BuildException {
-        super.execute();
+        File destFile = getDestinationFile();
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(destFile));
+            try {
+                merge(new StreamResult(out));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new BuildException("Unable to write test aggregate to '" + destFile + "'", e);
+        } catch (SAXException e) {
+            throw new BuildException("Unable to write test aggregate to '" + destFile + "'", e);
+        }
+        Enumeration transformerEnum = transformers.elements();
+        while (transformerEnum.hasMoreElements()) {
+            XhAggregateTransformer transformer = 
+                (XhAggregateTransformer)transformerEnum.nextElement();
+            transformer.setXmlFile(destFile);
+            transformer.setThreads(threads);
+            transformer.transform();
+        }
         if (failedTests.size() > 0) {
             log("The following tests failed:", Project.MSG_WARN);
             Enumeration e = failedTests.elements();
@@ -111,60 +179,258 @@ public class XhReportTask extends XMLResultAggregator implements XMLConstants {
     /**
      * <p> Create a DOM tree.
      * Has 'testsuites' as firstchild and aggregates all
-     * testsuite results that exists in the base directory.
+     * testsuite results that exists in the base directory, including
+     * the records of results journals.
      * @return  the root element of DOM tree that aggregates all testsuites.
      */
     protected Element createDocument() {
-        // create the dom tree
-        DocumentBuilder builder = getDocumentBuilder();
-        Document doc = builder.newDocument();
-        Element rootElement = doc.createElement(RESULTS);
-        doc.appendChild(rootElement);
-
-        // get all files and add them to the document
-        File[] files = getFiles();
+        Document doc;
+        try {
+            doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            merge(new DOMResult(doc));
+        } catch (Exception exc) {
+            throw new BuildException("Unable to create test aggregate", exc);
+        }
+        return doc.getDocumentElement();
+    }
+
+    /**
+     * Merges all result files into a single document, in the order of the
+     * results' order ids.
+     */
+    private void merge(Result result) throws SAXException {
+        ResultMerger merger = new ResultMerger(result, failedTests);
+        ResultCache cache = null;
+        if (cacheFile != null) {
+            cache = new ResultCache(cacheFile);
+            if (!cache.load()) {
+                log("The result cache " + cacheFile + " is invalid. It is rebuilt.", 
+                    Project.MSG_WARN);
+            }
+        }
+        File exportDir = null;
+        try {
+            File[] files = getFiles();
+            for (int i = 0; i < files.length && exportDir == null; i++) {
+                if (BinaryResultReader.isBinary(files[i])) {
+                    exportDir = createExportDir();
+                    files = exportBinaryFiles(files, exportDir);
+                }
+            }
+            final ResultSource[] sources = scan(files, cache);
+            if (threads <= 1 && cache == null) {
+                for (int i = 0; i < sources.length; i++) {
+                    logParsing(sources[i]);
+                    merger.setSourceDir(sources[i].getFile().getParentFile());
+                    try {
+                        merger.merge(sources[i].open());
+                    } catch (SAXException e) {
+                        logInvalid(sources[i], e);
+                    } catch (IOException e) {
+                        logAccessError(sources[i], e);
+                    }
+                }
+            } else {
+                mergeBuffered(merger, sources, cache);
+            }
+            if (cache != null) {
+                try {
+                    cache.commit();
+                } catch (IOException e) {
+                    log("Unable to write result cache " + cacheFile + ": " + e.getMessage(), 
+                        Project.MSG_WARN);
+                }
+            }
+        } finally {
+            if (cache != null) {
+                cache.close();
+            }
+            if (exportDir != null) {
+                deleteExportDir(exportDir);
+            }
+        }
+        merger.close();
+    }
+
+    /**
+     * Exports the binary results files to individual result files and returns
+     * the other files and the exported ones.
+     */
+    private File[] exportBinaryFiles(File[] files, File exportDir) {
+        List ret = new ArrayList();
         for (int i = 0; i < files.length; i++) {
+            if (!BinaryResultReader.isBinary(files[i])) {
+                ret.add(files[i]);
+                continue;
+            }
+            log("Exporting binary results: '" + files[i] + "'", Project.MSG_VERBOSE);
             try {
-                log("Parsing file: '" + files[i] + "'", Project.MSG_VERBOSE);
-                //REVISIT there seems to be a bug in xerces 1.3.0 that doesn't like file object
-                // will investigate later. It does not use the given directory but
-                // the vm dir instead ? Works fine with crimson.
-                Document testsuiteDoc = builder.parse("file:///" + files[i].getAbsolutePath());
-                Element elem = testsuiteDoc.getDocumentElement();
-                DOMUtil.importNode(rootElement, elem);
-                String result = elem.getAttribute(ATTR_RESULT).toLowerCase();
-                if ("warning".equals(result)
-                        || "failed".equals(result)
-                        || "invalid".equals(result)) {
-                    failedTests.add(elem.getAttribute(ATTR_PARENT)
-                            + "/" + elem.getAttribute(ATTR_TASK_NAME));
-                }
-            } catch (SAXException e) {
-                // a testcase might have failed and write a zero-length document,
-                // It has already failed, but hey.... mm. just put a warning
-                log("The file " + files[i]
-                    + " is not a valid XML document. It is possibly corrupted.",
-                    Project.MSG_WARN);
-                log(StringUtils.getStackTrace(e), Project.MSG_DEBUG);
+                BinaryResultReader.export(files[i], exportDir);
             } catch (IOException e) {
-                log("Error while accessing file " + files[i] + ": " + e.getMessage(), 
-                    Project.MSG_ERR);
+                log("Error while accessing binary results " + files[i] + ": " 
+                    + e.getMessage(), Project.MSG_ERR);
+            }
+        }
+        File[] exported = exportDir.listFiles();
+        Arrays.sort(exported);
+        ret.addAll(Arrays.asList(exported));
+        return (File[])ret.toArray(new File[ret.size()]);
+    }
+
+    private File createExportDir() {
+        try {
+            File dir = File.createTempFile("xhb", ".tmp", getDestinationFile().getParentFile());
+            if (dir.delete() && dir.mkdir()) {
+                return dir;
             }
+            throw new IOException("Unable to create directory " + dir);
+        } catch (IOException e) {
+            throw new BuildException("Unable to export binary results: " + e.getMessage(), e);
         }
-        return rootElement;
+    }
+
+    private void deleteExportDir(File dir) {
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
     }
 
     /**
-     * Create a new document builder. Will issue an <tt>ExceptionInitializerError</tt>
-     * if something is going wrong. It is fatal anyway.
-     * @todo factorize this somewhere else. It is duplicated code.
-     * @return a new document builder to create a DOM
+     * Parses the results on the given number of threads, or reads them from the
+     * cache, and merges them in order. Parsed results are added to the cache.
      */
-    private static DocumentBuilder getDocumentBuilder() {
+    private void mergeBuffered(ResultMerger merger, 
+                               final ResultSource[] sources, 
+                               final ResultCache cache) throws SAXException {
+        OrderedWork work = new OrderedWork(sources.length, threads, threads * 4) {
+            protected Object process(int index) throws Exception {
+                if (sources[index].isCached()) {
+                    return cache.read(sources[index]);
+                }
+                return sources[index].parse();
+            }
+        };
+        work.start();
         try {
-            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        } catch (Exception exc) {
-            throw new ExceptionInInitializerError(exc);
+            for (int i = 0; i < sources.length; i++) {
+                if (!sources[i].isCached()) {
+                    logParsing(sources[i]);
+                }
+                SAXBuffer buffer;
+                try {
+                    buffer = (SAXBuffer)work.take(i);
+                } catch (SAXException e) {
+                    logInvalid(sources[i], e);
+                    invalidate(cache, sources[i]);
+                    continue;
+                } catch (IOException e) {
+                    logAccessError(sources[i], e);
+                    invalidate(cache, sources[i]);
+                    continue;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new BuildException("Unable to parse " + sources[i].getFile(), e);
+                }
+                merger.setSourceDir(sources[i].getFile().getParentFile());
+                merger.merge(buffer);
+                if (cache != null) {
+                    try {
+                        cache.add(sources[i], buffer);
+                    } catch (IOException e) {
+                        throw new BuildException("Unable to write result cache " + cacheFile, 
+                                                 e);
+                    }
+                }
+            }
+        } finally {
+            work.close();
+        }
+    }
+
+    private static void invalidate(ResultCache cache, ResultSource source) {
+        if (cache != null) {
+            cache.invalidate(source.getFile());
+        }
+    }
+
+    /**
+     * Reads the order ids of all results, on the given number of threads, and
+     * returns the sources of the results, ordered by their order ids. The order
+     * ids of unchanged files are taken from the cache.
+     */
+    private ResultSource[] scan(final File[] files, final ResultCache cache) {
+        OrderedWork work = new OrderedWork(files.length, threads, files.length) {
+            protected Object process(int index) throws Exception {
+                if (cache != null) {
+                    ResultSource[] cached = cache.lookup(files[index]);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
+                return ResultSource.scan(files[index]);
+            }
+        };
+        List sources = new ArrayList();
+        work.start();
+        try {
+            for (int i = 0; i < files.length; i++) {
+                if (JournalReader.isSegment(files[i])) {
+                    log("Reading journal: '" + files[i] + "'", Project.MSG_VERBOSE);
+                }
+                try {
+                    ResultSource[] found = (ResultSource[])work.take(i);
+                    for (int j = 0; j < found.length; j++) {
+                        found[j].setSequence(sources.size());
+                        sources.add(found[j]);
+                    }
+                } catch (IOException e) {
+                    log("Error while accessing journal " + files[i] + ": " + e.getMessage(), 
+                        Project.MSG_ERR);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new BuildException("Unable to read " + files[i], e);
+                }
+            }
+        } finally {
+            work.close();
+        }
+        ResultSource[] ret = (ResultSource[])sources.toArray(new ResultSource[sources.size()]);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private void logParsing(ResultSource source) {
+        if (source.getRecordName() == null) {
+            log("Parsing file: '" + source.getFile() + "'", Project.MSG_VERBOSE);
+        }
+    }
+
+    private void logInvalid(ResultSource source, SAXException e) {
+        if (source.getRecordName() == null) {
+            // a testcase might have failed and write a zero-length document,
+            // It has already failed, but hey.... mm. just put a warning
+            log("The file " + source.getFile()
+                + " is not a valid XML document. It is possibly corrupted.",
+                Project.MSG_WARN);
+        } else {
+            log("The record " + source.getRecordName() + " of journal " + source.getFile()
+                + " is not a valid XML document. It is possibly corrupted.",
+                Project.MSG_WARN);
+        }
+        log(StringUtils.getStackTrace(e), Project.MSG_DEBUG);
+    }
+
+    private void logAccessError(ResultSource source, IOException e) {
+        if (source.getRecordName() == null) {
+            log("Error while accessing file " + source.getFile() + ": " + e.getMessage(), 
+                Project.MSG_ERR);
+        } else {
+            log("Error while accessing record " + source.getRecordName() + " of journal " 
+                + source.getFile() + ": " + e.getMessage(), Project.MSG_ERR);
         }
     }
 }
@@ -18,12 +18,18 @@
 package org.codehaus.xharness.tasks;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
 
+import org.codehaus.xharness.exceptions.AssertionWarningException;
 import org.codehaus.xharness.exceptions.FatalException;
 import org.codehaus.xharness.log.TaskRegistry;
+import org.codehaus.xharness.log.TestHistory;
 
 /**
  * {@link org.apache.tools.ant.TaskContainer} implementation for Tasks within
@@ -37,6 +43,17 @@ public class XharnessTask extends TestGroupTask {
     private File basedir = null;
     private String pattern = null;
     private String errorProperty = null;
+    private long spillThreshold = 0;
+    private boolean stripAnsi = false;
+    private int resultQueue = 0;
+    private boolean syncResults = false;
+    private boolean journal = false;
+    private boolean binary = false;
+    private long outputThreshold = 0;
+    private int shards = 1;
+    private int shardIndex = -1;
+    private String shardTarget;
+    private long defaultEstimate = -1;
 
     /**
      * Sets the directory for result output. In this directory, the results of
@@ -49,11 +66,15 @@ public class XharnessTask extends TestGroupTask {
     }
 
     /**
-     * Get the base directory for test processes.
+     * Get the directory for result output. The shard of a sharded suite writes its
+     * results to a subdirectory of the results directory.
      *
-     * @return The test base directory
+     * @return The results directory
      */
     public File getResultsdir() {
+        if (resultsdir != null && isShard()) {
+            return Shard.getResultsdir(resultsdir, getShardindex());
+        }
         return resultsdir;
     }
 
@@ -99,6 +120,255 @@ public class XharnessTask extends TestGroupTask {
         return errorProperty;
     }
 
+    /**
+     * Sets the number of characters of output that a single task keeps in memory.
+     * Output exceeding this threshold is moved to segment files in the results 
+     * directory until the suite has finished. A value of 0 (the default) keeps all
+     * output in memory. Called by the ant runtime.
+     *
+     * @param threshold The spill threshold in characters.
+     */
+    public void setSpillthreshold(long threshold) {
+        spillThreshold = threshold;
+    }
+
+    /**
+     * Get the number of characters of output that a single task keeps in memory.
+     *
+     * @return The spill threshold in characters, or 0 to keep all output in memory.
+     */
+    public long getSpillthreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Sets whether ANSI escape codes are removed from all output when it is
+     * logged, so that only the filtered text is stored and reported. 
+     * Called by the ant runtime.
+     *
+     * @param strip true to store the output without ANSI escape codes.
+     */
+    public void setStripansi(boolean strip) {
+        stripAnsi = strip;
+    }
+
+    /**
+     * Get whether ANSI escape codes are removed from all output when it is logged.
+     *
+     * @return true, if the output is stored without ANSI escape codes.
+     */
+    public boolean isStripansi() {
+        return stripAnsi;
+    }
+
+    /**
+     * Sets the number of results that may be waiting to be written to the results
+     * directory. Results are written by a background thread, tasks that finish while
+     * the queue is full wait until there is room. A value of 0 writes every result
+     * when its task finishes. Default is 0. Called by the ant runtime.
+     *
+     * @param size The maximum number of queued results.
+     */
+    public void setResultqueue(int size) {
+        resultQueue = size;
+    }
+
+    /**
+     * Get the number of results that may be waiting to be written.
+     *
+     * @return The maximum number of queued results.
+     */
+    public int getResultqueue() {
+        return resultQueue;
+    }
+
+    /**
+     * Sets whether the result files are synced to disk whenever the result of a
+     * testcase or testgroup has been written. Called by the ant runtime.
+     *
+     * @param sync true to sync the result files at testcase boundaries.
+     */
+    public void setSyncresults(boolean sync) {
+        syncResults = sync;
+    }
+
+    /**
+     * Get whether the result files are synced to disk at testcase boundaries.
+     *
+     * @return true, if the result files are synced.
+     */
+    public boolean isSyncresults() {
+        return syncResults;
+    }
+
+    /**
+     * Sets whether the results are appended to a journal of a few large segment
+     * files in the results directory, instead of being written to one file per
+     * task. Called by the ant runtime.
+     *
+     * @param enable true to write the results to a journal.
+     */
+    public void setJournal(boolean enable) {
+        journal = enable;
+    }
+
+    /**
+     * Get whether the results are appended to a journal.
+     *
+     * @return true, if the results are written to a journal.
+     */
+    public boolean isJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets whether the results are written to a compact binary file in the results
+     * directory, instead of XML. Takes precedence over the journal. Called by the
+     * ant runtime.
+     *
+     * @param enable true to write the results in the binary format.
+     */
+    public void setBinary(boolean enable) {
+        binary = enable;
+    }
+
+    /**
+     * Get whether the results are written in the binary format.
+     *
+     * @return true, if the results are written to a binary file.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Sets the number of characters of output above which the output of a task is
+     * written to a separate, compressed file next to its XML result file. The
+     * report loads such output only when the task's page is viewed. A value of 0
+     * (the default) keeps all output in the result files. Called by the ant runtime.
+     *
+     * @param threshold The output threshold in characters.
+     */
+    public void setOutputthreshold(long threshold) {
+        outputThreshold = threshold;
+    }
+
+    /**
+     * Get the number of characters of output above which the output of a task
+     * is written to a separate file.
+     *
+     * @return The output threshold in characters, or 0 to keep all output in the
+     *         result files.
+     */
+    public long getOutputthreshold() {
+        return outputThreshold;
+    }
+
+    /**
+     * Sets the number of shards into which the suite is split. Each shard is
+     * executed by a separate JVM, that runs the shard target, or the target
+     * containing this task, with the build file of the project. The top-level
+     * testcases and testgroups are assigned to the shards by their durations in
+     * previous runs, or by their name if there is no history. All other top-level
+     * tasks are executed by every shard. Each shard writes its results to a
+     * subdirectory of the results directory. Default is 1, which executes the
+     * suite in this JVM. Called by the ant runtime.
+     *
+     * @param count The number of shards.
+     */
+    public void setShards(int count) {
+        shards = count;
+    }
+
+    /**
+     * Get the number of shards into which the suite is split.
+     *
+     * @return The number of shards.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Sets the target that the JVMs executing the shards run. The target must not
+     * have dependencies and should only contain an xharness task with the same 
+     * results directory and number of shards as this task. Default is the target 
+     * containing this task. Called by the ant runtime.
+     *
+     * @param target The name of the target.
+     */
+    public void setShardtarget(String target) {
+        shardTarget = target;
+    }
+
+    /**
+     * Get the target that the JVMs executing the shards run.
+     *
+     * @return The name of the target, or <code>null</code> to run the target
+     *         containing this task.
+     */
+    public String getShardtarget() {
+        return shardTarget;
+    }
+
+    /**
+     * Sets the index of the shard that is executed by this task, from 0 to
+     * shards - 1. If not set, the index is taken from the property 
+     * "xharness.shard.index", which is set for the JVMs executing the shards.
+     * Called by the ant runtime.
+     *
+     * @param index The index of the shard.
+     */
+    public void setShardindex(int index) {
+        shardIndex = index;
+    }
+    
+    /**
+     * Get the index of the shard that is executed by this task.
+     *
+     * @return The shard index, or -1 if this task starts the shards.
+     */
+    public int getShardindex() {
+        if (shardIndex < 0 && getProject() != null) {
+            String index = getProject().getProperty(Shard.INDEX_PROPERTY);
+            if (index != null) {
+                return Integer.parseInt(index);
+            }
+        }
+        return shardIndex;
+    }
+
+    /**
+     * Sets the estimated duration of tests that haven't been executed before,
+     * used to order the tests executed in parallel and to distribute the tests
+     * across shards. Called by the ant runtime.
+     *
+     * @param estimate The estimated duration in milliseconds. A negative value
+     *                 (the default) uses the average duration of the other tests.
+     */
+    public void setDefaultestimate(long estimate) {
+        defaultEstimate = estimate;
+    }
+
+    /**
+     * Get the estimated duration of tests that haven't been executed before.
+     *
+     * @return The estimated duration in milliseconds, or a negative value to use
+     *         the average duration of the other tests.
+     */
+    public long getDefaultestimate() {
+        return defaultEstimate;
+    }
+
+    /**
+     * Test if this task executes a shard of a sharded suite.
+     *
+     * @return true, if the suite has more than one shard and a shard index is set.
+     */
+    public boolean isShard() {
+        return shards > 1 && getShardindex() >= 0;
+    }
+
     /**
      * Do the execution of this Task.
      * 
@@ -109,10 +379,29 @@ public class XharnessTask extends TestGroupTask {
             throw new FatalException("Required attribute \"resultsdir\" not set!");
         }
 
+        if (shards > 1 && getShardindex() >= shards) {
+            throw new FatalException("Invalid shard index " + getShardindex() + " for " 
+                                     + shards + " shards");
+        }
+        if (isShard()) {
+            getResultsdir().mkdirs();
+        } else if (shards > 1) {
+            // fail before any JVM is started if the shards can't execute the target
+            Shard.getTargetName(this);
+        }
+
         TaskRegistry registry = TaskRegistry.init(this);
+        registry.getHistory().setDefaultEstimate(defaultEstimate);
         BuildException exception = null;
         try {
-            super.execute();
+            if (isShard()) {
+                selectShard(registry);
+                super.execute();
+            } else if (shards > 1) {
+                executeShards(registry);
+            } else {
+                super.execute();
+            }
         } catch (BuildException be) {
             exception = be;
         } finally {
@@ -123,6 +412,90 @@ public class XharnessTask extends TestGroupTask {
                 log("Completed " + toString(), Project.MSG_INFO);
             }
         }
+        if (exception != null && isShard() && !(exception instanceof AssertionWarningException)) {
+            // fail the shard's JVM, so that the suite fails
+            throw exception;
+        }
+    }
+
+    /**
+     * Executes the shards of this suite in forked JVMs, one thread per shard, and
+     * waits until all of them have finished. Each shard assigns every 
+     * (shards + 1)-th task id, this JVM assigns the remaining ones.
+     */
+    private void executeShards(TaskRegistry registry) throws BuildException {
+        int firstId = registry.getNextId();
+        registry.setTaskIds(firstId, shards + 1);
+        Shard[] runs = new Shard[shards];
+        WorkQueue queue = new WorkQueue("XHarness " + toString() + " shard", shards, shards);
+        try {
+            for (int i = 0; i < shards; i++) {
+                Shard.getResultsdir(resultsdir, i).mkdirs();
+                runs[i] = new Shard(this, i, firstId);
+                queue.submit(runs[i]);
+            }
+        } finally {
+            queue.close();
+        }
+        int nextId = registry.getNextId();
+        for (int i = 0; i < shards; i++) {
+            nextId = Math.max(nextId, TaskRegistry.loadTaskId(Shard.getResultsdir(resultsdir, i)));
+        }
+        registry.setTaskIds(nextId, 1);
+        for (int i = 0; i < shards; i++) {
+            registry.getHistory().merge(Shard.getResultsdir(resultsdir, i));
+        }
+        for (int i = 0; i < shards; i++) {
+            if (runs[i].getExitCode() != 0) {
+                throw new BuildException("Shard " + i + " of " + toString() 
+                                         + " failed with exit code " + runs[i].getExitCode());
+            }
+        }
+    }
+
+    /**
+     * Removes the top-level testcases and testgroups of other shards and sets the
+     * task ids of this shard. If there is a history of previous runs in the results
+     * directory of the suite, the tests are distributed across the shards by their
+     * durations, otherwise by their names. All shards read the same history, so
+     * they agree on the distribution.
+     */
+    private void selectShard(TaskRegistry registry) {
+        int index = getShardindex();
+        registry.setShard(true);
+        String firstId = getProject().getProperty(Shard.TASK_ID_PROPERTY);
+        if (firstId != null) {
+            registry.setTaskIds(Integer.parseInt(firstId) + index + 1, shards + 1);
+        } else {
+            registry.setTaskIds(registry.getNextId() + index + 1, shards + 1);
+        }
+        List tests = new ArrayList();
+        for (Iterator iter = getNestedTasks().iterator(); iter.hasNext();) {
+            Task child = (Task)iter.next();
+            if (isTest(child)) {
+                tests.add(child);
+            }
+        }
+        TestHistory history = registry.getHistory();
+        history.load(resultsdir);
+        int[] assigned = null;
+        if (!history.isEmpty()) {
+            assigned = Schedule.assign(tests, getName(), history, shards);
+        }
+        int position = 0;
+        for (Iterator iter = getNestedTasks().iterator(); iter.hasNext();) {
+            Task child = (Task)iter.next();
+            if (isTest(child)) {
+                String name = Shard.getName(child, position);
+                int shard = assigned != null ? assigned[position] : Shard.indexOf(name, shards);
+                position++;
+                if (shard != index) {
+                    log("Skipping " + name + ", executed by another shard", 
+                        Project.MSG_VERBOSE);
+                    iter.remove();
+                }
+            }
+        }
     }
 
     public String toString() {
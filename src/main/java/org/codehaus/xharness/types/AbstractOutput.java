@@ -24,17 +24,17 @@ import java.util.Map;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.ProjectComponent;
-import org.apache.tools.ant.taskdefs.condition.Condition;
 import org.apache.tools.ant.types.EnumeratedAttribute;
 
 import org.codehaus.xharness.log.LineBuffer;
+import org.codehaus.xharness.log.LineListener;
 import org.codehaus.xharness.log.LogLine;
 import org.codehaus.xharness.log.LogPriority;
 import org.codehaus.xharness.log.TaskLogger;
 import org.codehaus.xharness.log.TaskRegistry;
 
-public abstract class AbstractOutput extends ProjectComponent implements Condition {
-    private static LineBuffer lineBuffer;
+public abstract class AbstractOutput extends ProjectComponent implements WatchableCondition {
+    private TaskLogger watchedLogger;
     private Stream stream = null;
     private String taskName;
     private boolean ignoreANSI = false;
@@ -66,24 +66,77 @@ public abstract class AbstractOutput extends ProjectComponent implements Conditi
         stream = strm;
     }
     
+    /**
+     * Subscribe the listener to the output of the checked task.
+     * 
+     * @param listener The listener that is notified about new output lines.
+     * @return true, if the listener has been registered, false if this 
+     *         condition is evaluated against a subsection.
+     */
+    public boolean startWatching(LineListener listener) {
+        if (OutputContext.current() != null || watchedLogger != null) {
+            return false;
+        }
+        TaskLogger logger = getTaskLogger();
+        logger.addLineListener(listener);
+        watchedLogger = logger;
+        return true;
+    }
+    
+    /**
+     * Cancel the subscription of the listener to the output of the checked task.
+     * 
+     * @param listener The listener passed to {@link #startWatching(LineListener)}.
+     */
+    public void stopWatching(LineListener listener) {
+        if (watchedLogger != null) {
+            watchedLogger.removeLineListener(listener);
+            watchedLogger = null;
+        }
+        resetWatchState();
+    }
+    
+    /**
+     * Test if this condition is being watched, i.e. if it is repeatedly evaluated 
+     * against the output of a task, that may still be growing.
+     * 
+     * @return true, if this condition is being watched, otherwise false.
+     */
+    protected boolean isWatching() {
+        return watchedLogger != null && OutputContext.current() == null;
+    }
+    
+    /**
+     * Discard any state that has been kept to resume the evaluation while 
+     * this condition was watched. Does nothing by default.
+     */
+    protected void resetWatchState() {
+    }
+    
     protected boolean isIgnoreANSI() {
         return ignoreANSI;
     }
     
     protected LineBuffer getLineBuffer() {
-        return lineBuffer == null ? getTaskLogger().getLineBuffer() : lineBuffer;
+        LineBuffer subsection = getSubsection();
+        return subsection == null ? getTaskLogger().getLineBuffer() : subsection;
     }
     
     protected int getStreamPrio() {
-        return lineBuffer == null ? getStream().getPriority() : lineBuffer.getDefaultPriority();
+        LineBuffer subsection = getSubsection();
+        return subsection == null ? getStream().getPriority() : subsection.getDefaultPriority();
     }
 
     protected Iterator getOutputIterator() {
-        return getLineBuffer().iterator(getStreamPrio());
+        int prio = getStreamPrio();
+        if (isWatching()) {
+            return getLineBuffer().followIterator(prio, prio);
+        }
+        return getLineBuffer().iterator(prio);
     }
     
     protected final void logEvalResult(String msg)  {
-        LineBuffer subsection = lineBuffer;
+        LineBuffer subsection = getSubsection();
         StringBuffer buf = new StringBuffer();
         buf.append("Task @@")
             .append(getTaskLogger().getFullName())
@@ -102,15 +155,28 @@ public abstract class AbstractOutput extends ProjectComponent implements Conditi
 
     protected final void logSubsection(LineBuffer subsection) {
         log("+++ subsection contents in debug output +++", Project.MSG_VERBOSE);
-        for (Iterator iter = subsection.iterator(); iter.hasNext();) {
-            LogLine line = (LogLine)iter.next();
-            log(line.getText(), Project.MSG_DEBUG);
+        Iterator iter = subsection.iterator();
+        try {
+            while (iter.hasNext()) {
+                LogLine line = (LogLine)iter.next();
+                log(line.getText(), Project.MSG_DEBUG);
+            }
+        } finally {
+            LineBuffer.close(iter);
         }
         log("+++ end of subsection contents +++", Project.MSG_VERBOSE);
     }
     
-    static void setLineBuffer(LineBuffer buf) {
-        lineBuffer = buf;
+    /**
+     * Returns the subsection of the output against which this condition is 
+     * evaluated on the calling thread.
+     * 
+     * @return The subsection, or <code>null</code> if the condition is evaluated
+     *         against the output of its Task.
+     */
+    private static LineBuffer getSubsection() {
+        OutputContext context = OutputContext.current();
+        return context == null ? null : context.getLineBuffer();
     }
     
     private Stream getStream() {
@@ -22,11 +22,14 @@ import java.util.Iterator;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.codehaus.xharness.exceptions.FatalException;
+import org.codehaus.xharness.log.LineBuffer;
 import org.codehaus.xharness.log.LogLine;
 
 public abstract class AbstractRepeateableOutput extends OutputIs {
     private int minOccurr = 1;
     private int maxOccurr = -1;
+    private Searcher resumeSearcher;
+    private int resumeCount;
     
     /**
      * Set the minimum number of expected occurrences of this condition in the task output.
@@ -67,20 +70,46 @@ public abstract class AbstractRepeateableOutput extends OutputIs {
     }
 
     protected boolean eval(Searcher searcher) throws BuildException {
+        try {
+            return search(searcher);
+        } finally {
+            if (searcher != resumeSearcher) {
+                close(searcher);
+            }
+        }
+    }
+    
+    private boolean search(Searcher searcher) throws BuildException {
         if (maxOccurr >= 0 && getMin() > getMax()) {
             throw new FatalException("<" + getClass().getSimpleName() 
                                      + "> min value must be <= max value");
         }
         logStartSearch();
         int findCount = 0;
+        boolean resume = isWatching() && getMax() < 0 && searcher instanceof LineBufferSearcher;
+        if (resume) {
+            // while watched, continue with the lines after the previous evaluation
+            if (resumeSearcher == null) {
+                resumeSearcher = searcher;
+                resumeCount = 0;
+            }
+            searcher = resumeSearcher;
+            findCount = resumeCount;
+        }
         while (findCount < getMin()) {
             if (!searcher.findAgain()) {
+                if (resume) {
+                    resumeCount = findCount;
+                }
                 log("Condition failed: found " + printNumOccur(findCount) 
                               + ", required  at least " + getMin(), Project.MSG_VERBOSE);
                 return false;
             }
             ++findCount;
         }
+        if (resume) {
+            resumeCount = findCount;
+        }
         if (getMax() < 0) {
             log("Condition passed: found at least " + printNumOccur(findCount), 
                 Project.MSG_VERBOSE);
@@ -103,6 +132,18 @@ public abstract class AbstractRepeateableOutput extends OutputIs {
         return ret;
     }
     
+    protected void resetWatchState() {
+        close(resumeSearcher);
+        resumeSearcher = null;
+        resumeCount = 0;
+    }
+    
+    private static void close(Searcher searcher) {
+        if (searcher instanceof LineBufferSearcher) {
+            LineBuffer.close(((LineBufferSearcher)searcher).lineIter);
+        }
+    }
+    
     private String printNumOccur(int occurrences) {
         return Integer.toString(occurrences) + (occurrences == 1 ? " occurrence" : " occurrences");
     }
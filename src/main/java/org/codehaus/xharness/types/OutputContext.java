@@ -0,0 +1,77 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.types;
+
+import org.codehaus.xharness.log.LineBuffer;
+
+/**
+ * The context in which output conditions are evaluated. A {@link SubSection}
+ * evaluates its nested condition in the context of a subsection of the output,
+ * and the output conditions nested in it check the subsection instead of the
+ * output of their Task. Contexts are kept per thread and nest, so that output
+ * conditions can be evaluated concurrently and subsections can be nested.
+ */
+final class OutputContext {
+    private static final ThreadLocal CURRENT = new ThreadLocal();
+
+    private final LineBuffer lineBuffer;
+    private final OutputContext enclosing;
+
+    private OutputContext(LineBuffer buf, OutputContext outer) {
+        lineBuffer = buf;
+        enclosing = outer;
+    }
+
+    /**
+     * Enters the context of a subsection on the calling thread. Must be followed
+     * by a call to {@link #exit()} on the same thread.
+     *
+     * @param buf The subsection.
+     * @return The new context.
+     */
+    static OutputContext enter(LineBuffer buf) {
+        OutputContext context = new OutputContext(buf, current());
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Returns the innermost context of the calling thread.
+     *
+     * @return The context, or <code>null</code> if no subsection is evaluated.
+     */
+    static OutputContext current() {
+        return (OutputContext)CURRENT.get();
+    }
+
+    /**
+     * Leaves this context and restores the enclosing context of the calling thread.
+     */
+    void exit() {
+        CURRENT.set(enclosing);
+    }
+
+    /**
+     * Returns the subsection of this context.
+     *
+     * @return The subsection.
+     */
+    LineBuffer getLineBuffer() {
+        return lineBuffer;
+    }
+}
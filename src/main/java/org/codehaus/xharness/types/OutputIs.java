@@ -22,6 +22,7 @@ import java.util.Iterator;
 import org.apache.tools.ant.BuildException;
 
 import org.codehaus.xharness.exceptions.FatalException;
+import org.codehaus.xharness.log.LineBuffer;
 import org.codehaus.xharness.log.LogLine;
 
 public class OutputIs extends AbstractOutput {
@@ -61,20 +62,24 @@ public class OutputIs extends AbstractOutput {
      */
     public boolean eval() throws BuildException {
         Iterator iter = getOutputIterator();
-        if (getText() == null || "".equals(getText())) {
-            boolean ret = !iter.hasNext();
-            if (ret) {
-                logEvalResult("empty");
-            } else {
-                logEvalResult("not empty");
-            }
-            return ret;
-        } else if (iter.hasNext()) {
-            LogLine line = (LogLine)iter.next();
-            if (!iter.hasNext() && getText().equals(line.getText(isIgnoreANSI()))) {
-                logEvalResult("is \"" + getText() + "\"");
-                return true;
+        try {
+            if (getText() == null || "".equals(getText())) {
+                boolean ret = !iter.hasNext();
+                if (ret) {
+                    logEvalResult("empty");
+                } else {
+                    logEvalResult("not empty");
+                }
+                return ret;
+            } else if (iter.hasNext()) {
+                LogLine line = (LogLine)iter.next();
+                if (!iter.hasNext() && getText().equals(line.getText(isIgnoreANSI()))) {
+                    logEvalResult("is \"" + getText() + "\"");
+                    return true;
+                }
             }
+        } finally {
+            LineBuffer.close(iter);
         }
         logEvalResult("not \"" + getText() + "\"");
         return false;
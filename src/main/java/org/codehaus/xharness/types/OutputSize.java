@@ -17,12 +17,10 @@
 
 package org.codehaus.xharness.types;
 
-import java.util.Iterator;
-
 import org.apache.tools.ant.BuildException;
 
 import org.codehaus.xharness.exceptions.FatalException;
-import org.codehaus.xharness.log.LogLine;
+import org.codehaus.xharness.log.LineBuffer;
 
 public class OutputSize extends AbstractOutput {
     private String mode = "line";
@@ -96,17 +94,11 @@ public class OutputSize extends AbstractOutput {
             throw new FatalException("Invalid mode attribute: " + mode);
         }
         
-        int numLines = 0;
-        int numChars = 0;
-        
-        for (Iterator iter = getOutputIterator(); iter.hasNext();) {
-            LogLine line = (LogLine)iter.next();
-            numLines++;
-            numChars += line.getText().length();
-        }
-        
+        // the running counts of the buffer include lines dropped by its retention policy
+        int prio = getStreamPrio();
+        LineBuffer buffer = getLineBuffer();
         final int expectVal;
-        final int isVal = lineMode ? numLines : numChars;
+        final long isVal = lineMode ? buffer.getLineCount(prio) : buffer.getCharCount(prio);
         final String unit = lineMode ? "line" : "character";
         final boolean result;
 
@@ -190,7 +190,15 @@ public class SubSection extends AbstractOutput {
             throw new FatalException(
                     "<subsection> can't use repeat and beginAfter with greedy=true");
         }
-        Searcher searcher = new Searcher(getOutputIterator());
+        Iterator iter = getOutputIterator();
+        try {
+            return search(new Searcher(iter));
+        } finally {
+            LineBuffer.close(iter);
+        }
+    }
+
+    private boolean search(Searcher searcher) {
         Pattern beginPattern = beginRegex == null ? null : Pattern.compile(beginRegex);
         Pattern endPattern = endRegex == null ? null : Pattern.compile(endRegex);
         int findCount = 0;
@@ -224,14 +232,14 @@ public class SubSection extends AbstractOutput {
             }
             log("Found " + (beginAfter + repeat > 1 ? printCount(findCount) : "") + "<subsection>", 
                 Project.MSG_VERBOSE);
+            OutputContext context = OutputContext.enter(buf);
             try {
-                setLineBuffer(buf);
                 boolean ret = condition.eval();
                 if (!ret) {
                     return false;
                 }
             } finally {
-                setLineBuffer(null);
+                context.exit();
             }
         }
         return true;
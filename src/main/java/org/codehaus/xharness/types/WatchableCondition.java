@@ -0,0 +1,46 @@
+/*
+ * Copyright 2006 IONA Technologies
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.codehaus.xharness.types;
+
+import org.apache.tools.ant.taskdefs.condition.Condition;
+
+import org.codehaus.xharness.log.LineListener;
+
+/**
+ * A Condition on task output, that can notify a repeating caller (e.g. 
+ * {@link org.codehaus.xharness.tasks.AssertTask}) about new output, instead
+ * of having the caller poll. While being watched, a condition may resume its
+ * evaluation where the previous evaluation has left off.
+ */
+public interface WatchableCondition extends Condition {
+    /**
+     * Start watching the output this condition is evaluated against.
+     * 
+     * @param listener The listener that is notified about new output lines.
+     * @return true, if the listener has been registered, false if this 
+     *         condition cannot be watched.
+     */
+    boolean startWatching(LineListener listener);
+    
+    /**
+     * Stop watching the output and discard any state kept to resume the evaluation.
+     * 
+     * @param listener The listener passed to {@link #startWatching(LineListener)}.
+     */
+    void stopWatching(LineListener listener);
+}
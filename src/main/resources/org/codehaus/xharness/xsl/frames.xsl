@@ -23,8 +23,34 @@
 
 <xsl:param name="output.dir" select="'.'"/>
 
+<!--
+ The part of the report to create: 'all' pages, only the 'overview' pages at
+ the root, or only the pages of the first 'result'. The latter two are used to
+ create the report page by page, from parts of the results.
+ -->
+<xsl:param name="page" select="'all'"/>
+
 
 <xsl:template match="results">
+    <xsl:choose>
+        <xsl:when test="$page = 'overview'">
+            <xsl:call-template name="overview.pages"/>
+        </xsl:when>
+        <xsl:when test="$page = 'result'">
+            <xsl:apply-templates select="*[1]"/>
+        </xsl:when>
+        <xsl:otherwise>
+            <xsl:call-template name="overview.pages"/>
+    
+            <!-- process all elements -->
+            <xsl:apply-templates select="*"/>
+        </xsl:otherwise>
+    </xsl:choose>
+</xsl:template>
+
+
+<!-- create the frameset and the pages at the root, that summarize all results -->
+<xsl:template name="overview.pages">
     <!-- create the index.html -->
     <redirect:write file="{$output.dir}/index.html">
         <xsl:call-template name="index.html"/>
@@ -54,9 +80,6 @@
     <redirect:write file="{$output.dir}/all-tests-frame.html">
         <xsl:apply-templates select="." mode="all.tests.and.services"/>
     </redirect:write>
-    
-    <!-- process all elements -->
-    <xsl:apply-templates select="*"/>
 </xsl:template>
 
 
@@ -153,6 +176,63 @@ for (var i=1; i &lt; table.rows.length; i++) {
 }
 refresh();
 
+var levelNames = new Array("StdOut", "StdErr", "Error", "Warning", "Info", "Verbose", "Debug");
+var outputFile = document.getElementById("outputFile");
+if (outputFile) {
+  loadOutput(getNodeType(outputFile, 1).href);
+}
+
+function loadOutput(url) {
+  if (typeof fetch == "undefined" || typeof DecompressionStream == "undefined") {
+    return;
+  }
+  fetch(url).then(function(response) {
+    if (!response.ok) {
+      throw new Error(response.statusText);
+    }
+    return new Response(response.body.pipeThrough(new DecompressionStream("gzip"))).text();
+  }).then(function(text) {
+    addOutput(text);
+    outputFile.style.display = "none";
+    refresh();
+  }, function(error) {
+    // keep the link to the output file
+  });
+}
+
+function addOutput(text) {
+  var lines = text.split("\n");
+  var key;
+  var block = new Array();
+  for (var i=0; i &lt; lines.length; i++) {
+    var match = /^(-?\d+)\t/.exec(lines[i]);
+    if (!match) {
+      if (block.length &gt; 0 &amp;&amp; i &lt; lines.length - 1) {
+        block.push(lines[i]);
+      }
+      continue;
+    }
+    var level = parseInt(match[1], 10);
+    var lineKey = level &gt;= 0 &amp;&amp; level &lt; levelNames.length ? levelNames[level] : match[1];
+    if (lineKey != key &amp;&amp; block.length &gt; 0) {
+      addBlock(key, block);
+      block = new Array();
+    }
+    key = lineKey;
+    block.push(lines[i].substring(match[0].length));
+  }
+  if (block.length &gt; 0) {
+    addBlock(key, block);
+  }
+}
+
+function addBlock(key, block) {
+  var pre = document.createElement("pre");
+  pre.className = "Output";
+  pre.appendChild(document.createTextNode(block.join("\n")));
+  data.push(new Array(key, pre));
+}
+
 function clearTable() {
   var table = document.getElementById("outputTable");
   var elemCount = table.rows.length;
@@ -787,13 +867,13 @@ function refresh() {
 </xsl:template>
 
 <xsl:template name="output.table">
-    <xsl:variable name="stdOutCount"  select="count(output[@level = '0'])"/>
-    <xsl:variable name="stdErrCount"  select="count(output[@level = '1'])"/>
-    <xsl:variable name="errorCount"   select="count(output[@level = '2'])"/>
-    <xsl:variable name="warningCount" select="count(output[@level = '3'])"/>
-    <xsl:variable name="infoCount"    select="count(output[@level = '4'])"/>
-    <xsl:variable name="verboseCount" select="count(output[@level = '5'])"/>
-    <xsl:variable name="debugCount"   select="count(output[@level = '6'])"/>
+    <xsl:variable name="stdOutCount"  select="count(output[@level = '0']) + count(outputfile[contains(concat(' ', @levels, ' '), ' 0 ')])"/>
+    <xsl:variable name="stdErrCount"  select="count(output[@level = '1']) + count(outputfile[contains(concat(' ', @levels, ' '), ' 1 ')])"/>
+    <xsl:variable name="errorCount"   select="count(output[@level = '2']) + count(outputfile[contains(concat(' ', @levels, ' '), ' 2 ')])"/>
+    <xsl:variable name="warningCount" select="count(output[@level = '3']) + count(outputfile[contains(concat(' ', @levels, ' '), ' 3 ')])"/>
+    <xsl:variable name="infoCount"    select="count(output[@level = '4']) + count(outputfile[contains(concat(' ', @levels, ' '), ' 4 ')])"/>
+    <xsl:variable name="verboseCount" select="count(output[@level = '5']) + count(outputfile[contains(concat(' ', @levels, ' '), ' 5 ')])"/>
+    <xsl:variable name="debugCount"   select="count(output[@level = '6']) + count(outputfile[contains(concat(' ', @levels, ' '), ' 6 ')])"/>
     <xsl:choose>
       <xsl:when test="$stdOutCount &gt; 0">
         <input type="checkbox" id="StdOut" onclick="javascript:refresh()" checked="checked"/>Std Out
@@ -881,6 +961,15 @@ function refresh() {
         </tr>
       </xsl:for-each>
     </table>
+    <xsl:if test="outputfile">
+      <!-- the output is loaded by output.js, the link is a fallback for browsers that can't -->
+      <p id="outputFile">
+        <a href="{@name}.out.gz">Output</a>
+        <xsl:text> (</xsl:text><xsl:value-of select="outputfile/@lines"/>
+        <xsl:text> lines, </xsl:text><xsl:value-of select="outputfile/@size"/>
+        <xsl:text> characters, gzip compressed)</xsl:text>
+      </p>
+    </xsl:if>
 </xsl:template>
 
 <xsl:template name="tasks.list.header">
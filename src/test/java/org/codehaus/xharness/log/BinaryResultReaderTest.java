@@ -0,0 +1,115 @@
+package org.codehaus.xharness.log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class BinaryResultReaderTest extends TestCase {
+    private File resultsDir;
+
+    public BinaryResultReaderTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = BinaryResultReaderTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = BinaryResultReaderTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(BinaryResultReaderTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        resultsDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(resultsDir);
+    }
+
+    public void testNotABinaryFile() throws Exception {
+        File file = new File(resultsDir, "foo.xhb");
+        FileWriter writer = new FileWriter(file);
+        writer.write("<results/>");
+        writer.close();
+        try {
+            new BinaryResultReader(file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Wrong message", "Not a binary results file: " + file, e.getMessage());
+        }
+        file = new File(resultsDir, "empty.xhb");
+        file.createNewFile();
+        try {
+            new BinaryResultReader(file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Wrong message", "Not a binary results file: " + file, e.getMessage());
+        }
+    }
+
+    public void testIsBinary() throws Exception {
+        assertTrue(BinaryResultReader.isBinary(new File("results-0001.xhb")));
+        assertFalse(BinaryResultReader.isBinary(new File("results-0001.xhj")));
+    }
+
+    public void testExport() throws Exception {
+        File xmlDir = new File(resultsDir, "xml");
+        xmlDir.mkdir();
+        ResultFormatter formatter = new ResultFormatter(xmlDir);
+        ResultFormatter binary = new ResultFormatter(resultsDir);
+        binary.enableBinary();
+        int[] types = new int[] {Result.PROCESS_TASK, Result.TESTCASE, Result.XHARNESS,
+                                 Result.OTHER_TASK, Result.OTHER_TASK};
+        for (int i = 0; i < types.length; i++) {
+            ResultRecord record = BinaryResultWriterTest.createRecord("foo", types[i], 700);
+            formatter.write(record);
+            binary.write(record);
+        }
+        binary.close();
+
+        File exportDir = new File(resultsDir, "export");
+        exportDir.mkdir();
+        assertEquals("Wrong number of results", 5, BinaryResultReader.export(
+            new File(resultsDir, "results-0001.xhb"), exportDir));
+        String[] files = xmlDir.list();
+        assertEquals("Wrong number of files", 5, files.length);
+        assertEquals("Wrong number of files", 5, exportDir.list().length);
+        for (int i = 0; i < files.length; i++) {
+            assertEquals("File " + files[i] + " differs", 
+                         readFile(new File(xmlDir, files[i])),
+                         readFile(new File(exportDir, files[i])));
+        }
+    }
+
+    private static String readFile(File file) throws Exception {
+        StringBuffer ret = new StringBuffer();
+        InputStream in = new FileInputStream(file);
+        byte[] buf = new byte[1024];
+        for (int len = in.read(buf); len > 0; len = in.read(buf)) {
+            ret.append(new String(buf, 0, len, "ISO-8859-1"));
+        }
+        in.close();
+        return ret.toString();
+    }
+}
@@ -0,0 +1,194 @@
+package org.codehaus.xharness.log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.apache.tools.ant.BuildException;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import org.easymock.MockControl;
+import org.easymock.classextension.MockClassControl;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class BinaryResultWriterTest extends TestCase {
+    private File resultsDir;
+
+    public BinaryResultWriterTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = BinaryResultWriterTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = BinaryResultWriterTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(BinaryResultWriterTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        resultsDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(resultsDir);
+    }
+
+    public void testAppend() throws Exception {
+        new File(resultsDir, "results-0001.xhb").createNewFile();
+        BinaryResultWriter writer = new BinaryResultWriter(resultsDir);
+        writer.append(createRecord("foo", Result.PROCESS_TASK, 10));
+        writer.append(createRecord("bar", Result.TESTCASE, 0));
+        writer.sync();
+        writer.close();
+
+        File file = new File(resultsDir, "results-0002.xhb");
+        assertTrue("No binary file", file.exists());
+        BinaryResultReader reader = new BinaryResultReader(file);
+        assertTrue(reader.next());
+        assertEquals("Wrong offset", 4, reader.getOffset());
+        assertEquals("Wrong type", Result.PROCESS_TASK, reader.getTaskType());
+        assertEquals("Wrong result", Result.FAILED, reader.getResult());
+        assertEquals("Wrong id", 42, reader.getOrderId());
+        assertEquals("Wrong time", 1500L, reader.getTime());
+        assertEquals("Wrong parent", "group", reader.getParentName());
+        assertEquals("Wrong name", "foo", reader.getName());
+        assertEquals("Wrong full name", "group/foo", reader.getFullName());
+        assertNull("Wrong owner", reader.getOwner());
+        assertEquals("Wrong description", "descr", reader.getDescription());
+        assertEquals("Wrong retval", -1, reader.getRetVal());
+        assertEquals("Wrong command", "cmd", reader.getCommand());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Wrong line", "line " + i, reader.nextLine());
+            assertEquals("Wrong priority", i / 4, reader.getLinePriority());
+        }
+        assertNull(reader.nextLine());
+        assertNull(reader.nextLine());
+
+        assertTrue(reader.next());
+        assertEquals("Wrong type", Result.TESTCASE, reader.getTaskType());
+        assertEquals("Wrong parent", "group", reader.getParentName());
+        assertEquals("Wrong name", "bar", reader.getName());
+        assertEquals("Wrong owner", "me", reader.getOwner());
+        assertEquals("Wrong retval", 0, reader.getRetVal());
+        assertNull("Wrong command", reader.getCommand());
+        assertNull(reader.nextLine());
+        assertFalse(reader.next());
+        assertEquals("Wrong offset", -1, reader.getOffset());
+        reader.close();
+    }
+
+    public void testDeflate() throws Exception {
+        BinaryResultWriter writer = new BinaryResultWriter(resultsDir);
+        writer.append(createRecord("foo", Result.OTHER_TASK, 1000));
+        writer.close();
+
+        File file = new File(resultsDir, "results-0001.xhb");
+        assertTrue("Record not deflated", file.length() < 1000 * 6);
+        BinaryResultReader reader = new BinaryResultReader(file);
+        assertTrue(reader.next());
+        int count = 0;
+        for (String line = reader.nextLine(); line != null; line = reader.nextLine()) {
+            assertEquals("Wrong line", "line " + count++, line);
+        }
+        assertEquals("Wrong number of lines", 1000, count);
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    public void testTruncatedRecord() throws Exception {
+        BinaryResultWriter writer = new BinaryResultWriter(resultsDir);
+        writer.append(createRecord("foo", Result.OTHER_TASK, 1));
+        writer.append(createRecord("bar", Result.OTHER_TASK, 1));
+        writer.close();
+
+        File file = new File(resultsDir, "results-0001.xhb");
+        BinaryResultReader reader = new BinaryResultReader(file);
+        assertTrue(reader.next());
+        long offset = reader.getOffset();
+        assertTrue(reader.next());
+        long length = reader.getOffset() + 10;
+        reader.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        raf.close();
+
+        reader = new BinaryResultReader(file);
+        assertTrue(reader.next());
+        assertEquals("Wrong offset", offset, reader.getOffset());
+        assertEquals("Wrong name", "foo", reader.getName());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    public void testFormatterBinary() throws Exception {
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        formatter.enableBinary();
+        formatter.enableJournal();
+        formatter.setSyncTestcases(true);
+        formatter.write(createRecord("foo", Result.TESTCASE, 1));
+        formatter.close();
+        assertFalse(new File(resultsDir, "TEST_group_foo.xml").exists());
+        assertFalse(new File(resultsDir, "results-0001.xhj").exists());
+        assertTrue(new File(resultsDir, "results-0001.xhb").exists());
+
+        formatter.write(createRecord("bar", Result.TESTCASE, 1));
+        assertTrue("Not written after close", 
+                   new File(resultsDir, "TEST_group_bar.xml").exists());
+    }
+
+    public void testClosed() throws Exception {
+        BinaryResultWriter writer = new BinaryResultWriter(resultsDir);
+        writer.close();
+        try {
+            writer.append(createRecord("foo", Result.OTHER_TASK, 1));
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", "Binary results file has been closed", 
+                         be.getMessage());
+        }
+        assertEquals("Wrong number of files", 0, resultsDir.list().length);
+    }
+
+    static ResultRecord createRecord(String name, int type, int lines) {
+        LineBuffer buffer = new LineBuffer();
+        for (int i = 0; i < lines; i++) {
+            buffer.logLine(i / 4, "line " + i);
+        }
+        MockControl tlCtrl = MockClassControl.createNiceControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getId();
+        tlCtrl.setReturnValue(42);
+        logger.getParentName();
+        tlCtrl.setReturnValue("group");
+        logger.getName();
+        tlCtrl.setReturnValue(name);
+        logger.getFullName();
+        tlCtrl.setReturnValue("group/" + name);
+        logger.getOwner();
+        tlCtrl.setReturnValue("me");
+        logger.getRetVal();
+        tlCtrl.setReturnValue(-1);
+        logger.getCommand();
+        tlCtrl.setReturnValue("cmd");
+        logger.getLineBuffer();
+        tlCtrl.setReturnValue(buffer);
+        tlCtrl.replay();
+        return new ResultRecord(logger, type, Result.FAILED, "descr", 1500L);
+    }
+}
@@ -0,0 +1,153 @@
+package org.codehaus.xharness.log;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.RuntimeConfigurable;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskAdapter;
+import org.apache.tools.ant.UnknownElement;
+import org.apache.tools.ant.taskdefs.Echo;
+
+import org.easymock.MockControl;
+import org.easymock.classextension.MockClassControl;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class EventDispatcherTest extends TestCase {
+    public EventDispatcherTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = EventDispatcherTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = EventDispatcherTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(EventDispatcherTest.class);
+    }
+
+    public void testRouteToTaskLoggers() throws Exception {
+        Task task = new Echo();
+        UnknownElement uke = new UnknownElement("echo");
+        RuntimeConfigurable wrapper = new RuntimeConfigurable(uke, "echo");
+        uke.setRuntimeConfigurableWrapper(wrapper);
+        task.setRuntimeConfigurableWrapper(wrapper);
+        Task otherTask = new Echo();
+
+        BuildEvent message = new BuildEvent(task);
+        message.setMessage("foo", Project.MSG_INFO);
+        BuildEvent other = new BuildEvent(otherTask);
+        other.setMessage("bar", Project.MSG_INFO);
+
+        StringBuffer log = new StringBuffer();
+        EventDispatcher dispatcher = new EventDispatcher();
+        dispatcher.register(new RecordingLogger(createRegistry(), uke, "a", log), uke);
+        assertEquals(1, dispatcher.size());
+        dispatcher.taskStarted(new BuildEvent(task));
+        dispatcher.messageLogged(other);
+        dispatcher.messageLogged(message);
+        dispatcher.taskFinished(new BuildEvent(otherTask));
+        dispatcher.taskFinished(new BuildEvent(task));
+        assertEquals("a:foo a:finished ", log.toString());
+    }
+
+    public void testTaskStartedToTestLoggers() throws Exception {
+        Task task = new Echo();
+        StringBuffer log = new StringBuffer();
+        EventDispatcher dispatcher = new EventDispatcher();
+        dispatcher.register(new RecordingTestLogger(createRegistry(), "t1", log), null);
+        dispatcher.register(new RecordingLogger(createRegistry(), task, "a", log), task);
+        dispatcher.register(new RecordingTestLogger(createRegistry(), "t2", log), null);
+        assertEquals(3, dispatcher.size());
+        dispatcher.taskStarted(new BuildEvent(task));
+        assertEquals("t1:started t2:started ", log.toString());
+    }
+
+    public void testMessageWithoutTask() throws Exception {
+        Project project = new Project();
+        BuildEvent event = new BuildEvent(project);
+        event.setMessage("foo", Project.MSG_INFO);
+        Task adapter = new TaskAdapter();
+        Task task = new Echo();
+
+        StringBuffer log = new StringBuffer();
+        EventDispatcher dispatcher = new EventDispatcher();
+        dispatcher.register(new RecordingLogger(createRegistry(), adapter, "a", log), adapter);
+        dispatcher.register(new RecordingLogger(createRegistry(), task, "b", log), task);
+        dispatcher.messageLogged(event);
+        dispatcher.messageLogged(new BuildEvent(project));
+        assertEquals("a:foo ", log.toString());
+    }
+
+    public void testUnregister() throws Exception {
+        Task task = new Echo();
+        StringBuffer log = new StringBuffer();
+        TaskLogger logger1 = new RecordingLogger(createRegistry(), task, "a", log);
+        TaskLogger logger2 = new RecordingLogger(createRegistry(), task, "b", log);
+
+        EventDispatcher dispatcher = new EventDispatcher();
+        dispatcher.register(logger1, task);
+        dispatcher.register(logger2, task);
+        dispatcher.register(logger2, task);
+        assertEquals(2, dispatcher.size());
+        dispatcher.taskFinished(new BuildEvent(task));
+        dispatcher.unregister(logger1);
+        dispatcher.unregister(logger1);
+        assertEquals(1, dispatcher.size());
+        dispatcher.taskFinished(new BuildEvent(task));
+        dispatcher.unregister(logger2);
+        assertEquals(0, dispatcher.size());
+        dispatcher.taskFinished(new BuildEvent(task));
+        assertEquals("a:finished b:finished b:finished ", log.toString());
+    }
+
+    private static TaskRegistry createRegistry() {
+        MockControl trCtrl = MockClassControl.createNiceControl(TaskRegistry.class);
+        TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
+        trCtrl.replay();
+        return registry;
+    }
+
+    private static class RecordingLogger extends TaskLogger {
+        private final StringBuffer log;
+
+        public RecordingLogger(TaskRegistry reg, Task task, String name, StringBuffer buf) {
+            super(reg, task, name, null, null);
+            log = buf;
+        }
+
+        protected void messageLoggedInternal(int eventPrio, String message) {
+            log.append(getName()).append(':').append(message).append(' ');
+        }
+
+        protected void taskFinishedInternal() {
+            log.append(getName()).append(":finished ");
+        }
+    }
+
+    private static class RecordingTestLogger extends TestLogger {
+        private final StringBuffer log;
+
+        public RecordingTestLogger(TaskRegistry reg, String name, StringBuffer buf) {
+            super(reg, null, name, null, null, null);
+            log = buf;
+        }
+
+        protected void taskStartedInternal(Task task) {
+            log.append(getName()).append(":started ");
+        }
+    }
+}
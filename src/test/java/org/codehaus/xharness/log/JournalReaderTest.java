@@ -0,0 +1,139 @@
+package org.codehaus.xharness.log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import org.easymock.MockControl;
+import org.easymock.classextension.MockClassControl;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class JournalReaderTest extends TestCase {
+    private File resultsDir;
+
+    public JournalReaderTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = JournalReaderTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = JournalReaderTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(JournalReaderTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        resultsDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(resultsDir);
+    }
+
+    public void testNotAJournal() throws Exception {
+        File file = new File(resultsDir, "foo.xhj");
+        FileWriter writer = new FileWriter(file);
+        writer.write("<foo/>");
+        writer.close();
+        assertTrue(JournalReader.isSegment(file));
+        try {
+            new JournalReader(file);
+            fail("Expected IOException");
+        } catch (IOException ioe) {
+            assertEquals("Wrong message", "Not a results journal: " + file, ioe.getMessage());
+        }
+    }
+
+    public void testGetIndexFile() throws Exception {
+        assertEquals(new File(resultsDir, "results-0001.xhi"), 
+                     JournalReader.getIndexFile(new File(resultsDir, "results-0001.xhj")));
+        assertFalse(JournalReader.isSegment(new File(resultsDir, "results-0001.xhi")));
+    }
+
+    public void testFind() throws Exception {
+        File segment = createJournal();
+        assertNull(JournalReader.find(segment, "TASK_spam"));
+        assertEquals("Wrong element", "test", parse(JournalReader.find(segment, "TEST_bar")));
+        assertTrue(JournalReader.getIndexFile(segment).delete());
+        assertNull(JournalReader.find(segment, "TASK_spam"));
+        assertEquals("Wrong element", "task", parse(JournalReader.find(segment, "TASK_foo")));
+    }
+
+    public void testRead() throws Exception {
+        File segment = createJournal();
+        JournalReader reader = new JournalReader(segment);
+        assertTrue(reader.next());
+        assertEquals("Wrong offset", 4, reader.getOffset());
+        assertTrue(reader.next());
+        long offset = reader.getOffset();
+        assertFalse(reader.next());
+        reader.close();
+        assertEquals("Wrong element", "test", parse(JournalReader.read(segment, offset)));
+        try {
+            JournalReader.read(segment, segment.length());
+            fail("Expected IOException");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    public void testConvert() throws Exception {
+        File segment = createJournal();
+        File todir = new File(resultsDir, "files");
+        todir.mkdir();
+        new File(todir, "TASK_foo.xml").createNewFile();
+        assertEquals("Wrong count", 2, JournalReader.convert(segment, todir));
+        assertEquals("Wrong number of files", 3, todir.list().length);
+        assertEquals("Wrong file size", 0, new File(todir, "TASK_foo.xml").length());
+        File file = new File(todir, "TASK_foo_1.xml");
+        assertEquals("Wrong element", "task", DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().parse(file).getDocumentElement().getNodeName());
+        assertTrue(new File(todir, "TEST_bar.xml").exists());
+    }
+
+    private File createJournal() throws Exception {
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        formatter.enableJournal();
+        formatter.writeResults(createLogger("foo", Result.OTHER_TASK), Result.PASSED, "", 0L);
+        formatter.writeResults(createLogger("bar", Result.TESTCASE), Result.PASSED, "", 0L);
+        formatter.close();
+        return new File(resultsDir, "results-0001.xhj");
+    }
+
+    private static String parse(InputStream content) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(content).getDocumentElement().getNodeName();
+    }
+
+    private static TaskLogger createLogger(String name, int type) {
+        MockControl tlCtrl = MockClassControl.createNiceControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getTaskType();
+        tlCtrl.setReturnValue(type);
+        logger.getFullName();
+        tlCtrl.setReturnValue(name);
+        tlCtrl.replay();
+        return logger;
+    }
+}
@@ -1,6 +1,10 @@
 package org.codehaus.xharness.log;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -75,6 +79,442 @@ public class LineBufferTest extends TestCase {
         assertEquals("Wrong log", "eggs", buffer.toString(3));
     }
     
+    public void testMergeLineIndexAfterClear() throws Exception {
+        LineBuffer buffer = new LineBuffer(1);
+        buffer.logLine("foo");
+        buffer.mergeLine(1, 2, "foo");
+        buffer.clear();
+        buffer.mergeLine(1, 2, "foo");
+        buffer.logLine("bar");
+        buffer.mergeLine(1, 2, "bar");
+        assertEquals("bar", buffer.toString(1));
+        assertEquals("foo", buffer.toString(2));
+    }
+    
+    public void testMergeManyLines() throws Exception {
+        int count = 100000;
+        LineBuffer buffer = new LineBuffer();
+        for (int i = 0; i < count; i++) {
+            String text = "output line " + i;
+            if (i % 10 != 0) {
+                buffer.logLine(LogPriority.STDOUT, text);
+            }
+            buffer.mergeLine(LogPriority.STDOUT, LogPriority.INFO, text);
+        }
+        assertEquals(count / 10, buffer.toStringArray(LogPriority.INFO).length);
+        assertEquals(count - count / 10, buffer.toStringArray(LogPriority.STDOUT).length);
+    }
+    
+    public void testSpilling() throws Exception {
+        File dir = File.createTempFile("spill", "test");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            LineBuffer buffer = new LineBuffer();
+            buffer.enableSpilling(dir, 1000);
+            for (int i = 0; i < 5000; i++) {
+                buffer.logLine(i % 2, "line " + i);
+            }
+            assertTrue("Expected segment files", dir.listFiles().length > 0);
+            
+            String[] lines = buffer.toStringArray(1);
+            assertEquals(2500, lines.length);
+            assertEquals("line 1", lines[0]);
+            assertEquals("line 4999", lines[2499]);
+            Iterator iter = buffer.iterator();
+            for (int i = 0; i < 5000; i++) {
+                LogLine line = (LogLine)iter.next();
+                assertEquals(i % 2, line.getPriority());
+                assertEquals("line " + i, line.getText());
+            }
+            assertFalse(iter.hasNext());
+            buffer.mergeLine(0, 3, "line 0");
+            buffer.mergeLine(0, 3, "line 1");
+            assertEquals("line 1", buffer.toString(3));
+            
+            buffer.clear();
+            buffer.logLine("foo");
+            assertEquals("foo", buffer.toString());
+            
+            buffer.deleteSpillFiles();
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            File[] files = dir.listFiles();
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+            dir.delete();
+        }
+    }
+    
+    public void testSnapshot() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine(1, "foo");
+        buffer.logLine(2, "bar");
+        LineBuffer.Snapshot snapshot = buffer.snapshot();
+        buffer.clear();
+        buffer.logLine(3, "spam");
+        assertEquals(2, snapshot.getLineCount());
+        Iterator iter = snapshot.iterator();
+        assertEquals("foo", ((LogLine)iter.next()).getText());
+        LogLine line = (LogLine)iter.next();
+        assertEquals(2, line.getPriority());
+        assertEquals("bar", line.getText());
+        assertFalse(iter.hasNext());
+        try {
+            iter.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException ex) {
+            // expected
+        }
+        snapshot.release();
+        snapshot.release();
+        assertEquals("spam", buffer.toString());
+    }
+    
+    public void testSnapshotRetention() throws Exception {
+        File dir = File.createTempFile("spill", "test");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            LineBuffer buffer = new LineBuffer();
+            buffer.enableSpilling(dir, 1000);
+            buffer.setRetention(10, 2000);
+            for (int i = 0; i < 1000; i++) {
+                buffer.logLine("line " + i);
+            }
+            LineBuffer.Snapshot snapshot = buffer.snapshot();
+            for (int i = 1000; i < 20000; i++) {
+                buffer.logLine("line " + i);
+            }
+            assertTrue("Lines not dropped", buffer.getLineCount() < 20000);
+            
+            assertEquals(1000, snapshot.getLineCount());
+            Iterator iter = snapshot.iterator();
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("line " + i, ((LogLine)iter.next()).getText());
+            }
+            assertFalse(iter.hasNext());
+            int files = dir.listFiles().length;
+            snapshot.release();
+            assertTrue("Spill file not deleted", dir.listFiles().length < files);
+            
+            buffer.deleteSpillFiles();
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            File[] files = dir.listFiles();
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+            dir.delete();
+        }
+    }
+    
+    public void testSpillingReaders() throws Exception {
+        File dir = File.createTempFile("spill", "test");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            List openFiles = new ArrayList();
+            LineBuffer buffer = new LineBuffer();
+            buffer.enableSpilling(dir, 1000, openFiles);
+            buffer.setRetention(10, 2000);
+            assertEquals(1, openFiles.size());
+            for (int i = 0; i < 1000; i++) {
+                buffer.logLine("line " + i);
+            }
+            Iterator iter = buffer.iterator();
+            buffer.clear();
+            assertEquals(2, openFiles.size());
+            assertEquals(1, dir.listFiles().length);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("line " + i, ((LogLine)iter.next()).getText());
+            }
+            assertFalse(iter.hasNext());
+            assertEquals(1, openFiles.size());
+            assertEquals(0, dir.listFiles().length);
+            
+            for (int i = 0; i < 20000; i++) {
+                buffer.logLine("line " + i);
+            }
+            assertTrue("Lines not dropped", buffer.getLineCount() < 20000);
+            assertEquals(1, openFiles.size());
+            assertTrue(dir.listFiles().length <= 1);
+            
+            buffer.deleteSpillFiles();
+            assertEquals(0, openFiles.size());
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            File[] files = dir.listFiles();
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+            dir.delete();
+        }
+    }
+    
+    public void testAbandonedIterators() throws Exception {
+        File dir = File.createTempFile("spill", "test");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            List openFiles = new ArrayList();
+            LineBuffer buffer = new LineBuffer();
+            buffer.enableSpilling(dir, 1000, openFiles);
+            for (int i = 0; i < 1000; i++) {
+                buffer.logLine("line " + i);
+            }
+            Iterator iter = buffer.iterator();
+            assertEquals("line 0", ((LogLine)iter.next()).getText());
+            Iterator follow = buffer.followIterator(0, 0);
+            assertEquals("line 0", ((LogLine)follow.next()).getText());
+            buffer.clear();
+            assertEquals(1, dir.listFiles().length);
+            
+            LineBuffer.close(iter);
+            assertFalse(iter.hasNext());
+            assertEquals(1, dir.listFiles().length);
+            for (int i = 1; i < 1000; i++) {
+                assertEquals("line " + i, ((LogLine)follow.next()).getText());
+            }
+            buffer.logLine("line 1000");
+            assertEquals("line 1000", ((LogLine)follow.next()).getText());
+            assertEquals(1, openFiles.size());
+            assertEquals(0, dir.listFiles().length);
+            
+            for (int i = 0; i < 1000; i++) {
+                buffer.logLine("line " + i);
+            }
+            iter = buffer.iterator();
+            iter.next();
+            LineBuffer.close(follow);
+            assertFalse(follow.hasNext());
+            buffer.logLine("line 1000");
+            assertFalse(follow.hasNext());
+            buffer.clear();
+            assertEquals(1, dir.listFiles().length);
+            LineBuffer.close(iter);
+            LineBuffer.close(iter);
+            assertEquals(1, openFiles.size());
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            File[] files = dir.listFiles();
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+            dir.delete();
+        }
+    }
+    
+    public void testConcurrentReaders() throws Exception {
+        final LineBuffer buffer = new LineBuffer();
+        final int count = 200000;
+        Thread writer = new Thread() {
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    buffer.logLine(i % 3, "line " + i);
+                }
+            }
+        };
+        writer.start();
+        int lastSize = 0;
+        int iterations = 0;
+        while (writer.isAlive() || lastSize < count) {
+            int size = 0;
+            int expected = 0;
+            for (Iterator iter = buffer.iterator(1); iter.hasNext();) {
+                LogLine line = (LogLine)iter.next();
+                expected = expected == 0 ? 1 : expected + 3;
+                assertEquals(1, line.getPriority());
+                assertEquals("line " + expected, line.getText());
+                size++;
+            }
+            String[] lines = buffer.toStringArray();
+            for (int i = 0; i < lines.length; i++) {
+                assertEquals("line " + i, lines[i]);
+            }
+            assertTrue(lines.length >= lastSize);
+            lastSize = lines.length;
+            iterations++;
+        }
+        writer.join();
+        assertEquals(count, buffer.toStringArray().length);
+        assertTrue(iterations > 0);
+    }
+    
+    public void testLineListener() throws Exception {
+        final LineBuffer buffer = new LineBuffer();
+        final StringBuffer received = new StringBuffer();
+        LineListener listener = new LineListener() {
+            public void lineLogged(LineBuffer buf, LogLine line) {
+                assertSame(buffer, buf);
+                received.append(line.getPriority()).append(line.getText());
+            }
+        };
+        buffer.logLine(1, "foo");
+        buffer.addLineListener(listener);
+        buffer.logLine(2, "bar\nspam");
+        buffer.mergeLine(2, 3, "bar");
+        buffer.mergeLine(2, 3, "eggs");
+        buffer.removeLineListener(listener);
+        buffer.logLine(1, "bacon");
+        assertEquals("2bar2spam3eggs", received.toString());
+        assertEquals(5, buffer.getLineCount());
+    }
+    
+    public void testReadersDontWaitForWriter() throws Exception {
+        final LineBuffer buffer = new LineBuffer();
+        buffer.logLine("foo");
+        final StringBuffer read = new StringBuffer();
+        final boolean[] blocked = new boolean[1];
+        buffer.addLineListener(new LineListener() {
+            public void lineLogged(LineBuffer buf, LogLine line) {
+                // called by the writer while appending the line
+                Thread reader = new Thread() {
+                    public void run() {
+                        Iterator iter = buffer.iterator();
+                        while (iter.hasNext()) {
+                            read.append(((LogLine)iter.next()).getText());
+                        }
+                        read.append(buffer.toString());
+                        LineBuffer.Snapshot snapshot = buffer.snapshot();
+                        read.append(snapshot.getLineCount());
+                        snapshot.release();
+                    }
+                };
+                reader.start();
+                try {
+                    reader.join(10000);
+                } catch (InterruptedException e) {
+                    // checked below
+                }
+                blocked[0] = reader.isAlive();
+            }
+        });
+        buffer.logLine("bar");
+        assertFalse("Reader blocked", blocked[0]);
+        assertEquals("foobarfoo\nbar2", read.toString());
+    }
+    
+    public void testFollowIterator() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine(1, "foo");
+        buffer.logLine(2, "bar");
+        Iterator iter = buffer.followIterator(1, 1);
+        assertEquals("foo", ((LogLine)iter.next()).getText());
+        assertFalse(iter.hasNext());
+        buffer.logLine(2, "spam");
+        assertFalse(iter.hasNext());
+        buffer.logLine(1, "eggs");
+        buffer.logLine(1, "bacon");
+        assertTrue(iter.hasNext());
+        assertEquals("eggs", ((LogLine)iter.next()).getText());
+        assertEquals("bacon", ((LogLine)iter.next()).getText());
+        assertFalse(iter.hasNext());
+        
+        iter = buffer.followIterator(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(iter.hasNext());
+            iter.next();
+        }
+        assertFalse(iter.hasNext());
+        buffer.logLine(7, "sausage");
+        assertEquals("sausage", ((LogLine)iter.next()).getText());
+    }
+    
+    public void testRetention() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.setRetention(10, 2000);
+        for (int i = 0; i < 100000; i++) {
+            buffer.logLine(i % 2, "line " + i);
+        }
+        assertTrue("Too many lines retained: " + buffer.getLineCount(), 
+                   buffer.getLineCount() <= 10 + 1 + 2000 + 1024);
+        assertEquals(50000, buffer.getLineCount(0));
+        assertEquals(50000, buffer.getLineCount(1));
+        assertEquals(0, buffer.getLineCount(LineBuffer.GAP_PRIORITY));
+        long chars = 0;
+        for (int i = 0; i < 100000; i += 2) {
+            chars += ("line " + i).length();
+        }
+        assertEquals(chars, buffer.getCharCount(0));
+        
+        LogLine[] lines = buffer.toArray();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("line " + i, lines[i].getText());
+        }
+        assertEquals(LineBuffer.GAP_PRIORITY, lines[10].getPriority());
+        assertEquals("... " + (100000 - 10 - (lines.length - 11)) + " lines omitted ...", 
+                     lines[10].getText());
+        for (int i = 11; i < lines.length; i++) {
+            assertEquals("line " + (100000 - lines.length + i), lines[i].getText());
+        }
+        String[] stdout = buffer.toStringArray(0);
+        assertEquals("line 99998", stdout[stdout.length - 1]);
+        
+        LineBuffer clone = (LineBuffer)buffer.clone();
+        assertEquals(buffer.toString(), clone.toString());
+        assertEquals(50000, clone.getLineCount(1));
+        assertEquals(buffer.getCharCount(1), clone.getCharCount(1));
+    }
+    
+    public void testRetentionListener() throws Exception {
+        final int[] count = new int[1];
+        LineBuffer buffer = new LineBuffer();
+        buffer.setRetention(0, 10);
+        buffer.addLineListener(new LineListener() {
+            public void lineLogged(LineBuffer buf, LogLine line) {
+                count[0]++;
+            }
+        });
+        for (int i = 0; i < 5000; i++) {
+            buffer.logLine("line " + i);
+        }
+        assertEquals(5000, count[0]);
+        assertTrue(buffer.getLineCount() < 5000);
+    }
+    
+    public void testRetentionFollowIterator() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.setRetention(5, 1000);
+        Iterator iter = buffer.followIterator(0, 0);
+        for (int i = 0; i < 1500; i++) {
+            buffer.logLine("line " + i);
+        }
+        for (int i = 0; i < 1500; i++) {
+            assertEquals("line " + i, ((LogLine)iter.next()).getText());
+        }
+        assertFalse(iter.hasNext());
+        for (int i = 1500; i < 5000; i++) {
+            buffer.logLine("line " + i);
+        }
+        // the lines dropped in the meantime are skipped
+        LogLine line = (LogLine)iter.next();
+        assertEquals("line " + (5000 - buffer.getLineCount() + 6), line.getText());
+        int last = 0;
+        while (iter.hasNext()) {
+            last = Integer.parseInt(((LogLine)iter.next()).getText().substring(5));
+        }
+        assertEquals(4999, last);
+        buffer.logLine("line 5000");
+        assertEquals("line 5000", ((LogLine)iter.next()).getText());
+    }
+    
+    public void testStripAnsi() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine("\u001B[31mred\u001B[0m\nplain");
+        assertEquals("\u001B[31mred\u001B[0m\nplain", buffer.toString());
+        assertEquals("red\nplain", buffer.toString('\n', "", true));
+        assertEquals("red", ((LogLine)buffer.iterator().next()).getText(true));
+        
+        buffer = new LineBuffer();
+        buffer.setStripAnsi(true);
+        buffer.logLine("\u001B[31mred\u001B[0m");
+        buffer.mergeLine(0, 4, "\u001B[1mred");
+        buffer.addLine(new LogLine(1, "\u001B[1mbold"));
+        assertEquals("red\nbold", buffer.toString());
+    }
+    
     public void testToString() throws Exception {
         LineBuffer buffer = new LineBuffer();
         buffer.logLine(1, "foo");
@@ -260,6 +700,40 @@ public class LineBufferTest extends TestCase {
         assertTrue("Too many elements", !iter.hasNext());
     }
     
+    public void testFilteredAccess() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        for (int i = 0; i < 1000; i++) {
+            buffer.logLine(i % 10 == 0 ? 1 : 0, "line" + i);
+        }
+        buffer.logLine(500, "wide");
+        buffer.logLine(-500, "negative");
+        
+        String[] strings = buffer.toStringArray(1);
+        assertEquals(100, strings.length);
+        for (int i = 0; i < strings.length; i++) {
+            assertEquals("line" + (i * 10), strings[i]);
+        }
+        
+        Iterator iter = buffer.iterator(1);
+        for (int i = 0; i < 100; i++) {
+            assertTrue("Out of elements", iter.hasNext());
+            LogLine line = (LogLine)iter.next();
+            assertEquals(1, line.getPriority());
+            assertEquals("line" + (i * 10), line.getText());
+        }
+        assertFalse("Too many elements", iter.hasNext());
+        
+        assertTrue(buffer.toString(1, 1000).startsWith("line0\nline10\n"));
+        assertTrue(buffer.toString(1, 1000).endsWith("line990\nwide"));
+        assertEquals("negative", buffer.toString(Integer.MIN_VALUE, -1));
+        assertEquals("wide", buffer.toString(2, Integer.MAX_VALUE));
+        assertEquals("", buffer.toString(2, 499));
+        assertEquals("", buffer.toString(5, 4));
+        assertFalse(buffer.iterator(3).hasNext());
+        assertEquals(1002, buffer.toStringArray().length);
+        assertEquals(1001, buffer.toStringArray(0, 500).length);
+    }
+    
     public void testClone() {
         LineBuffer buffer = new LineBuffer(10);
         buffer.logLine(2, "foo");
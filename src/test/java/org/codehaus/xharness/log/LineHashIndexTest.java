@@ -0,0 +1,104 @@
+package org.codehaus.xharness.log;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class LineHashIndexTest extends TestCase {
+    public LineHashIndexTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = LineHashIndexTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = LineHashIndexTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(LineHashIndexTest.class);
+    }
+
+    public void testContains() throws Exception {
+        LineStore store = new LineStore();
+        store.add(0, "foo");
+        store.add(1, "bar");
+        LineHashIndex index = new LineHashIndex(store);
+        assertTrue(index.contains(0, "foo"));
+        assertTrue(index.contains(1, "bar"));
+        assertFalse(index.contains(1, "foo"));
+        assertFalse(index.contains(0, "bar"));
+        assertFalse(index.contains(0, "spam"));
+        
+        store.add(0, "spam");
+        index.lineAdded();
+        assertTrue(index.contains(0, "spam"));
+    }
+
+    public void testCount() throws Exception {
+        LineStore store = new LineStore();
+        LineHashIndex index = new LineHashIndex(store);
+        for (int i = 0; i < 5; i++) {
+            store.add(0, "foo");
+            index.lineAdded();
+            store.add(1, "foo");
+            index.lineAdded();
+        }
+        store.add(0, "bar");
+        index.lineAdded();
+        assertEquals(5, index.count(0, "foo"));
+        assertEquals(5, index.count(1, "foo"));
+        assertEquals(1, index.count(0, "bar"));
+        assertEquals(0, index.count(1, "bar"));
+    }
+
+    public void testRehash() throws Exception {
+        LineStore store = new LineStore();
+        for (int i = 0; i < 500; i++) {
+            store.add(i % 3, "line " + i);
+        }
+        LineHashIndex index = new LineHashIndex(store);
+        for (int i = 500; i < 10000; i++) {
+            store.add(i % 3, "line " + i);
+            index.lineAdded();
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(index.contains(i % 3, "line " + i));
+            assertFalse(index.contains(i % 3 + 1, "line " + i));
+        }
+    }
+
+    public void testComparisonsPerLookup() throws Exception {
+        // a lookup compares about one line, regardless of the size of the store;
+        // a linear search would compare half of the lines on average
+        assertTrue(mergeLines(10000) < 2 * 10000);
+        assertTrue(mergeLines(100000) < 2 * 100000);
+    }
+
+    private long mergeLines(int count) {
+        LineStore store = new LineStore();
+        LineHashIndex index = new LineHashIndex(store);
+        for (int i = 0; i < count; i++) {
+            String text = "output line " + i;
+            if (i % 10 != 0) {
+                store.add(LogPriority.STDOUT, text);
+                index.lineAdded();
+            }
+            if (!index.contains(LogPriority.STDOUT, text)) {
+                store.add(LogPriority.INFO, text);
+                index.lineAdded();
+            }
+        }
+        assertEquals(count / 10, store.getLineCount(LogPriority.INFO));
+        return index.getComparisons();
+    }
+}
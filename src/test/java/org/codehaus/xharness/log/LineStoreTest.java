@@ -0,0 +1,222 @@
+package org.codehaus.xharness.log;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class LineStoreTest extends TestCase {
+    public LineStoreTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = LineStoreTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = LineStoreTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(LineStoreTest.class);
+    }
+
+    public void testAdd() throws Exception {
+        LineStore store = new LineStore();
+        assertEquals(0, store.size());
+        store.add(1, "foo");
+        store.add(2, "");
+        store.add(3, "bar");
+        assertEquals(3, store.size());
+        assertEquals(1, store.getPriority(0));
+        assertEquals(2, store.getPriority(1));
+        assertEquals(3, store.getPriority(2));
+        assertEquals("foo", store.getText(0));
+        assertEquals("", store.getText(1));
+        assertEquals("bar", store.getText(2));
+        assertEquals(3, store.getLength(2));
+    }
+
+    public void testWidePriorities() throws Exception {
+        LineStore store = new LineStore();
+        store.add(Byte.MIN_VALUE, "min");
+        store.add(Integer.MAX_VALUE, "max");
+        store.add(-1, "minus one");
+        store.add(333, "wide");
+        assertEquals(Byte.MIN_VALUE, store.getPriority(0));
+        assertEquals(Integer.MAX_VALUE, store.getPriority(1));
+        assertEquals(-1, store.getPriority(2));
+        assertEquals(333, store.getPriority(3));
+    }
+
+    public void testManyLines() throws Exception {
+        LineStore store = new LineStore();
+        for (int i = 0; i < 10000; i++) {
+            store.add(i % 7, "line " + i);
+        }
+        assertEquals(10000, store.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 7, store.getPriority(i));
+            assertEquals("line " + i, store.getText(i));
+        }
+    }
+
+    public void testLongLines() throws Exception {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < 40000; i++) {
+            buf.append((char)('a' + i % 26));
+        }
+        String longLine = buf.toString();
+        LineStore store = new LineStore();
+        store.add(0, "short");
+        store.add(0, longLine);
+        store.add(0, longLine.substring(0, 10000));
+        store.add(0, "after");
+        assertEquals("short", store.getText(0));
+        assertEquals(longLine, store.getText(1));
+        assertEquals(longLine.substring(0, 10000), store.getText(2));
+        assertEquals("after", store.getText(3));
+    }
+
+    public void testAppendText() throws Exception {
+        LineStore store = new LineStore();
+        store.add(0, "foo");
+        store.add(0, "bar");
+        StringBuffer buf = new StringBuffer("x");
+        store.appendText(1, buf);
+        store.appendText(0, buf);
+        assertEquals("xbarfoo", buf.toString());
+    }
+
+    public void testTextEquals() throws Exception {
+        LineStore store = new LineStore();
+        store.add(0, "foo");
+        assertTrue(store.textEquals(0, "foo"));
+        assertFalse(store.textEquals(0, "fo"));
+        assertFalse(store.textEquals(0, "fob"));
+        assertFalse(store.textEquals(0, "fooo"));
+    }
+
+    public void testPositionLists() throws Exception {
+        LineStore store = new LineStore();
+        store.add(0, "a");
+        store.add(1, "b");
+        store.add(0, "c");
+        store.add(1000, "d");
+        
+        LineStore.PositionList[] lists = store.getPositionLists(0, 0);
+        assertEquals(1, lists.length);
+        assertEquals(2, lists[0].size());
+        assertEquals(0, lists[0].get(0));
+        assertEquals(2, lists[0].get(1));
+        
+        lists = store.getPositionLists(1, Integer.MAX_VALUE);
+        assertEquals(2, lists.length);
+        assertEquals(1, lists[0].size());
+        assertEquals(1, lists[1].size());
+        
+        assertEquals(0, store.getPositionLists(2, 999).length);
+        assertEquals(3, store.getPositionLists(Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+    }
+
+    public void testGetLine() throws Exception {
+        LineStore store = new LineStore();
+        store.add(4, "foo");
+        LogLine line = store.getLine(0);
+        assertEquals(4, line.getPriority());
+        assertEquals("foo", line.getText());
+    }
+
+    public void testStrippedText() throws Exception {
+        LineStore store = new LineStore();
+        store.add(0, "plain");
+        store.add(0, "\u001B[1mbold\u001B[0m");
+        store.add(0, "after");
+        assertEquals("plain", store.getStrippedText(0));
+        assertEquals("\u001B[1mbold\u001B[0m", store.getText(1));
+        assertEquals(12, store.getLength(1));
+        assertEquals("bold", store.getStrippedText(1));
+        assertEquals("bold", store.getLine(1).getText(true));
+        assertEquals("after", store.getText(2));
+        assertEquals("after", store.getLine(2).getText(true));
+    }
+
+    public void testGap() throws Exception {
+        LineStore store = new LineStore();
+        store.add(0, "a");
+        store.add(1, "bb");
+        assertEquals(-1, store.getGapIndex());
+        assertEquals(2, store.getSequence(2));
+        assertEquals(1, store.getIndex(1));
+        
+        Map dropped = new HashMap();
+        dropped.put(new Integer(0), new long[] {10, 50});
+        LineStore next = new LineStore(store);
+        assertTrue(next.continues(store));
+        assertFalse(new LineStore().continues(store));
+        next.add(0, "a");
+        next.addGap(4, "gap", 12, dropped);
+        next.add(0, "ccc");
+        next.add(1, "dddd");
+        assertEquals(1, next.getGapIndex());
+        assertEquals(0, next.getSequence(0));
+        assertEquals(1, next.getSequence(1));
+        assertEquals(12, next.getSequence(2));
+        assertEquals(13, next.getSequence(3));
+        assertEquals(14, next.getSequence(4));
+        assertEquals(0, next.getIndex(0));
+        assertEquals(2, next.getIndex(1));
+        assertEquals(2, next.getIndex(5));
+        assertEquals(3, next.getIndex(13));
+        assertEquals(4, next.getIndex(14));
+        assertEquals(12, next.getLineCount(0));
+        assertEquals(54, next.getCharCount(0));
+        assertEquals(1, next.getLineCount(1));
+        assertEquals(0, next.getLineCount(4));
+        assertEquals(0, next.getCharCount(4));
+    }
+
+    public void testSpilling() throws Exception {
+        File dir = File.createTempFile("spill", "test");
+        dir.delete();
+        dir.mkdirs();
+        SpillFile spill = new SpillFile(dir);
+        try {
+            LineStore store = new LineStore();
+            store.add(0, "before");
+            store.enableSpilling(spill, 10000);
+            for (int i = 0; i < 20000; i++) {
+                store.add(i % 3, i % 5 == 0 ? "\u001B[32mline " + i : "line " + i);
+            }
+            assertTrue("Expected spilled segments", spill.getSegmentCount() > 0);
+            assertTrue("Too much text in memory: " + store.getMemoryChars(), 
+                       store.getMemoryChars() <= 10000 + 16384);
+            assertEquals("before", store.getText(0));
+            for (int i = 0; i < 20000; i++) {
+                String text = i % 5 == 0 ? "\u001B[32mline " + i : "line " + i;
+                assertEquals(i % 3, store.getPriority(i + 1));
+                assertEquals("line " + i, store.getStrippedText(i + 1));
+                assertEquals(text, store.getText(i + 1));
+                assertTrue(store.textEquals(i + 1, text));
+                assertEquals(text.hashCode(), store.textHash(i + 1));
+            }
+            StringBuffer buf = new StringBuffer();
+            store.appendText(1, buf);
+            assertEquals("\u001B[32mline 0", buf.toString());
+        } finally {
+            spill.delete();
+            dir.delete();
+        }
+    }
+}
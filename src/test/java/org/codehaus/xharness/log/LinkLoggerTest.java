@@ -42,8 +42,8 @@ public class LinkLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
 
         prCtrl.replay();
         trCtrl.replay();
@@ -63,8 +63,8 @@ public class LinkLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(Task.class);
         Task task = (Task)tkCtrl.getMock();
@@ -31,4 +31,24 @@ public class LogLineTest extends TestCase {
         line = new LogLine(5, "hel\u001B[123;456m\u001B[7mlo");
         assertEquals("hello", line.getText(true));
     }
+    
+    public void testStripAnsi() {
+        String text = "hello world";
+        assertSame(text, LogLine.stripAnsi(text));
+        text = "no \u001B[escape";
+        assertSame(text, LogLine.stripAnsi(text));
+        assertEquals("\u001B", LogLine.stripAnsi("\u001B"));
+        assertEquals("\u001B[m", LogLine.stripAnsi("\u001B[m"));
+        assertEquals("\u001B[1", LogLine.stripAnsi("\u001B[1"));
+        assertEquals("ab", LogLine.stripAnsi("\u001B[1ma\u001B[0;32mb\u001B[0m"));
+        assertEquals("\u001Bx", LogLine.stripAnsi("\u001B\u001B[31mx"));
+        assertEquals("a\u001B[1;;2mb", LogLine.stripAnsi("a\u001B[1;;2mb"));
+    }
+    
+    public void testStrippedTextCached() {
+        LogLine line = new LogLine(5, "hel\u001B[7mlo", "cached");
+        assertEquals("cached", line.getText(true));
+        line = new LogLine(5, "hel\u001B[7mlo");
+        assertSame(line.getText(true), line.getText(true));
+    }
 }
@@ -52,4 +52,71 @@ public class LogOutputStreamTest extends TestCase {
                      los.getBuffer().toString());
         
     }
+    
+    public void testLineBreaks() throws Exception {
+        LogOutputStream los = new LogOutputStream();
+        los.write("foo\r\nbar\n\nspam\reggs\r".getBytes());
+        los.write("\nbacon".getBytes());
+        assertEquals("Wrong stream contents", 
+                     "foo\nbar\nspam\neggs", 
+                     los.getBuffer().toString());
+        los.close();
+        assertEquals("Wrong stream contents", 
+                     "foo\nbar\nspam\neggs\nbacon", 
+                     los.getBuffer().toString());
+    }
+    
+    public void testEncoding() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        LogOutputStream los = new LogOutputStream(buffer, 3, "UTF-8");
+        byte[] data = "gr\u00FC\u00DFe \u20AC\n".getBytes("UTF-8");
+        // write byte by byte to split the multi-byte characters
+        for (int i = 0; i < data.length; i++) {
+            los.write(data[i]);
+        }
+        assertEquals("Wrong stream contents", "gr\u00FC\u00DFe \u20AC", buffer.toString(3));
+        
+        data = "\u20AC\u20AC".getBytes("UTF-8");
+        los.write(data, 0, 4);
+        los.flush();
+        assertEquals("Wrong stream contents", 
+                     "gr\u00FC\u00DFe \u20AC\n\u20AC", 
+                     buffer.toString(3));
+        los.write(data, 4, 2);
+        los.close();
+        assertEquals("Wrong stream contents", 
+                     "gr\u00FC\u00DFe \u20AC\n\u20AC\n\u20AC", 
+                     buffer.toString(3));
+        
+        buffer = new LineBuffer();
+        los = new LogOutputStream(buffer, 0, "UTF-16BE");
+        los.write("foo\nbar".getBytes("UTF-16BE"));
+        los.close();
+        assertEquals("Wrong stream contents", "foo\nbar", buffer.toString());
+        
+        try {
+            new LogOutputStream(buffer, 0, "no-such-encoding");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+    
+    public void testLargeWrite() throws Exception {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < 5000; i++) {
+            buf.append("line ").append(i).append('\n');
+        }
+        for (int i = 0; i < 20000; i++) {
+            buf.append('x');
+        }
+        LogOutputStream los = new LogOutputStream();
+        los.write(buf.toString().getBytes());
+        los.close();
+        String[] lines = los.getBuffer().toStringArray();
+        assertEquals(5001, lines.length);
+        assertEquals("line 0", lines[0]);
+        assertEquals("line 4999", lines[4999]);
+        assertEquals(20000, lines[5000].length());
+    }
 }
@@ -49,8 +49,8 @@ public class ProcessLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         UnknownElement uke = new UnknownElement("eggs");
 
@@ -92,8 +92,8 @@ public class ProcessLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(Task.class);
         Task task = (Task)tkCtrl.getMock();
@@ -149,8 +149,8 @@ public class ProcessLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         TestProcessTask task = new TestProcessTask();
 
@@ -188,8 +188,8 @@ public class ProcessLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(Task.class);
         Task task = (Task)tkCtrl.getMock();
@@ -229,8 +229,10 @@ public class ProcessLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter);
         
@@ -266,8 +268,10 @@ public class ProcessLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter);
         
@@ -301,8 +305,10 @@ public class ProcessLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter);
         
@@ -1,6 +1,10 @@
 package org.codehaus.xharness.log;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -15,6 +19,7 @@ import org.easymock.classextension.MockClassControl;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -65,7 +70,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.OTHER_TASK);
         logger.getFullName();
-        tlCtrl.setReturnValue("", 2);
+        tlCtrl.setReturnValue("");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(buffer);
         logger.getId();
@@ -106,7 +111,7 @@ public class ResultFormatterTest extends TestCase {
         logger1.getTaskType();
         tlCtrl1.setReturnValue(Result.OTHER_TASK);
         logger1.getFullName();
-        tlCtrl1.setReturnValue("foo/bar", 2);
+        tlCtrl1.setReturnValue("foo/bar");
         logger1.getLineBuffer();
         tlCtrl1.setReturnValue(buffer);
         logger1.getId();
@@ -124,7 +129,7 @@ public class ResultFormatterTest extends TestCase {
         logger2.getTaskType();
         tlCtrl2.setReturnValue(Result.OTHER_TASK);
         logger2.getFullName();
-        tlCtrl2.setReturnValue("foo/bar", 2);
+        tlCtrl2.setReturnValue("foo/bar");
         logger2.getLineBuffer();
         tlCtrl2.setReturnValue(buffer);
         logger2.getId();
@@ -163,6 +168,149 @@ public class ResultFormatterTest extends TestCase {
         tlCtrl2.verify();
     }
 
+    public void testOutput() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine(1, "Beam me up, Scottie!");
+        buffer.logLine(2, "<All good things> & \"more\"");
+        buffer.logLine(2, "Must you be so linear, Jean-Luc?");
+        buffer.logLine(1, "Engage.");
+        
+        MockControl tlCtrl = MockClassControl.createNiceControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getTaskType();
+        tlCtrl.setReturnValue(Result.OTHER_TASK);
+        logger.getLineBuffer();
+        tlCtrl.setReturnValue(buffer);
+        
+        tlCtrl.replay();
+        
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        formatter.writeResults(logger, Result.PASSED, "<description>", 12345L);
+        Element elem = getDoc("TASK_.xml");
+        Node descr = elem.getElementsByTagName(XMLConstants.DESCRIPTION).item(0);
+        assertEquals("Wrong description", "<description>", descr.getFirstChild().getNodeValue());
+        NodeList outputs = elem.getElementsByTagName(XMLConstants.OUTPUT);
+        assertEquals("Wrong output count", 3, outputs.getLength());
+        String[] levels = new String[] {"1", "2", "1"};
+        String[] texts = new String[] {
+            "Beam me up, Scottie!", 
+            "<All good things> & \"more\"\nMust you be so linear, Jean-Luc?",
+            "Engage.",
+        };
+        for (int i = 0; i < 3; i++) {
+            Element output = (Element)outputs.item(i);
+            assertEquals("Wrong level", levels[i], output.getAttribute(XMLConstants.ATTR_LOGLEVEL));
+            assertEquals("Wrong text", texts[i], output.getFirstChild().getNodeValue());
+        }
+        tlCtrl.verify();
+    }
+    
+    public void testOutputFile() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine(1, "Beam me up, Scottie!");
+        buffer.logLine(3, "<All good things> & \"more\"");
+        buffer.logLine(1, "Engage.");
+        
+        MockControl tlCtrl = MockClassControl.createNiceControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getTaskType();
+        tlCtrl.setReturnValue(Result.OTHER_TASK);
+        logger.getLineBuffer();
+        tlCtrl.setReturnValue(buffer);
+        
+        tlCtrl.replay();
+        
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        formatter.setOutputThreshold(40);
+        formatter.writeResults(logger, Result.PASSED, "description", 12345L);
+        Element elem = getDoc("TASK_.xml");
+        assertEquals("Wrong output count", 
+                     0, 
+                     elem.getElementsByTagName(XMLConstants.OUTPUT).getLength());
+        NodeList files = elem.getElementsByTagName(XMLConstants.OUTPUT_BLOB);
+        assertEquals("Wrong output file count", 1, files.getLength());
+        Element file = (Element)files.item(0);
+        assertEquals("Wrong file", "TASK_.out.gz", file.getAttribute(XMLConstants.ATTR_FILE));
+        assertEquals("Wrong lines", "3", file.getAttribute(XMLConstants.ATTR_LINES));
+        assertEquals("Wrong size", "55", file.getAttribute(XMLConstants.ATTR_SIZE));
+        assertEquals("Wrong levels", "1 3", file.getAttribute(XMLConstants.ATTR_LEVELS));
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(new FileInputStream(new File(resultsDir, "TASK_.out.gz"))), 
+            "UTF-8"));
+        try {
+            assertEquals("1\tBeam me up, Scottie!", reader.readLine());
+            assertEquals("3\t<All good things> & \"more\"", reader.readLine());
+            assertEquals("1\tEngage.", reader.readLine());
+            assertNull(reader.readLine());
+        } finally {
+            reader.close();
+        }
+        tlCtrl.verify();
+    }
+    
+    public void testOutputBelowThreshold() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine(1, "Beam me up, Scottie!");
+        buffer.logLine(1, "Engage.");
+        
+        MockControl tlCtrl = MockClassControl.createNiceControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getTaskType();
+        tlCtrl.setReturnValue(Result.OTHER_TASK);
+        logger.getLineBuffer();
+        tlCtrl.setReturnValue(buffer);
+        
+        tlCtrl.replay();
+        
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        formatter.setOutputThreshold(28);
+        formatter.writeResults(logger, Result.PASSED, "description", 12345L);
+        Element elem = getDoc("TASK_.xml");
+        assertEquals("Wrong output count", 
+                     1, 
+                     elem.getElementsByTagName(XMLConstants.OUTPUT).getLength());
+        assertEquals("Wrong output file count", 
+                     0, 
+                     elem.getElementsByTagName(XMLConstants.OUTPUT_BLOB).getLength());
+        assertFalse("Output file written", new File(resultsDir, "TASK_.out.gz").exists());
+        tlCtrl.verify();
+    }
+    
+    public void testQueue() throws Exception {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine(1, "Beam me up, Scottie!");
+        
+        MockControl tlCtrl = MockClassControl.createNiceControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getTaskType();
+        tlCtrl.setReturnValue(Result.TESTCASE, 2);
+        logger.getFullName();
+        tlCtrl.setReturnValue("foo", 2);
+        logger.getLineBuffer();
+        tlCtrl.setReturnValue(buffer, 2);
+        
+        tlCtrl.replay();
+        
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        formatter.enableQueue(10);
+        formatter.setSyncTestcases(true);
+        formatter.writeResults(logger, Result.PASSED, "description", 12345L);
+        buffer.logLine(1, "Make it so.");
+        formatter.close();
+        Element elem = getDoc("TEST_foo.xml");
+        verifyResult(elem, "test", "Passed");
+        NodeList outputs = elem.getElementsByTagName(XMLConstants.OUTPUT);
+        assertEquals("Wrong output count", 1, outputs.getLength());
+        assertEquals("Wrong text", 
+                     "Beam me up, Scottie!", 
+                     outputs.item(0).getFirstChild().getNodeValue());
+
+        formatter.writeResults(logger, Result.PASSED, "description", 12345L);
+        assertTrue("Not written after close", new File(resultsDir, "TEST_foo_1.xml").exists());
+        tlCtrl.verify();
+    }
+    
     public void testProcessTask() throws Exception {
         LineBuffer buffer = new LineBuffer();
         buffer.logLine(1, "Beam me up, Scottie!");
@@ -174,7 +322,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.PROCESS_TASK);
         logger.getFullName();
-        tlCtrl.setReturnValue("_foo/bar", 2);
+        tlCtrl.setReturnValue("_foo/bar");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(buffer);
         logger.getId();
@@ -214,7 +362,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.SERVICE);
         logger.getFullName();
-        tlCtrl.setReturnValue("foo/bar", 2);
+        tlCtrl.setReturnValue("foo/bar");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(new LineBuffer());
         logger.getId();
@@ -240,7 +388,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.START);
         logger.getFullName();
-        tlCtrl.setReturnValue("foo/bar", 2);
+        tlCtrl.setReturnValue("foo/bar");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(new LineBuffer());
         logger.getId();
@@ -266,7 +414,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.VERIFY);
         logger.getFullName();
-        tlCtrl.setReturnValue("foo/bar", 2);
+        tlCtrl.setReturnValue("foo/bar");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(new LineBuffer());
         logger.getId();
@@ -292,7 +440,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.STOP);
         logger.getFullName();
-        tlCtrl.setReturnValue("foo/bar", 2);
+        tlCtrl.setReturnValue("foo/bar");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(new LineBuffer());
         logger.getId();
@@ -318,7 +466,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.TESTGROUP);
         logger.getFullName();
-        tlCtrl.setReturnValue("foo/bar", 2);
+        tlCtrl.setReturnValue("foo/bar");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(new LineBuffer());
         logger.getId();
@@ -344,7 +492,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.TESTCASE);
         logger.getFullName();
-        tlCtrl.setReturnValue("foo/bar", 2);
+        tlCtrl.setReturnValue("foo/bar");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(new LineBuffer());
         logger.getId();
@@ -374,7 +522,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.XHARNESS);
         logger.getFullName();
-        tlCtrl.setReturnValue("foo", 2);
+        tlCtrl.setReturnValue("foo");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(new LineBuffer());
         logger.getId();
@@ -403,7 +551,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.LINK);
         logger.getFullName();
-        tlCtrl.setReturnValue("foo/bar", 2);
+        tlCtrl.setReturnValue("foo/bar");
         logger.getLineBuffer();
         tlCtrl.setReturnValue(new LineBuffer());
         logger.getId();
@@ -454,7 +602,7 @@ public class ResultFormatterTest extends TestCase {
         logger.getTaskType();
         tlCtrl.setReturnValue(Result.OTHER_TASK);
         logger.getFullName();
-        tlCtrl.setReturnValue(null, 2);
+        tlCtrl.setReturnValue(null);
         logger.getLineBuffer();
         tlCtrl.setReturnValue(buffer);
         logger.getId();
@@ -0,0 +1,208 @@
+package org.codehaus.xharness.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.BuildException;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import org.easymock.MockControl;
+import org.easymock.classextension.MockClassControl;
+
+import org.w3c.dom.Element;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class ResultJournalTest extends TestCase {
+    private File resultsDir;
+
+    public ResultJournalTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultJournalTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultJournalTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ResultJournalTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        resultsDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(resultsDir);
+    }
+
+    public void testAppend() throws Exception {
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        ResultJournal journal = new ResultJournal(formatter, resultsDir, 1024 * 1024);
+        journal.append("TASK_foo", createRecord("foo", Result.OTHER_TASK));
+        journal.append("TEST_bar", createRecord("bar", Result.TESTCASE));
+        journal.append("TASK_foo", createRecord("foo", Result.OTHER_TASK));
+        journal.sync();
+        journal.close();
+
+        String[] files = resultsDir.list();
+        assertEquals("Wrong number of files", 2, files.length);
+        File segment = new File(resultsDir, "results-0001.xhj");
+        assertTrue("Missing segment", segment.exists());
+        assertTrue("Missing index", new File(resultsDir, "results-0001.xhi").exists());
+
+        JournalReader reader = new JournalReader(segment);
+        assertTrue(reader.next());
+        assertEquals("Wrong name", "TASK_foo", reader.getName());
+        Element elem = parse(reader);
+        assertEquals("Wrong element", "task", elem.getNodeName());
+        assertEquals("Wrong output", "output of foo", 
+                     elem.getElementsByTagName("output").item(0).getFirstChild().getNodeValue());
+        assertTrue(reader.next());
+        assertEquals("Wrong name", "TEST_bar", reader.getName());
+        assertEquals("Wrong element", "test", parse(reader).getNodeName());
+        assertTrue(reader.next());
+        assertEquals("Wrong name", "TASK_foo_1", reader.getName());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    public void testSegments() throws Exception {
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        new File(resultsDir, "results-0002.xhj").createNewFile();
+        ResultJournal journal = new ResultJournal(formatter, resultsDir, 1);
+        journal.append("TASK_foo", createRecord("foo", Result.OTHER_TASK));
+        journal.append("TASK_bar", createRecord("bar", Result.OTHER_TASK));
+        journal.close();
+
+        assertTrue(new File(resultsDir, "results-0001.xhi").exists());
+        assertTrue(new File(resultsDir, "results-0003.xhi").exists());
+        JournalReader reader = new JournalReader(new File(resultsDir, "results-0003.xhj"));
+        assertTrue(reader.next());
+        assertEquals("Wrong name", "TASK_bar", reader.getName());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    public void testTruncatedRecord() throws Exception {
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        ResultJournal journal = new ResultJournal(formatter, resultsDir, 1024 * 1024);
+        journal.append("TASK_foo", createRecord("foo", Result.OTHER_TASK));
+        journal.close();
+
+        File segment = new File(resultsDir, "results-0001.xhj");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(file.length());
+        file.writeInt(100);
+        file.writeUTF("TASK_bar");
+        file.close();
+
+        JournalReader reader = new JournalReader(segment);
+        assertTrue(reader.next());
+        assertEquals("Wrong name", "TASK_foo", reader.getName());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    public void testFailedAppend() throws Exception {
+        final boolean[] fail = new boolean[1];
+        ResultFormatter formatter = new ResultFormatter(resultsDir) {
+            void writeXML(XMLResultWriter writer, ResultRecord record) throws IOException {
+                super.writeXML(writer, record);
+                if (fail[0]) {
+                    writer.flush();
+                    throw new IOException("disk full");
+                }
+            }
+        };
+        ResultJournal journal = new ResultJournal(formatter, resultsDir, 1024 * 1024);
+        journal.append("TASK_foo", createRecord("foo", Result.OTHER_TASK));
+        fail[0] = true;
+        try {
+            journal.append("TASK_bar", createRecord("bar", Result.OTHER_TASK));
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong cause", "disk full", be.getCause().getMessage());
+        }
+        fail[0] = false;
+        journal.append("TASK_bar", createRecord("bar", Result.OTHER_TASK));
+        journal.close();
+
+        File segment = new File(resultsDir, "results-0001.xhj");
+        JournalReader reader = new JournalReader(segment);
+        assertTrue(reader.next());
+        assertEquals("Wrong name", "TASK_foo", reader.getName());
+        assertTrue("Record after failed append lost", reader.next());
+        assertEquals("Wrong name", "TASK_bar", reader.getName());
+        assertEquals("Wrong output", "output of bar", parse(reader)
+            .getElementsByTagName("output").item(0).getFirstChild().getNodeValue());
+        assertFalse(reader.next());
+        reader.close();
+        InputStream in = JournalReader.find(segment, "TASK_bar");
+        assertNotNull("Record not indexed", in);
+        in.close();
+    }
+
+    public void testFormatterJournal() throws Exception {
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        formatter.enableJournal();
+        formatter.setSyncTestcases(true);
+        formatter.write(createRecord("foo", Result.TESTCASE));
+        formatter.close();
+        assertFalse(new File(resultsDir, "TEST_foo.xml").exists());
+        assertNotNull(JournalReader.find(new File(resultsDir, "results-0001.xhj"), "TEST_foo"));
+
+        formatter.write(createRecord("bar", Result.TESTCASE));
+        assertTrue("Not written after close", new File(resultsDir, "TEST_bar.xml").exists());
+    }
+
+    public void testClosed() throws Exception {
+        ResultJournal journal = 
+            new ResultJournal(new ResultFormatter(resultsDir), resultsDir, 1024);
+        journal.close();
+        try {
+            journal.append("TASK_foo", createRecord("foo", Result.OTHER_TASK));
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", "Results journal has been closed", be.getMessage());
+        }
+        assertEquals("Wrong number of files", 0, resultsDir.list().length);
+    }
+
+    private static Element parse(JournalReader reader) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(reader.getContent()).getDocumentElement();
+    }
+
+    private static ResultRecord createRecord(String name, int type) {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine(1, "output of " + name);
+        MockControl tlCtrl = MockClassControl.createNiceControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getFullName();
+        tlCtrl.setReturnValue(name);
+        logger.getLineBuffer();
+        tlCtrl.setReturnValue(buffer);
+        tlCtrl.replay();
+        return new ResultRecord(logger, type, Result.PASSED, "", 0L);
+    }
+}
@@ -0,0 +1,120 @@
+package org.codehaus.xharness.log;
+
+import java.io.File;
+
+import org.apache.tools.ant.BuildException;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import org.easymock.MockControl;
+import org.easymock.classextension.MockClassControl;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ResultQueueTest extends TestCase {
+    private File resultsDir;
+
+    public ResultQueueTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultQueueTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultQueueTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ResultQueueTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        resultsDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(resultsDir);
+    }
+
+    public void testWriteInBackground() throws Exception {
+        ResultFormatter formatter = new ResultFormatter(resultsDir);
+        ResultQueue queue = new ResultQueue(formatter, 2);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.put(createRecord("task" + i, Result.OTHER_TASK)));
+        }
+        queue.close();
+        assertFalse(queue.put(createRecord("late", Result.OTHER_TASK)));
+        for (int i = 0; i < 10; i++) {
+            File result = new File(resultsDir, "TASK_task" + i + ".xml");
+            assertTrue("Missing result " + i, result.exists());
+        }
+        assertFalse(new File(resultsDir, "TASK_late.xml").exists());
+    }
+
+    public void testBackpressure() throws Exception {
+        final Object lock = new Object();
+        ResultFormatter formatter = new ResultFormatter(resultsDir) {
+            void write(ResultRecord record) throws BuildException {
+                synchronized (lock) {
+                    super.write(record);
+                }
+            }
+        };
+        ResultQueue queue = new ResultQueue(formatter, 1);
+        final ResultQueue fQueue = queue;
+        Thread producer;
+        synchronized (lock) {
+            queue.put(createRecord("task0", Result.OTHER_TASK));
+            queue.put(createRecord("task1", Result.OTHER_TASK));
+            producer = new Thread() {
+                public void run() {
+                    fQueue.put(createRecord("task2", Result.OTHER_TASK));
+                }
+            };
+            producer.start();
+            producer.join(500);
+            assertTrue("Producer should block on a full queue", producer.isAlive());
+        }
+        producer.join(5000);
+        assertFalse("Producer should have been released", producer.isAlive());
+        queue.close();
+        assertTrue(new File(resultsDir, "TASK_task2.xml").exists());
+    }
+
+    public void testFailure() throws Exception {
+        ResultFormatter formatter = new ResultFormatter(new File(resultsDir, "missing"));
+        ResultQueue queue = new ResultQueue(formatter, 10);
+        queue.put(createRecord("task", Result.OTHER_TASK));
+        try {
+            queue.close();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertTrue("Wrong message: " + be.getMessage(), 
+                       be.getMessage().startsWith("Unable to write results file TASK_task.xml"));
+        }
+    }
+
+    private static ResultRecord createRecord(String name, int type) {
+        LineBuffer buffer = new LineBuffer();
+        buffer.logLine(1, "output of " + name);
+        MockControl tlCtrl = MockClassControl.createNiceControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getFullName();
+        tlCtrl.setReturnValue(name);
+        logger.getLineBuffer();
+        tlCtrl.setReturnValue(buffer);
+        tlCtrl.replay();
+        return new ResultRecord(logger, type, Result.PASSED, "", 0L);
+    }
+}
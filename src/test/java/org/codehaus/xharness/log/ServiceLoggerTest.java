@@ -1,17 +1,24 @@
 package org.codehaus.xharness.log;
 
+import java.io.File;
+
 import org.apache.tools.ant.BuildEvent;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.RuntimeConfigurable;
+import org.apache.tools.ant.Task;
 import org.apache.tools.ant.UnknownElement;
+import org.apache.tools.ant.taskdefs.Echo;
 
 import org.codehaus.xharness.exceptions.ServiceVerifyException;
 import org.codehaus.xharness.tasks.ServiceDef;
 import org.codehaus.xharness.tasks.ServiceGroupTask;
+import org.codehaus.xharness.tasks.ServiceInstance;
 import org.codehaus.xharness.tasks.ServiceVerifyTask;
+import org.codehaus.xharness.tasks.TestCaseTask;
 import org.codehaus.xharness.tasks.XharnessTask;
 import org.codehaus.xharness.testutil.ResultFormatterMatcher;
+import org.codehaus.xharness.testutil.TempDir;
 import org.codehaus.xharness.testutil.TestProcessTask;
 
 import org.easymock.AbstractMatcher;
@@ -46,6 +53,82 @@ public class ServiceLoggerTest extends TestCase {
         return new TestSuite(ServiceLoggerTest.class);
     }
     
+    /**
+     * Blocks until the given number of threads have executed it.
+     */
+    private static class Rendezvous extends Task {
+        private final int parties;
+        private int arrived;
+        
+        public Rendezvous(Project project, int count) {
+            setProject(project);
+            setTaskName("rendezvous");
+            parties = count;
+        }
+        
+        public synchronized void execute() {
+            arrived++;
+            notifyAll();
+            long end = System.currentTimeMillis() + 10000;
+            while (arrived < parties && System.currentTimeMillis() < end) {
+                try {
+                    wait(end - System.currentTimeMillis());
+                } catch (InterruptedException ie) {
+                    throw new BuildException(ie);
+                }
+            }
+        }
+    }
+    
+    public void testConcurrentInstances() throws Exception {
+        Project project = new Project();
+        project.init();
+        File resultsDir = TempDir.createTempDir();
+        try {
+            XharnessTask xhTask = new XharnessTask();
+            xhTask.setProject(project);
+            xhTask.setName("suite");
+            xhTask.setResultsdir(resultsDir);
+            xhTask.setParallel(2);
+            
+            ServiceDef def = new ServiceDef();
+            def.setProject(project);
+            def.setTaskName("servicedef");
+            def.setName("svc");
+            def.createStart().setProject(project);
+            ServiceVerifyTask verify = def.createVerify();
+            verify.setProject(project);
+            verify.setTaskName("verify");
+            verify.addTask(new Rendezvous(project, 2));
+            xhTask.addTask(def);
+            for (int i = 0; i < 2; i++) {
+                TestCaseTask test = new TestCaseTask();
+                test.setProject(project);
+                test.setName("test" + i);
+                ServiceInstance instance = new ServiceInstance();
+                instance.setProject(project);
+                instance.setTaskName("svc");
+                instance.setServiceDef(def);
+                test.addTask(instance);
+                Echo echo = new Echo();
+                echo.setProject(project);
+                echo.setTaskName("echo");
+                echo.setMessage("after svc in test" + i);
+                test.addTask(echo);
+                xhTask.addTask(test);
+            }
+            xhTask.execute();
+            
+            for (int i = 0; i < 2; i++) {
+                File result = new File(resultsDir, "TASK_suite_test" + i + "_echo.xml");
+                assertTrue("Task after service instance not logged in test" + i, 
+                           result.exists());
+            }
+        } finally {
+            TempDir.removeTempFile(resultsDir);
+        }
+    }
+    
     public void testTaskStartedInactive() throws Exception {
         MockControl prCtrl = MockClassControl.createNiceControl(Project.class);
         Project project = (Project)prCtrl.getMock();
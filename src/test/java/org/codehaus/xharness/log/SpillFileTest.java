@@ -0,0 +1,96 @@
+package org.codehaus.xharness.log;
+
+import java.io.File;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class SpillFileTest extends TestCase {
+    public SpillFileTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = SpillFileTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = SpillFileTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(SpillFileTest.class);
+    }
+
+    private File dir;
+    
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("spill", "test");
+        dir.delete();
+        dir.mkdirs();
+    }
+    
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    public void testAppendAndView() throws Exception {
+        SpillFile spill = new SpillFile(dir);
+        assertEquals(0, spill.getSegmentCount());
+        long pos1 = spill.append("foobar".toCharArray(), 3);
+        long pos2 = spill.append("spam".toCharArray(), 4);
+        assertEquals(1, spill.getSegmentCount());
+        assertEquals(1, dir.listFiles().length);
+        
+        CharBuffer view = spill.view(pos1, 3);
+        assertEquals("foo", view.toString());
+        assertEquals("spam", spill.view(pos2, 4).toString());
+        assertEquals("am", spill.view(pos2 + 2, 2).toString());
+        assertEquals('f', view.get(0));
+        
+        long pos3 = spill.append("eggs".toCharArray(), 4);
+        assertEquals("eggs", spill.view(pos3, 4).toString());
+        assertEquals("foo", spill.view(pos1, 3).toString());
+        
+        spill.delete();
+        assertEquals(0, spill.getSegmentCount());
+        assertEquals(0, dir.listFiles().length);
+    }
+    
+    public void testChunks() throws Exception {
+        SpillFile spill = new SpillFile(dir);
+        char[] block = new char[1000];
+        long[] positions = new long[1100];
+        for (int i = 0; i < positions.length; i++) {
+            Arrays.fill(block, (char)('a' + i % 26));
+            block[0] = (char)i;
+            positions[i] = spill.append(block, block.length);
+            CharBuffer view = spill.view(positions[i], block.length);
+            assertEquals(block.length, view.remaining());
+            assertEquals(i, view.get(0));
+            assertEquals('a' + i % 26, view.get(block.length - 1));
+        }
+        assertEquals(1, spill.getSegmentCount());
+        for (int i = 0; i < positions.length; i++) {
+            CharBuffer view = spill.view(positions[i], block.length);
+            assertEquals(i, view.get(0));
+            assertEquals('a' + i % 26, view.get(1));
+            assertEquals('a' + i % 26, view.get(block.length - 1));
+        }
+        spill.delete();
+    }
+}
@@ -59,8 +59,9 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101, 2);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        trCtrl.setVoidCallable(2);
         
         UnknownElement uke = new UnknownElement("eggs");
 
@@ -109,8 +110,8 @@ public class TaskLoggerTest extends TestCase {
         
         MockControl trCtrl = MockClassControl.createNiceControl(TaskRegistry.class);
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(TestCaseTask.class);
         TestCaseTask task = (TestCaseTask)tkCtrl.getMock();
@@ -189,8 +190,8 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(Task.class);
         Task task = (Task)tkCtrl.getMock();
@@ -230,8 +231,8 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(Task.class);
         Task task = (Task)tkCtrl.getMock();
@@ -267,8 +268,10 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter);
         
@@ -315,8 +318,10 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter);
         
@@ -359,8 +364,10 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(Task.class);
         Task task = (Task)tkCtrl.getMock();
@@ -401,8 +408,10 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter);
         
@@ -449,8 +458,10 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter);
         
@@ -497,8 +508,10 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 2);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter);
         
@@ -547,8 +560,11 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 3);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        registry.unregister(null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        trCtrl.setVoidCallable(2);
         registry.getFormatter();
         trCtrl.setReturnValue(formatter, 2);
         
@@ -594,8 +610,8 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         RuntimeConfigurable wrapper1 = new RuntimeConfigurable(new Object(), "foo");
         MockControl tkCtrl1 = MockClassControl.createControl(Task.class);
@@ -638,8 +654,8 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl evCtrl = MockClassControl.createControl(BuildEvent.class);
         BuildEvent event = (BuildEvent)evCtrl.getMock();
@@ -667,8 +683,8 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl evCtrl = MockClassControl.createControl(BuildEvent.class);
         BuildEvent event = (BuildEvent)evCtrl.getMock();
@@ -697,8 +713,8 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(Task.class);
         Task task = (Task)tkCtrl.getMock();
@@ -734,8 +750,8 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         
         MockControl tkCtrl = MockClassControl.createControl(Task.class);
         Task task = (Task)tkCtrl.getMock();
@@ -794,8 +810,9 @@ public class TaskLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101, 11);
-        registry.getProject();
-        trCtrl.setReturnValue(project, 11);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
+        trCtrl.setVoidCallable(11);
         
         prCtrl.replay();
         trCtrl.replay();
@@ -60,6 +60,20 @@ public class TaskRegistryTest extends TestCase {
         XharnessTask task = (XharnessTask)tkCtrl.getMock();
         task.getPattern();
         tkCtrl.setReturnValue(null);
+        task.getSpillthreshold();
+        tkCtrl.setReturnValue(0L);
+        task.isStripansi();
+        tkCtrl.setReturnValue(false);
+        task.isSyncresults();
+        tkCtrl.setReturnValue(false);
+        task.getOutputthreshold();
+        tkCtrl.setReturnValue(0L);
+        task.isBinary();
+        tkCtrl.setReturnValue(false);
+        task.isJournal();
+        tkCtrl.setReturnValue(false);
+        task.getResultqueue();
+        tkCtrl.setReturnValue(0);
         task.getName();
         tkCtrl.setReturnValue("foo");
         task.getResultsdir();
@@ -91,6 +105,20 @@ public class TaskRegistryTest extends TestCase {
         XharnessTask xhTask = (XharnessTask)xhCtrl.getMock();
         xhTask.getPattern();
         xhCtrl.setReturnValue("foo/bar/spam");
+        xhTask.getSpillthreshold();
+        xhCtrl.setReturnValue(0L);
+        xhTask.isStripansi();
+        xhCtrl.setReturnValue(false);
+        xhTask.isSyncresults();
+        xhCtrl.setReturnValue(false);
+        xhTask.getOutputthreshold();
+        xhCtrl.setReturnValue(0L);
+        xhTask.isBinary();
+        xhCtrl.setReturnValue(false);
+        xhTask.isJournal();
+        xhCtrl.setReturnValue(false);
+        xhTask.getResultqueue();
+        xhCtrl.setReturnValue(0);
         xhTask.getName();
         xhCtrl.setReturnValue("foo");
         xhTask.getResultsdir();
@@ -173,6 +201,20 @@ public class TaskRegistryTest extends TestCase {
         xhCtrl.setReturnValue("foo", 3);
         xhTask.getPattern();
         xhCtrl.setReturnValue(null, 3);
+        xhTask.getSpillthreshold();
+        xhCtrl.setReturnValue(0L, 3);
+        xhTask.isStripansi();
+        xhCtrl.setReturnValue(false, 3);
+        xhTask.isSyncresults();
+        xhCtrl.setReturnValue(false, 3);
+        xhTask.getOutputthreshold();
+        xhCtrl.setReturnValue(0L, 3);
+        xhTask.isBinary();
+        xhCtrl.setReturnValue(false, 3);
+        xhTask.isJournal();
+        xhCtrl.setReturnValue(false, 3);
+        xhTask.getResultqueue();
+        xhCtrl.setReturnValue(0, 3);
         xhTask.getBasedir();
         xhCtrl.setReturnValue(null, 3);
         xhTask.getResultsdir();
@@ -244,6 +286,20 @@ public class TaskRegistryTest extends TestCase {
         xhCtrl.setReturnValue(null);
         xhTask.getPattern();
         xhCtrl.setReturnValue(null);
+        xhTask.getSpillthreshold();
+        xhCtrl.setReturnValue(0L);
+        xhTask.isStripansi();
+        xhCtrl.setReturnValue(false);
+        xhTask.isSyncresults();
+        xhCtrl.setReturnValue(false);
+        xhTask.getOutputthreshold();
+        xhCtrl.setReturnValue(0L);
+        xhTask.isBinary();
+        xhCtrl.setReturnValue(false);
+        xhTask.isJournal();
+        xhCtrl.setReturnValue(false);
+        xhTask.getResultqueue();
+        xhCtrl.setReturnValue(0);
         xhTask.getResultsdir();
         xhCtrl.setReturnValue(null, 2);
         xhTask.getBasedir();
@@ -273,6 +329,39 @@ public class TaskRegistryTest extends TestCase {
         tlCtrl.verify();
     }
     
+    public void testCurrentTestPerThread() throws Exception {
+        File baseDir = new File(".");
+        final String barPath = new File(baseDir, "foo/bar").getAbsolutePath();
+        String bazPath = new File(baseDir, "foo/baz").getAbsolutePath();
+        final Project project = new Project();
+        XharnessTask xhTask = new XharnessTask();
+        xhTask.setProject(project);
+        xhTask.setBasedir(baseDir);
+        
+        final TaskRegistry registry = TaskRegistry.init(xhTask);
+        TestLogger logger1 = new TestLogger(registry, null, "bar", null, "foo", null);
+        final Object[] seen = new Object[4];
+        Thread thread = new Thread() {
+            public void run() {
+                seen[0] = registry.getCurrentTest();
+                seen[1] = project.getProperty(TaskRegistry.CURRENT_TEST_DIR_PROPERY);
+                seen[2] = new TestLogger(registry, null, "baz", null, "foo", null);
+                seen[3] = project.replaceProperties("${current.test.directory}");
+            }
+        };
+        thread.start();
+        thread.join();
+        
+        assertSame("Current test not inherited", logger1, seen[0]);
+        assertEquals("Directory not inherited", barPath, seen[1]);
+        assertEquals("Wrong directory in thread", bazPath, seen[3]);
+        assertSame("Wrong current test", logger1, registry.getCurrentTest());
+        assertEquals("Wrong directory", barPath, registry.getCurrentTestDirectory());
+        assertEquals("Wrong property", 
+                     barPath, 
+                     project.getProperty(TaskRegistry.CURRENT_TEST_DIR_PROPERY));
+    }
+    
     public void testTaskId() throws Exception {
         File tempDir = TempDir.createTempDir();
         
@@ -283,6 +372,20 @@ public class TaskRegistryTest extends TestCase {
         XharnessTask task = (XharnessTask)tkCtrl.getMock();
         task.getPattern();
         tkCtrl.setReturnValue(null, 2);
+        task.getSpillthreshold();
+        tkCtrl.setReturnValue(0L, 2);
+        task.isStripansi();
+        tkCtrl.setReturnValue(false, 2);
+        task.isSyncresults();
+        tkCtrl.setReturnValue(false, 2);
+        task.getOutputthreshold();
+        tkCtrl.setReturnValue(0L, 2);
+        task.isBinary();
+        tkCtrl.setReturnValue(false, 2);
+        task.isJournal();
+        tkCtrl.setReturnValue(false, 2);
+        task.getResultqueue();
+        tkCtrl.setReturnValue(0, 2);
         task.getName();
         tkCtrl.setReturnValue("foo", 2);
         task.getResultsdir();
@@ -312,6 +415,26 @@ public class TaskRegistryTest extends TestCase {
         TempDir.removeTempFile(tempDir);
     }
     
+    public void testTaskIdStride() throws Exception {
+        File tempDir = TempDir.createTempDir();
+        XharnessTask xhTask = new XharnessTask();
+        xhTask.setProject(new Project());
+        xhTask.setResultsdir(tempDir);
+        
+        TaskRegistry registry = TaskRegistry.init(xhTask);
+        assertFalse(registry.isShard());
+        assertEquals(1, registry.getNextId());
+        registry.setTaskIds(5, 3);
+        assertEquals(5, registry.getNextId());
+        assertEquals(8, registry.getNextId());
+        registry.setShard(true);
+        assertTrue(registry.isShard());
+        registry.shutdown(null);
+        assertEquals(11, TaskRegistry.loadTaskId(tempDir));
+
+        TempDir.removeTempFile(tempDir);
+    }
+    
     public void testUnwrapComponent() {
         MockControl pcCtrl1 = MockClassControl.createControl(ProjectComponent.class);
         ProjectComponent pc1 = (ProjectComponent)pcCtrl1.getMock();
@@ -0,0 +1,111 @@
+package org.codehaus.xharness.log;
+
+import java.io.File;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class TestHistoryTest extends TestCase {
+    public TestHistoryTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = TestHistoryTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = TestHistoryTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestHistoryTest.class);
+    }
+
+    public void testEstimates() throws Exception {
+        TestHistory history = new TestHistory();
+        assertTrue(history.isEmpty());
+        assertEquals(0, history.getEstimate("foo"));
+        history.setDefaultEstimate(500);
+        assertEquals(500, history.getEstimate("foo"));
+        history.record("foo", 100);
+        assertEquals("Recorded duration used", 500, history.getEstimate("foo"));
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        File tempDir = TempDir.createTempDir();
+        try {
+            TestHistory history = new TestHistory();
+            history.load(tempDir);
+            assertTrue(history.isEmpty());
+            history.record("foo", 100);
+            history.record("foo/bar", 300);
+            history.record(null, 200);
+            history.record("spam", -1);
+            history.save(tempDir, false);
+
+            history = new TestHistory();
+            history.load(tempDir);
+            assertFalse(history.isEmpty());
+            assertEquals(100, history.getEstimate("foo"));
+            assertEquals(300, history.getEstimate("foo/bar"));
+            assertEquals("Average not used", 200, history.getEstimate("spam"));
+            assertEquals("Average not used", 200, history.getEstimate(null));
+            history.setDefaultEstimate(0);
+            assertEquals(0, history.getEstimate("spam"));
+
+            history.record("foo", 150);
+            history.record("eggs", 50);
+            history.save(tempDir, false);
+            history.load(tempDir);
+            assertEquals(150, history.getEstimate("foo"));
+            assertEquals(300, history.getEstimate("foo/bar"));
+            assertEquals(50, history.getEstimate("eggs"));
+
+            history.load(null);
+            assertTrue(history.isEmpty());
+        } finally {
+            TempDir.removeTempFile(tempDir);
+        }
+    }
+
+    public void testMergeRecorded() throws Exception {
+        File tempDir = TempDir.createTempDir();
+        File shardDir = new File(tempDir, "shard-0");
+        shardDir.mkdirs();
+        try {
+            TestHistory history = new TestHistory();
+            history.record("foo", 100);
+            history.record("bar", 200);
+            history.save(tempDir, false);
+
+            TestHistory shard = new TestHistory();
+            shard.load(tempDir);
+            shard.record("bar", 250);
+            shard.save(shardDir, true);
+            shard.load(shardDir);
+            shard.setDefaultEstimate(0);
+            assertEquals("Previous duration saved", 0, shard.getEstimate("foo"));
+            assertEquals(250, shard.getEstimate("bar"));
+
+            history.load(tempDir);
+            history.merge(shardDir);
+            history.save(tempDir, false);
+            history.load(tempDir);
+            assertEquals(100, history.getEstimate("foo"));
+            assertEquals(250, history.getEstimate("bar"));
+        } finally {
+            TempDir.removeTempFile(tempDir);
+        }
+    }
+}
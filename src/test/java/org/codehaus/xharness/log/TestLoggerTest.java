@@ -107,8 +107,8 @@ public class TestLoggerTest extends TestCase {
         TaskRegistry registry = (TaskRegistry)trCtrl.getMock();
         registry.getNextId();
         trCtrl.setReturnValue(101);
-        registry.getProject();
-        trCtrl.setReturnValue(project);
+        registry.register(null, null);
+        trCtrl.setMatcher(MockControl.ALWAYS_MATCHER);
         registry.setCurrentTest(null);
         trCtrl.setVoidCallable(2);
 
@@ -551,6 +551,31 @@ public class TestLoggerTest extends TestCase {
         evCtrl.verify();
     }
 
+    public void testTaskStartedReservedChildren() throws Exception {
+        Project project = new Project();
+        TaskRegistry registry = TaskRegistry.init(project);
+        TestLogger logger = new TestLogger(registry, null, "foo", null, null, null);
+        TestGroupTask task1 = new TestGroupTask();
+        task1.setName("test");
+        TestGroupTask task2 = new TestGroupTask();
+        task2.setName("test");
+        logger.reserveChild(task1, "test");
+        logger.reserveChild(task2, "test");
+
+        logger.taskStarted(new BuildEvent(task2));
+        logger.activate();
+        logger.taskStarted(new BuildEvent(task1));
+
+        TaskLogger child1 = logger.getTask("test");
+        TaskLogger child2 = logger.getTask("test_1");
+        assertEquals("Wrong Task", task1, child1.getTask());
+        assertEquals("Wrong Task", task2, child2.getTask());
+        assertTrue("Wrong id", child1.getId() < child2.getId());
+        assertEquals("Wrong child logger", child1, logger.getTask("1"));
+        assertEquals("Wrong child logger", child2, logger.getTask("2"));
+        assertEquals("Wrong name", "test_2", logger.genTaskName("test"));
+    }
+
     public void testTaskStartedTestGroupTaskWithoutName() throws Exception {
         MockControl prCtrl = MockClassControl.createNiceControl(Project.class);
         Project project = (Project)prCtrl.getMock();
@@ -1187,6 +1212,40 @@ public class TestLoggerTest extends TestCase {
         evCtrl.verify();
     }
 
+    public void testGenTaskNameManyChildren() throws Exception {
+        MockControl prCtrl = MockClassControl.createNiceControl(Project.class);
+        Project project = (Project)prCtrl.getMock();
+        TaskRegistry registry = TaskRegistry.init(project);
+        prCtrl.replay();
+
+        TestLogger logger = new TestLogger(registry, null, "foo", null, null, null);
+        for (int i = 0; i < 5000; i++) {
+            String name = logger.genTaskName("exec");
+            assertEquals(i == 0 ? "exec" : "exec_" + i, name);
+            logger.addChildLogger(new TaskLogger(registry, null, name, "foo", null));
+        }
+        assertEquals("EXEC_5000", logger.genTaskName("EXEC"));
+        logger.addChildLogger(new TaskLogger(registry, null, "EXEC_5000", "foo", null));
+        assertEquals("other", logger.genTaskName("other"));
+        assertEquals("other_1", logger.genTaskName("other"));
+        logger.addChildLogger(new TaskLogger(registry, null, "exec_5001", "foo", null));
+        assertEquals("Exec_5002", logger.genTaskName("Exec"));
+        logger.addChildLogger(new TaskLogger(registry, null, "Exec_5002", "foo", null));
+        assertEquals("exec_5003", logger.genTaskName("exec"));
+
+        assertEquals("exec", logger.getTask("1").getName());
+        assertEquals("exec_2", logger.getTask("3").getName());
+        assertEquals("exec_2", logger.getTask("EXEC_2").getName());
+        assertEquals("exec_5001", logger.getTask("-1").getName());
+        assertEquals("Exec_5002", logger.getTask("").getName());
+        assertEquals("Exec_5002", logger.getTask("5003").getName());
+        assertNull(logger.getTask("5004"));
+        assertNull(logger.getTask("other"));
+        assertNull(logger.getTask("exec_5003"));
+
+        prCtrl.verify();
+    }
+
     class TestDeferredTaskLogger extends TaskLogger implements IDeferredLogger {
         private TestLogger parentLogger;
         private TaskLogger childLogger1;
@@ -0,0 +1,93 @@
+package org.codehaus.xharness.log;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class XMLResultWriterTest extends TestCase {
+    public XMLResultWriterTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = XMLResultWriterTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = XMLResultWriterTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(XMLResultWriterTest.class);
+    }
+
+    public void testElements() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLResultWriter writer = new XMLResultWriter(out);
+        writer.startElement("task");
+        writer.attribute("name", "foo");
+        writer.attribute("parent", null);
+        writer.startElement("description");
+        writer.text("bar");
+        writer.endElement();
+        writer.startElement("output");
+        writer.text("line 1");
+        writer.text("\n");
+        writer.text("line 2");
+        writer.endElement();
+        writer.startElement("empty");
+        writer.endElement();
+        writer.endElement();
+        writer.close();
+
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+                     + "<task name=\"foo\" parent=\"\">\n"
+                     + "  <description>bar</description>\n"
+                     + "  <output>line 1\nline 2</output>\n"
+                     + "  <empty />\n"
+                     + "</task>\n",
+                     out.toString("UTF-8"));
+    }
+
+    public void testEscaping() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLResultWriter writer = new XMLResultWriter(out);
+        writer.startElement("a");
+        writer.attribute("b", "<\"&\">\n\t");
+        writer.text("<&>\"\u0000\u001B[1m\u00E4\u20AC\t");
+        writer.endElement();
+        writer.close();
+
+        assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+                     + "<a b=\"&lt;&quot;&amp;&quot;&gt;&#10;&#9;\">"
+                     + "&lt;&amp;&gt;\"[1m\u00E4\u20AC\t</a>\n",
+                     out.toString("UTF-8"));
+    }
+
+    public void testIllegalState() throws Exception {
+        XMLResultWriter writer = new XMLResultWriter(new ByteArrayOutputStream());
+        try {
+            writer.text("foo");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        writer.startElement("a");
+        writer.text("foo");
+        try {
+            writer.attribute("b", "c");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+}
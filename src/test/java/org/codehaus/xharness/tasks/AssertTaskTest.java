@@ -7,6 +7,9 @@ import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.condition.Condition;
 
 import org.codehaus.xharness.exceptions.AssertionWarningException;
+import org.codehaus.xharness.log.LineBuffer;
+import org.codehaus.xharness.log.LineListener;
+import org.codehaus.xharness.types.WatchableCondition;
 
 import org.easymock.MockControl;
 import org.easymock.classextension.MockClassControl;
@@ -174,6 +177,38 @@ public class AssertTaskTest extends TestCase {
         conCtrl.verify();
     }
 
+    public void testExecuteWatchedCondition() throws Exception {
+        MockControl prCtrl = MockClassControl.createNiceControl(Project.class);
+        Project project = (Project)prCtrl.getMock();
+
+        AssertTask task = new AssertTask();
+        task.setProject(project);
+        
+        final LineBuffer buffer = new LineBuffer();
+        WatchedCondition condition = new WatchedCondition(buffer);
+        
+        prCtrl.replay();
+        task.add(condition);
+        task.setTimeout(30);
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException ie) {
+                    // ignore
+                }
+                buffer.logLine("foo");
+            }
+        } .start();
+        long start = System.currentTimeMillis();
+        task.execute();
+        assertTrue("Assertion didn't wake on output", 
+                   System.currentTimeMillis() - start < 10000);
+        assertEquals(2, condition.evalCount);
+        assertFalse("Listener still registered", condition.watching);
+        prCtrl.verify();
+    }
+
     public void testExecuteMessage() throws Exception {
         MockControl prCtrl = MockClassControl.createNiceControl(Project.class);
         Project project = (Project)prCtrl.getMock();
@@ -277,4 +312,30 @@ public class AssertTaskTest extends TestCase {
         taskCtrl.verify();
         conCtrl.verify();
     }
+    
+    private static class WatchedCondition implements WatchableCondition {
+        private LineBuffer buffer;
+        private int evalCount;
+        private boolean watching;
+        
+        public WatchedCondition(LineBuffer buf) {
+            buffer = buf;
+        }
+        
+        public boolean eval() {
+            evalCount++;
+            return buffer.getLineCount() > 0;
+        }
+        
+        public boolean startWatching(LineListener listener) {
+            buffer.addLineListener(listener);
+            watching = true;
+            return true;
+        }
+        
+        public void stopWatching(LineListener listener) {
+            buffer.removeLineListener(listener);
+            watching = false;
+        }
+    }
 }
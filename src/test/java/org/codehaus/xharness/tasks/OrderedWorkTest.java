@@ -0,0 +1,107 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class OrderedWorkTest extends TestCase {
+    public OrderedWorkTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = OrderedWorkTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = OrderedWorkTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(OrderedWorkTest.class);
+    }
+
+    public void testResultsInOrder() throws Exception {
+        OrderedWork work = new OrderedWork(50, 4, 8) {
+            protected Object process(int index) throws Exception {
+                Thread.sleep((index * 7) % 5);
+                return new Integer(index * 2);
+            }
+        };
+        work.start();
+        for (int i = 0; i < 50; i++) {
+            assertEquals("Wrong result", new Integer(i * 2), work.take(i));
+        }
+        work.close();
+    }
+
+    public void testWindow() throws Exception {
+        final int[] maxIndex = new int[1];
+        OrderedWork work = new OrderedWork(20, 4, 3) {
+            protected Object process(int index) throws Exception {
+                synchronized (maxIndex) {
+                    maxIndex[0] = Math.max(maxIndex[0], index);
+                }
+                return null;
+            }
+        };
+        work.start();
+        Thread.sleep(200);
+        synchronized (maxIndex) {
+            assertEquals("Workers ran ahead", 2, maxIndex[0]);
+        }
+        assertNull(work.take(0));
+        Thread.sleep(200);
+        synchronized (maxIndex) {
+            assertEquals("Workers didn't continue", 3, maxIndex[0]);
+        }
+        work.close();
+    }
+
+    public void testFailure() throws Exception {
+        OrderedWork work = new OrderedWork(3, 2, 3) {
+            protected Object process(int index) throws Exception {
+                if (index == 1) {
+                    throw new IOException("item " + index);
+                }
+                return "ok";
+            }
+        };
+        work.start();
+        assertEquals("ok", work.take(0));
+        try {
+            work.take(1);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Wrong message", "item 1", e.getMessage());
+        }
+        assertEquals("ok", work.take(2));
+        work.close();
+    }
+
+    public void testTakeOutOfOrder() throws Exception {
+        OrderedWork work = new OrderedWork(2, 1, 2) {
+            protected Object process(int index) throws Exception {
+                return null;
+            }
+        };
+        work.start();
+        try {
+            work.take(1);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Wrong message", "Expected item 0, not 1", e.getMessage());
+        }
+        work.close();
+    }
+}
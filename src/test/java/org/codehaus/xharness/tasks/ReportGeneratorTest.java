@@ -0,0 +1,185 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.tools.ant.BuildException;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class ReportGeneratorTest extends TestCase {
+    private File tempDir;
+
+    public ReportGeneratorTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ReportGeneratorTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ReportGeneratorTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ReportGeneratorTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        tempDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(tempDir);
+    }
+
+    public void testSameAsFrames() throws Exception {
+        File xmlFile = new File(tempDir, "results.xml");
+        FileWriter writer = new FileWriter(xmlFile);
+        writer.write("<results>"
+            + "<xharness orderid=\"1\" name=\"suite\" fullname=\"suite\" result=\"Failed\" "
+            + "time=\"2.5\"><description>The suite</description></xharness>"
+            + "<group orderid=\"2\" name=\"g\" fullname=\"suite/g\" parent=\"suite\" "
+            + "result=\"Failed\" time=\"2.0\"><description>A group</description></group>"
+            + "<test orderid=\"3\" name=\"t\" fullname=\"suite/g/t\" parent=\"suite/g\" "
+            + "owner=\"me\" result=\"Failed\" time=\"1.0\"><description/></test>"
+            + "<task orderid=\"4\" name=\"echo\" fullname=\"suite/g/t/echo\" "
+            + "parent=\"suite/g/t\" result=\"Passed\" time=\"0.1\">"
+            + "<description>Task @@echo@@ passed</description>"
+            + "<output level=\"0\">hello</output><output level=\"2\">a &lt; b</output>"
+            + "</task>"
+            + "<service orderid=\"5\" name=\"svc\" fullname=\"suite/g/svc\" parent=\"suite/g\" "
+            + "result=\"Passed\" time=\"0.5\"><description/></service>"
+            + "<start orderid=\"6\" name=\"start\" fullname=\"suite/g/svc/start\" "
+            + "parent=\"suite/g/svc\" result=\"Passed\" time=\"0.2\"><description/></start>"
+            + "<task orderid=\"7\" name=\"java\" fullname=\"suite/g/svc/start/java\" "
+            + "parent=\"suite/g/svc/start\" result=\"Passed\" retval=\"0\" time=\"0.2\">"
+            + "<description/><command>java -version</command>"
+            + "<output level=\"1\">version</output></task>"
+            + "<verify orderid=\"8\" name=\"t_svc\" fullname=\"suite/g/t/t_svc\" "
+            + "parent=\"suite/g/t\" reference=\"suite/g/svc\" result=\"Failed\" time=\"0.1\">"
+            + "<description>Failed</description></verify>"
+            + "<link orderid=\"9\" name=\"t_svc\" fullname=\"suite/g/t/t_svc\" "
+            + "parent=\"suite/g/t\" reference=\"suite/g/svc\" result=\"Passed\" time=\"0\">"
+            + "<description/></link>"
+            + "<stop orderid=\"10\" name=\"stop\" fullname=\"suite/g/svc/stop\" "
+            + "parent=\"suite/g/svc\" result=\"Passed\" time=\"0.1\"><description/></stop>"
+            + "</results>");
+        writer.close();
+
+        File framesDir = new File(tempDir, "frames");
+        framesDir.mkdir();
+        Transformer transformer = TransformerFactory.newInstance().newTransformer(
+            new StreamSource(getClass().getResource("/org/codehaus/xharness/xsl/frames.xsl")
+                             .toExternalForm()));
+        transformer.setParameter("output.dir", framesDir.getAbsolutePath());
+        transformer.transform(new StreamSource(xmlFile), new StreamResult(new File(tempDir, 
+                                                                                   "out")));
+
+        File pagesDir = new File(tempDir, "pages");
+        pagesDir.mkdir();
+        new ReportGenerator(pagesDir, 3).generate(xmlFile);
+
+        String[] files = list(framesDir, "");
+        assertTrue("Too few pages", files.length > 15);
+        assertEquals("Wrong pages", 
+                     Arrays.asList(files).toString(), 
+                     Arrays.asList(list(pagesDir, "")).toString());
+        for (int i = 0; i < files.length; i++) {
+            assertEquals("Page " + files[i] + " differs", 
+                         readFile(new File(framesDir, files[i])), 
+                         readFile(new File(pagesDir, files[i])));
+        }
+    }
+
+    public void testOutputFile() throws Exception {
+        File outputFile = new File(tempDir, "TASK_suite_t_echo.out.gz");
+        FileWriter writer = new FileWriter(outputFile);
+        writer.write("compressed output");
+        writer.close();
+        File xmlFile = new File(tempDir, "results.xml");
+        writer = new FileWriter(xmlFile);
+        writer.write("<results>"
+            + "<test orderid=\"1\" name=\"t\" fullname=\"suite/t\" parent=\"suite\" "
+            + "owner=\"me\" result=\"Passed\" time=\"1.0\"><description/></test>"
+            + "<task orderid=\"2\" name=\"echo\" fullname=\"suite/t/echo\" "
+            + "parent=\"suite/t\" result=\"Passed\" time=\"0.1\"><description/>"
+            + "<outputfile file=\"" + outputFile.getAbsolutePath() + "\" lines=\"2\" "
+            + "size=\"12\" levels=\"0 2\"/></task>"
+            + "</results>");
+        writer.close();
+
+        File pagesDir = new File(tempDir, "pages");
+        pagesDir.mkdir();
+        new ReportGenerator(pagesDir, 2).generate(xmlFile);
+
+        assertEquals("Wrong output file", 
+                     "compressed output", 
+                     readFile(new File(pagesDir, "suite/t/echo.out.gz")));
+        String page = readFile(new File(pagesDir, "suite/t/echo.html"));
+        assertTrue("No output link", page.indexOf("<a href=\"echo.out.gz\">") >= 0);
+        assertTrue("Std Out not enabled", 
+                   page.indexOf("id=\"StdOut\" onclick=\"javascript:refresh()\" checked") >= 0);
+        assertTrue("Std Err enabled", 
+                   page.indexOf("id=\"StdErr\" onclick=\"javascript:refresh()\" disabled") >= 0);
+    }
+
+    public void testMissingFile() throws Exception {
+        try {
+            new ReportGenerator(tempDir, 2).generate(new File(tempDir, "missing.xml"));
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertTrue("Wrong message " + be.getMessage(),
+                       be.getMessage().startsWith("Errors while applying transformations: "));
+        }
+    }
+
+    private static String[] list(File dir, String prefix) {
+        List ret = new ArrayList();
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory()) {
+                ret.addAll(Arrays.asList(list(files[i], prefix + files[i].getName() + "/")));
+            } else {
+                ret.add(prefix + files[i].getName());
+            }
+        }
+        String[] array = (String[])ret.toArray(new String[ret.size()]);
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static String readFile(File file) throws Exception {
+        StringBuffer ret = new StringBuffer();
+        InputStream in = new FileInputStream(file);
+        byte[] buf = new byte[1024];
+        for (int len = in.read(buf); len > 0; len = in.read(buf)) {
+            ret.append(new String(buf, 0, len, "ISO-8859-1"));
+        }
+        in.close();
+        return ret.toString();
+    }
+}
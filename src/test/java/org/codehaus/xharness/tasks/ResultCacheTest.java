@@ -0,0 +1,121 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class ResultCacheTest extends TestCase {
+    private File tempDir;
+
+    public ResultCacheTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultCacheTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultCacheTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ResultCacheTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        tempDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(tempDir);
+    }
+
+    public void testNoCacheFile() throws Exception {
+        ResultCache cache = new ResultCache(new File(tempDir, "cache"));
+        assertTrue(cache.load());
+        assertNull(cache.lookup(new File(tempDir, "foo.xml")));
+        cache.commit();
+        assertFalse(new File(tempDir, "cache").exists());
+    }
+
+    public void testInvalidCacheFile() throws Exception {
+        File cacheFile = new File(tempDir, "cache");
+        writeFile(cacheFile, "this is not a result cache");
+        ResultCache cache = new ResultCache(cacheFile);
+        assertFalse(cache.load());
+        assertNull(cache.lookup(new File(tempDir, "foo.xml")));
+        cache.close();
+    }
+
+    public void testRoundTrip() throws Exception {
+        File cacheFile = new File(tempDir, "cache");
+        File file1 = new File(tempDir, "TEST_1.xml");
+        writeFile(file1, "<test orderid=\"5\" name=\"one\"/>");
+        File file2 = new File(tempDir, "TEST_2.xml");
+        writeFile(file2, "<test orderid=\"6\" name=\"two\"/>");
+        File file3 = new File(tempDir, "TEST_3.xml");
+        writeFile(file3, "<test orderid=\"7\" name=\"three\"/>");
+
+        ResultCache cache = new ResultCache(cacheFile);
+        assertTrue(cache.load());
+        ResultSource source1 = ResultSource.scan(file1)[0];
+        ResultSource source2 = ResultSource.scan(file2)[0];
+        ResultSource source3 = ResultSource.scan(file3)[0];
+        assertNull(cache.lookup(file1));
+        assertNull(cache.lookup(file2));
+        assertNull(cache.lookup(file3));
+        cache.add(source1, source1.parse());
+        cache.add(source2, source2.parse());
+        cache.invalidate(file3);
+        cache.commit();
+        assertTrue(cacheFile.exists());
+        assertFalse(new File(tempDir, "cache.tmp").exists());
+
+        writeFile(file2, "<test orderid=\"6\" name=\"changed\"/>");
+        cache = new ResultCache(cacheFile);
+        assertTrue(cache.load());
+        ResultSource[] cached = cache.lookup(file1);
+        assertEquals("Wrong number of results", 1, cached.length);
+        assertTrue(cached[0].isCached());
+        assertEquals("Wrong order id", 5, cached[0].getOrderId());
+        assertEquals("Wrong file", file1, cached[0].getFile());
+        assertEquals("Wrong name", "one", getName(cache.read(cached[0])));
+        assertNull("Changed file is cached", cache.lookup(file2));
+        assertNull("Invalid file is cached", cache.lookup(file3));
+        cache.close();
+    }
+
+    private static String getName(SAXBuffer buffer) throws Exception {
+        final StringBuffer ret = new StringBuffer();
+        buffer.replay(new DefaultHandler() {
+            public void startElement(String uri, String localName, String qName, 
+                                     Attributes attrs) {
+                ret.append(attrs.getValue("name"));
+            }
+        });
+        return ret.toString();
+    }
+
+    private static void writeFile(File file, String content) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+}
@@ -0,0 +1,121 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class ResultMergerTest extends TestCase {
+    public ResultMergerTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultMergerTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultMergerTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ResultMergerTest.class);
+    }
+
+    public void testMerge() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List failed = new ArrayList();
+        ResultMerger merger = new ResultMerger(new StreamResult(out), failed);
+        merger.merge(source("<test result=\"Passed\" parent=\"a\" name=\"b\">"
+                            + "<output>x &lt; y</output></test>"));
+        merger.merge(source("<task result=\"Warning\" parent=\"c\" name=\"d\"/>"));
+        merger.merge(source("<test result=\"Invalid\"/>"));
+        merger.close();
+
+        Element doc = parse(out);
+        assertEquals("Wrong document name", "results", doc.getNodeName());
+        NodeList children = doc.getChildNodes();
+        assertEquals("Wrong number of results", 3, children.getLength());
+        assertEquals("Wrong element", "task", children.item(1).getNodeName());
+        assertEquals("Wrong text", "x < y", 
+                     doc.getElementsByTagName("output").item(0).getFirstChild().getNodeValue());
+        assertEquals("Wrong failed tests", 2, failed.size());
+        assertEquals("Wrong failed test", "c/d", failed.get(0));
+        assertEquals("Wrong failed test", "/", failed.get(1));
+    }
+
+    public void testMergeMalformed() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List failed = new ArrayList();
+        ResultMerger merger = new ResultMerger(new StreamResult(out), failed);
+        try {
+            merger.merge(source("<test result=\"Failed\"><output>foo</outp"));
+            fail("Expected SAXException");
+        } catch (SAXException se) {
+            // expected
+        }
+        merger.merge(source("<task result=\"Passed\"/>"));
+        merger.close();
+
+        assertEquals("Wrong failed tests", 0, failed.size());
+        Element doc = parse(out);
+        NodeList children = doc.getChildNodes();
+        assertEquals("Wrong number of results", 1, children.getLength());
+        assertEquals("Wrong element", "task", children.item(0).getNodeName());
+    }
+
+    public void testMergeOutputFile() throws Exception {
+        File dir = new File("results").getAbsoluteFile();
+        File absolute = new File("other", "b.out.gz").getAbsoluteFile();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultMerger merger = new ResultMerger(new StreamResult(out), new ArrayList());
+        merger.merge(source("<task result=\"Passed\"><outputfile file=\"a.out.gz\"/></task>"));
+        merger.setSourceDir(dir);
+        merger.merge(source("<task result=\"Passed\"><outputfile file=\"a.out.gz\"/></task>"));
+        merger.merge(source("<task result=\"Passed\"><outputfile file=\"" 
+                            + absolute.getPath() + "\"/></task>"));
+        merger.close();
+
+        NodeList files = parse(out).getElementsByTagName("outputfile");
+        assertEquals("Wrong number of output files", 3, files.getLength());
+        assertEquals("Wrong file", "a.out.gz", ((Element)files.item(0)).getAttribute("file"));
+        assertEquals("Wrong file", 
+                     new File(dir, "a.out.gz").getPath(), 
+                     ((Element)files.item(1)).getAttribute("file"));
+        assertEquals("Wrong file", 
+                     absolute.getPath(), 
+                     ((Element)files.item(2)).getAttribute("file"));
+    }
+
+    private static InputSource source(String xml) {
+        return new InputSource(new StringReader(xml));
+    }
+
+    private static Element parse(ByteArrayOutputStream out) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new ByteArrayInputStream(out.toByteArray())).getDocumentElement();
+    }
+}
@@ -0,0 +1,152 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import org.codehaus.xharness.testutil.TempDir;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class ResultSourceTest extends TestCase {
+    private File tempDir;
+
+    public ResultSourceTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultSourceTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ResultSourceTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ResultSourceTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        tempDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(tempDir);
+    }
+
+    public void testScanFile() throws Exception {
+        File file = new File(tempDir, "TEST_foo.xml");
+        writeFile(file, "<test orderid=\"42\" result=\"Passed\"><output>foo</output></test>");
+        ResultSource[] sources = ResultSource.scan(file);
+        assertEquals("Wrong number of sources", 1, sources.length);
+        assertEquals("Wrong order id", 42, sources[0].getOrderId());
+        assertEquals("Wrong file", file, sources[0].getFile());
+        assertNull("Not a record", sources[0].getRecordName());
+        assertEquals("Wrong document", "test", 
+                     rootName(sources[0].parse()));
+    }
+
+    public void testScanInvalidFile() throws Exception {
+        File file = new File(tempDir, "TEST_foo.xml");
+        writeFile(file, "<test orderid=\"42\"");
+        ResultSource[] sources = ResultSource.scan(file);
+        assertEquals("Wrong order id", Integer.MAX_VALUE, sources[0].getOrderId());
+        try {
+            sources[0].parse();
+            fail("Expected SAXException");
+        } catch (SAXException se) {
+            // expected
+        }
+        sources = ResultSource.scan(new File(tempDir, "missing.xml"));
+        assertEquals("Wrong order id", Integer.MAX_VALUE, sources[0].getOrderId());
+    }
+
+    public void testScanJournal() throws Exception {
+        File segment = new File(tempDir, "results-0001.xhj");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(segment));
+        out.writeInt(0x58484a31);
+        writeRecord(out, "TASK_b", "<task orderid=\"2\"/>");
+        writeRecord(out, "TASK_a", "<task orderid=\"x\"/>");
+        out.close();
+
+        ResultSource[] sources = ResultSource.scan(segment);
+        assertEquals("Wrong number of sources", 2, sources.length);
+        assertEquals("Wrong name", "TASK_b", sources[0].getRecordName());
+        assertEquals("Wrong order id", 2, sources[0].getOrderId());
+        assertEquals("Wrong order id", Integer.MAX_VALUE, sources[1].getOrderId());
+        assertEquals("Wrong document", "task", 
+                     rootName(sources[1].parse()));
+    }
+
+    public void testOrder() throws Exception {
+        File file1 = new File(tempDir, "TEST_1.xml");
+        writeFile(file1, "<test orderid=\"7\"/>");
+        File file2 = new File(tempDir, "TEST_2.xml");
+        writeFile(file2, "<test orderid=\"3\"/>");
+        File file3 = new File(tempDir, "TEST_3.xml");
+        writeFile(file3, "<test/>");
+        File file4 = new File(tempDir, "TEST_4.xml");
+        writeFile(file4, "<test orderid=\"3\"/>");
+        ResultSource[] sources = new ResultSource[] {
+            ResultSource.scan(file1)[0], 
+            ResultSource.scan(file2)[0], 
+            ResultSource.scan(file3)[0], 
+            ResultSource.scan(file4)[0], 
+        };
+        for (int i = 0; i < sources.length; i++) {
+            sources[i].setSequence(i);
+        }
+        Arrays.sort(sources);
+        assertEquals(file2, sources[0].getFile());
+        assertEquals(file4, sources[1].getFile());
+        assertEquals(file1, sources[2].getFile());
+        assertEquals(file3, sources[3].getFile());
+    }
+
+    private static String rootName(SAXBuffer buffer) throws Exception {
+        final StringBuffer ret = new StringBuffer();
+        buffer.replay(new DefaultHandler() {
+            public void startElement(String uri, String localName, String qName, 
+                                     Attributes attrs) {
+                if (ret.length() == 0) {
+                    ret.append(qName);
+                }
+            }
+        });
+        return ret.toString();
+    }
+
+    private static void writeFile(File file, String content) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+
+    private static void writeRecord(DataOutputStream out, String name, String doc) 
+        throws Exception {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(record);
+        data.writeUTF(name);
+        data.write(doc.getBytes("UTF-8"));
+        out.writeInt(record.size());
+        record.writeTo(out);
+    }
+}
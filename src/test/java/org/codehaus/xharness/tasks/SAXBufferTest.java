@@ -0,0 +1,98 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.stream.StreamResult;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class SAXBufferTest extends TestCase {
+    public SAXBufferTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = SAXBufferTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = SAXBufferTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(SAXBufferTest.class);
+    }
+
+    public void testReplay() throws Exception {
+        String xml = "<test orderid=\"1\" result=\"Passed\" name=\"foo\">"
+            + "<description>a &amp; b</description><output level=\"2\">x\ny</output></test>";
+        SAXBuffer buffer = new SAXBuffer();
+        XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        reader.setContentHandler(buffer);
+        reader.parse(new InputSource(new StringReader(xml)));
+
+        ByteArrayOutputStream direct = new ByteArrayOutputStream();
+        ResultMerger merger = new ResultMerger(new StreamResult(direct), new ArrayList());
+        merger.merge(new InputSource(new StringReader(xml)));
+        merger.close();
+
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        merger = new ResultMerger(new StreamResult(replayed), new ArrayList());
+        merger.merge(buffer);
+        merger.merge(buffer);
+        merger.close();
+
+        String expected = direct.toString("UTF-8");
+        String element = expected.substring(expected.indexOf("<test"), 
+                                            expected.indexOf("</results>"));
+        assertEquals("Wrong replay", 
+                     expected.replaceAll("</results>", element + "</results>"), 
+                     replayed.toString("UTF-8"));
+    }
+
+    public void testWriteRead() throws Exception {
+        String xml = "<test orderid=\"1\" name=\"f\u00f6\u00f6\"><description/>"
+            + "<output level=\"2\">x\ny</output></test>";
+        SAXBuffer buffer = new SAXBuffer();
+        XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+        reader.setContentHandler(buffer);
+        reader.parse(new InputSource(new StringReader(xml)));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        buffer.write(out);
+        out.close();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        SAXBuffer copy = SAXBuffer.read(in);
+        assertEquals("Data left", -1, in.read());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ResultMerger merger = new ResultMerger(new StreamResult(expected), new ArrayList());
+        merger.merge(buffer);
+        merger.close();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        merger = new ResultMerger(new StreamResult(actual), new ArrayList());
+        merger.merge(copy);
+        merger.close();
+        assertEquals("Wrong copy", expected.toString("UTF-8"), actual.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,172 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.RuntimeConfigurable;
+import org.apache.tools.ant.UnknownElement;
+
+import org.codehaus.xharness.log.TestHistory;
+import org.codehaus.xharness.testutil.TempDir;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ScheduleTest extends TestCase {
+    public ScheduleTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ScheduleTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ScheduleTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ScheduleTest.class);
+    }
+
+    public void testLongestFirst() throws Exception {
+        List tests = createTests(new String[] {"a", "b", "c", "d", "e"});
+        TestHistory history = createHistory("suite/", new String[] {"a", "b", "c", "d"},
+                                            new long[] {10, 30, 20, 30});
+        history.setDefaultEstimate(15);
+        assertEquals("Wrong order", 
+                     "[b, d, c, e, a]", 
+                     getNames(Schedule.longestFirst(tests, "suite", history)).toString());
+        assertEquals("Wrong order", 
+                     "[a, b, c, d, e]", 
+                     getNames(Schedule.longestFirst(tests, "other", history)).toString());
+    }
+
+    public void testAssign() throws Exception {
+        List tests = createTests(new String[] {"a", "b", "c", "d", "e"});
+        TestHistory history = createHistory("", new String[] {"a", "b", "c", "d", "e"},
+                                            new long[] {70, 30, 40, 50, 60});
+        int[] bins = Schedule.assign(tests, null, history, 2);
+        assertEquals("Wrong bins", "[0, 0, 0, 1, 1]", toString(bins));
+        bins = Schedule.assign(tests, null, history, 3);
+        assertEquals("Wrong bins", "[0, 1, 2, 2, 1]", toString(bins));
+    }
+
+    public void testAssignSameEstimates() throws Exception {
+        List tests = createTests(new String[] {"a", "b", "c", "d", "e"});
+        int[] bins = Schedule.assign(tests, "suite", new TestHistory(), 2);
+        assertEquals("Wrong bins", "[0, 1, 0, 1, 0]", toString(bins));
+    }
+
+    public void testGetTestName() throws Exception {
+        UnknownElement named = new UnknownElement("testcase");
+        RuntimeConfigurable wrapper = new RuntimeConfigurable(named, "testcase");
+        wrapper.setAttribute("name", "foo");
+        named.setRuntimeConfigurableWrapper(wrapper);
+        assertEquals("Wrong name", "foo", Schedule.getTestName(named));
+
+        UnknownElement unnamed = new UnknownElement("testcase");
+        unnamed.setRuntimeConfigurableWrapper(new RuntimeConfigurable(unnamed, "testcase"));
+        assertNull("Wrong name", Schedule.getTestName(unnamed));
+        assertNull("Wrong name", Schedule.getTestName(new TestCaseTask()));
+
+        Project project = new Project();
+        project.setProperty("variant", "fast");
+        assertEquals("Wrong name", "test-fast", 
+                     Schedule.getTestName(createTest(project, "test-${variant}")));
+    }
+
+    public void testLongestFirstDuplicateNames() throws Exception {
+        List tests = createTests(new String[] {"a", "b", "A"});
+        TestHistory history = createHistory("suite/", new String[] {"a", "A_1", "b"},
+                                            new long[] {10, 30, 20});
+        List ordered = Schedule.longestFirst(tests, "suite", history);
+        assertSame("Wrong order", tests.get(2), ordered.get(0));
+        assertSame("Wrong order", tests.get(1), ordered.get(1));
+        assertSame("Wrong order", tests.get(0), ordered.get(2));
+        
+        Map counts = new HashMap();
+        ordered = Schedule.longestFirst(tests.subList(0, 1), "suite", history, counts);
+        assertSame("Wrong order", tests.get(0), ordered.get(0));
+        ordered = Schedule.longestFirst(tests.subList(1, 3), "suite", history, counts);
+        assertSame("Wrong order", tests.get(2), ordered.get(0));
+    }
+
+    public void testLongestFirstPropertyNames() throws Exception {
+        Project project = new Project();
+        project.setProperty("variant", "fast");
+        List tests = new ArrayList();
+        tests.add(createTest(project, "a-${variant}"));
+        tests.add(createTest(project, "b-${variant}"));
+        TestHistory history = createHistory("suite/", new String[] {"a-fast", "b-fast"},
+                                            new long[] {10, 20});
+        history.setDefaultEstimate(15);
+        List ordered = Schedule.longestFirst(tests, "suite", history);
+        assertSame("Wrong order", tests.get(1), ordered.get(0));
+        assertSame("Wrong order", tests.get(0), ordered.get(1));
+        assertEquals("Wrong bins", "[1, 0]", toString(Schedule.assign(tests, "suite", history, 2)));
+    }
+
+    private static UnknownElement createTest(Project project, String name) {
+        UnknownElement test = new UnknownElement("testcase");
+        test.setProject(project);
+        RuntimeConfigurable wrapper = new RuntimeConfigurable(test, "testcase");
+        wrapper.setAttribute("name", name);
+        test.setRuntimeConfigurableWrapper(wrapper);
+        return test;
+    }
+
+    private static List createTests(String[] names) {
+        List ret = new ArrayList();
+        for (int i = 0; i < names.length; i++) {
+            TestCaseTask test = new TestCaseTask();
+            test.setName(names[i]);
+            ret.add(test);
+        }
+        return ret;
+    }
+
+    private static TestHistory createHistory(String prefix, String[] names, long[] times)
+        throws Exception {
+        File dir = TempDir.createTempDir();
+        try {
+            TestHistory history = new TestHistory();
+            for (int i = 0; i < names.length; i++) {
+                history.record(prefix + names[i], times[i]);
+            }
+            history.save(dir, true);
+            history.load(dir);
+            return history;
+        } finally {
+            TempDir.removeTempFile(dir);
+        }
+    }
+
+    private static List getNames(List tests) {
+        List ret = new ArrayList();
+        for (int i = 0; i < tests.size(); i++) {
+            ret.add(((TestCaseTask)tests.get(i)).getName());
+        }
+        return ret;
+    }
+
+    private static String toString(int[] values) {
+        List ret = new ArrayList();
+        for (int i = 0; i < values.length; i++) {
+            ret.add(new Integer(values[i]));
+        }
+        return ret.toString();
+    }
+}
@@ -0,0 +1,175 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.RuntimeConfigurable;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.UnknownElement;
+
+import org.codehaus.xharness.log.TaskRegistry;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ShardTest extends TestCase {
+    public ShardTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ShardTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = ShardTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ShardTest.class);
+    }
+
+    public void testIndexOf() throws Exception {
+        assertEquals("Wrong shard", 0, Shard.indexOf("alpha", 2));
+        assertEquals("Wrong shard", 1, Shard.indexOf("gamma", 2));
+        for (int i = 0; i < 100; i++) {
+            int index = Shard.indexOf("test" + i, 3);
+            assertTrue("Invalid shard " + index, index >= 0 && index < 3);
+            assertEquals("Shard not deterministic", index, Shard.indexOf("test" + i, 3));
+        }
+    }
+
+    public void testGetName() throws Exception {
+        UnknownElement named = new UnknownElement("testcase");
+        RuntimeConfigurable wrapper = new RuntimeConfigurable(named, "testcase");
+        wrapper.setAttribute("name", "foo");
+        named.setRuntimeConfigurableWrapper(wrapper);
+        assertEquals("Wrong name", "foo", Shard.getName(named, 3));
+
+        UnknownElement unnamed = new UnknownElement("testcase");
+        unnamed.setRuntimeConfigurableWrapper(new RuntimeConfigurable(unnamed, "testcase"));
+        assertEquals("Wrong name", "#3", Shard.getName(unnamed, 3));
+
+        TestGroupTask group = new TestGroupTask();
+        group.setName("bar");
+        assertEquals("Wrong name", "bar", Shard.getName(group, 1));
+    }
+
+    public void testGetResultsdir() throws Exception {
+        File dir = new File("results");
+        assertEquals("Wrong directory", new File(dir, "shard-2"), Shard.getResultsdir(dir, 2));
+    }
+
+    public void testCommandline() throws Exception {
+        Project project = new Project();
+        project.setUserProperty("ant.file", "build.xml");
+        project.setUserProperty("foo", "bar baz");
+        project.setUserProperty(TaskRegistry.CURRENT_TEST_DIR_PROPERY, "tests");
+        project.setUserProperty(Shard.INDEX_PROPERTY, "7");
+        Target target = new Target();
+        target.setName("suite");
+        XharnessTask task = new XharnessTask();
+        task.setProject(project);
+        task.setOwningTarget(target);
+
+        Shard shard = new Shard(task, 1, 42);
+        assertEquals("Wrong index", 1, shard.getIndex());
+        assertEquals("Wrong exit code", -1, shard.getExitCode());
+        List cmd = Arrays.asList(shard.getCommandline());
+        int main = cmd.indexOf("org.apache.tools.ant.Main");
+        assertTrue("No main class", main > 0);
+        assertEquals("Wrong argument", "-buildfile", cmd.get(main + 1));
+        assertEquals("Wrong argument", "build.xml", cmd.get(main + 2));
+        assertTrue("No user property", cmd.contains("-Dfoo=bar baz"));
+        assertTrue("No shard index", cmd.contains("-D" + Shard.INDEX_PROPERTY + "=1"));
+        assertTrue("No task id", cmd.contains("-D" + Shard.TASK_ID_PROPERTY + "=42"));
+        assertFalse("Old shard index", cmd.contains("-D" + Shard.INDEX_PROPERTY + "=7"));
+        assertFalse("Test directory passed", 
+                    cmd.contains("-D" + TaskRegistry.CURRENT_TEST_DIR_PROPERY + "=tests"));
+        assertEquals("Wrong target", "suite", cmd.get(cmd.size() - 1));
+    }
+
+    public void testCommandlineShardTarget() throws Exception {
+        Project project = new Project();
+        project.setUserProperty("ant.file", "build.xml");
+        Target target = new Target();
+        target.setName("test");
+        target.addDependency("compile");
+        Target shardTarget = new Target();
+        shardTarget.setName("test-shard");
+        project.addTarget(shardTarget);
+        XharnessTask task = new XharnessTask();
+        task.setProject(project);
+        task.setOwningTarget(target);
+        task.setShardtarget("test-shard");
+        
+        List cmd = Arrays.asList(new Shard(task, 0, 0).getCommandline());
+        assertEquals("Wrong target", "test-shard", cmd.get(cmd.size() - 1));
+        assertFalse("Owning target executed", cmd.contains("test"));
+        
+        shardTarget.addDependency("compile");
+        try {
+            new Shard(task, 0, 0).getCommandline();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", 
+                         "Unable to shard xharness: target test-shard has dependencies, "
+                         + "which every shard would execute again. Set shardtarget to a "
+                         + "target without dependencies that only contains the suite.", 
+                         be.getMessage());
+        }
+        
+        task.setShardtarget("foo");
+        try {
+            new Shard(task, 0, 0).getCommandline();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", 
+                         "Unable to shard xharness: target foo does not exist", 
+                         be.getMessage());
+        }
+    }
+    
+    public void testCommandlineTargetDependencies() throws Exception {
+        Project project = new Project();
+        project.setUserProperty("ant.file", "build.xml");
+        Target target = new Target();
+        target.setName("test");
+        target.addDependency("compile");
+        XharnessTask task = new XharnessTask();
+        task.setProject(project);
+        task.setOwningTarget(target);
+        try {
+            Shard.getTargetName(task);
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertTrue("Wrong message: " + be.getMessage(), 
+                       be.getMessage().startsWith(
+                           "Unable to shard xharness: target test has dependencies"));
+        }
+    }
+    
+    public void testCommandlineNoBuildFile() throws Exception {
+        XharnessTask task = new XharnessTask();
+        task.setProject(new Project());
+        try {
+            new Shard(task, 0, 0).getCommandline();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", 
+                         "Unable to shard xharness: build file unknown", 
+                         be.getMessage());
+        }
+    }
+}
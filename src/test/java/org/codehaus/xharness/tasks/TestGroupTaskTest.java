@@ -1,6 +1,8 @@
 package org.codehaus.xharness.tasks;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Location;
@@ -538,6 +540,48 @@ public class TestGroupTaskTest extends TestCase {
     }
     
     
+    public void testExecuteParallel() throws Exception {
+        Project proj = new Project();
+        List log = new ArrayList();
+        int[] running = new int[2];
+        TestGroupTask group = new TestGroupTask();
+        group.setProject(proj);
+        group.setParallel(2);
+        assertEquals("Wrong parallel", 2, group.getParallel());
+        group.addTask(new ConcurrentTestCase(proj, "t1", log, running, 2, null));
+        group.addTask(new ConcurrentTestCase(proj, "t2", log, running, 2, null));
+        group.addTask(new RecordingTask(proj, "task", log));
+        group.addTask(new ConcurrentTestCase(proj, "t3", log, running, 1, null));
+        group.execute();
+        assertEquals("Wrong number of children", 4, log.size());
+        assertEquals("Task executed early", "task", log.get(2));
+        assertEquals("Wrong child", "t3", log.get(3));
+    }
+
+    public void testExecuteParallelErrorOrder() throws Exception {
+        Project proj = new Project();
+        List log = new ArrayList();
+        int[] running = new int[2];
+        TestGroupTask group = new TestGroupTask();
+        group.setProject(proj);
+        group.setParallel(3);
+        group.addTask(new ConcurrentTestCase(proj, "t1", log, running, 3, 
+                                             new AssertionWarningException("w1")));
+        group.addTask(new ConcurrentTestCase(proj, "t2", log, running, 3, 
+                                             new BuildException("e2")));
+        group.addTask(new ConcurrentTestCase(proj, "t3", log, running, 3, 
+                                             new BuildException("e3")));
+        try {
+            group.execute();
+            fail("Expected BuildException");
+        } catch (AssertionWarningException awe) {
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", "Testcase t2 failed", be.getMessage());
+        }
+        assertEquals("Wrong number of children", 3, log.size());
+    }
+
     public void testSimilar() throws Exception {
         RuntimeConfigurable rc1 = new RuntimeConfigurable(null, "mocktask1");
         RuntimeConfigurable rc2 = new RuntimeConfigurable(null, "mocktask2");
@@ -611,4 +655,66 @@ public class TestGroupTaskTest extends TestCase {
         }
         return mockUke;
     }
+
+    private static class ConcurrentTestCase extends TestCaseTask {
+        private final List log;
+        private final int[] running;
+        private final int concurrency;
+        private final BuildException failure;
+
+        public ConcurrentTestCase(Project proj, String name, List list, int[] counter, 
+                                  int threads, BuildException ex) {
+            setProject(proj);
+            setName(name);
+            log = list;
+            running = counter;
+            concurrency = threads;
+            failure = ex;
+        }
+
+        public void execute() throws BuildException {
+            super.execute();
+            synchronized (running) {
+                running[0]++;
+                running[1] = Math.max(running[0], running[1]);
+                running.notifyAll();
+                long end = System.currentTimeMillis() + 10000;
+                while (running[1] < concurrency && System.currentTimeMillis() < end) {
+                    try {
+                        running.wait(100);
+                    } catch (InterruptedException e) {
+                        // continue waiting
+                    }
+                }
+                if (running[1] < concurrency) {
+                    throw new BuildException("Not executed in parallel");
+                }
+            }
+            synchronized (log) {
+                log.add(getName());
+            }
+            synchronized (running) {
+                running[0]--;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static class RecordingTask extends Task {
+        private final List log;
+
+        public RecordingTask(Project proj, String name, List list) {
+            setProject(proj);
+            setTaskName(name);
+            log = list;
+        }
+
+        public void execute() throws BuildException {
+            synchronized (log) {
+                log.add(getTaskName());
+            }
+        }
+    }
 }
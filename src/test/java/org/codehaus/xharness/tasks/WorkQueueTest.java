@@ -0,0 +1,99 @@
+package org.codehaus.xharness.tasks;
+
+import org.apache.tools.ant.BuildException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class WorkQueueTest extends TestCase {
+    public WorkQueueTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = WorkQueueTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = WorkQueueTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(WorkQueueTest.class);
+    }
+
+    public void testRunAll() throws Exception {
+        final int[] count = new int[1];
+        WorkQueue queue = new WorkQueue(3, 2);
+        for (int i = 0; i < 50; i++) {
+            queue.submit(new Runnable() {
+                public void run() {
+                    synchronized (count) {
+                        count[0]++;
+                    }
+                }
+            });
+        }
+        queue.close();
+        assertEquals("Wrong number of jobs", 50, count[0]);
+    }
+
+    public void testFailure() throws Exception {
+        final int[] count = new int[1];
+        final boolean[] submitted = new boolean[1];
+        WorkQueue queue = new WorkQueue(1, 10);
+        queue.submit(new Runnable() {
+            public void run() {
+                synchronized (submitted) {
+                    while (!submitted[0]) {
+                        try {
+                            submitted.wait();
+                        } catch (InterruptedException e) {
+                            // wait until submitted
+                        }
+                    }
+                }
+                throw new BuildException("foo");
+            }
+        });
+        queue.submit(new Runnable() {
+            public void run() {
+                count[0]++;
+            }
+        });
+        synchronized (submitted) {
+            submitted[0] = true;
+            submitted.notifyAll();
+        }
+        try {
+            queue.close();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", "foo", be.getMessage());
+        }
+        assertEquals("Pending job not run", 1, count[0]);
+    }
+
+    public void testSubmitAfterClose() throws Exception {
+        WorkQueue queue = new WorkQueue(2, 1);
+        queue.close();
+        try {
+            queue.submit(new Runnable() {
+                public void run() {
+                }
+            });
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", "The work queue has been closed", be.getMessage());
+        }
+    }
+}
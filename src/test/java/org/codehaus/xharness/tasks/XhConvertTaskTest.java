@@ -0,0 +1,161 @@
+package org.codehaus.xharness.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import org.codehaus.xharness.log.Result;
+import org.codehaus.xharness.testutil.TempDir;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+public class XhConvertTaskTest extends TestCase {
+    private File tempDir;
+
+    public XhConvertTaskTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("gui") != null) {
+            String[] newArgs = new String[args.length + 2];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = XhConvertTaskTest.class.getName();
+            newArgs[args.length + 1] = "-noloading";
+            junit.swingui.TestRunner.main(newArgs);
+        } else {
+            String[] newArgs = new String[args.length + 1];
+            System.arraycopy(args, 0, newArgs, 0, args.length);
+            newArgs[args.length] = XhConvertTaskTest.class.getName();
+            junit.textui.TestRunner.main(newArgs);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(XhConvertTaskTest.class);
+    }
+    
+    public void setUp() throws Exception {
+        tempDir = TempDir.createTempDir();
+    }
+    
+    public void tearDown() throws Exception {
+        TempDir.removeTempFile(tempDir);
+    }
+
+    public void testExecuteNoDir() throws Exception {
+        XhConvertTask task = new XhConvertTask();
+        try {
+            task.execute();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", "The dir attribute is required.", be.getMessage());
+        }
+    }
+
+    public void testExecute() throws Exception {
+        writeSegment(new File(tempDir, "results-0001.xhj"), 
+                     new String[] {"TASK_foo", "TASK_foo"}, 
+                     new String[] {"<task/>", "<task/>"});
+
+        XhConvertTask task = new XhConvertTask();
+        task.setProject(new Project());
+        task.setDir(tempDir);
+        task.execute();
+        assertTrue(new File(tempDir, "TASK_foo.xml").exists());
+        assertTrue(new File(tempDir, "TASK_foo_1.xml").exists());
+
+        File todir = new File(tempDir, "converted");
+        task.setTodir(todir);
+        task.execute();
+        assertEquals("Wrong number of files", 2, todir.list().length);
+    }
+
+    public void testExecuteOutputFiles() throws Exception {
+        writeSegment(new File(tempDir, "results-0001.xhj"), 
+                     new String[] {"TASK_foo"}, 
+                     new String[] {"<task><outputfile file=\"TASK_foo.out.gz\"/></task>"});
+        new FileOutputStream(new File(tempDir, "TASK_foo.out.gz")).close();
+
+        File todir = new File(tempDir, "converted");
+        XhConvertTask task = new XhConvertTask();
+        task.setProject(new Project());
+        task.setDir(tempDir);
+        task.setTodir(todir);
+        task.execute();
+        assertTrue(new File(todir, "TASK_foo.xml").exists());
+        assertTrue(new File(todir, "TASK_foo.out.gz").exists());
+    }
+
+    public void testExecuteBinary() throws Exception {
+        writeBinary(new File(tempDir, "results-0001.xhb"), 
+                    new String[] {"foo", "foo"}, 
+                    new int[] {1, 2});
+
+        XhConvertTask task = new XhConvertTask();
+        task.setProject(new Project());
+        task.setDir(tempDir);
+        task.execute();
+        assertTrue(new File(tempDir, "TEST_bar_foo.xml").exists());
+        assertTrue(new File(tempDir, "TEST_bar_foo_1.xml").exists());
+    }
+
+    private static void writeSegment(File file, String[] names, String[] docs) 
+        throws Exception {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0x58484a31);
+        for (int i = 0; i < names.length; i++) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(record);
+            data.writeUTF(names[i]);
+            data.write(docs[i].getBytes("UTF-8"));
+            out.writeInt(record.size());
+            record.writeTo(out);
+        }
+        out.close();
+    }
+
+    private static void writeBinary(File file, String[] names, int[] orderIds) 
+        throws Exception {
+        List strings = new ArrayList();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0x58484231);
+        for (int i = 0; i < names.length; i++) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            record.write(Result.TESTCASE);
+            record.write(Result.PASSED);
+            record.write(orderIds[i]);
+            record.write(0);
+            writeInterned(record, strings, "bar");
+            writeInterned(record, strings, names[i]);
+            writeInterned(record, strings, "bar/" + names[i]);
+            record.write(new byte[] {0, 0, 0, 0});
+            out.write(record.size());
+            out.write(0);
+            record.writeTo(out);
+        }
+        out.close();
+    }
+
+    private static void writeInterned(ByteArrayOutputStream out, List strings, String str) 
+        throws Exception {
+        int index = strings.indexOf(str);
+        if (index >= 0) {
+            out.write(index + 1);
+        } else {
+            strings.add(str);
+            out.write(strings.size());
+            out.write(str.length() + 1);
+            out.write(str.getBytes("UTF-8"));
+        }
+    }
+}
@@ -88,6 +88,21 @@ public class XhExecBgTaskTest extends TestCase {
         assertEquals("Wrong process name", PROC_NAME, task.getProcessName());
     }
 
+    public void testRetention() throws Exception {
+        XhExecBgTask task = new XhExecBgTask();
+        task.setKeephead(2);
+        task.setKeeptail(3);
+        LineBuffer buffer = new LineBuffer();
+        task.enableLogging(buffer, 0, 1);
+        for (int i = 0; i < 5000; i++) {
+            buffer.logLine(0, "line " + i);
+        }
+        assertTrue("Output not dropped", buffer.getLineCount() < 5000);
+        assertEquals(5000, buffer.getLineCount(0));
+        assertEquals("line 0", buffer.toStringArray(0)[0]);
+        assertEquals("line 4999", buffer.toStringArray(0)[buffer.getLineCount() - 2]);
+    }
+
     public void testExecute() throws Exception {
         Project project = new Project();
 
@@ -9,6 +9,7 @@ import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Sequential;
 import org.apache.tools.ant.types.Path;
 
+import org.codehaus.xharness.log.LineBuffer;
 import org.codehaus.xharness.procutil.KillableExecuteWatchdog;
 import org.codehaus.xharness.procutil.ProcessRegistry;
 import org.codehaus.xharness.testutil.ProcessTester;
@@ -74,6 +75,21 @@ public class XhJavaBgTaskTest extends TestCase {
         assertEquals("Wrong process name", PROC_NAME, task.getProcessName());
     }
     
+    public void testRetention() throws Exception {
+        XhJavaBgTask task = new XhJavaBgTask();
+        task.setKeephead(2);
+        task.setKeeptail(3);
+        LineBuffer buffer = new LineBuffer();
+        task.enableLogging(buffer, 0, 1);
+        for (int i = 0; i < 5000; i++) {
+            buffer.logLine(0, "line " + i);
+        }
+        assertTrue("Output not dropped", buffer.getLineCount() < 5000);
+        assertEquals(5000, buffer.getLineCount(0));
+        assertEquals("line 0", buffer.toStringArray(0)[0]);
+        assertEquals("line 4999", buffer.toStringArray(0)[buffer.getLineCount() - 2]);
+    }
+
     public void testExecute() throws Exception {
         TestProject project = new TestProject();
         
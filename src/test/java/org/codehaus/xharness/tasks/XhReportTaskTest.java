@@ -1,6 +1,15 @@
 package org.codehaus.xharness.tasks;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
@@ -9,7 +18,7 @@ import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.optional.junit.AggregateTransformer;
 import org.apache.tools.ant.types.FileSet;
 
-import org.codehaus.xharness.TestHelper;
+import org.codehaus.xharness.log.Result;
 import org.codehaus.xharness.tasks.XhAggregateTransformer;
 import org.codehaus.xharness.testutil.TempDir;
 
@@ -17,6 +26,7 @@ import org.easymock.MockControl;
 import org.easymock.classextension.MockClassControl;
 
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -213,6 +223,42 @@ public class XhReportTaskTest extends TestCase {
 //        f2Ctrl.verify();
     }
     
+    public void testCreateDocumentFromJournal() throws Exception {
+        final File segment = new File(tempDir, "results-0001.xhj");
+        writeSegment(segment, 
+                     new String[] {"TEST_foo", "TEST_foo_1", "TEST_bar"}, 
+                     new String[] {"<test result=\"Passed\" parent=\"bar\" name=\"foo\"/>", 
+                                   "<test result=\"Failed\" parent=\"bar\" name=\"foo\"/>", 
+                                   "<test"});
+        XhReportTask task = new XhReportTask() {
+            protected File[] getFiles() {
+                return new File[] {segment};
+            }
+        };
+        task.setProject(new Project());
+        Element doc = task.createDocument();
+        assertEquals("Wrong document name", "results", doc.getNodeName());
+        assertEquals("Wrong number of results", 2, doc.getElementsByTagName("test").getLength());
+    }
+    
+    public void testCreateDocumentFromBinary() throws Exception {
+        final File binary = new File(tempDir, "results-0001.xhb");
+        writeBinary(binary, new String[] {"foo", "spam", "eggs"}, new int[] {3, 1, 2});
+        XhReportTask task = new XhReportTask() {
+            protected File[] getFiles() {
+                return new File[] {binary};
+            }
+        };
+        task.setProject(new Project());
+        task.setTodir(tempDir);
+        Element doc = task.createDocument();
+        NodeList tests = doc.getElementsByTagName("test");
+        assertEquals("Wrong number of results", 3, tests.getLength());
+        assertEquals("Wrong order", "spam", ((Element)tests.item(0)).getAttribute("name"));
+        assertEquals("Wrong order", "foo", ((Element)tests.item(2)).getAttribute("name"));
+        assertEquals("Export not deleted", 1, tempDir.list().length);
+    }
+    
     public void testExecute() throws Exception {
         MockControl dsCtrl = MockClassControl.createControl(DirectoryScanner.class);
         DirectoryScanner scanner = (DirectoryScanner)dsCtrl.getMock();
@@ -247,10 +293,8 @@ public class XhReportTaskTest extends TestCase {
         try {
             task.execute();
             fail("Expected BuildException");
-        } catch (NullPointerException npe) {
-            assertTrue(!TestHelper.isAnt16());
         } catch (BuildException be) {
-            assertTrue(TestHelper.isAnt16());
+            // expected
         }
         outFiles = tempDir.listFiles();
         assertEquals("Invalid no. files in outout dir", 1, outFiles.length);
@@ -262,4 +306,227 @@ public class XhReportTaskTest extends TestCase {
         dsCtrl.verify();
         prCtrl.verify();
     }
+
+    public void testExecuteReport() throws Exception {
+        File xmlDir = new File(tempDir, "xml");
+        xmlDir.mkdir();
+        writeFile(new File(xmlDir, "TEST_foo.xml"), 
+                  "<test result=\"Passed\" parent=\"bar\" name=\"foo\" time=\"0.0\"/>");
+        writeFile(new File(xmlDir, "TEST_spam.xml"), 
+                  "<test result=\"Failed\" parent=\"bar\" name=\"spam\" time=\"0.0\">"
+                  + "<description>eggs &amp; ham</description></test>");
+        File htmlDir = new File(tempDir, "html");
+        htmlDir.mkdir();
+        Project project = new Project();
+        FileSet fileset = new FileSet();
+        fileset.setProject(project);
+        fileset.setDir(xmlDir);
+        fileset.setIncludes("*.xml");
+
+        XhReportTask task = new XhReportTask();
+        task.setProject(project);
+        task.addFileSet(fileset);
+        task.setTodir(tempDir);
+        task.setFailOnError(true);
+        task.createReport().setTodir(htmlDir);
+        try {
+            task.execute();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", "Failed tests detected!", be.getMessage());
+        }
+        File aggregate = new File(tempDir, XhReportTask.DEFAULT_FILENAME);
+        Element doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(aggregate).getDocumentElement();
+        assertEquals("Wrong document name", "results", doc.getNodeName());
+        assertEquals("Wrong number of results", 2, doc.getElementsByTagName("test").getLength());
+        assertEquals("Wrong description", "eggs & ham", 
+                     doc.getElementsByTagName("description").item(0).getFirstChild()
+                        .getNodeValue());
+        assertTrue("Missing report", new File(htmlDir, "index.html").exists());
+    }
+
+    public void testExecuteThreads() throws Exception {
+        File xmlDir = new File(tempDir, "xml");
+        xmlDir.mkdir();
+        final File[] files = new File[20];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(xmlDir, "TEST_" + i + ".xml");
+            writeFile(files[i], "<test orderid=\"" + (files.length - i) + "\" result=\"" 
+                      + (i % 3 == 0 ? "Failed" : "Passed") + "\" name=\"t" + i + "\"/>");
+        }
+        String[] aggregates = new String[3];
+        for (int threads = 1; threads <= 3; threads++) {
+            XhReportTask task = new XhReportTask() {
+                protected File[] getFiles() {
+                    return files;
+                }
+            };
+            task.setProject(new Project());
+            task.setTodir(tempDir);
+            task.setTofile("aggregate" + threads + ".xml");
+            task.setThreads(threads);
+            task.execute();
+            
+            File aggregate = new File(tempDir, "aggregate" + threads + ".xml");
+            Element doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(aggregate).getDocumentElement();
+            NodeList tests = doc.getElementsByTagName("test");
+            assertEquals("Wrong number of results", files.length, tests.getLength());
+            for (int i = 0; i < files.length; i++) {
+                assertEquals("Wrong order", 
+                             "t" + (files.length - 1 - i), 
+                             ((Element)tests.item(i)).getAttribute("name"));
+            }
+            aggregates[threads - 1] = readFile(aggregate);
+        }
+        assertEquals("Output differs", aggregates[0], aggregates[1]);
+        assertEquals("Output differs", aggregates[0], aggregates[2]);
+    }
+
+    public void testExecuteThreadsMalformed() throws Exception {
+        File xmlDir = new File(tempDir, "xml");
+        xmlDir.mkdir();
+        final File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(xmlDir, "TEST_" + i + ".xml");
+        }
+        writeFile(files[0], "<test orderid=\"1\" result=\"Passed\" name=\"t0\"/>");
+        writeFile(files[1], "<test orderid=\"2\" result=\"Failed\" name=\"bad\">"
+                  + "<output>foo</outp");
+        writeFile(files[2], "<test orderid=\"3\" result=\"Passed\" name=\"t2\"/>");
+        String[] aggregates = new String[2];
+        int[] threads = new int[] {1, 4};
+        for (int i = 0; i < threads.length; i++) {
+            XhReportTask task = new XhReportTask() {
+                protected File[] getFiles() {
+                    return files;
+                }
+            };
+            task.setProject(new Project());
+            task.setTodir(tempDir);
+            task.setTofile("aggregate" + threads[i] + ".xml");
+            task.setThreads(threads[i]);
+            task.execute();
+            
+            File aggregate = new File(tempDir, "aggregate" + threads[i] + ".xml");
+            Element doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(aggregate).getDocumentElement();
+            NodeList tests = doc.getElementsByTagName("test");
+            assertEquals("Wrong number of results", 2, tests.getLength());
+            assertEquals("Wrong result", "t0", ((Element)tests.item(0)).getAttribute("name"));
+            assertEquals("Wrong result", "t2", ((Element)tests.item(1)).getAttribute("name"));
+            assertEquals("Malformed output merged", 
+                         0, 
+                         doc.getElementsByTagName("output").getLength());
+            aggregates[i] = readFile(aggregate);
+        }
+        assertEquals("Output differs", aggregates[0], aggregates[1]);
+    }
+
+    public void testExecuteCache() throws Exception {
+        File xmlDir = new File(tempDir, "xml");
+        xmlDir.mkdir();
+        final File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(xmlDir, "TEST_" + i + ".xml");
+            writeFile(files[i], "<test orderid=\"" + i + "\" name=\"t" + i + "\"/>");
+        }
+        File cacheFile = new File(tempDir, "results.cache");
+        XhReportTask task = new XhReportTask() {
+            protected File[] getFiles() {
+                return files;
+            }
+        };
+        task.setProject(new Project());
+        task.setTodir(tempDir);
+        task.setTofile("aggregate1.xml");
+        task.setCachefile(cacheFile);
+        task.execute();
+        assertTrue("No cache", cacheFile.exists());
+
+        // an unchanged file is taken from the cache, even if its content differs
+        long modified = files[0].lastModified();
+        writeFile(files[0], "<test orderid=\"0\" name=\"x0\"/>");
+        files[0].setLastModified(modified);
+        writeFile(files[1], "<test orderid=\"1\" name=\"changed\"/>");
+        files[1].setLastModified(modified + 10000);
+        task.setTofile("aggregate2.xml");
+        task.execute();
+
+        Element doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new File(tempDir, "aggregate2.xml")).getDocumentElement();
+        NodeList tests = doc.getElementsByTagName("test");
+        assertEquals("Wrong number of results", 3, tests.getLength());
+        assertEquals("Wrong result", "t0", ((Element)tests.item(0)).getAttribute("name"));
+        assertEquals("Wrong result", "changed", ((Element)tests.item(1)).getAttribute("name"));
+        assertEquals("Wrong result", "t2", ((Element)tests.item(2)).getAttribute("name"));
+    }
+
+    private static String readFile(File file) throws Exception {
+        StringBuffer ret = new StringBuffer();
+        FileReader reader = new FileReader(file);
+        char[] buf = new char[1024];
+        for (int len = reader.read(buf); len > 0; len = reader.read(buf)) {
+            ret.append(buf, 0, len);
+        }
+        reader.close();
+        return ret.toString();
+    }
+
+    private static void writeFile(File file, String content) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+
+    private static void writeSegment(File file, String[] names, String[] docs) 
+        throws Exception {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0x58484a31);
+        for (int i = 0; i < names.length; i++) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(record);
+            data.writeUTF(names[i]);
+            data.write(docs[i].getBytes("UTF-8"));
+            out.writeInt(record.size());
+            record.writeTo(out);
+        }
+        out.close();
+    }
+
+    private static void writeBinary(File file, String[] names, int[] orderIds) 
+        throws Exception {
+        List strings = new ArrayList();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0x58484231);
+        for (int i = 0; i < names.length; i++) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            record.write(Result.TESTCASE);
+            record.write(Result.PASSED);
+            record.write(orderIds[i]);
+            record.write(0);
+            writeInterned(record, strings, "bar");
+            writeInterned(record, strings, names[i]);
+            writeInterned(record, strings, "bar/" + names[i]);
+            record.write(new byte[] {0, 0, 0, 0});
+            out.write(record.size());
+            out.write(0);
+            record.writeTo(out);
+        }
+        out.close();
+    }
+
+    private static void writeInterned(ByteArrayOutputStream out, List strings, String str) 
+        throws Exception {
+        int index = strings.indexOf(str);
+        if (index >= 0) {
+            out.write(index + 1);
+        } else {
+            strings.add(str);
+            out.write(strings.size());
+            out.write(str.length() + 1);
+            out.write(str.getBytes("UTF-8"));
+        }
+    }
 }
@@ -1,12 +1,17 @@
 package org.codehaus.xharness.tasks;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Location;
 import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
 import org.apache.tools.ant.Task;
 
+import org.codehaus.xharness.log.TestHistory;
 import org.codehaus.xharness.testutil.TempDir;
 
 import org.easymock.MockControl;
@@ -95,6 +100,149 @@ public class XharnessTaskTest extends TestCase {
         ctrl.verify();
     }
     
+    public void testShardAttributes() throws Exception {
+        Project project = new Project();
+        XharnessTask xhTask = new XharnessTask();
+        xhTask.setProject(project);
+        xhTask.setResultsdir(resultsDir);
+        
+        assertEquals("Invalid shards", 1, xhTask.getShards());
+        assertEquals("Invalid shard index", -1, xhTask.getShardindex());
+        assertNull("Invalid shard target", xhTask.getShardtarget());
+        xhTask.setShardtarget("shard");
+        assertEquals("Invalid shard target", "shard", xhTask.getShardtarget());
+        assertFalse("Task is shard", xhTask.isShard());
+        
+        project.setUserProperty(Shard.INDEX_PROPERTY, "1");
+        assertEquals("Invalid shard index", 1, xhTask.getShardindex());
+        assertFalse("Task is shard", xhTask.isShard());
+        assertEquals("Invalid results dir", resultsDir, xhTask.getResultsdir());
+        
+        xhTask.setShards(2);
+        assertTrue("Task is no shard", xhTask.isShard());
+        assertEquals("Invalid results dir", 
+                     new File(resultsDir, "shard-1"), 
+                     xhTask.getResultsdir());
+        
+        xhTask.setShardindex(0);
+        assertEquals("Invalid shard index", 0, xhTask.getShardindex());
+        assertEquals("Invalid results dir", 
+                     new File(resultsDir, "shard-0"), 
+                     xhTask.getResultsdir());
+    }
+    
+    public void testExecuteInvalidShard() throws Exception {
+        XharnessTask xhTask = new XharnessTask();
+        xhTask.setProject(new Project());
+        xhTask.setResultsdir(resultsDir);
+        xhTask.setShards(2);
+        xhTask.setShardindex(2);
+        try {
+            xhTask.execute();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertEquals("Wrong message", 
+                         "Invalid shard index 2 for 2 shards", 
+                         be.getMessage());
+        }
+    }
+    
+    public void testExecuteShardsTargetDependencies() throws Exception {
+        Project project = new Project();
+        project.init();
+        Target target = new Target();
+        target.setName("test");
+        target.addDependency("compile");
+        XharnessTask xhTask = new XharnessTask();
+        xhTask.setProject(project);
+        xhTask.setOwningTarget(target);
+        xhTask.setName("suite");
+        xhTask.setResultsdir(resultsDir);
+        xhTask.setShards(2);
+        try {
+            xhTask.execute();
+            fail("Expected BuildException");
+        } catch (BuildException be) {
+            assertTrue("Wrong message: " + be.getMessage(), 
+                       be.getMessage().indexOf("target test has dependencies") > 0);
+        }
+        assertFalse("Shard started", new File(resultsDir, "shard-0").exists());
+    }
+    
+    public void testExecuteShard() throws Exception {
+        Project project = new Project();
+        project.init();
+        project.setUserProperty(Shard.TASK_ID_PROPERTY, "10");
+        List executed = new ArrayList();
+        
+        XharnessTask xhTask = new XharnessTask();
+        xhTask.setProject(project);
+        xhTask.setName("suite");
+        xhTask.setResultsdir(resultsDir);
+        xhTask.setShards(2);
+        xhTask.setShardindex(1);
+        xhTask.addTask(new RecordingTestCase(project, "alpha", executed));
+        xhTask.addTask(new RecordingTestCase(project, "gamma", executed));
+        xhTask.execute();
+        
+        assertEquals("Wrong tests executed", 1, executed.size());
+        assertEquals("Wrong test executed", "gamma", executed.get(0));
+        assertTrue("No shard results", new File(resultsDir, "shard-1").isDirectory());
+        assertFalse("Suite result written", 
+                    new File(resultsDir, "shard-1/XHARNESS_suite.xml").exists());
+    }
+    
+    public void testExecuteLongestFirst() throws Exception {
+        Project project = new Project();
+        project.init();
+        writeHistory("suite/alpha=10\nsuite/beta=30\nsuite/gamma=20\n");
+        List executed = new ArrayList();
+        
+        XharnessTask xhTask = new XharnessTask();
+        xhTask.setProject(project);
+        xhTask.setName("suite");
+        xhTask.setResultsdir(resultsDir);
+        xhTask.setParallel(2);
+        xhTask.addTask(new RecordingTestCase(project, "alpha", executed));
+        xhTask.addTask(new RecordingTestCase(project, "beta", executed));
+        xhTask.addTask(new RecordingTestCase(project, "gamma", executed));
+        xhTask.addTask(new RecordingTestCase(project, "delta", executed));
+        xhTask.execute();
+        
+        assertEquals("Wrong order", "[beta, gamma, delta, alpha]", executed.toString());
+        TestHistory history = new TestHistory();
+        history.load(resultsDir);
+        history.setDefaultEstimate(12345);
+        assertTrue("Duration not recorded", history.getEstimate("suite/alpha") < 10);
+        assertTrue("Duration not recorded", history.getEstimate("suite/delta") < 12345);
+    }
+    
+    public void testExecuteShardByHistory() throws Exception {
+        Project project = new Project();
+        project.init();
+        writeHistory("suite/alpha=30\nsuite/beta=20\nsuite/gamma=10\nsuite/delta=5\n");
+        List executed = new ArrayList();
+        
+        XharnessTask xhTask = new XharnessTask();
+        xhTask.setProject(project);
+        xhTask.setName("suite");
+        xhTask.setResultsdir(resultsDir);
+        xhTask.setShards(2);
+        xhTask.setShardindex(1);
+        xhTask.addTask(new RecordingTestCase(project, "alpha", executed));
+        xhTask.addTask(new RecordingTestCase(project, "beta", executed));
+        xhTask.addTask(new RecordingTestCase(project, "gamma", executed));
+        xhTask.addTask(new RecordingTestCase(project, "delta", executed));
+        xhTask.execute();
+        
+        assertEquals("Wrong tests executed", "[beta, gamma]", executed.toString());
+        TestHistory history = new TestHistory();
+        history.load(new File(resultsDir, "shard-1"));
+        history.setDefaultEstimate(12345);
+        assertTrue("Duration not recorded", history.getEstimate("suite/beta") < 20);
+        assertEquals("Wrong shard history", 12345, history.getEstimate("suite/alpha"));
+    }
+    
     public void testExecuteNoResultsDir() throws Exception {
         XharnessTask xhTask = new XharnessTask();
         try {
@@ -160,4 +308,24 @@ public class XharnessTaskTest extends TestCase {
         taskCtrl.verify();
         ctrl.verify();
     }
+
+    private void writeHistory(String history) throws Exception {
+        FileOutputStream out = new FileOutputStream(new File(resultsDir, "xharness.history"));
+        out.write(history.getBytes("ISO-8859-1"));
+        out.close();
+    }
+    
+    private static class RecordingTestCase extends TestCaseTask {
+        private final List executed;
+        
+        public RecordingTestCase(Project project, String name, List list) {
+            setProject(project);
+            setName(name);
+            executed = list;
+        }
+        
+        public void execute() {
+            executed.add(getName());
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package org.codehaus.xharness.types;
+
+import junit.framework.TestCase;
+
+import org.codehaus.xharness.log.LineBuffer;
+
+public class OutputContextTest extends TestCase {
+    public void testNesting() {
+        LineBuffer outer = new LineBuffer();
+        LineBuffer inner = new LineBuffer();
+        assertNull("Unexpected context", OutputContext.current());
+        
+        OutputContext outerContext = OutputContext.enter(outer);
+        assertSame("Wrong context", outerContext, OutputContext.current());
+        assertSame("Wrong subsection", outer, OutputContext.current().getLineBuffer());
+        
+        OutputContext innerContext = OutputContext.enter(inner);
+        assertSame("Wrong context", innerContext, OutputContext.current());
+        assertSame("Wrong subsection", inner, OutputContext.current().getLineBuffer());
+        
+        innerContext.exit();
+        assertSame("Outer context not restored", outerContext, OutputContext.current());
+        outerContext.exit();
+        assertNull("Context not cleared", OutputContext.current());
+    }
+    
+    public void testPerThread() throws Exception {
+        final LineBuffer buffer = new LineBuffer();
+        final Object[] seen = new Object[2];
+        OutputContext context = OutputContext.enter(new LineBuffer());
+        try {
+            Thread thread = new Thread() {
+                public void run() {
+                    seen[0] = OutputContext.current();
+                    OutputContext threadContext = OutputContext.enter(buffer);
+                    seen[1] = OutputContext.current().getLineBuffer();
+                    threadContext.exit();
+                }
+            };
+            thread.start();
+            thread.join();
+            assertNull("Context visible in other thread", seen[0]);
+            assertSame("Wrong subsection in other thread", buffer, seen[1]);
+            assertSame("Context changed by other thread", context, OutputContext.current());
+        } finally {
+            context.exit();
+        }
+    }
+}
@@ -5,6 +5,8 @@ import junit.framework.TestCase;
 import org.apache.tools.ant.ComponentHelper;
 import org.apache.tools.ant.IntrospectionHelper;
 import org.apache.tools.ant.UnknownElement;
+import org.apache.tools.ant.taskdefs.condition.And;
+import org.apache.tools.ant.taskdefs.condition.Not;
 import org.codehaus.xharness.exceptions.FatalException;
 import org.codehaus.xharness.log.LineBuffer;
 import org.codehaus.xharness.log.LogPriority;
@@ -482,6 +484,61 @@ public class SubSectionTest extends TestCase {
                      + "<subsection> \"star\"", logLines[39]);
     }
     
+    public void testNestedSubSection() {
+        TestProject project = new TestProject();
+        
+        MockControl xhCtrl = MockClassControl.createNiceControl(XharnessTask.class);
+        XharnessTask task = (XharnessTask)xhCtrl.getMock();
+        task.getProject();
+        xhCtrl.setReturnValue(project);
+        
+        MockControl tlCtrl = MockClassControl.createControl(TaskLogger.class);
+        TaskLogger logger = (TaskLogger)tlCtrl.getMock();
+        logger.getLineBuffer();
+        tlCtrl.setDefaultReturnValue(buffer1);
+        logger.getFullName();
+        tlCtrl.setDefaultReturnValue("foo/bar");
+        
+        OutputContains innerCondition = new OutputContains();
+        innerCondition.setProject(project);
+        innerCondition.addText("thinking");
+        
+        SubSection innerSubSection = new SubSection();
+        innerSubSection.setProject(project);
+        innerSubSection.setBeginRegex("Kept");
+        innerSubSection.setEndRegex("without");
+        innerSubSection.add(innerCondition);
+        
+        OutputContains outerCondition = new OutputContains();
+        outerCondition.setProject(project);
+        outerCondition.addText("carry on");
+        Not not = new Not();
+        not.add(outerCondition);
+        
+        And and = new And();
+        and.add(innerSubSection);
+        and.add(not);
+        
+        SubSection subSection = new SubSection();
+        subSection.setProject(project);
+        subSection.setBeginRegex("afraid");
+        subSection.setEndRegex("grew");
+        subSection.add(and);
+
+        xhCtrl.replay();
+        tlCtrl.replay();
+        TaskRegistry registry = null;
+        try {
+            registry = TaskRegistry.init(task);
+            registry.setCurrentTest(new MockTestLogger(registry, logger));
+            assertTrue("Condition evaled incorrectly", subSection.eval());
+        } finally {
+            MockTaskRegistry.reset();
+        }
+        xhCtrl.verify();
+        tlCtrl.verify();
+    }
+    
     public void testNestedConditionTypes() {
         TestProject project = new TestProject();
         SubSection subSection = new SubSection();